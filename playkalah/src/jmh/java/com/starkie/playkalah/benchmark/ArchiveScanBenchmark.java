@@ -0,0 +1,90 @@
+package com.starkie.playkalah.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.service.ArchiveStats;
+import com.starkie.playkalah.service.GameArchive;
+
+/**
+ * Totals an archive of 2 million random kalah(6,6) games in 8 segments, the win rates by opening pit and the average
+ * length.  Divide the games by the time of a scan for the games scanned a second, the segments are in the page cache
+ * after the first iteration.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArchiveScanBenchmark {
+
+	private static final int GAMES = 1 << 21;
+
+	private static final int SEGMENT_GAMES = GAMES / 8;
+
+	private Path directory;
+	private GameArchive archive;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("kalah-archive");
+		archive = new GameArchive(directory, SEGMENT_GAMES, 0, 0);
+		archive.open();
+		// a thousand different games archived over and over, only the scan is measured
+		Game[] games = new Game[1024];
+		Random random = new Random(5);
+		for (int i = 0; i < games.length; i++) {
+			Game game = new Game("bill", "bob", "g" + i);
+			Board board = game.getBoard();
+			while (!game.isGameCompleted()) {
+				int side = board.getSideToMove();
+				int pitNumber = 1 + random.nextInt(Board.DEFAULT_PITS);
+				while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					pitNumber = pitNumber == Board.DEFAULT_PITS ? 1 : pitNumber + 1;
+				}
+				game.playPit(game.getNextPlayerToMove(), pitNumber);
+			}
+			games[i] = game;
+		}
+		for (int i = 0; i < GAMES; i++) {
+			archive.append(games[i & 1023]);
+			if ((i + 1) % SEGMENT_GAMES == 0) {
+				archive.flush();
+			}
+		}
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		archive.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public ArchiveStats scan() {
+		return archive.stats(Board.DEFAULT_PITS, Board.DEFAULT_SEEDS);
+	}
+}
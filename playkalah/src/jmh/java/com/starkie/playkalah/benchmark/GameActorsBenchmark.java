@@ -0,0 +1,105 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.service.KalahService;
+
+/**
+ * Benchmarks a hot game played by one thread while three others read it, as subscribers do, with the game's lock
+ * or its actor serialising them.  Each group plays its own game, starting another when one is completed; run with
+ * more threads (-t 8, 12) for several hot games.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameActorsBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedService {
+
+		@Param({"LOCKING", "ACTORS"})
+		public KalahService.ExecutionMode mode;
+
+		KalahService service;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+			EnvironmentTestUtils.addEnvironment(context, "kalah.execution=" + mode);
+			context.register(KalahService.class);
+			context.refresh();
+			service = context.getBean(KalahService.class);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			service.shutdown();
+		}
+	}
+
+	@State(Scope.Group)
+	public static class HotGame {
+		volatile String id;
+		Game game;
+		int games;
+		int pitChoice;
+
+		@Setup(Level.Trial)
+		public void setup(SharedService shared) {
+			nextGame(shared.service);
+		}
+
+		void nextGame(KalahService service) {
+			String next = "hot-" + System.identityHashCode(this) + "-" + games++;
+			game = service.findGame(next);
+			id = next;
+		}
+	}
+
+	@Benchmark
+	@Group("hot")
+	@GroupThreads(1)
+	public Game play(SharedService shared, HotGame hot) {
+		Board board = hot.game.getBoard();
+		if (board.isGameCompleted()) {
+			hot.nextGame(shared.service);
+			board = hot.game.getBoard();
+		}
+		int side = board.getSideToMove();
+		int pitNumber = 1 + (hot.pitChoice++ % 6);
+		while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+			pitNumber = pitNumber == 6 ? 1 : pitNumber + 1;
+		}
+		return shared.service.playGameAsync(hot.id, hot.game.getNextPlayerToMove(), pitNumber).join();
+	}
+
+	@Benchmark
+	@Group("hot")
+	@GroupThreads(3)
+	public int read(SharedService shared, HotGame hot) {
+		return shared.service.readGame(hot.id, Game::getMoveCount);
+	}
+}
@@ -0,0 +1,64 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Benchmarks Game.playPit from a fixed position, the board is restored before each move so every invocation
+ * plays the same move.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+	/**
+	 * typical: pit 3 from the opening position.
+	 * long: pit 6 holding 40 stones, sowing three laps of the board.
+	 */
+	@Param({"typical", "long"})
+	public String position;
+
+	private Game game;
+	private Board start;
+	private int pitNumber;
+
+	@Setup
+	public void setup() {
+		game = new Game("bill", "bob", "benchmark");
+		Board board = game.getBoard();
+		if ("long".equals(position)) {
+			board.addStones(board.pitIndex(Board.PLAYER_1, 6), 34);
+			pitNumber = 6;
+		} else {
+			pitNumber = 3;
+		}
+		start = new Board(board);
+	}
+
+	@Benchmark
+	public Board playPit() {
+		Board board = game.getBoard();
+		board.copyFrom(start);
+		game.playPit("bill", pitNumber);
+		return board;
+	}
+}
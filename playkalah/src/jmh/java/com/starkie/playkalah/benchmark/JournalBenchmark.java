@@ -0,0 +1,156 @@
+package com.starkie.playkalah.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.service.GameJournal;
+import com.starkie.playkalah.service.GameStore;
+
+/**
+ * Benchmarks the game journal.  append measures moves journalled per second with each fsync policy, waiting for
+ * the disk as a move does, run with several threads (-t) to see group commit share the forces.  recover measures
+ * starting up on a journal of 10M moves of random games, replaying all of it or loading a snapshot taken before the
+ * last 100k moves and replaying only those.
+ * @author luke.starkie
+ */
+@Fork(1)
+public class JournalBenchmark {
+
+	/**
+	 * The moves after the snapshot when recovering from one
+	 */
+	private static final int TAIL_MOVES = 100000;
+
+	@State(Scope.Benchmark)
+	public static class Appending {
+
+		@Param({"ALWAYS", "INTERVAL", "NEVER"})
+		public GameJournal.FsyncPolicy fsyncPolicy;
+
+		Path directory;
+		GameJournal journal;
+
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			directory = Files.createTempDirectory("kalah-journal");
+			journal = new GameJournal(new GameStore(), directory, fsyncPolicy, 10, 0);
+			journal.open();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			journal.close();
+			delete(directory);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadGame {
+		Game game;
+
+		@Setup(Level.Trial)
+		public void setup(Appending appending) {
+			game = new Game("bill", "bob", Thread.currentThread().getName());
+			appending.journal.appendCreate(game);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Recovering {
+
+		@Param({"10000000"})
+		public int moves;
+
+		@Param({"false", "true"})
+		public boolean snapshot;
+
+		Path directory;
+
+		/**
+		 * Journals random games until the moves are played, taking a snapshot before the last TAIL_MOVES if asked
+		 */
+		@Setup(Level.Trial)
+		public void setup() throws IOException {
+			directory = Files.createTempDirectory("kalah-recovery");
+			GameStore store = new GameStore();
+			GameJournal journal = new GameJournal(store, directory, GameJournal.FsyncPolicy.NEVER, 10, 0);
+			journal.open();
+			Random random = new Random(13);
+			Game game = null;
+			for (int move = 0; move < moves; move++) {
+				if (game == null || game.isGameCompleted()) {
+					game = new Game("bill", "bob", "game" + move);
+					journal.appendCreate(game);
+					store.put(game);
+				}
+				Board board = game.getBoard();
+				int side = board.getSideToMove();
+				int pitNumber = 1 + random.nextInt(board.getPits());
+				while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					pitNumber = pitNumber == board.getPits() ? 1 : pitNumber + 1;
+				}
+				journal.appendMove(game, pitNumber);
+				game.playPit(game.getNextPlayerToMove(), pitNumber);
+				if (snapshot && move == moves - TAIL_MOVES) {
+					journal.writeSnapshot();
+				}
+			}
+			journal.close();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			delete(directory);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Warmup(iterations = 3, time = 2)
+	@Measurement(iterations = 5, time = 2)
+	public void append(Appending appending, ThreadGame threadGame) {
+		appending.journal.appendMove(threadGame.game, 1);
+		appending.journal.awaitDurable();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public int recover(Recovering recovering) throws IOException {
+		GameStore store = new GameStore();
+		GameJournal journal = new GameJournal(store, recovering.directory, GameJournal.FsyncPolicy.NEVER, 10, 0);
+		journal.open();
+		journal.close();
+		return store.size();
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+}
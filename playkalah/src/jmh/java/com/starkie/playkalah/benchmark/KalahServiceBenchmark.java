@@ -0,0 +1,89 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.service.KalahService;
+
+/**
+ * Benchmarks KalahService.playGame including validation and locking, with one service shared by all threads.
+ * Each thread plays its own game, restarting the board when the game is completed.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KalahServiceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SharedService {
+		final KalahService service = new KalahService();
+		final AtomicInteger nextGameId = new AtomicInteger();
+
+		@Setup(Level.Trial)
+		public void setup() {
+			service.setupGame1();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			service.shutdown();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadGame {
+		String id;
+		Game game;
+		int pitChoice;
+
+		@Setup
+		public void setup(SharedService shared) {
+			id = "benchmark" + shared.nextGameId.incrementAndGet();
+			game = shared.service.findGame(id);
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Game playGameSingleThread(SharedService shared, ThreadGame threadGame) {
+		return playNextMove(shared, threadGame);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Game playGameFourThreads(SharedService shared, ThreadGame threadGame) {
+		return playNextMove(shared, threadGame);
+	}
+
+	private Game playNextMove(SharedService shared, ThreadGame threadGame) {
+		Board board = threadGame.game.getBoard();
+		if (board.isGameCompleted()) {
+			board.reset();
+		}
+		int side = board.getSideToMove();
+		int pitNumber = 1 + (threadGame.pitChoice++ % 6);
+		while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+			pitNumber = pitNumber == 6 ? 1 : pitNumber + 1;
+		}
+		return shared.service.playGame(threadGame.id, threadGame.game.getNextPlayerToMove(), pitNumber);
+	}
+}
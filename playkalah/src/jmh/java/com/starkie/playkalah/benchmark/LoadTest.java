@@ -0,0 +1,317 @@
+package com.starkie.playkalah.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.starkie.playkalah.service.LatencyHistogram;
+
+/**
+ * Load test of a running server: many clients each play their own games as fast as the server answers, every client
+ * a keep-alive HTTP connection with one request in flight.  One thread drives every connection through a selector, so
+ * 10k clients cost the client little.  Moves ask for the binary board frame, which tells the client the side to move
+ * and the stones to pick a legal move from.  After the warm up the throughput and latency percentiles are printed for
+ * each interval, showing whether they hold steady, then for the whole run.  A connection the server closes, as
+ * Tomcat does after 100 requests, is opened again and the request sent again.  Run via:
+ *	mvn -P benchmark test-compile exec:exec -Dbenchmark.main=com.starkie.playkalah.benchmark.LoadTest
+ *		-Djmh.args="localhost:8080 10000 60"
+ * @author luke.starkie
+ */
+public class LoadTest {
+
+	private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * Connections opened at a time, so the server's accept backlog is not overrun
+	 */
+	private static final int CONNECT_BATCH = 200;
+
+	private static final int BUFFER_BYTES = 4096;
+
+	private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+	private final InetSocketAddress address;
+
+	private final String host;
+
+	private final String run = Integer.toString(ThreadLocalRandom.current().nextInt(1 << 30), 36);
+
+	private LatencyHistogram interval = new LatencyHistogram();
+
+	private LatencyHistogram total = new LatencyHistogram();
+
+	private long intervalErrors;
+
+	private long totalErrors;
+
+	private long reconnects;
+
+	private int connecting;
+
+	private boolean measuring;
+
+	/**
+	 * A client, playing one game after another on its connection.
+	 */
+	private final class Client {
+		final int number;
+		final ByteBuffer request = ByteBuffer.allocate(BUFFER_BYTES);
+		final ByteBuffer response = ByteBuffer.allocate(BUFFER_BYTES);
+		String game;
+		int games;
+		int pitChoice;
+		long sentNanos;
+		String lastRequest;
+		boolean reconnecting;
+
+		Client(int number) {
+			this.number = number;
+		}
+
+		void newGame() {
+			game = "load-" + run + "-" + number + "-" + games++;
+			send("/game/" + game);
+		}
+
+		void send(String path) {
+			lastRequest = path;
+			request.clear();
+			request.put(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nAccept: application/vnd.kalah.board\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+			request.flip();
+			sentNanos = System.nanoTime();
+		}
+
+		/**
+		 * Handles a complete response, returning false if the connection is to be closed.
+		 */
+		boolean received(int status, byte[] body) {
+			long latency = System.nanoTime() - sentNanos;
+			if (measuring) {
+				interval.record(latency);
+				total.record(latency);
+			}
+			if (status == 503) {
+				error();
+				send(lastRequest);
+				return true;
+			} else if (status != 200 || body.length < 2) {
+				error();
+				newGame();
+				return true;
+			}
+			int pits = body[0];
+			int flags = body[1];
+			if ((flags & 2) != 0) {
+				newGame();
+				return true;
+			}
+			int side = flags & 1;
+			int pit = 1 + (pitChoice++ % pits);
+			while (body[2 + side * (pits + 1) + pit - 1] == 0) {
+				pit = pit == pits ? 1 : pit + 1;
+			}
+			send("/game/" + game + "/play/" + (side == 0 ? "bill" : "bob") + "/" + pit);
+			return true;
+		}
+	}
+
+	private LoadTest(String host, int port) {
+		this.host = host + ":" + port;
+		this.address = new InetSocketAddress(host, port);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: LoadTest host:port clients seconds");
+			System.exit(1);
+		}
+		String[] hostPort = args[0].split(":");
+		new LoadTest(hostPort[0], Integer.parseInt(hostPort[1])).run(Integer.parseInt(args[1]),
+				TimeUnit.SECONDS.toNanos(Long.parseLong(args[2])));
+	}
+
+	private void error() {
+		if (measuring) {
+			intervalErrors++;
+			totalErrors++;
+		}
+	}
+
+	private void run(int clients, long durationNanos) throws IOException {
+		Selector selector = Selector.open();
+		int opened = 0;
+		long start = System.nanoTime();
+		long measureStart = 0;
+		long nextReport = 0;
+		while (true) {
+			long now = System.nanoTime();
+			while (opened < clients && connecting < CONNECT_BATCH) {
+				connect(selector, new Client(opened++));
+			}
+			if (!measuring && opened == clients && connecting == 0 && now - start >= WARMUP_NANOS) {
+				measuring = true;
+				measureStart = now;
+				nextReport = now + REPORT_NANOS;
+				System.out.printf("%d clients connected, measuring for %ds%n", clients,
+						TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+			}
+			if (measuring && now - nextReport >= 0) {
+				report(String.format(Locale.ROOT, "%5ds", TimeUnit.NANOSECONDS.toSeconds(now - measureStart)),
+						interval, intervalErrors, REPORT_NANOS);
+				interval = new LatencyHistogram();
+				intervalErrors = 0;
+				nextReport += REPORT_NANOS;
+				if (now - measureStart >= durationNanos) {
+					break;
+				}
+			}
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Client client = (Client) key.attachment();
+				SocketChannel channel = (SocketChannel) key.channel();
+				try {
+					if (key.isConnectable()) {
+						if (channel.finishConnect()) {
+							connected(key);
+						}
+					} else if (key.isWritable()) {
+						channel.write(client.request);
+						if (!client.request.hasRemaining()) {
+							key.interestOps(SelectionKey.OP_READ);
+						}
+					} else if (key.isReadable()) {
+						if (channel.read(client.response) < 0) {
+							reconnect(selector, key);
+						} else if (readResponse(client)) {
+							if (client.reconnecting) {
+								reconnect(selector, key);
+							} else {
+								key.interestOps(SelectionKey.OP_WRITE);
+							}
+						}
+					}
+				} catch (IOException e) {
+					if (key.isValid() && (key.interestOps() & SelectionKey.OP_CONNECT) != 0) {
+						connecting--;
+					}
+					key.cancel();
+					channel.close();
+					error();
+					System.err.println("Client " + client.number + ": " + e.getMessage());
+				}
+			}
+		}
+		report("total ", total, totalErrors, durationNanos);
+		System.out.printf("%d connections closed by the server and opened again%n", reconnects);
+		selector.close();
+	}
+
+	/**
+	 * Opens a connection for a client, counted as connecting until connected.
+	 */
+	private void connect(Selector selector, Client client) throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+		connecting++;
+		if (channel.connect(address)) {
+			connected(key);
+		}
+	}
+
+	/**
+	 * Sends a newly connected client's first request, or the request it was waiting on when reconnecting.
+	 */
+	private void connected(SelectionKey key) {
+		Client client = (Client) key.attachment();
+		connecting--;
+		if (client.reconnecting) {
+			client.reconnecting = false;
+			client.request.rewind();
+		} else {
+			client.newGame();
+		}
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Opens a client's connection again, to send its request once connected.
+	 */
+	private void reconnect(Selector selector, SelectionKey key) throws IOException {
+		Client client = (Client) key.attachment();
+		key.cancel();
+		key.channel().close();
+		client.reconnecting = true;
+		client.response.clear();
+		reconnects++;
+		connect(selector, client);
+	}
+
+	/**
+	 * Parses a response once complete, returning true once the client has its next request.
+	 */
+	private boolean readResponse(Client client) throws IOException {
+		ByteBuffer response = client.response;
+		byte[] bytes = response.array();
+		int headerEnd = indexOf(bytes, response.position(), HEADER_END);
+		if (headerEnd < 0) {
+			return false;
+		}
+		String headers = new String(bytes, 0, headerEnd, StandardCharsets.US_ASCII);
+		int status = Integer.parseInt(headers.substring(9, 12));
+		int contentLength = 0;
+		for (String line : headers.split("\r\n")) {
+			if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+				contentLength = Integer.parseInt(line.substring(15).trim());
+			} else if (line.regionMatches(true, 0, "Connection: close", 0, 17)) {
+				client.reconnecting = true;
+			}
+		}
+		int bodyStart = headerEnd + HEADER_END.length;
+		if (response.position() < bodyStart + contentLength) {
+			return false;
+		}
+		byte[] body = new byte[contentLength];
+		System.arraycopy(bytes, bodyStart, body, 0, contentLength);
+		int consumed = bodyStart + contentLength;
+		System.arraycopy(bytes, consumed, bytes, 0, response.position() - consumed);
+		response.position(response.position() - consumed);
+		return client.received(status, body);
+	}
+
+	private static int indexOf(byte[] bytes, int length, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= length; i++) {
+			int matched = 0;
+			while (matched < pattern.length && bytes[i + matched] == pattern[matched]) {
+				matched++;
+			}
+			if (matched == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void report(String label, LatencyHistogram histogram, long errors, long nanos) {
+		System.out.printf(Locale.ROOT, "%s %9.0f req/s  p50 %8.2fms  p99 %8.2fms  p99.9 %8.2fms  max %8.2fms  errors %d%n",
+				label, histogram.getCount() / (nanos / 1e9), histogram.getPercentile(0.5) / 1e6,
+				histogram.getPercentile(0.99) / 1e6, histogram.getPercentile(0.999) / 1e6, histogram.getMaxNanos() / 1e6,
+				errors);
+	}
+}
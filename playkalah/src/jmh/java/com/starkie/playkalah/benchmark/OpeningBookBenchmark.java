@@ -0,0 +1,87 @@
+package com.starkie.playkalah.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.ai.OpeningBook;
+import com.starkie.playkalah.ai.OpeningBookGenerator;
+import com.starkie.playkalah.ai.SearchEngine;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Compares answering a move in the kalah(6,6) opening from a 4 ply opening book with searching it 8 plies deep, as
+ * the computer player would without the book.  The positions are random ones of the book's, visited in turn.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OpeningBookBenchmark {
+
+	private static final int PLIES = 4;
+
+	private Path file;
+	private OpeningBook book;
+	private SearchEngine engine;
+	private Board[] positions;
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("kalah66", ".book");
+		new OpeningBookGenerator(Board.DEFAULT_PITS, Board.DEFAULT_SEEDS, PLIES, 8, 1, null, null).generate(file);
+		book = OpeningBook.open(file);
+		// a table would answer the positions from their earlier searches
+		engine = new SearchEngine();
+		List<Board> opening = new ArrayList<>();
+		Random random = new Random(3);
+		for (int i = 0; i < 1024; i++) {
+			Board board = new Board();
+			for (int ply = random.nextInt(PLIES + 1); ply > 0 && !board.isGameCompleted(); ply--) {
+				int side = board.getSideToMove();
+				int pitNumber = 1 + random.nextInt(Board.DEFAULT_PITS);
+				if (board.getStones(board.pitIndex(side, pitNumber)) != 0) {
+					board.sow(side, pitNumber);
+				}
+			}
+			opening.add(board);
+		}
+		positions = opening.toArray(new Board[opening.size()]);
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public SearchResult bookMove() {
+		return book.lookup(positions[next++ & 1023]);
+	}
+
+	@Benchmark
+	public SearchResult searchedMove() {
+		return engine.search(positions[next++ & 1023], Long.MAX_VALUE / 2000000, 8);
+	}
+}
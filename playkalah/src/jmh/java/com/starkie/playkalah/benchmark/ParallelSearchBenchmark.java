@@ -0,0 +1,90 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.ai.ParallelSearch;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.TranspositionTable;
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Measures how the computer player's search scales with threads, searching the kalah(6,6) opening to a fixed depth.
+ * timeToDepth reports the time to complete the search, nodesPerSecond the nodes searched by all threads together.
+ * Threads 0 uses one thread per available processor.  The table is cleared before each search.
+ * @author luke.starkie
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelSearchBenchmark {
+
+	@Param({"1", "2", "4", "8", "0"})
+	public int threads;
+
+	@Param({"12"})
+	public int depth;
+
+	private ParallelSearch search;
+	private TranspositionTable table;
+	private Board opening;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			nodes = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		table = new TranspositionTable(16, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		search = new ParallelSearch(threads, table);
+		opening = new Board();
+	}
+
+	@Setup(Level.Invocation)
+	public void clearTable() {
+		table.clear();
+	}
+
+	@TearDown
+	public void tearDown() {
+		search.shutdown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public SearchResult timeToDepth() {
+		return search.search(opening, Long.MAX_VALUE / 2000000, depth);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public SearchResult nodesPerSecond(Counters counters) {
+		SearchResult result = search.search(opening, Long.MAX_VALUE / 2000000, depth);
+		counters.nodes += result.getNodes();
+		return result;
+	}
+}
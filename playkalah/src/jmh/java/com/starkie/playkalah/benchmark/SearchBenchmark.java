@@ -0,0 +1,79 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.ai.SearchEngine;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.TranspositionTable;
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Benchmarks a fixed depth search of the kalah(6,6) opening, the nodes counter reports nodes per second.
+ * The table size 0 searches without a transposition table, otherwise the table is cleared before each search.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+	@Param({"8", "10"})
+	public int depth;
+
+	@Param({"0", "16"})
+	public int tableMegabytes;
+
+	private SearchEngine engine;
+	private TranspositionTable table;
+	private Board opening;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+		public long nodes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			nodes = 0;
+		}
+	}
+
+	@Setup
+	public void setup() {
+		table = tableMegabytes == 0 ? null
+				: new TranspositionTable(tableMegabytes, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		engine = new SearchEngine(table);
+		opening = new Board();
+	}
+
+	@Setup(Level.Invocation)
+	public void clearTable() {
+		if (table != null) {
+			table.clear();
+		}
+	}
+
+	@Benchmark
+	public SearchResult searchOpening(Counters counters) {
+		SearchResult result = engine.search(opening, Long.MAX_VALUE / 2000000, depth);
+		counters.nodes += result.getNodes();
+		return result;
+	}
+}
@@ -0,0 +1,71 @@
+package com.starkie.playkalah.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Benchmarks complete games of random moves played through Game.playPit.
+ * Run with -t to measure several threads each playing their own games.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SelfPlayBenchmark {
+
+	/**
+	 * The kalah(pits, seeds) variant played
+	 */
+	@Param({"6,6", "4,3", "8,6"})
+	public String variant;
+
+	private Game game;
+	private SplittableRandom random;
+
+	@Setup
+	public void setup() {
+		String[] pitsAndSeeds = variant.split(",");
+		game = new Game("bill", "bob", "benchmark", Integer.parseInt(pitsAndSeeds[0]), Integer.parseInt(pitsAndSeeds[1]));
+		random = new SplittableRandom(42);
+	}
+
+	/**
+	 * Plays one random game to completion.
+	 * @return the number of moves played
+	 */
+	@Benchmark
+	public int randomGame() {
+		Board board = game.getBoard();
+		board.reset();
+		int pits = board.getPits();
+		int moves = 0;
+		while (!board.isGameCompleted()) {
+			int side = board.getSideToMove();
+			int pitNumber = 1 + random.nextInt(pits);
+			while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				pitNumber = pitNumber == pits ? 1 : pitNumber + 1;
+			}
+			game.playPit(game.getNextPlayerToMove(), pitNumber);
+			moves++;
+		}
+		return moves;
+	}
+}
@@ -0,0 +1,113 @@
+package com.starkie.playkalah.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.web.CompactGameJsonConverter;
+import com.starkie.playkalah.web.GameFrameConverter;
+import com.starkie.playkalah.web.GameJsonConverter;
+
+/**
+ * Benchmarks serialization of a Game part way through play: Jackson by reflection over the game, and the encodings
+ * of its snapshot the REST controller returns, the cached Jackson JSON, compact JSON and binary board frame.  The
+ * snapshot benchmarks publish a new snapshot each time, as a move does, so they measure the first read after a
+ * move; cachedJson measures the reads after it.  The streams are reset and reused so only the serialization itself
+ * allocates.
+ * @author luke.starkie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+	private Game game;
+	private ObjectMapper mapper;
+	private ObjectMapper indentingMapper;
+	private CompactGameJsonConverter compactJsonConverter;
+	private GameFrameConverter frameConverter;
+	private GameJsonConverter jsonConverter;
+	private ByteArrayOutputStream out;
+
+	@Setup
+	public void setup() {
+		game = new Game("bill", "bob", "benchmark");
+		game.playPit("bill", 3);
+		game.playPit("bob", 2);
+		mapper = new ObjectMapper();
+		indentingMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+		compactJsonConverter = new CompactGameJsonConverter();
+		frameConverter = new GameFrameConverter();
+		jsonConverter = new GameJsonConverter(indentingMapper);
+		out = new ByteArrayOutputStream(1024);
+	}
+
+	@Benchmark
+	public byte[] jackson() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(game);
+	}
+
+	/**
+	 * Matches the application's spring.jackson.serialization.INDENT_OUTPUT setting.
+	 */
+	@Benchmark
+	public byte[] jacksonIndented() throws JsonProcessingException {
+		return indentingMapper.writeValueAsBytes(game);
+	}
+
+	@Benchmark
+	public int jacksonToStream() throws IOException {
+		out.reset();
+		mapper.writeValue(out, game);
+		return out.size();
+	}
+
+	@Benchmark
+	public int snapshotJson() throws IOException {
+		game.setComputerPlayer(null);
+		out.reset();
+		out.write(jsonConverter.getEncoded(game.getSnapshot()));
+		return out.size();
+	}
+
+	@Benchmark
+	public int cachedJson() throws IOException {
+		out.reset();
+		out.write(jsonConverter.getEncoded(game.getSnapshot()));
+		return out.size();
+	}
+
+	@Benchmark
+	public int compactJson() throws IOException {
+		game.setComputerPlayer(null);
+		out.reset();
+		out.write(compactJsonConverter.getEncoded(game.getSnapshot()));
+		return out.size();
+	}
+
+	@Benchmark
+	public int boardFrame() throws IOException {
+		game.setComputerPlayer(null);
+		out.reset();
+		out.write(frameConverter.getEncoded(game.getSnapshot()));
+		return out.size();
+	}
+}
@@ -0,0 +1,75 @@
+package com.starkie.playkalah.ai;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The evaluation of every move of a position, searched to the same depth.  Scores are the difference between the
+ * players' stones from the point of view of the side to move, so a player sees how much each pit loses against the
+ * best.
+ * @author luke.starkie
+ */
+public class Analysis {
+
+	private final int score;
+
+	private final int pitNumber;
+
+	/**
+	 * The depth every move was searched to, less than asked for when every line reached the end of the game
+	 */
+	private final int depth;
+
+	/**
+	 * The score of playing each pit, null for an empty pit
+	 */
+	private final Integer[] pitScores;
+
+	/**
+	 * The number of positions visited
+	 */
+	private final long nodes;
+
+	public Analysis(int score, int pitNumber, int depth, Integer[] pitScores, long nodes) {
+		this.score = score;
+		this.pitNumber = pitNumber;
+		this.depth = depth;
+		this.pitScores = pitScores;
+		this.nodes = nodes;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * A best move of the side to move.
+	 * @return
+	 */
+	public int getPitNumber() {
+		return pitNumber;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * The score of playing each pit in turn, null for an empty pit.
+	 * @return
+	 */
+	public List<Integer> getPitScores() {
+		return Collections.unmodifiableList(Arrays.asList(pitScores));
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	@Override
+	public String toString() {
+		return "[score=" + score + ", pit=" + pitNumber + ", depth=" + depth + ", pitScores=" + Arrays.toString(pitScores)
+				+ ", nodes=" + nodes + "]";
+	}
+}
@@ -0,0 +1,119 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Exact results of kalah endgames read from a file written by EndgameGenerator.
+ * The file is memory mapped rather than read onto the heap, so the operating system pages in the parts in use and
+ * several servers on one machine share a single copy.  The file is a 16 byte header, the magic number, version,
+ * number of pits and most seeds, followed by a byte for every position in EndgameIndex order holding the margin the
+ * side to move wins the seeds left in the pits by with best play.
+ * Lookups are safe from any number of threads.
+ * @author luke.starkie
+ */
+public class EndgameDatabase {
+
+	/**
+	 * Returned by score for positions the database does not hold
+	 */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+	/**
+	 * "KEDB"
+	 */
+	static final int MAGIC = 0x4b454442;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 16;
+
+	private final EndgameIndex index;
+
+	private final MappedByteBuffer values;
+
+	private EndgameDatabase(EndgameIndex index, MappedByteBuffer values) {
+		this.index = index;
+		this.values = values;
+	}
+
+	/**
+	 * Maps a database file.
+	 * @param file the file written by the generator
+	 * @return
+	 * @throws IOException if the file cannot be read or is not a complete endgame database
+	 */
+	public static EndgameDatabase open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read until the header is full or the file ends
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not an endgame database: " + file);
+			}
+			EndgameIndex index = new EndgameIndex(header.getInt(), header.getInt());
+			long length = HEADER_BYTES + index.size();
+			if (channel.size() != length) {
+				throw new IOException("Endgame database is incomplete, expected " + length + " bytes: " + file);
+			}
+			// the mapping stays valid once the channel is closed
+			return new EndgameDatabase(index, channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Not a valid endgame database: " + file, e);
+		}
+	}
+
+	public int getPits() {
+		return index.getPits();
+	}
+
+	public int getMaxSeeds() {
+		return index.getMaxSeeds();
+	}
+
+	/**
+	 * The number of positions in the database.
+	 * @return
+	 */
+	public long getSize() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the margin the side to move wins the seeds left in the pits by with best play, or NOT_FOUND if the
+	 * database does not hold the position.
+	 * @param board the position
+	 * @return
+	 */
+	public int margin(Board board) {
+		long position = index.index(board);
+		if (position < 0) {
+			return NOT_FOUND;
+		}
+		return values.get(HEADER_BYTES + (int) position);
+	}
+
+	/**
+	 * Returns the final score of the game with best play from the point of view of the side to move, the difference
+	 * between the players' stones once every seed is in a kalah, or NOT_FOUND if the database does not hold the
+	 * position.
+	 * @param board the position
+	 * @return
+	 */
+	public int score(Board board) {
+		int margin = margin(board);
+		if (margin == NOT_FOUND) {
+			return NOT_FOUND;
+		}
+		int side = board.getSideToMove();
+		return board.getStones(board.kalahIndex(side)) - board.getStones(board.kalahIndex(1 - side)) + margin;
+	}
+}
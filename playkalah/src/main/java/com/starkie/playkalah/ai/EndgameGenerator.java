@@ -0,0 +1,229 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Offline generator of an endgame database, solving every position with up to a number of seeds in the pits.
+ * Seeds never return to the pits once in a kalah, so a position only leads to positions with the same or fewer
+ * seeds and the levels are solved from 0 seeds upwards, each level reading the levels below it.  A move keeping
+ * every seed in the pits cannot reach the kalah so only moves seeds forward on the mover's side, which means the
+ * positions within a level never lead back to themselves and are solved by memoised search over the level.
+ * Each level is solved in parallel on a fork join pool, written to the end of the file as it completes and mapped
+ * back read only for the levels above, so only the level being solved is held on the heap.
+ * Run with: mvn -P endgame compile exec:exec -Dendgame.args="pits maxSeeds file [threads]"
+ * @author luke.starkie
+ */
+public class EndgameGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(EndgameGenerator.class);
+
+	/**
+	 * Marks a position of the current level not yet solved, margins are never below -127
+	 */
+	private static final byte UNKNOWN = Byte.MIN_VALUE;
+
+	private final EndgameIndex index;
+
+	private final int pits;
+
+	private final int threads;
+
+	/**
+	 * The margin of every position of the level being solved
+	 */
+	private byte[] level;
+
+	private int levelSeeds;
+
+	/**
+	 * The file up to the end of the level below the one being solved
+	 */
+	private MappedByteBuffer lowerLevels;
+
+	/**
+	 * Creates a generator.
+	 * @param pits the number of pits on each side
+	 * @param maxSeeds the most seeds in the pits of the positions to solve
+	 * @param threads the number of threads to solve with
+	 */
+	public EndgameGenerator(int pits, int maxSeeds, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Generator threads must be at least 1");
+		}
+		this.index = new EndgameIndex(pits, maxSeeds);
+		this.pits = pits;
+		this.threads = threads;
+	}
+
+	/**
+	 * Solves every position and writes the database, replacing any existing file.
+	 * @param file the database file
+	 * @throws IOException
+	 */
+	public void generate(Path file) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(EndgameDatabase.HEADER_BYTES);
+			header.putInt(EndgameDatabase.MAGIC).putInt(EndgameDatabase.VERSION).putInt(pits).putInt(index.getMaxSeeds());
+			header.flip();
+			writeFully(channel, header, 0);
+
+			for (int seeds = 0; seeds <= index.getMaxSeeds(); seeds++) {
+				long start = System.nanoTime();
+				solveLevel(seeds, pool);
+				writeFully(channel, ByteBuffer.wrap(level), EndgameDatabase.HEADER_BYTES + index.levelOffset(seeds));
+				lowerLevels = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						EndgameDatabase.HEADER_BYTES + index.levelOffset(seeds + 1));
+				logger.info("Solved {} positions with {} seeds in {}ms", new Object[]{level.length, seeds,
+						(System.nanoTime() - start) / 1000000});
+			}
+			channel.force(true);
+		} finally {
+			level = null;
+			lowerLevels = null;
+			pool.shutdown();
+		}
+	}
+
+	private void solveLevel(int seeds, ForkJoinPool pool) throws IOException {
+		levelSeeds = seeds;
+		level = new byte[(int) index.levelSize(seeds)];
+		Arrays.fill(level, UNKNOWN);
+		ThreadLocal<Solver> solvers = ThreadLocal.withInitial(Solver::new);
+		try {
+			pool.submit(() -> IntStream.range(0, level.length).parallel().forEach(rank -> {
+				if (level[rank] == UNKNOWN) {
+					solvers.get().solve(rank, 0);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted generating the endgame database", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to solve level " + seeds, e.getCause());
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Solves positions of the current level on one thread.  Positions are set up with player 1 to move, each
+	 * recursion into the same level uses the boards of the next frame.
+	 */
+	private final class Solver {
+
+		private final Board[] positions;
+		private final Board[] children;
+		private final int[][] stones;
+
+		Solver() {
+			// each recursion moves at least one seed at least one pit nearer the kalah
+			int frames = levelSeeds * pits + 2;
+			positions = new Board[frames];
+			children = new Board[frames];
+			stones = new int[frames][2 * pits];
+			for (int frame = 0; frame < frames; frame++) {
+				positions[frame] = new Board(pits, Board.MIN_SEEDS);
+				children[frame] = new Board(pits, Board.MIN_SEEDS);
+			}
+		}
+
+		byte solve(int rank, int frame) {
+			int[] pitStones = stones[frame];
+			index.unrank(levelSeeds, rank, pitStones);
+			Board position = positions[frame];
+			for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+				setStones(position, position.pitIndex(Board.PLAYER_1, pitNumber), pitStones[pitNumber - 1]);
+				setStones(position, position.pitIndex(Board.PLAYER_2, pitNumber), pitStones[pits + pitNumber - 1]);
+			}
+
+			int best;
+			if (position.isGameCompleted()) {
+				best = pitSeeds(position, Board.PLAYER_1) - pitSeeds(position, Board.PLAYER_2);
+			} else {
+				best = -Byte.MAX_VALUE;
+				Board child = children[frame];
+				for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+					if (pitStones[pitNumber - 1] == 0) {
+						continue;
+					}
+					child.copyFrom(position);
+					child.sow(Board.PLAYER_1, pitNumber);
+					int player1Kalah = child.getStones(child.kalahIndex(Board.PLAYER_1));
+					int player2Kalah = child.getStones(child.kalahIndex(Board.PLAYER_2));
+					int margin = player1Kalah - player2Kalah;
+					if (child.isGameCompleted()) {
+						margin += pitSeeds(child, Board.PLAYER_1) - pitSeeds(child, Board.PLAYER_2);
+					} else {
+						int childMargin = lookup(child, levelSeeds - player1Kalah - player2Kalah, frame);
+						margin += child.getSideToMove() == Board.PLAYER_1 ? childMargin : -childMargin;
+					}
+					best = Math.max(best, margin);
+				}
+			}
+			level[rank] = (byte) best;
+			return (byte) best;
+		}
+
+		/**
+		 * The margin of a position from a lower level, or of the current level solving it first if need be.
+		 */
+		private int lookup(Board child, int childSeeds, int frame) {
+			long childIndex = index.index(child);
+			if (childSeeds < levelSeeds) {
+				return lowerLevels.get(EndgameDatabase.HEADER_BYTES + (int) childIndex);
+			}
+			int childRank = (int) (childIndex - index.levelOffset(levelSeeds));
+			byte margin = level[childRank];
+			return margin == UNKNOWN ? solve(childRank, frame + 1) : margin;
+		}
+
+		private void setStones(Board board, int cell, int stones) {
+			board.pickupStones(cell);
+			board.addStones(cell, stones);
+		}
+
+		private int pitSeeds(Board board, int side) {
+			int seeds = 0;
+			for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+				seeds += board.getStones(board.pitIndex(side, pitNumber));
+			}
+			return seeds;
+		}
+	}
+
+	/**
+	 * Generates a database from the command line.
+	 * @param args the number of pits, the most seeds, the file and optionally the number of threads
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println("Usage: EndgameGenerator pits maxSeeds file [threads]");
+			System.exit(1);
+		}
+		int threads = args.length == 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		EndgameGenerator generator = new EndgameGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), threads);
+		generator.generate(Paths.get(args[2]));
+	}
+}
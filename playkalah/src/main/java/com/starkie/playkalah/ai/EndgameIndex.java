@@ -0,0 +1,168 @@
+package com.starkie.playkalah.ai;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Perfect hash of the endgame positions of a kalah board with a given number of pits, the index of a position in
+ * an endgame database.
+ * Only the stones in the pits and the side to move decide how the rest of the game goes, the kalahs just add to the
+ * score, and the board is the same from either side so positions are seen from the side to move: their pits then
+ * their opponent's.  Positions are grouped by the number of seeds in the pits, level n holding every way of putting
+ * n seeds in 2 * pits pits.  Within a level a position is ranked by the combinatorial number system on the positions
+ * of the bars between the pits when the seeds are written out as stars and bars, so every index is used once.
+ * @author luke.starkie
+ */
+final class EndgameIndex {
+
+	/**
+	 * The most positions a database may hold, so it can be mapped into a single buffer
+	 */
+	static final long MAX_SIZE = Integer.MAX_VALUE - 64;
+
+	/**
+	 * Binomials saturate here rather than overflow, larger databases are rejected anyway
+	 */
+	private static final long SATURATED = 1L << 61;
+
+	private final int pits;
+
+	/**
+	 * The number of pits on both sides
+	 */
+	private final int pitCount;
+
+	private final int maxSeeds;
+
+	/**
+	 * binomials[n][k] is n choose k
+	 */
+	private final long[][] binomials;
+
+	/**
+	 * The index of the first position of each level, the last entry is the total number of positions
+	 */
+	private final long[] levelOffsets;
+
+	/**
+	 * Creates the index of a database.
+	 * @param pits the number of pits on each side
+	 * @param maxSeeds the most seeds in the pits of a position
+	 */
+	EndgameIndex(int pits, int maxSeeds) {
+		if (pits < Board.MIN_PITS || pits > Board.MAX_PITS) {
+			throw new IllegalArgumentException("Not a valid number of pits");
+		} else if (maxSeeds < 0 || maxSeeds > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Endgame seeds must be from 0 to " + Byte.MAX_VALUE);
+		}
+		this.pits = pits;
+		this.pitCount = 2 * pits;
+		this.maxSeeds = maxSeeds;
+		int maxBar = maxSeeds + pitCount;
+		this.binomials = new long[maxBar + 1][pitCount + 1];
+		for (int n = 0; n <= maxBar; n++) {
+			binomials[n][0] = 1;
+			for (int k = 1; k <= Math.min(n, pitCount); k++) {
+				binomials[n][k] = Math.min(binomials[n - 1][k - 1] + binomials[n - 1][k], SATURATED);
+			}
+		}
+		this.levelOffsets = new long[maxSeeds + 2];
+		for (int seeds = 0; seeds <= maxSeeds; seeds++) {
+			levelOffsets[seeds + 1] = Math.min(levelOffsets[seeds] + levelSize(seeds), SATURATED);
+		}
+		if (size() > MAX_SIZE) {
+			throw new IllegalArgumentException("Endgame database would be too large, use fewer seeds");
+		}
+	}
+
+	int getPits() {
+		return pits;
+	}
+
+	int getMaxSeeds() {
+		return maxSeeds;
+	}
+
+	/**
+	 * The number of positions with the seeds in the pits.
+	 * @param seeds the seeds in the pits
+	 * @return
+	 */
+	long levelSize(int seeds) {
+		return binomials[seeds + pitCount - 1][pitCount - 1];
+	}
+
+	long levelOffset(int seeds) {
+		return levelOffsets[seeds];
+	}
+
+	/**
+	 * The number of positions with up to the maximum seeds.
+	 * @return
+	 */
+	long size() {
+		return levelOffsets[maxSeeds + 1];
+	}
+
+	/**
+	 * Returns the rank of a position within its level.
+	 * @param stones the stones in the side to move's pits then the opponent's
+	 * @return
+	 */
+	long rank(int[] stones) {
+		long rank = 0;
+		int bar = -1;
+		for (int i = 0; i < pitCount - 1; i++) {
+			bar += stones[i] + 1;
+			rank += binomials[bar][i + 1];
+		}
+		return rank;
+	}
+
+	/**
+	 * Writes the position with a rank within a level.
+	 * @param seeds the level
+	 * @param rank the rank within the level
+	 * @param stones receives the stones in the side to move's pits then the opponent's
+	 */
+	void unrank(int seeds, long rank, int[] stones) {
+		int bar = seeds + pitCount - 1;
+		for (int i = pitCount - 2; i >= 0; i--) {
+			// the largest bar position whose binomial fits in what is left of the rank
+			int previousBar = bar;
+			bar--;
+			while (binomials[bar][i + 1] > rank) {
+				bar--;
+			}
+			rank -= binomials[bar][i + 1];
+			stones[i + 1] = previousBar - bar - 1;
+		}
+		stones[0] = bar;
+	}
+
+	/**
+	 * Returns the index of a board's position, or -1 if the board has a different number of pits or more seeds than
+	 * the database holds.
+	 * @param board the position
+	 * @return
+	 */
+	long index(Board board) {
+		if (board.getPits() != pits) {
+			return -1;
+		}
+		int side = board.getSideToMove();
+		int mover = board.pitIndex(side, 1);
+		int opponent = board.pitIndex(1 - side, 1);
+		long rank = 0;
+		int seeds = 0;
+		for (int i = 0; i < pitCount; i++) {
+			seeds += board.getStones(i < pits ? mover + i : opponent + i - pits);
+			if (seeds > maxSeeds) {
+				return -1;
+			}
+			if (i < pitCount - 1) {
+				rank += binomials[seeds + i][i + 1];
+			}
+		}
+		return levelOffsets[seeds] + rank;
+	}
+}
@@ -0,0 +1,408 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Offline solver finding the game theoretic value of a position, the final score with perfect play by both sides,
+ * and of every position of an opening book the first plies from it.
+ * The book is expanded breadth first to its depth, then each position at its edge is solved with a full window so its
+ * score is exact, by an alpha-beta search to the end of the game with the move ordering of the SearchEngine.  The
+ * book's edge is shared out to threads one position at a time, each searching with its own boards and all of them
+ * sharing the on disk SolutionStore as their transposition table, and positions held by an optional endgame database
+ * are scored exactly without searching further.  Finally the scores are backed up through the book, storing the exact
+ * score and best move of every position in it.
+ * The store is forced to disk at every checkpoint and never holds anything untrue, so a run stopped at any point
+ * resumes by solving again with the same store: solved positions are found there and skipped, and the bounds on the
+ * positions part way through cut their searches short.
+ * Run with: mvn -P solve compile exec:exec -Dsolve.args="pits seeds file sizeMegabytes bookDepth [threads] [endgameFile]"
+ * @author luke.starkie
+ */
+public class GameSolver {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameSolver.class);
+
+	/**
+	 * Check whether the solver has been stopped every 4096 nodes
+	 */
+	private static final long STOP_CHECK_MASK = 4095;
+
+	private final SolutionStore store;
+
+	private final EndgameDatabase endgame;
+
+	private final int threads;
+
+	private final int bookDepth;
+
+	private final LongAdder nodes = new LongAdder();
+
+	private volatile boolean stopped;
+
+	/**
+	 * Creates a solver.
+	 * @param store the store to keep the results in, opened for writing
+	 * @param endgame the endgame database, or null to solve without one
+	 * @param threads the number of threads to solve with, 0 for one per available processor
+	 * @param bookDepth the plies of the opening book, every position of which is solved exactly
+	 */
+	public GameSolver(SolutionStore store, EndgameDatabase endgame, int threads, int bookDepth) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("Solver threads must not be negative");
+		} else if (bookDepth < 0) {
+			throw new IllegalArgumentException("Book depth must not be negative");
+		}
+		this.store = store;
+		this.endgame = endgame;
+		this.threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+		this.bookDepth = bookDepth;
+	}
+
+	/**
+	 * Solves a position and its opening book, checkpointing the store as it goes.
+	 * @param root the position to solve, left unchanged
+	 * @param checkpointIntervalMillis the time between checkpoints
+	 * @return the best move and exact score of the root, with the book depth and the nodes searched by this run
+	 * @throws CancellationException if the solver was stopped, the store holds the work done until then
+	 */
+	public SearchResult solve(Board root, long checkpointIntervalMillis) {
+		if (root.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		long start = System.nanoTime();
+		long earlierNodes = store.getNodes();
+		long earlierNanos = store.getElapsedNanos();
+		List<Board> edge = expandBook(root);
+		logger.info("Solving {} positions at the edge of a {} ply book, {} nodes searched by earlier runs",
+				edge.size(), bookDepth, earlierNodes);
+
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger solved = new AtomicInteger();
+		CountDownLatch finished = new CountDownLatch(threads);
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "solver-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<?>> results = new ArrayList<>(threads);
+		try {
+			for (int i = 0; i < threads; i++) {
+				results.add(workers.submit(() -> {
+					try {
+						Prover prover = new Prover();
+						for (int position = next.getAndIncrement(); position < edge.size() && !stopped;
+								position = next.getAndIncrement()) {
+							prover.solve(edge.get(position));
+							solved.incrementAndGet();
+						}
+					} catch (RuntimeException | Error e) {
+						// the other threads stop rather than solve the rest of the book in vain
+						stopped = true;
+						throw e;
+					} finally {
+						finished.countDown();
+					}
+				}));
+			}
+			while (!finished.await(checkpointIntervalMillis, TimeUnit.MILLISECONDS)) {
+				checkpoint(earlierNodes, earlierNanos, start);
+				logger.info("Solved {} of {} positions, {} nodes, store {}% full", new Object[]{solved.get(), edge.size(),
+						nodes.sum(), Math.round(100 * store.getOccupancy())});
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			stopped = true;
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Solver thread failed", e.getCause());
+		} finally {
+			workers.shutdownNow();
+			checkpoint(earlierNodes, earlierNanos, start);
+		}
+		if (stopped) {
+			throw new CancellationException("Solver stopped with " + solved.get() + " of " + edge.size()
+					+ " positions solved, solve again to resume");
+		}
+
+		Prover prover = new Prover();
+		int score = prover.backUp(new Board(root), 0);
+		checkpoint(earlierNodes, earlierNanos, start);
+		int pitNumber = SolutionStore.pitNumber(store.probe(root.getHash()));
+		return new SearchResult(pitNumber, score, bookDepth, nodes.sum(), System.nanoTime() - start);
+	}
+
+	/**
+	 * Stops a solve in progress, which checkpoints the store and throws CancellationException.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private void checkpoint(long earlierNodes, long earlierNanos, long start) {
+		store.checkpoint(earlierNodes + nodes.sum(), earlierNanos + System.nanoTime() - start);
+	}
+
+	/**
+	 * Lists the positions at the edge of the book that are not yet solved, each once however many move orders reach
+	 * it.  Completed games, endgame database positions and positions already solved are not expanded further.
+	 */
+	private List<Board> expandBook(Board root) {
+		List<Board> edge = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		List<Board> ply = new ArrayList<>();
+		ply.add(new Board(root));
+		seen.add(root.getHash());
+		for (int depth = 0; !ply.isEmpty(); depth++) {
+			List<Board> nextPly = new ArrayList<>();
+			for (Board board : ply) {
+				if (store.solvedScore(board, endgame) != EndgameDatabase.NOT_FOUND) {
+					continue;
+				} else if (depth == bookDepth) {
+					edge.add(board);
+					continue;
+				}
+				int side = board.getSideToMove();
+				for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+					if (board.getStones(board.pitIndex(side, pitNumber)) != 0) {
+						Board child = new Board(board);
+						child.sow(side, pitNumber);
+						if (seen.add(child.getHash())) {
+							nextPly.add(child);
+						}
+					}
+				}
+			}
+			ply = nextPly;
+		}
+		return edge;
+	}
+
+	/**
+	 * Searches positions to the end of the game on one thread, with a board and move list for each ply.
+	 */
+	private final class Prover {
+
+		private Board[] stack = new Board[0];
+
+		private int[][] moves = new int[0][];
+
+		private long proverNodes;
+
+		private boolean aborted;
+
+		/**
+		 * Solves a position exactly and pins its result in the store.
+		 */
+		void solve(Board position) {
+			long start = proverNodes;
+			board(0).copyFrom(position);
+			int score = negamax(0, -SearchEngine.INFINITY, SearchEngine.INFINITY);
+			nodes.add(proverNodes - start);
+			if (!aborted) {
+				long entry = store.probe(position.getHash());
+				store.store(position.getHash(), score, score, SolutionStore.pitNumber(entry), SolutionStore.PINNED);
+			}
+		}
+
+		/**
+		 * Scores the positions of the book from the solved positions at its edge, storing the exact score and best
+		 * move of each.
+		 */
+		int backUp(Board board, int depth) {
+			int known = store.solvedScore(board, endgame);
+			if (known != EndgameDatabase.NOT_FOUND) {
+				return known;
+			} else if (depth >= bookDepth) {
+				// a solved position replaced by others
+				solve(board);
+				return store.solvedScore(board, endgame);
+			}
+			int side = board.getSideToMove();
+			int best = -SearchEngine.INFINITY;
+			int bestPit = 0;
+			Board child = new Board(board);
+			for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+				if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					continue;
+				}
+				child.copyFrom(board);
+				child.sow(side, pitNumber);
+				int score = backUp(child, depth + 1);
+				if (child.getSideToMove() != side) {
+					score = -score;
+				}
+				if (score > best) {
+					best = score;
+					bestPit = pitNumber;
+				}
+			}
+			store.store(board.getHash(), best, best, bestPit, SolutionStore.PINNED);
+			return best;
+		}
+
+		/**
+		 * Fail soft negamax search of the board at the ply to the end of the game, narrowing the window by the
+		 * bounds held in the store and storing the bounds found.
+		 * @param ply the distance from the position being solved
+		 * @param alpha the score the side to move is already assured of
+		 * @param beta the score the opponent is already assured of
+		 * @return the score from the point of view of the side to move
+		 */
+		private int negamax(int ply, int alpha, int beta) {
+			Board board = stack[ply];
+			if ((++proverNodes & STOP_CHECK_MASK) == 0 && stopped) {
+				aborted = true;
+				return 0;
+			}
+			if (board.isGameCompleted()) {
+				return SearchEngine.finalScore(board);
+			}
+			if (endgame != null) {
+				int score = endgame.score(board);
+				if (score != EndgameDatabase.NOT_FOUND) {
+					return score;
+				}
+			}
+
+			long hash = board.getHash();
+			long entry = store.probe(hash);
+			int storeMove = 0;
+			if (entry != 0) {
+				int lower = SolutionStore.lower(entry);
+				int upper = SolutionStore.upper(entry);
+				if (lower == upper || lower >= beta) {
+					return lower;
+				} else if (upper <= alpha) {
+					return upper;
+				}
+				alpha = Math.max(alpha, lower);
+				beta = Math.min(beta, upper);
+				storeMove = SolutionStore.pitNumber(entry);
+			}
+
+			long start = proverNodes;
+			int alphaOriginal = alpha;
+			int side = board.getSideToMove();
+			int[] plyMoves = moves(ply);
+			int moveCount = SearchEngine.orderMoves(board, side, plyMoves);
+			if (storeMove != 0) {
+				SearchEngine.moveToFront(plyMoves, moveCount, storeMove);
+			}
+			Board child = board(ply + 1);
+			int best = -SearchEngine.INFINITY;
+			int bestPit = 0;
+			for (int i = 0; i < moveCount; i++) {
+				child.copyFrom(board);
+				child.sow(side, plyMoves[i]);
+				int score = child.getSideToMove() == side
+						? negamax(ply + 1, alpha, beta)
+						: -negamax(ply + 1, -beta, -alpha);
+				if (aborted) {
+					return 0;
+				}
+				if (score > best) {
+					best = score;
+					bestPit = plyMoves[i];
+					if (score > alpha) {
+						alpha = score;
+						if (alpha >= beta) {
+							break;
+						}
+					}
+				}
+			}
+
+			int lower = best > alphaOriginal ? best : -SolutionStore.UNBOUNDED;
+			int upper = best < beta ? best : SolutionStore.UNBOUNDED;
+			int work = 63 - Long.numberOfLeadingZeros(proverNodes - start + 1);
+			store.store(hash, lower, upper, bestPit, Math.min(work, SolutionStore.PINNED - 1));
+			return best;
+		}
+
+		/**
+		 * The board of a ply, copied from the root's, adding boards as the search goes deeper.
+		 */
+		private Board board(int ply) {
+			if (ply >= stack.length) {
+				Board[] grown = Arrays.copyOf(stack, Math.max(2 * stack.length, ply + 16));
+				for (int i = stack.length; i < grown.length; i++) {
+					grown[i] = new Board(store.getPits(), Board.MIN_SEEDS);
+				}
+				stack = grown;
+			}
+			return stack[ply];
+		}
+
+		private int[] moves(int ply) {
+			if (ply >= moves.length) {
+				int[][] grown = Arrays.copyOf(moves, Math.max(2 * moves.length, ply + 16));
+				for (int i = moves.length; i < grown.length; i++) {
+					grown[i] = new int[Board.MAX_PITS];
+				}
+				moves = grown;
+			}
+			return moves[ply];
+		}
+	}
+
+	/**
+	 * Solves the opening position of a board size from the command line, resuming from the store if it exists.
+	 * Stopping the process checkpoints the store first.
+	 * @param args the pits and seeds, the store file and its size in megabytes, the book depth and optionally the
+	 * number of threads and an endgame database file
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5 || args.length > 7) {
+			System.err.println("Usage: GameSolver pits seeds file sizeMegabytes bookDepth [threads] [endgameFile]");
+			System.exit(1);
+		}
+		int pits = Integer.parseInt(args[0]);
+		int seeds = Integer.parseInt(args[1]);
+		SolutionStore store = SolutionStore.openForWriting(Paths.get(args[2]), pits, seeds, Integer.parseInt(args[3]));
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+		EndgameDatabase endgame = args.length > 6 ? EndgameDatabase.open(Paths.get(args[6])) : null;
+		GameSolver solver = new GameSolver(store, endgame, threads, Integer.parseInt(args[4]));
+		CountDownLatch done = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			solver.stop();
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		try {
+			SearchResult result = solver.solve(new Board(pits, seeds), 60000);
+			System.out.println("kalah(" + pits + "," + seeds + ") is worth " + result.getScore()
+					+ " to player 1 with perfect play, opening with pit " + result.getPitNumber() + ", "
+					+ store.getNodes() + " nodes in " + store.getElapsedNanos() / 1000000000L + "s over every run");
+		} catch (CancellationException e) {
+			System.out.println(e.getMessage());
+		} finally {
+			done.countDown();
+		}
+	}
+}
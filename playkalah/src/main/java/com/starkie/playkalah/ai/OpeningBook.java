@@ -0,0 +1,186 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * The best moves of the positions of the first plies of a game, read from a file written by OpeningBookGenerator.
+ * Every game starts from the same position so its opening reaches the same few positions, which are searched once
+ * ahead of time rather than for each game.  The file is memory mapped like the EndgameDatabase: a 32 byte header, the
+ * magic number, version, number of pits and seeds, the plies of the book, the depth searched and the number of
+ * positions, followed by the board hash of every position in increasing order then an int for each packing its best
+ * move, score and the depth it was searched to.  A lookup is a binary search of the hashes, with no objects on the heap
+ * for the positions.
+ * Lookups are safe from any number of threads.
+ * @author luke.starkie
+ */
+public class OpeningBook {
+
+	/**
+	 * The depth of a move whose score is exact, solved to the end of the game
+	 */
+	public static final int SOLVED_DEPTH = 0xFF;
+
+	/**
+	 * "KBOK"
+	 */
+	static final int MAGIC = 0x4b424f4b;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 32;
+
+	private static final int MOVE_SHIFT = 16;
+	private static final int DEPTH_SHIFT = 20;
+
+	private final int pits;
+
+	private final int seeds;
+
+	private final int plies;
+
+	private final int searchDepth;
+
+	private final int size;
+
+	/**
+	 * The offset of the moves, after the hashes
+	 */
+	private final int movesOffset;
+
+	private final MappedByteBuffer positions;
+
+	private OpeningBook(int pits, int seeds, int plies, int searchDepth, int size, MappedByteBuffer positions) {
+		this.pits = pits;
+		this.seeds = seeds;
+		this.plies = plies;
+		this.searchDepth = searchDepth;
+		this.size = size;
+		this.movesOffset = HEADER_BYTES + 8 * size;
+		this.positions = positions;
+	}
+
+	/**
+	 * Maps a book file.
+	 * @param file the file written by the generator
+	 * @return
+	 * @throws IOException if the file cannot be read or is not a complete opening book
+	 */
+	public static OpeningBook open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read until the header is full or the file ends
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not an opening book: " + file);
+			}
+			int pits = header.getInt();
+			int seeds = header.getInt();
+			int plies = header.getInt();
+			int searchDepth = header.getInt();
+			int size = header.getInt();
+			long length = HEADER_BYTES + 12L * size;
+			if (size < 0 || channel.size() != length) {
+				throw new IOException("Opening book is incomplete, expected " + length + " bytes: " + file);
+			}
+			// the mapping stays valid once the channel is closed
+			return new OpeningBook(pits, seeds, plies, searchDepth, size,
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+		}
+	}
+
+	/**
+	 * Returns the book move of a position.
+	 * @param board the position
+	 * @return the best move and its score from the side to move's point of view, with the depth searched or SOLVED_DEPTH,
+	 * or null if the book does not hold the position
+	 */
+	public SearchResult lookup(Board board) {
+		int entry = find(board.getHash());
+		if (entry == 0) {
+			return null;
+		}
+		return new SearchResult(pitNumber(entry), score(entry), depth(entry), 0, 0);
+	}
+
+	/**
+	 * Binary search for a position's packed entry.
+	 * @param hash the board hash
+	 * @return the entry, or 0 if the book does not hold the position
+	 */
+	int find(long hash) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long key = positions.getLong(HEADER_BYTES + 8 * middle);
+			if (key < hash) {
+				low = middle + 1;
+			} else if (key > hash) {
+				high = middle - 1;
+			} else {
+				return positions.getInt(movesOffset + 4 * middle);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Packs a book move, never 0 as the pit number is at least 1.
+	 * @param pitNumber the best move
+	 * @param score its score
+	 * @param depth the depth searched, or SOLVED_DEPTH
+	 * @return
+	 */
+	static int pack(int pitNumber, int score, int depth) {
+		return (score & 0xFFFF) | (pitNumber << MOVE_SHIFT) | (Math.min(depth, SOLVED_DEPTH) << DEPTH_SHIFT);
+	}
+
+	static int score(int entry) {
+		return (short) entry;
+	}
+
+	static int pitNumber(int entry) {
+		return (entry >>> MOVE_SHIFT) & 0xF;
+	}
+
+	static int depth(int entry) {
+		return (entry >>> DEPTH_SHIFT) & 0xFF;
+	}
+
+	public int getPits() {
+		return pits;
+	}
+
+	public int getSeeds() {
+		return seeds;
+	}
+
+	/**
+	 * The plies from the start of the game the book holds every position of.
+	 * @return
+	 */
+	public int getPlies() {
+		return plies;
+	}
+
+	public int getSearchDepth() {
+		return searchDepth;
+	}
+
+	/**
+	 * The number of positions in the book.
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,213 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Offline generator of an opening book, searching every position reached in the first plies of a kalah(pits, seeds)
+ * game.  The positions are listed breadth first from the start, each once however many move orders reach it, and
+ * searched in parallel on a fork join pool by engines sharing a transposition table and any endgame database.  A
+ * position the GameSolver has solved is taken from its store with its exact score instead.  The hashes are sorted
+ * and written followed by the moves in the same order, see OpeningBook.
+ * Run with: mvn -P book compile exec:exec -Dbook.args="pits seeds plies searchDepth file [threads] [solutionFile]"
+ * @author luke.starkie
+ */
+public class OpeningBookGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(OpeningBookGenerator.class);
+
+	/**
+	 * The most positions a book may hold, so it can be mapped into a single buffer
+	 */
+	static final int MAX_POSITIONS = (Integer.MAX_VALUE - OpeningBook.HEADER_BYTES) / 12;
+
+	/**
+	 * The time allowed each search, which is limited by its depth rather than the clock
+	 */
+	private static final long SEARCH_TIME_BUDGET_MILLIS = 600000;
+
+	private final int pits;
+
+	private final int seeds;
+
+	private final int plies;
+
+	private final int searchDepth;
+
+	private final int threads;
+
+	private final SolutionStore solutions;
+
+	private final EndgameDatabase endgame;
+
+	/**
+	 * Creates a generator.
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit starts with
+	 * @param plies the plies from the start of the game to hold every position of
+	 * @param searchDepth the depth to search each position
+	 * @param threads the number of threads to search with
+	 * @param solutions the solver's store to take solved positions from, may be null
+	 * @param endgame the endgame database to search with, may be null
+	 */
+	public OpeningBookGenerator(int pits, int seeds, int plies, int searchDepth, int threads, SolutionStore solutions,
+			EndgameDatabase endgame) {
+		// checks the size of board
+		new Board(pits, seeds);
+		if (plies < 0) {
+			throw new IllegalArgumentException("Book plies must not be negative");
+		} else if (searchDepth < 1 || searchDepth > SearchEngine.MAX_DEPTH) {
+			throw new IllegalArgumentException("Search depth must be from 1 to " + SearchEngine.MAX_DEPTH);
+		} else if (threads < 1) {
+			throw new IllegalArgumentException("Generator threads must be at least 1");
+		}
+		this.pits = pits;
+		this.seeds = seeds;
+		this.plies = plies;
+		this.searchDepth = searchDepth;
+		this.threads = threads;
+		this.solutions = solutions;
+		this.endgame = endgame;
+	}
+
+	/**
+	 * Searches every position and writes the book, replacing any existing file.
+	 * @param file the book file
+	 * @throws IOException
+	 */
+	public void generate(Path file) throws IOException {
+		long start = System.nanoTime();
+		List<Board> positions = listPositions();
+		int[] moves = new int[positions.size()];
+		TranspositionTable table = new TranspositionTable(64, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		ThreadLocal<SearchEngine> engines = ThreadLocal.withInitial(() -> new SearchEngine(table, endgame));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, moves.length).parallel()
+					.forEach(i -> moves[i] = bookMove(positions.get(i), engines.get()))).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted generating the opening book", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to search the opening book", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		long[] hashes = new long[positions.size()];
+		Map<Long, Integer> moveIndex = new HashMap<>();
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = positions.get(i).getHash();
+			moveIndex.put(hashes[i], i);
+		}
+		Arrays.sort(hashes);
+		ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + 12 * hashes.length);
+		buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(pits).putInt(seeds).putInt(plies)
+				.putInt(searchDepth).putInt(hashes.length).putInt(0);
+		for (long hash : hashes) {
+			buffer.putLong(hash);
+		}
+		for (long hash : hashes) {
+			buffer.putInt(moves[moveIndex.get(hash)]);
+		}
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		logger.info("Wrote {} positions of {} plies searched {} deep in {}ms", new Object[]{hashes.length, plies,
+				searchDepth, (System.nanoTime() - start) / 1000000});
+	}
+
+	/**
+	 * Lists the positions of the first plies that are not completed games.
+	 */
+	private List<Board> listPositions() {
+		List<Board> positions = new ArrayList<>();
+		Set<Long> seen = new HashSet<>();
+		List<Board> ply = new ArrayList<>();
+		Board start = new Board(pits, seeds);
+		ply.add(start);
+		seen.add(start.getHash());
+		for (int depth = 0; ; depth++) {
+			positions.addAll(ply);
+			if (positions.size() > MAX_POSITIONS) {
+				throw new IllegalArgumentException("Opening book would be too large, use fewer plies");
+			} else if (depth == plies) {
+				return positions;
+			}
+			List<Board> nextPly = new ArrayList<>();
+			for (Board board : ply) {
+				int side = board.getSideToMove();
+				for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+					if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+						continue;
+					}
+					Board child = new Board(board);
+					child.sow(side, pitNumber);
+					if (!child.isGameCompleted() && seen.add(child.getHash())) {
+						nextPly.add(child);
+					}
+				}
+			}
+			ply = nextPly;
+		}
+	}
+
+	/**
+	 * The packed move of a position, solved if the store holds it and searched otherwise.
+	 */
+	private int bookMove(Board board, SearchEngine engine) {
+		if (solutions != null) {
+			long entry = solutions.probe(board.getHash());
+			if (entry != 0 && SolutionStore.isSolved(entry) && SolutionStore.pitNumber(entry) != 0) {
+				return OpeningBook.pack(SolutionStore.pitNumber(entry), SolutionStore.lower(entry),
+						OpeningBook.SOLVED_DEPTH);
+			}
+		}
+		SearchResult result = engine.search(board, SEARCH_TIME_BUDGET_MILLIS, searchDepth);
+		// a search that reached the end of every line stops short of the depth asked for
+		return OpeningBook.pack(result.getPitNumber(), result.getScore(),
+				result.getDepth() < searchDepth ? OpeningBook.SOLVED_DEPTH : result.getDepth());
+	}
+
+	/**
+	 * Generates a book from the command line.
+	 * @param args the pits and seeds, the plies, the search depth, the file and optionally the number of threads and
+	 * the solver's store
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 5 || args.length > 7) {
+			System.err.println("Usage: OpeningBookGenerator pits seeds plies searchDepth file [threads] [solutionFile]");
+			System.exit(1);
+		}
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		SolutionStore solutions = args.length > 6 ? SolutionStore.open(Paths.get(args[6])) : null;
+		OpeningBookGenerator generator = new OpeningBookGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]), threads, solutions, null);
+		generator.generate(Paths.get(args[4]));
+	}
+}
@@ -0,0 +1,161 @@
+package com.starkie.playkalah.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Lazy SMP search, running the same search on several threads which share one transposition table.
+ * The calling thread runs the main search while helper threads from a fixed pool search the same root, every other
+ * helper starting a ply deeper.  The helpers do not communicate other than through the table, where their results
+ * let the other threads skip parts of the tree.  The helpers are stopped as soon as the main search returns and the
+ * result of the deepest completed iteration on any thread is played.
+ * Safe to use from several threads at once, each thread keeps its own engine.
+ * @author luke.starkie
+ */
+public class ParallelSearch {
+
+	public static final int MAX_THREADS = 256;
+
+	/**
+	 * The number of threads searching each position, including the calling thread
+	 */
+	private final int threads;
+
+	private final TranspositionTable table;
+
+	/**
+	 * Runs the helper searches, null when searching on the calling thread only
+	 */
+	private final ExecutorService helpers;
+
+	private final ThreadLocal<SearchEngine> engines;
+
+	/**
+	 * Creates a parallel search.
+	 * @param threads the number of threads searching each position, 0 for one per available processor
+	 * @param table the table shared by the threads, may be null for a single thread
+	 */
+	public ParallelSearch(int threads, TranspositionTable table) {
+		this(threads, table, null);
+	}
+
+	/**
+	 * Creates a parallel search using an endgame database.
+	 * @param threads the number of threads searching each position, 0 for one per available processor
+	 * @param table the table shared by the threads, may be null for a single thread
+	 * @param endgame the endgame database shared by the threads, may be null
+	 */
+	public ParallelSearch(int threads, TranspositionTable table, EndgameDatabase endgame) {
+		if (threads < 0 || threads > MAX_THREADS) {
+			throw new IllegalArgumentException("Search threads must be from 0 to " + MAX_THREADS);
+		}
+		this.threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+		if (this.threads > 1 && table == null) {
+			throw new IllegalArgumentException("A parallel search needs a transposition table");
+		}
+		this.table = table;
+		this.engines = ThreadLocal.withInitial(() -> new SearchEngine(table, endgame));
+		if (this.threads > 1) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			this.helpers = Executors.newFixedThreadPool(this.threads - 1, runnable -> {
+				Thread thread = new Thread(runnable, "search-helper-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			this.helpers = null;
+		}
+	}
+
+	/**
+	 * Searches for the best move for the side to move, see SearchEngine.search.
+	 * @param root the position to search, left unchanged
+	 * @param timeBudgetMillis the time allowed for the search
+	 * @param maxDepth the deepest iteration to search
+	 * @return the best move of the deepest completed iteration, with the nodes searched by every thread
+	 */
+	public SearchResult search(Board root, long timeBudgetMillis, int maxDepth) {
+		if (helpers == null) {
+			return engines.get().search(root, timeBudgetMillis, maxDepth);
+		}
+		if (root.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		long start = System.nanoTime();
+		table.newSearch();
+		AtomicBoolean stopped = new AtomicBoolean();
+		// a helper or the caller claims each helper search, so one still queued behind other games' helpers when
+		// the main search finishes is skipped rather than waited for
+		AtomicIntegerArray claimed = new AtomicIntegerArray(threads - 1);
+		List<Future<SearchResult>> helperResults = new ArrayList<>(threads - 1);
+		for (int helper = 0; helper < threads - 1; helper++) {
+			int index = helper;
+			int firstDepth = Math.min(1 + (helper & 1), maxDepth);
+			helperResults.add(helpers.submit(() -> claimed.compareAndSet(index, 0, 1)
+					? engines.get().search(root, timeBudgetMillis, maxDepth, firstDepth, stopped) : null));
+		}
+
+		SearchResult best = engines.get().search(root, timeBudgetMillis, maxDepth, 1, stopped);
+		stopped.set(true);
+		long nodes = best.getNodes();
+		for (int helper = 0; helper < threads - 1; helper++) {
+			if (claimed.compareAndSet(helper, 0, 1)) {
+				continue;
+			}
+			SearchResult result = waitFor(helperResults.get(helper));
+			nodes += result.getNodes();
+			if (result.getDepth() > best.getDepth()) {
+				best = result;
+			}
+		}
+		return new SearchResult(best.getPitNumber(), best.getScore(), best.getDepth(), nodes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Scores every move of the side to move on the calling thread, see SearchEngine.analyse.  The table is shared
+	 * with the searches, so an analysis benefits from the computer's earlier moves and they from it.
+	 * @param root the position to analyse, left unchanged
+	 * @param maxDepth the depth to search every move to
+	 * @return
+	 */
+	public Analysis analyse(Board root, int maxDepth) {
+		return engines.get().analyse(root, maxDepth);
+	}
+
+	private static SearchResult waitFor(Future<SearchResult> helperResult) {
+		try {
+			return helperResult.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for search threads", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search thread failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the helper threads, searches can no longer be made.
+	 */
+	public void shutdown() {
+		if (helpers != null) {
+			helpers.shutdownNow();
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public TranspositionTable getTable() {
+		return table;
+	}
+}
@@ -0,0 +1,431 @@
+package com.starkie.playkalah.ai;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Computer player searching for the best move with negamax alpha-beta and iterative deepening.
+ * Moves are made and unmade on one board, changing only the cells each move sows rather than copying the board at
+ * every node, so the search allocates nothing per node.
+ * A move that ends in the player's own kalah gives them another turn, so its child is searched without
+ * negating the score.  Positions reached through different move orders share results through an optional
+ * transposition table, which may be shared by engines on other threads.  Positions held by an optional endgame
+ * database are scored exactly without searching further.  An engine itself is not thread safe, use one per search
+ * thread.
+ * @author luke.starkie
+ */
+public class SearchEngine {
+
+	public static final int MAX_DEPTH = 64;
+
+	static final int INFINITY = 1000000;
+
+	/**
+	 * Check the clock every 4096 nodes
+	 */
+	private static final long CLOCK_CHECK_MASK = 4095;
+
+	/**
+	 * Stop flag for searches that can only be stopped by their clock
+	 */
+	private static final AtomicBoolean NEVER_STOPPED = new AtomicBoolean();
+
+	/**
+	 * The position searched, a copy of the root that moves are made and unmade on
+	 */
+	private Board board;
+
+	/**
+	 * Shared table of earlier results, null to search without one
+	 */
+	private final TranspositionTable table;
+
+	/**
+	 * Exact scores of endgame positions, null to search without one
+	 */
+	private final EndgameDatabase endgame;
+
+	/**
+	 * Move list for each ply of the search
+	 */
+	private final int[][] moves = new int[MAX_DEPTH + 1][Board.MAX_PITS];
+
+	private long nodes;
+	private long deadline;
+	private AtomicBoolean stopped;
+	private boolean aborted;
+	private boolean horizonReached;
+	private long probes;
+	private long hits;
+	private long stores;
+
+	/**
+	 * Creates an engine without a transposition table.
+	 */
+	public SearchEngine() {
+		this(null);
+	}
+
+	/**
+	 * Creates an engine sharing a transposition table.
+	 * @param table the table, or null to search without one
+	 */
+	public SearchEngine(TranspositionTable table) {
+		this(table, null);
+	}
+
+	/**
+	 * Creates an engine sharing a transposition table and an endgame database.
+	 * @param table the table, or null to search without one
+	 * @param endgame the endgame database, or null to search without one
+	 */
+	public SearchEngine(TranspositionTable table, EndgameDatabase endgame) {
+		this.table = table;
+		this.endgame = endgame;
+	}
+
+	/**
+	 * Searches for the best move for the side to move, deepening one ply at a time until the time budget is spent,
+	 * the maximum depth is reached or every line has been searched to the end of the game.
+	 * @param root the position to search, left unchanged
+	 * @param timeBudgetMillis the time allowed for the search
+	 * @param maxDepth the deepest iteration to search
+	 * @return the best move of the deepest completed iteration
+	 */
+	public SearchResult search(Board root, long timeBudgetMillis, int maxDepth) {
+		if (table != null) {
+			table.newSearch();
+		}
+		return search(root, timeBudgetMillis, maxDepth, 1, NEVER_STOPPED);
+	}
+
+	/**
+	 * Searches as above, starting at a given depth and stopping early once the flag is set.  Used by the helper
+	 * threads of a parallel search, which skip depths to spread out over the tree.  The caller starts a new
+	 * search of the table so the threads searching together share a generation.
+	 * @param root the position to search, left unchanged
+	 * @param timeBudgetMillis the time allowed for the search
+	 * @param maxDepth the deepest iteration to search
+	 * @param firstDepth the first iteration to search
+	 * @param stopped set by another thread to end the search, checked with the clock
+	 * @return the best move of the deepest completed iteration, depth 0 if none was completed
+	 */
+	SearchResult search(Board root, long timeBudgetMillis, int maxDepth, int firstDepth, AtomicBoolean stopped) {
+		if (root.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		long start = System.nanoTime();
+		deadline = start + timeBudgetMillis * 1000000L;
+		this.stopped = stopped;
+		nodes = 0;
+		probes = 0;
+		hits = 0;
+		stores = 0;
+		aborted = false;
+		preparePosition(root);
+
+		int side = root.getSideToMove();
+		int[] rootMoves = moves[0];
+		int moveCount = orderMoves(root, side, rootMoves);
+		int bestPit = rootMoves[0];
+		int bestScore = 0;
+		int completedDepth = 0;
+		int depthLimit = Math.min(maxDepth, MAX_DEPTH);
+
+		for (int depth = firstDepth; depth <= depthLimit; depth++) {
+			horizonReached = false;
+			int alpha = -INFINITY;
+			int iterationBest = rootMoves[0];
+			for (int i = 0; i < moveCount; i++) {
+				int pitNumber = rootMoves[i];
+				int delta = board.make(side, pitNumber);
+				int score = board.getSideToMove() == side
+						? negamax(1, depth - 1, alpha, INFINITY)
+						: -negamax(1, depth - 1, -INFINITY, -alpha);
+				board.unmake(delta);
+				if (aborted) {
+					break;
+				}
+				if (score > alpha) {
+					alpha = score;
+					iterationBest = pitNumber;
+				}
+			}
+			// an iteration cut short by the clock is discarded, the depth before it was searched completely
+			if (aborted) {
+				break;
+			}
+			bestPit = iterationBest;
+			bestScore = alpha;
+			completedDepth = depth;
+			moveToFront(rootMoves, moveCount, bestPit);
+			if (!horizonReached) {
+				break;
+			}
+		}
+		if (table != null) {
+			table.recordStatistics(probes, hits, stores);
+		}
+		return new SearchResult(bestPit, bestScore, completedDepth, nodes, System.nanoTime() - start);
+	}
+
+	/**
+	 * Scores every move of the side to move to a fixed depth, deepening one ply at a time so each iteration's table
+	 * entries order the next.  Each move is searched with a full window, so its score is exact rather than a bound
+	 * against the best move found before it.  The search is not limited by the clock, the caller bounds the depth.
+	 * @param root the position to analyse, left unchanged
+	 * @param maxDepth the depth to search every move to
+	 * @return the score of each pit, stopping short of the depth once every line reaches the end of the game
+	 */
+	public Analysis analyse(Board root, int maxDepth) {
+		if (root.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		if (table != null) {
+			table.newSearch();
+		}
+		deadline = Long.MAX_VALUE;
+		stopped = NEVER_STOPPED;
+		nodes = 0;
+		probes = 0;
+		hits = 0;
+		stores = 0;
+		aborted = false;
+		preparePosition(root);
+
+		int side = root.getSideToMove();
+		int[] rootMoves = moves[0];
+		int moveCount = orderMoves(root, side, rootMoves);
+		Integer[] pitScores = new Integer[root.getPits()];
+		int bestPit = rootMoves[0];
+		int bestScore = -INFINITY;
+		int completedDepth = 0;
+		int depthLimit = Math.min(maxDepth, MAX_DEPTH);
+
+		for (int depth = 1; depth <= depthLimit; depth++) {
+			horizonReached = false;
+			bestScore = -INFINITY;
+			for (int i = 0; i < moveCount; i++) {
+				int pitNumber = rootMoves[i];
+				int delta = board.make(side, pitNumber);
+				int score = board.getSideToMove() == side
+						? negamax(1, depth - 1, -INFINITY, INFINITY)
+						: -negamax(1, depth - 1, -INFINITY, INFINITY);
+				board.unmake(delta);
+				pitScores[pitNumber - 1] = score;
+				if (score > bestScore) {
+					bestScore = score;
+					bestPit = pitNumber;
+				}
+			}
+			completedDepth = depth;
+			moveToFront(rootMoves, moveCount, bestPit);
+			if (!horizonReached) {
+				break;
+			}
+		}
+		if (table != null) {
+			table.recordStatistics(probes, hits, stores);
+		}
+		return new Analysis(bestScore, bestPit, completedDepth, pitScores, nodes);
+	}
+
+	/**
+	 * Fail soft negamax search of the board, which holds the position at the ply and is left holding it.
+	 * @param ply the distance from the root
+	 * @param depth the remaining depth
+	 * @param alpha the score the side to move is already assured of
+	 * @param beta the score the opponent is already assured of
+	 * @return the score from the point of view of the side to move
+	 */
+	private int negamax(int ply, int depth, int alpha, int beta) {
+		Board board = this.board;
+		if ((++nodes & CLOCK_CHECK_MASK) == 0 && (System.nanoTime() > deadline || stopped.get())) {
+			aborted = true;
+			return 0;
+		}
+		if (board.isGameCompleted()) {
+			return finalScore(board);
+		}
+		if (endgame != null) {
+			int score = endgame.score(board);
+			if (score != EndgameDatabase.NOT_FOUND) {
+				return score;
+			}
+		}
+		if (depth == 0) {
+			horizonReached = true;
+			return evaluate(board);
+		}
+
+		long hash = board.getHash();
+		int tableMove = 0;
+		if (table != null) {
+			probes++;
+			long entry = table.probe(hash);
+			if (entry != 0) {
+				hits++;
+				tableMove = TranspositionTable.pitNumber(entry);
+				// a solved entry searched every line to the end of the game so is good for any depth
+				boolean solved = TranspositionTable.isSolved(entry);
+				if (solved || TranspositionTable.depth(entry) >= depth) {
+					int score = TranspositionTable.score(entry);
+					int bound = TranspositionTable.bound(entry);
+					if (bound == TranspositionTable.EXACT
+							|| (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+							|| (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+						horizonReached |= !solved;
+						return score;
+					}
+				}
+			}
+		}
+
+		int alphaOriginal = alpha;
+		boolean outerHorizonReached = horizonReached;
+		horizonReached = false;
+		int side = board.getSideToMove();
+		int[] plyMoves = moves[ply];
+		int moveCount = orderMoves(board, side, plyMoves);
+		if (tableMove != 0) {
+			moveToFront(plyMoves, moveCount, tableMove);
+		}
+		int best = -INFINITY;
+		int bestPit = 0;
+		for (int i = 0; i < moveCount; i++) {
+			int delta = board.make(side, plyMoves[i]);
+			int score = board.getSideToMove() == side
+					? negamax(ply + 1, depth - 1, alpha, beta)
+					: -negamax(ply + 1, depth - 1, -beta, -alpha);
+			board.unmake(delta);
+			if (aborted) {
+				return 0;
+			}
+			if (score > best) {
+				best = score;
+				bestPit = plyMoves[i];
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+
+		boolean solved = !horizonReached;
+		horizonReached |= outerHorizonReached;
+		if (table != null) {
+			int bound = best <= alphaOriginal ? TranspositionTable.UPPER_BOUND
+					: best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+			table.store(hash, best, depth, bound, bestPit, solved);
+			stores++;
+		}
+		return best;
+	}
+
+	/**
+	 * Heuristic score for the side to move, the difference between the stones in the kalahs.
+	 * @param board the position
+	 * @return
+	 */
+	static int evaluate(Board board) {
+		int side = board.getSideToMove();
+		return board.getStones(board.kalahIndex(side)) - board.getStones(board.kalahIndex(1 - side));
+	}
+
+	/**
+	 * Exact score for the side to move once the game is completed, stones left in a player's pits count as theirs.
+	 * @param board the completed position
+	 * @return
+	 */
+	static int finalScore(Board board) {
+		int side = board.getSideToMove();
+		return countStones(board, side) - countStones(board, 1 - side);
+	}
+
+	private static int countStones(Board board, int side) {
+		int kalah = board.kalahIndex(side);
+		int stones = board.getStones(kalah);
+		for (int cell = kalah - board.getPits(); cell < kalah; cell++) {
+			stones += board.getStones(cell);
+		}
+		return stones;
+	}
+
+	/**
+	 * Writes the legal moves to the array, extra turn moves first then captures then the rest.
+	 * Within each group pits nearer the kalah come first, playing those first keeps the other extra turns available.
+	 * @param board the position
+	 * @param side the side to move
+	 * @param out receives the pit numbers
+	 * @return the number of legal moves
+	 */
+	static int orderMoves(Board board, int side, int[] out) {
+		int pits = board.getPits();
+		int lapLength = 2 * pits + 1;
+		int count = 0;
+		for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+			int cell = board.pitIndex(side, pitNumber);
+			int stones = board.getStones(cell);
+			if (stones == 0) {
+				continue;
+			}
+			int distanceToKalah = pits + 1 - pitNumber;
+			int priority = 0;
+			if (stones % lapLength == distanceToKalah) {
+				priority = 2;
+			} else if (stones < distanceToKalah) {
+				int target = cell + stones;
+				if (board.getStones(target) == 0 && board.getStones(board.oppositeIndex(target)) > 0) {
+					priority = 1;
+				}
+			}
+			// insertion sort on priority then pit number, both descending, packed as priority * 16 + pit
+			int key = (priority << 4) | pitNumber;
+			int i = count++;
+			while (i > 0 && out[i - 1] < key) {
+				out[i] = out[i - 1];
+				i--;
+			}
+			out[i] = key;
+		}
+		for (int i = 0; i < count; i++) {
+			out[i] &= 0xF;
+		}
+		return count;
+	}
+
+	/**
+	 * Moves a pit to the front of a move list, keeping the order of the others.
+	 * @param moves the pit numbers
+	 * @param count the number of moves in the list
+	 * @param pitNumber the pit to search first
+	 */
+	static void moveToFront(int[] moves, int count, int pitNumber) {
+		for (int i = 0; i < count; i++) {
+			if (moves[i] == pitNumber) {
+				System.arraycopy(moves, 0, moves, 1, i);
+				moves[0] = pitNumber;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the root to the board searched, reusing the board between searches of the same size.
+	 * @param root the position to search
+	 */
+	private void preparePosition(Board root) {
+		if (board == null || board.getPits() != root.getPits() || board.getSeeds() != root.getSeeds()) {
+			board = new Board(root);
+		} else {
+			board.copyFrom(root);
+		}
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+}
@@ -0,0 +1,70 @@
+package com.starkie.playkalah.ai;
+
+/**
+ * The outcome of a search for the best move.
+ * @author luke.starkie
+ */
+public class SearchResult {
+
+	/**
+	 * The best pit found for the side to move
+	 */
+	private final int pitNumber;
+
+	/**
+	 * The evaluation of the best pit from the point of view of the side to move, in stones
+	 */
+	private final int score;
+
+	/**
+	 * The deepest iteration completed
+	 */
+	private final int depth;
+
+	/**
+	 * The number of positions visited
+	 */
+	private final long nodes;
+
+	/**
+	 * The time taken by the search
+	 */
+	private final long elapsedNanos;
+
+	public SearchResult(int pitNumber, int score, int depth, long nodes, long elapsedNanos) {
+		this.pitNumber = pitNumber;
+		this.score = score;
+		this.depth = depth;
+		this.nodes = nodes;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getPitNumber() {
+		return pitNumber;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public long getNodesPerSecond() {
+		return elapsedNanos == 0 ? 0 : nodes * 1000000000L / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "[pit=" + pitNumber + ", score=" + score + ", depth=" + depth + ", nodes=" + nodes + ", nodesPerSecond=" + getNodesPerSecond() + "]";
+	}
+}
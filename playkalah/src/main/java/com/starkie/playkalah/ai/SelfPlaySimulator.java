@@ -0,0 +1,243 @@
+package com.starkie.playkalah.ai;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Headless simulator playing games between two strategies for bot evaluation, with the rules of Board.sow.
+ * The games are split into chunks on a work stealing fork join pool.  Each thread plays on its own reusable board
+ * with its own strategies, and each chunk is played with its own random numbers and totals, so nothing is shared
+ * while the games are played.  The totals of each finished chunk are handed to the calling thread, which merges them
+ * and reports the running totals as they grow.  The chunks and their random numbers depend only on the seed and the
+ * number of games, so a simulation gives the same totals whatever the number of threads.
+ * Game i opens with player 1's pit i / 2 % pits + 1 and the first strategy is player 1 in the even games, so both
+ * strategies play every opening from both sides equally often.
+ * Run with: mvn -P simulate compile exec:exec -Dsimulate.args="strategy1 strategy2 games [threads] [pits seeds]"
+ * @author luke.starkie
+ */
+public class SelfPlaySimulator {
+
+	/**
+	 * The most games played by one task, large enough to hide the cost of the task and handing on its totals
+	 */
+	static final int CHUNK_GAMES = 512;
+
+	private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+	private final Supplier<Strategy> first;
+
+	private final Supplier<Strategy> second;
+
+	private final int pits;
+
+	private final int seeds;
+
+	private final long seed;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * The board and strategies of each thread, reused for every game it plays
+	 */
+	private final ThreadLocal<Players> players;
+
+	/**
+	 * Creates a simulator with its pool of threads.
+	 * @param first makes the first strategy for each thread
+	 * @param second makes the second strategy for each thread
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit starts with
+	 * @param threads the number of threads to play on, 0 for one per available processor
+	 * @param seed the seed of the random numbers of every game
+	 */
+	public SelfPlaySimulator(Supplier<Strategy> first, Supplier<Strategy> second, int pits, int seeds, int threads, long seed) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("Simulator threads must not be negative");
+		}
+		// the boards are made by the pool's threads, so the size is checked here
+		new Board(pits, seeds);
+		this.first = first;
+		this.second = second;
+		this.pits = pits;
+		this.seeds = seeds;
+		this.seed = seed;
+		this.pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+		this.players = ThreadLocal.withInitial(Players::new);
+	}
+
+	/**
+	 * Plays the games, reporting the totals so far as chunks finish.
+	 * @param games the number of games to play
+	 * @param progress given a copy of the totals every progressIntervalMillis while the games are played, may be null
+	 * @param progressIntervalMillis the time between reports
+	 * @return the totals of every game
+	 */
+	public SimulationStats run(long games, Consumer<SimulationStats> progress, long progressIntervalMillis) {
+		if (games < 0) {
+			throw new IllegalArgumentException("Games must not be negative");
+		}
+		BlockingQueue<SimulationStats> finished = new LinkedBlockingQueue<>();
+		// queued after the last chunk, however the games end
+		SimulationStats end = new SimulationStats(pits);
+		ForkJoinTask<?> task = pool.submit(() -> {
+			try {
+				new Games(0, games, finished).invoke();
+			} finally {
+				finished.add(end);
+			}
+		});
+		SimulationStats total = new SimulationStats(pits);
+		long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, progressIntervalMillis));
+		long nextReport = System.nanoTime() + interval;
+		try {
+			for (SimulationStats chunk = finished.poll(interval, TimeUnit.NANOSECONDS); chunk != end;
+					chunk = finished.poll(Math.max(0, nextReport - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+				if (chunk != null) {
+					total.merge(chunk);
+				}
+				if (progress != null && System.nanoTime() >= nextReport) {
+					progress.accept(total.copy());
+					nextReport += interval;
+				}
+			}
+			task.get();
+		} catch (InterruptedException e) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted running the simulation", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Simulation failed", e.getCause());
+		}
+		return total;
+	}
+
+	/**
+	 * Stops the threads, no more simulations can be run.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Plays a range of games, splitting it in two until it is one chunk.
+	 */
+	private final class Games extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long from;
+		private final long to;
+		private final BlockingQueue<SimulationStats> finished;
+
+		Games(long from, long to, BlockingQueue<SimulationStats> finished) {
+			this.from = from;
+			this.to = to;
+			this.finished = finished;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK_GAMES) {
+				long middle = (from + to) >>> 1;
+				invokeAll(new Games(from, middle, finished), new Games(middle, to, finished));
+				return;
+			}
+			Players thread = players.get();
+			SplittableRandom random = new SplittableRandom(seed + from * SEED_STEP);
+			SimulationStats stats = new SimulationStats(pits);
+			for (long game = from; game < to; game++) {
+				thread.play(game, random, stats);
+			}
+			finished.add(stats);
+		}
+	}
+
+	/**
+	 * A thread's board and strategies
+	 */
+	private final class Players {
+
+		private final Board board = new Board(pits, seeds);
+		private final Strategy firstStrategy = first.get();
+		private final Strategy secondStrategy = second.get();
+
+		void play(long game, SplittableRandom random, SimulationStats stats) {
+			int openingPit = (int) (game / 2 % pits) + 1;
+			boolean firstIsPlayer1 = (game & 1) == 0;
+			Strategy player1 = firstIsPlayer1 ? firstStrategy : secondStrategy;
+			Strategy player2 = firstIsPlayer1 ? secondStrategy : firstStrategy;
+			board.reset();
+			board.sow(Board.PLAYER_1, openingPit);
+			int moves = 1;
+			while (!board.isGameCompleted()) {
+				int side = board.getSideToMove();
+				board.sow(side, (side == Board.PLAYER_1 ? player1 : player2).choosePit(board, random));
+				moves++;
+			}
+			stats.record(openingPit, firstIsPlayer1, stones(Board.PLAYER_1), stones(Board.PLAYER_2), moves);
+		}
+
+		/**
+		 * A player's stones at the end of the game, in their kalah and any left in their pits.
+		 */
+		private int stones(int side) {
+			int kalah = board.kalahIndex(side);
+			int stones = board.getStones(kalah);
+			for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+				stones += board.getStones(board.pitIndex(side, pitNumber));
+			}
+			return stones;
+		}
+	}
+
+	/**
+	 * Runs a simulation from the command line, printing the totals every 5 seconds and at the end.
+	 * @param args the two strategies, the number of games and optionally the number of threads, pits and seeds
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3 && args.length != 4 && args.length != 6) {
+			System.err.println("Usage: SelfPlaySimulator strategy1 strategy2 games [threads] [pits seeds]");
+			System.err.println("Strategies are random, greedy or search:N");
+			System.exit(1);
+		}
+		String[] names = {args[0], args[1]};
+		long games = Long.parseLong(args[2]);
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		int pits = args.length > 4 ? Integer.parseInt(args[4]) : Board.DEFAULT_PITS;
+		int seeds = args.length > 4 ? Integer.parseInt(args[5]) : Board.DEFAULT_SEEDS;
+		SelfPlaySimulator simulator = new SelfPlaySimulator(Strategy.forName(names[0]), Strategy.forName(names[1]),
+				pits, seeds, threads, 42);
+		long start = System.nanoTime();
+		SimulationStats stats = simulator.run(games, progress -> print(progress, names, start, false), 5000);
+		simulator.shutdown();
+		print(stats, names, start, true);
+	}
+
+	private static void print(SimulationStats stats, String[] names, long start, boolean openings) {
+		double minutes = (System.nanoTime() - start) / 60e9;
+		System.out.println(String.format(Locale.ROOT, "%d games (%.0f a minute): %s wins %.1f%%, %s wins %.1f%%, "
+				+ "draws %.1f%%, margin %+.2f for %s, %.1f moves a game (%d to %d), player 1 wins %.1f%%",
+				stats.getGames(), stats.getGames() / minutes, names[0], 100 * stats.getWinRate(0), names[1],
+				100 * stats.getWinRate(1), 100 * stats.getDrawRate(), stats.getAverageMargin(), names[0],
+				stats.getAverageMoves(), stats.getMinMoves(), stats.getMaxMoves(), 100 * stats.getPlayer1WinRate()));
+		if (openings) {
+			System.out.println("opening pit    games  player 1 wins   draws  player 1 margin");
+			for (int pit = 1; pit <= stats.getPits(); pit++) {
+				System.out.println(String.format(Locale.ROOT, "%11d %8d %13.1f%% %6.1f%% %+16.2f", pit,
+						stats.getOpeningGames(pit), 100 * stats.getOpeningPlayer1WinRate(pit),
+						100 * stats.getOpeningDrawRate(pit), stats.getOpeningPlayer1AverageMargin(pit)));
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.starkie.playkalah.ai;
+
+import java.util.Arrays;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Totals of the games played by the SelfPlaySimulator between two strategies, the first and second.  Each simulator
+ * task totals its own games and the totals are merged, so nothing is shared while the games are played.  The
+ * strategies take turns to be player 1, each game opening with a given pit of player 1's so the advantage of moving
+ * first is totalled for every opening pit.
+ * @author luke.starkie
+ */
+public class SimulationStats {
+
+	private final int pits;
+
+	private long games;
+
+	/**
+	 * The games won by the first and second strategy
+	 */
+	private final long[] wins = new long[2];
+
+	private long draws;
+
+	/**
+	 * The first strategy's stones less the second's, summed over the games
+	 */
+	private long margin;
+
+	private long moves;
+
+	private int minMoves = Integer.MAX_VALUE;
+
+	private int maxMoves;
+
+	private long player1Wins;
+
+	/**
+	 * Player 1's stones less player 2's, summed over the games
+	 */
+	private long player1Margin;
+
+	/**
+	 * The games, player 1's wins, the draws and player 1's margin for each opening pit, indexed from 0
+	 */
+	private final long[] openingGames;
+	private final long[] openingPlayer1Wins;
+	private final long[] openingDraws;
+	private final long[] openingPlayer1Margin;
+
+	/**
+	 * Creates empty totals.
+	 * @param pits the number of pits on each side of the boards played
+	 */
+	public SimulationStats(int pits) {
+		if (pits < Board.MIN_PITS || pits > Board.MAX_PITS) {
+			throw new IllegalArgumentException("Not a valid number of pits");
+		}
+		this.pits = pits;
+		this.openingGames = new long[pits];
+		this.openingPlayer1Wins = new long[pits];
+		this.openingDraws = new long[pits];
+		this.openingPlayer1Margin = new long[pits];
+	}
+
+	/**
+	 * Adds a completed game.
+	 * @param openingPit player 1's first move
+	 * @param firstIsPlayer1 true if the first strategy was player 1
+	 * @param player1Stones player 1's stones at the end of the game
+	 * @param player2Stones player 2's stones at the end of the game
+	 * @param gameMoves the moves played, extra turns included
+	 */
+	public void record(int openingPit, boolean firstIsPlayer1, int player1Stones, int player2Stones, int gameMoves) {
+		int player1Lead = player1Stones - player2Stones;
+		int opening = openingPit - 1;
+		games++;
+		moves += gameMoves;
+		minMoves = Math.min(minMoves, gameMoves);
+		maxMoves = Math.max(maxMoves, gameMoves);
+		margin += firstIsPlayer1 ? player1Lead : -player1Lead;
+		player1Margin += player1Lead;
+		openingGames[opening]++;
+		openingPlayer1Margin[opening] += player1Lead;
+		if (player1Lead == 0) {
+			draws++;
+			openingDraws[opening]++;
+		} else if (player1Lead > 0) {
+			player1Wins++;
+			openingPlayer1Wins[opening]++;
+			wins[firstIsPlayer1 ? 0 : 1]++;
+		} else {
+			wins[firstIsPlayer1 ? 1 : 0]++;
+		}
+	}
+
+	/**
+	 * Adds the games of other totals to these.
+	 * @param other totals of games on the same size of board
+	 */
+	public void merge(SimulationStats other) {
+		if (other.pits != pits) {
+			throw new IllegalArgumentException("Totals are for different sizes of board");
+		}
+		games += other.games;
+		wins[0] += other.wins[0];
+		wins[1] += other.wins[1];
+		draws += other.draws;
+		margin += other.margin;
+		moves += other.moves;
+		minMoves = Math.min(minMoves, other.minMoves);
+		maxMoves = Math.max(maxMoves, other.maxMoves);
+		player1Wins += other.player1Wins;
+		player1Margin += other.player1Margin;
+		for (int opening = 0; opening < pits; opening++) {
+			openingGames[opening] += other.openingGames[opening];
+			openingPlayer1Wins[opening] += other.openingPlayer1Wins[opening];
+			openingDraws[opening] += other.openingDraws[opening];
+			openingPlayer1Margin[opening] += other.openingPlayer1Margin[opening];
+		}
+	}
+
+	/**
+	 * A copy of the totals so far, for reporting while more games are added.
+	 * @return
+	 */
+	public SimulationStats copy() {
+		SimulationStats copy = new SimulationStats(pits);
+		copy.merge(this);
+		return copy;
+	}
+
+	public int getPits() {
+		return pits;
+	}
+
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * The games won by a strategy.
+	 * @param strategy 0 for the first strategy, 1 for the second
+	 * @return
+	 */
+	public long getWins(int strategy) {
+		return wins[strategy];
+	}
+
+	public long getDraws() {
+		return draws;
+	}
+
+	/**
+	 * The fraction of the games won by a strategy.
+	 * @param strategy 0 for the first strategy, 1 for the second
+	 * @return
+	 */
+	public double getWinRate(int strategy) {
+		return rate(wins[strategy], games);
+	}
+
+	public double getDrawRate() {
+		return rate(draws, games);
+	}
+
+	/**
+	 * The first strategy's average lead in stones at the end of a game, negative if the second wins by more.
+	 * @return
+	 */
+	public double getAverageMargin() {
+		return rate(margin, games);
+	}
+
+	public double getAverageMoves() {
+		return rate(moves, games);
+	}
+
+	public int getMinMoves() {
+		return games == 0 ? 0 : minMoves;
+	}
+
+	public int getMaxMoves() {
+		return maxMoves;
+	}
+
+	public double getPlayer1WinRate() {
+		return rate(player1Wins, games);
+	}
+
+	public double getPlayer1AverageMargin() {
+		return rate(player1Margin, games);
+	}
+
+	/**
+	 * The games opened with a pit.
+	 * @param openingPit the pit number of player 1's first move
+	 * @return
+	 */
+	public long getOpeningGames(int openingPit) {
+		return openingGames[openingPit - 1];
+	}
+
+	public double getOpeningPlayer1WinRate(int openingPit) {
+		return rate(openingPlayer1Wins[openingPit - 1], openingGames[openingPit - 1]);
+	}
+
+	public double getOpeningDrawRate(int openingPit) {
+		return rate(openingDraws[openingPit - 1], openingGames[openingPit - 1]);
+	}
+
+	public double getOpeningPlayer1AverageMargin(int openingPit) {
+		return rate(openingPlayer1Margin[openingPit - 1], openingGames[openingPit - 1]);
+	}
+
+	private static double rate(long count, long total) {
+		return total == 0 ? 0 : (double) count / total;
+	}
+
+	@Override
+	public String toString() {
+		return "[games=" + games + ", wins=" + Arrays.toString(wins) + ", draws=" + draws + ", margin=" + margin
+				+ ", moves=" + moves + ", player1Wins=" + player1Wins + ", openingGames=" + Arrays.toString(openingGames) + "]";
+	}
+}
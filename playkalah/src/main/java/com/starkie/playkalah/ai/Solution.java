@@ -0,0 +1,53 @@
+package com.starkie.playkalah.ai;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The perfect play of a position, as solved by the GameSolver.  Scores are the final difference between the players'
+ * stones with best play by both, from the point of view of the side to move.
+ * @author luke.starkie
+ */
+public class Solution {
+
+	private final int score;
+
+	private final int pitNumber;
+
+	/**
+	 * The score of playing each pit, null for an empty pit or a move whose result is not held
+	 */
+	private final Integer[] pitScores;
+
+	public Solution(int score, int pitNumber, Integer[] pitScores) {
+		this.score = score;
+		this.pitNumber = pitNumber;
+		this.pitScores = pitScores;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * A best move of the side to move.
+	 * @return
+	 */
+	public int getPitNumber() {
+		return pitNumber;
+	}
+
+	/**
+	 * The score of playing each pit in turn, null where it is not known.
+	 * @return
+	 */
+	public List<Integer> getPitScores() {
+		return Collections.unmodifiableList(Arrays.asList(pitScores));
+	}
+
+	@Override
+	public String toString() {
+		return "[score=" + score + ", pit=" + pitNumber + ", pitScores=" + Arrays.toString(pitScores) + "]";
+	}
+}
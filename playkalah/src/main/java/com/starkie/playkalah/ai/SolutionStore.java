@@ -0,0 +1,394 @@
+package com.starkie.playkalah.ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * On disk table of the results of the GameSolver keyed by board hash, memory mapped so it may be far larger than the
+ * heap and survives the solver being stopped.  Each entry holds a lower and an upper bound on the final score of the
+ * position with best play from the side to move's point of view, equal once it is solved, with the best move found.
+ * Every bound stored is true whatever the search it came from, so a table written only in part, by a solver killed
+ * before its last checkpoint, is still correct and a resumed solver carries on from whatever reached the disk.
+ * As in the TranspositionTable the key is stored exclusive or'ed with the data so torn entries read as misses, any
+ * number of threads may probe and store without locking.  Entries are kept in buckets of four, a store replacing the
+ * entry of the bucket that took the least work to search; the positions the solver publishes are pinned so are only
+ * replaced by other pinned positions.
+ * The file is a 64 byte header, the magic number, version, number of pits and seeds of the position solved, the
+ * number of entries and the nodes and time spent solving so far, followed by 16 bytes for every entry.
+ * @author luke.starkie
+ */
+public class SolutionStore {
+
+	/**
+	 * The work of an entry that is never replaced by an unpinned one
+	 */
+	public static final int PINNED = 63;
+
+	/**
+	 * The bound stored when a side of the score is unknown, beyond any final score
+	 */
+	static final int UNBOUNDED = Short.MAX_VALUE;
+
+	/**
+	 * "KSOL"
+	 */
+	static final int MAGIC = 0x4b534f4c;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 64;
+
+	static final int BYTES_PER_ENTRY = 16;
+
+	static final int BUCKET_ENTRIES = 4;
+
+	/**
+	 * Entries are mapped in segments of 2^26, 1GB each, as a single buffer can map at most 2GB
+	 */
+	private static final int SEGMENT_SHIFT = 26;
+
+	private static final int NODES_OFFSET = 24;
+	private static final int ELAPSED_OFFSET = 32;
+
+	private static final int UPPER_SHIFT = 16;
+	private static final int MOVE_SHIFT = 32;
+	private static final int WORK_SHIFT = 36;
+	/**
+	 * Set in every entry so that data is never 0
+	 */
+	private static final long PRESENT = 1L << 42;
+
+	private final int pits;
+
+	private final int seeds;
+
+	private final long capacity;
+
+	private final long mask;
+
+	private final MappedByteBuffer header;
+
+	private final MappedByteBuffer[] segments;
+
+	private final boolean writable;
+
+	private SolutionStore(int pits, int seeds, long capacity, MappedByteBuffer header, MappedByteBuffer[] segments,
+			boolean writable) {
+		this.pits = pits;
+		this.seeds = seeds;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.header = header;
+		this.segments = segments;
+		this.writable = writable;
+	}
+
+	/**
+	 * Maps a store read only, for serving its results.
+	 * @param file the file written by the solver
+	 * @return
+	 * @throws IOException if the file cannot be read or is not a complete store
+	 */
+	public static SolutionStore open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return map(channel, file, FileChannel.MapMode.READ_ONLY, readHeader(channel, file));
+		}
+	}
+
+	/**
+	 * Maps a store for the solver, creating the file if there is none.  An existing file is resumed, it must be of
+	 * the same size and for the same board.
+	 * @param file the store file
+	 * @param pits the number of pits on each side of the board solved
+	 * @param seeds the number of stones each pit starts with
+	 * @param sizeMegabytes the size of the file, rounded down to a power of two number of entries
+	 * @return
+	 * @throws IOException if the file cannot be created or is not a store of the same size and board
+	 */
+	public static SolutionStore openForWriting(Path file, int pits, int seeds, int sizeMegabytes) throws IOException {
+		// checks the size of board
+		new Board(pits, seeds);
+		if (sizeMegabytes < 1) {
+			throw new IllegalArgumentException("Solution store size must be at least 1 megabyte");
+		}
+		long capacity = Long.highestOneBit(sizeMegabytes * 1024L * 1024L / BYTES_PER_ENTRY);
+		boolean exists = Files.exists(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			if (!exists || channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putInt(VERSION).putInt(pits).putInt(seeds).putLong(capacity);
+				header.clear();
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				// the entries are a sparse run of zeros until written
+				channel.write(ByteBuffer.allocate(1), HEADER_BYTES + capacity * BYTES_PER_ENTRY - 1);
+			}
+			SolutionStore store = map(channel, file, FileChannel.MapMode.READ_WRITE, readHeader(channel, file));
+			if (store.pits != pits || store.seeds != seeds || store.capacity != capacity) {
+				throw new IOException("Solution store " + file + " is for kalah(" + store.pits + "," + store.seeds
+						+ ") with " + store.capacity + " entries, not kalah(" + pits + "," + seeds + ") with " + capacity);
+			}
+			return store;
+		}
+	}
+
+	private static ByteBuffer readHeader(FileChannel channel, Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		while (header.hasRemaining() && channel.read(header) >= 0) {
+			// read until the header is full or the file ends
+		}
+		header.flip();
+		if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("Not a solution store: " + file);
+		}
+		return header;
+	}
+
+	private static SolutionStore map(FileChannel channel, Path file, FileChannel.MapMode mode, ByteBuffer header)
+			throws IOException {
+		int pits = header.getInt();
+		int seeds = header.getInt();
+		long capacity = header.getLong();
+		if (pits < Board.MIN_PITS || pits > Board.MAX_PITS || capacity < BUCKET_ENTRIES
+				|| Long.bitCount(capacity) != 1) {
+			throw new IOException("Not a valid solution store: " + file);
+		}
+		long length = HEADER_BYTES + capacity * BYTES_PER_ENTRY;
+		if (channel.size() != length) {
+			throw new IOException("Solution store is incomplete, expected " + length + " bytes: " + file);
+		}
+		List<MappedByteBuffer> segments = new ArrayList<>();
+		long segmentEntries = Math.min(capacity, 1L << SEGMENT_SHIFT);
+		for (long first = 0; first < capacity; first += segmentEntries) {
+			segments.add(channel.map(mode, HEADER_BYTES + first * BYTES_PER_ENTRY, segmentEntries * BYTES_PER_ENTRY));
+		}
+		// the mappings stay valid once the channel is closed
+		return new SolutionStore(pits, seeds, capacity, channel.map(mode, 0, HEADER_BYTES),
+				segments.toArray(new MappedByteBuffer[segments.size()]), mode == FileChannel.MapMode.READ_WRITE);
+	}
+
+	/**
+	 * Returns the packed entry for the position or 0 if there is none.  Use the static accessors to unpack it.
+	 * @param hash the board hash
+	 * @return
+	 */
+	public long probe(long hash) {
+		long bucket = hash & mask & -BUCKET_ENTRIES;
+		for (long slot = bucket; slot < bucket + BUCKET_ENTRIES; slot++) {
+			MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+			int offset = offset(slot);
+			long entry = segment.getLong(offset + 8);
+			if (entry != 0 && (segment.getLong(offset) ^ entry) == hash) {
+				return entry;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores bounds on the score of a position, narrowing those already held for it.
+	 * @param hash the board hash
+	 * @param lower the least score of the position, -UNBOUNDED if unknown
+	 * @param upper the greatest score of the position, UNBOUNDED if unknown
+	 * @param pitNumber the best move found, 0 if none
+	 * @param work the log2 of the nodes searched to find the bounds, PINNED to keep the entry
+	 */
+	public void store(long hash, int lower, int upper, int pitNumber, int work) {
+		long bucket = hash & mask & -BUCKET_ENTRIES;
+		long replace = -1;
+		int replaceWork = Integer.MAX_VALUE;
+		for (long slot = bucket; slot < bucket + BUCKET_ENTRIES; slot++) {
+			MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+			int offset = offset(slot);
+			long existing = segment.getLong(offset + 8);
+			if (existing == 0) {
+				// entries are never removed, so the position is not held further on
+				replace = slot;
+				replaceWork = -1;
+				break;
+			} else if ((segment.getLong(offset) ^ existing) == hash) {
+				lower = Math.max(lower, lower(existing));
+				upper = Math.min(upper, upper(existing));
+				// the move of a solved entry is proven best
+				if (pitNumber == 0 || isSolved(existing)) {
+					pitNumber = pitNumber(existing);
+				}
+				work = Math.max(work, work(existing));
+				replace = slot;
+				replaceWork = -1;
+				break;
+			} else if (work(existing) < replaceWork) {
+				replace = slot;
+				replaceWork = work(existing);
+			}
+		}
+		if (replaceWork >= PINNED && work < PINNED) {
+			return;
+		}
+		long entry = (lower & 0xFFFFL)
+				| ((upper & 0xFFFFL) << UPPER_SHIFT)
+				| ((long) pitNumber << MOVE_SHIFT)
+				| ((long) Math.min(work, PINNED) << WORK_SHIFT)
+				| PRESENT;
+		MappedByteBuffer segment = segments[(int) (replace >>> SEGMENT_SHIFT)];
+		int offset = offset(replace);
+		segment.putLong(offset + 8, entry);
+		segment.putLong(offset, hash ^ entry);
+	}
+
+	private static int offset(long slot) {
+		return (int) (slot & ((1L << SEGMENT_SHIFT) - 1)) * BYTES_PER_ENTRY;
+	}
+
+	/**
+	 * Looks up the solution of a position, with the score of every move whose result the store or the endgame
+	 * database holds.
+	 * @param board the position, a game not yet completed
+	 * @param endgame the endgame database the solver used, may be null
+	 * @return the solution, or null if the position has not been solved
+	 */
+	public Solution lookup(Board board, EndgameDatabase endgame) {
+		if (board.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		long entry = probe(board.getHash());
+		if (entry == 0 || !isSolved(entry)) {
+			return null;
+		}
+		int side = board.getSideToMove();
+		Integer[] pitScores = new Integer[board.getPits()];
+		Board child = new Board(board);
+		for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				continue;
+			}
+			child.copyFrom(board);
+			child.sow(side, pitNumber);
+			int score = solvedScore(child, endgame);
+			if (score != EndgameDatabase.NOT_FOUND) {
+				pitScores[pitNumber - 1] = child.getSideToMove() == side ? score : -score;
+			}
+		}
+		return new Solution(lower(entry), pitNumber(entry), pitScores);
+	}
+
+	/**
+	 * The final score of a position with best play from the side to move's point of view, or NOT_FOUND if it is not
+	 * held.
+	 */
+	int solvedScore(Board board, EndgameDatabase endgame) {
+		if (board.isGameCompleted()) {
+			return SearchEngine.finalScore(board);
+		}
+		if (endgame != null) {
+			int score = endgame.score(board);
+			if (score != EndgameDatabase.NOT_FOUND) {
+				return score;
+			}
+		}
+		long entry = probe(board.getHash());
+		return entry != 0 && isSolved(entry) ? lower(entry) : EndgameDatabase.NOT_FOUND;
+	}
+
+	/**
+	 * Records the work done solving so far in the header and forces every change to the disk.
+	 * @param nodes the nodes searched by every run of the solver
+	 * @param elapsedNanos the time spent by every run of the solver
+	 */
+	public void checkpoint(long nodes, long elapsedNanos) {
+		if (!writable) {
+			throw new IllegalStateException("Solution store is read only");
+		}
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		header.putLong(NODES_OFFSET, nodes);
+		header.putLong(ELAPSED_OFFSET, elapsedNanos);
+		header.force();
+	}
+
+	public static int lower(long entry) {
+		return (short) entry;
+	}
+
+	public static int upper(long entry) {
+		return (short) (entry >>> UPPER_SHIFT);
+	}
+
+	public static int pitNumber(long entry) {
+		return (int) (entry >>> MOVE_SHIFT) & 0xF;
+	}
+
+	public static int work(long entry) {
+		return (int) (entry >>> WORK_SHIFT) & 0x3F;
+	}
+
+	/**
+	 * Whether the entry holds the exact score of its position.
+	 * @param entry a packed entry
+	 * @return
+	 */
+	public static boolean isSolved(long entry) {
+		return lower(entry) == upper(entry);
+	}
+
+	public int getPits() {
+		return pits;
+	}
+
+	public int getSeeds() {
+		return seeds;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long getSizeBytes() {
+		return HEADER_BYTES + capacity * BYTES_PER_ENTRY;
+	}
+
+	/**
+	 * The nodes searched by the solver up to its last checkpoint.
+	 * @return
+	 */
+	public long getNodes() {
+		return header.getLong(NODES_OFFSET);
+	}
+
+	/**
+	 * The time spent by the solver up to its last checkpoint.
+	 * @return
+	 */
+	public long getElapsedNanos() {
+		return header.getLong(ELAPSED_OFFSET);
+	}
+
+	/**
+	 * Estimates the fraction of the store in use by sampling entries spread across it.
+	 * @return
+	 */
+	public double getOccupancy() {
+		int sample = (int) Math.min(1000, capacity);
+		long step = capacity / sample;
+		int used = 0;
+		for (int i = 0; i < sample; i++) {
+			long slot = i * step;
+			if (segments[(int) (slot >>> SEGMENT_SHIFT)].getLong(offset(slot) + 8) != 0) {
+				used++;
+			}
+		}
+		return (double) used / sample;
+	}
+}
@@ -0,0 +1,118 @@
+package com.starkie.playkalah.ai;
+
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * A way of choosing moves, played against another by the SelfPlaySimulator.  A strategy may keep state between moves,
+ * such as boards to try moves on or a search engine, so it is used by one thread and each simulator thread makes its
+ * own from the factory returned by forName.
+ * @author luke.starkie
+ */
+public interface Strategy {
+
+	/**
+	 * The search time allowed each move of a search strategy, which is limited by its depth rather than the clock
+	 */
+	long SEARCH_TIME_BUDGET_MILLIS = 60000;
+
+	/**
+	 * Chooses the move for the side to move.
+	 * @param board a game not yet completed, which must be left unchanged
+	 * @param random the random numbers of the game, for the choices a strategy makes at random
+	 * @return the pit number to play, one holding stones
+	 */
+	int choosePit(Board board, SplittableRandom random);
+
+	/**
+	 * Returns a factory for the strategy named: "random" plays any pit holding stones, "greedy" the pit leaving the
+	 * biggest lead in the kalahs, preferring extra turns, and "search:N" the best move of a search N plies deep.
+	 * @param name the strategy name
+	 * @return
+	 */
+	static Supplier<Strategy> forName(String name) {
+		if (name.equals("random")) {
+			return () -> Strategy::randomPit;
+		} else if (name.equals("greedy")) {
+			return GreedyStrategy::new;
+		} else if (name.startsWith("search:")) {
+			int depth;
+			try {
+				depth = Integer.parseInt(name.substring("search:".length()));
+			} catch (NumberFormatException e) {
+				depth = 0;
+			}
+			if (depth < 1 || depth > SearchEngine.MAX_DEPTH) {
+				throw new IllegalArgumentException("Search depth must be from 1 to " + SearchEngine.MAX_DEPTH);
+			}
+			int maxDepth = depth;
+			return () -> {
+				SearchEngine engine = new SearchEngine();
+				return (board, random) -> engine.search(board, SEARCH_TIME_BUDGET_MILLIS, maxDepth).getPitNumber();
+			};
+		}
+		throw new IllegalArgumentException("Unknown strategy " + name + ", use random, greedy or search:N");
+	}
+
+	/**
+	 * Chooses any pit of the side to move holding stones, each as likely.
+	 * @param board a game not yet completed
+	 * @param random the random numbers of the game
+	 * @return
+	 */
+	static int randomPit(Board board, SplittableRandom random) {
+		int side = board.getSideToMove();
+		int pits = board.getPits();
+		int legal = 0;
+		for (int pitNumber = 1; pitNumber <= pits; pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) != 0) {
+				legal++;
+			}
+		}
+		int choice = random.nextInt(legal);
+		for (int pitNumber = 1; ; pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) != 0 && choice-- == 0) {
+				return pitNumber;
+			}
+		}
+	}
+
+	/**
+	 * Plays each legal move on a scratch board and keeps the one with the biggest lead in the kalahs, an extra turn
+	 * breaking a tie and equal moves chosen between at random.
+	 */
+	final class GreedyStrategy implements Strategy {
+
+		private Board scratch;
+
+		@Override
+		public int choosePit(Board board, SplittableRandom random) {
+			if (scratch == null || scratch.getPits() != board.getPits()) {
+				scratch = new Board(board);
+			}
+			int side = board.getSideToMove();
+			int bestPit = 0;
+			int bestScore = Integer.MIN_VALUE;
+			int ties = 0;
+			for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+				if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					continue;
+				}
+				scratch.copyFrom(board);
+				scratch.sow(side, pitNumber);
+				int lead = scratch.getStones(scratch.kalahIndex(side)) - scratch.getStones(scratch.kalahIndex(1 - side));
+				int score = 2 * lead + (scratch.getSideToMove() == side ? 1 : 0);
+				if (score > bestScore) {
+					bestScore = score;
+					bestPit = pitNumber;
+					ties = 1;
+				} else if (score == bestScore && random.nextInt(++ties) == 0) {
+					bestPit = pitNumber;
+				}
+			}
+			return bestPit;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.starkie.playkalah.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size table of search results keyed by board hash, shared by every search thread of the server.
+ * Entries are held in two primitive arrays without locking: the key is stored exclusive or'ed with the data, so a
+ * probe racing a store on another thread sees a key mismatch (a miss) rather than a torn entry.
+ * Each entry packs the score, depth, bound type, best move, search generation and whether the score is exact to the
+ * end of the game into a single long.
+ * @author luke.starkie
+ */
+public class TranspositionTable {
+
+	/**
+	 * How a store chooses whether to overwrite an existing entry for a different position
+	 */
+	public enum ReplacementPolicy {
+		/**
+		 * Always overwrite, favouring the most recent positions
+		 */
+		ALWAYS,
+		/**
+		 * Keep a deeper entry from the current search, entries from earlier searches are always overwritten
+		 */
+		DEPTH_PREFERRED
+	}
+
+	/**
+	 * The score is exact
+	 */
+	public static final int EXACT = 1;
+
+	/**
+	 * The score is a lower bound, the search failed high
+	 */
+	public static final int LOWER_BOUND = 2;
+
+	/**
+	 * The score is an upper bound, the search failed low
+	 */
+	public static final int UPPER_BOUND = 3;
+
+	/**
+	 * Each entry is a key and a data long
+	 */
+	static final int BYTES_PER_ENTRY = 16;
+
+	private static final int DEPTH_SHIFT = 32;
+	private static final int BOUND_SHIFT = 40;
+	private static final int MOVE_SHIFT = 42;
+	private static final int SOLVED_SHIFT = 46;
+	private static final int GENERATION_SHIFT = 48;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+	private final ReplacementPolicy replacementPolicy;
+
+	/**
+	 * Incremented at the start of each search so entries from earlier searches can be replaced first
+	 */
+	private volatile int generation;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	/**
+	 * Creates a table using at most the memory given, rounded down to a power of two number of entries.
+	 * @param sizeMegabytes the memory to use
+	 * @param replacementPolicy how stores replace existing entries
+	 */
+	public TranspositionTable(int sizeMegabytes, ReplacementPolicy replacementPolicy) {
+		if (sizeMegabytes < 1 || sizeMegabytes > 16384) {
+			throw new IllegalArgumentException("Transposition table size must be from 1 to 16384 megabytes");
+		}
+		long entries = Long.highestOneBit(sizeMegabytes * 1024L * 1024L / BYTES_PER_ENTRY);
+		entries = Math.min(entries, 1 << 30);
+		this.keys = new long[(int) entries];
+		this.data = new long[(int) entries];
+		this.mask = (int) entries - 1;
+		this.replacementPolicy = replacementPolicy;
+	}
+
+	/**
+	 * Marks the start of a new search, ageing the existing entries.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) & 0xFF;
+	}
+
+	/**
+	 * Removes every entry, the statistics are kept.
+	 */
+	public void clear() {
+		Arrays.fill(data, 0);
+		Arrays.fill(keys, 0);
+	}
+
+	/**
+	 * Returns the packed entry for the position or 0 if there is none.  Use the static accessors to unpack it.
+	 * @param hash the board hash
+	 * @return
+	 */
+	public long probe(long hash) {
+		int index = (int) hash & mask;
+		long entry = data[index];
+		if ((keys[index] ^ entry) == hash && entry != 0) {
+			return entry;
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores a search result for a position, subject to the replacement policy.
+	 * @param hash the board hash
+	 * @param score the score from the point of view of the side to move
+	 * @param depth the depth searched
+	 * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param pitNumber the best move found, 0 if none
+	 * @param solved true if every line searched reached the end of the game
+	 */
+	public void store(long hash, int score, int depth, int bound, int pitNumber, boolean solved) {
+		int index = (int) hash & mask;
+		int currentGeneration = generation;
+		long existing = data[index];
+		if (replacementPolicy == ReplacementPolicy.DEPTH_PREFERRED && existing != 0
+				&& (keys[index] ^ existing) != hash
+				&& generation(existing) == currentGeneration
+				&& depth(existing) > depth) {
+			return;
+		}
+		long entry = (score & 0xFFFFFFFFL)
+				| ((long) depth << DEPTH_SHIFT)
+				| ((long) bound << BOUND_SHIFT)
+				| ((long) pitNumber << MOVE_SHIFT)
+				| (solved ? 1L << SOLVED_SHIFT : 0)
+				| ((long) currentGeneration << GENERATION_SHIFT);
+		data[index] = entry;
+		keys[index] = hash ^ entry;
+	}
+
+	/**
+	 * Adds the probe counts of a finished search to the table's statistics, searches count locally so the
+	 * shared counters are not touched for every node.
+	 * @param searchProbes the number of probes made
+	 * @param searchHits the number of probes that found an entry
+	 * @param searchStores the number of stores made
+	 */
+	public void recordStatistics(long searchProbes, long searchHits, long searchStores) {
+		probes.add(searchProbes);
+		hits.add(searchHits);
+		stores.add(searchStores);
+	}
+
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	public static int depth(long entry) {
+		return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> BOUND_SHIFT) & 0x3;
+	}
+
+	public static int pitNumber(long entry) {
+		return (int) (entry >>> MOVE_SHIFT) & 0xF;
+	}
+
+	public static boolean isSolved(long entry) {
+		return ((entry >>> SOLVED_SHIFT) & 1) != 0;
+	}
+
+	static int generation(long entry) {
+		return (int) (entry >>> GENERATION_SHIFT) & 0xFF;
+	}
+
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	public long getSizeBytes() {
+		return (long) keys.length * BYTES_PER_ENTRY;
+	}
+
+	public ReplacementPolicy getReplacementPolicy() {
+		return replacementPolicy;
+	}
+
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 * The fraction of probes that found an entry.
+	 * @return
+	 */
+	public double getHitRate() {
+		long probeCount = probes.sum();
+		return probeCount == 0 ? 0 : (double) hits.sum() / probeCount;
+	}
+
+	/**
+	 * Estimates the fraction of the table in use by sampling the first thousand entries.
+	 * @return
+	 */
+	public double getOccupancy() {
+		int sample = Math.min(1000, data.length);
+		int used = 0;
+		for (int i = 0; i < sample; i++) {
+			if (data[i] != 0) {
+				used++;
+			}
+		}
+		return (double) used / sample;
+	}
+}
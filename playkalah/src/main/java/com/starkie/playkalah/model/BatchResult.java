@@ -0,0 +1,122 @@
+package com.starkie.playkalah.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Compact result of the moves of a batch for one game.  The moves are applied all together or not at all, so either
+ * every move was applied or errors holds the move that could not be played.  The board is the stones in each cell,
+ * player 1's pits and kalah then player 2's.
+ * @author luke.starkie
+ */
+public class BatchResult {
+
+	/**
+	 * The id of the game
+	 */
+	private final String game;
+
+	/**
+	 * The number of moves of the batch applied to the game
+	 */
+	private int applied;
+
+	private int moveCount;
+
+	private String nextPlayerToMove;
+
+	private boolean gameCompleted;
+
+	private int[] board;
+
+	/**
+	 * The moves that could not be played, empty when the batch was applied
+	 */
+	private final List<MoveError> errors = new ArrayList<>();
+
+	public BatchResult(String game) {
+		this.game = game;
+	}
+
+	/**
+	 * Records the state of the game after the batch.
+	 * @param state the game, which the caller must hold the lock of
+	 * @param applied the number of moves applied
+	 */
+	public void setState(Game state, int applied) {
+		Board stateBoard = state.getBoard();
+		this.applied = applied;
+		this.moveCount = state.getMoveCount();
+		this.nextPlayerToMove = state.getNextPlayerToMove();
+		this.gameCompleted = state.isGameCompleted();
+		this.board = new int[stateBoard.getCellCount()];
+		for (int cell = 0; cell < board.length; cell++) {
+			board[cell] = stateBoard.getStones(cell);
+		}
+	}
+
+	/**
+	 * Records a move that could not be played.
+	 * @param move the position of the move in the batch, from 0
+	 * @param error why the move could not be played
+	 */
+	public void addError(int move, String error) {
+		errors.add(new MoveError(move, error));
+	}
+
+	public String getGame() {
+		return game;
+	}
+
+	public int getApplied() {
+		return applied;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getNextPlayerToMove() {
+		return nextPlayerToMove;
+	}
+
+	public boolean isGameCompleted() {
+		return gameCompleted;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public int[] getBoard() {
+		return board;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	public List<MoveError> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * A move of the batch that could not be played.
+	 */
+	public static class MoveError {
+
+		private final int move;
+
+		private final String error;
+
+		public MoveError(int move, String error) {
+			this.move = move;
+			this.error = error;
+		}
+
+		public int getMove() {
+			return move;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+}
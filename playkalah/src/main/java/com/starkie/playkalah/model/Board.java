@@ -0,0 +1,439 @@
+package com.starkie.playkalah.model;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of a kalah(pits, seeds) board held in a single array.
+ * For the standard kalah(6,6) game cells 0-5 are player 1's pits and cell 6 their kalah, cells 7-12 are player 2's
+ * pits and cell 13 their kalah, so stones are always sown in increasing cell order.  Sowing and the opposite pit
+ * are computed with index arithmetic only, making a move without any per stone method calls or allocation.
+ * A Zobrist hash of the position is kept up to date as cells change, see getHash.
+ * A move made with make is taken back with unmake from the MoveDelta it returns, so a position can be walked
+ * backwards and forwards on one board without copying it.
+ * @author luke.starkie
+ */
+public class Board {
+
+	public static final int PLAYER_1 = 0;
+	public static final int PLAYER_2 = 1;
+
+	public static final int DEFAULT_PITS = 6;
+	public static final int DEFAULT_SEEDS = 6;
+	public static final int MIN_PITS = 1;
+	public static final int MAX_PITS = 12;
+	public static final int MIN_SEEDS = 1;
+	public static final int MAX_SEEDS = 10;
+
+	/**
+	 * The number of pits on each side
+	 */
+	private final int pits;
+
+	/**
+	 * The number of stones each pit starts with
+	 */
+	private final int seeds;
+
+	/**
+	 * The number of stones in each pit and kalah, 2 * pits + 2 cells
+	 */
+	private final int[] cells;
+
+	/**
+	 * The stones in each pit of the side swept into its kalah by the move that ended the game, so the move can be
+	 * unmade.  Allocated by the first such move, a board's game ends at most once between unmakes.
+	 */
+	private int[] swept;
+
+	/**
+	 * The side next to move, either PLAYER_1 or PLAYER_2
+	 */
+	private int sideToMove = PLAYER_1;
+
+	/**
+	 * Zobrist hash of the cells, side to move and number of pits
+	 */
+	private long hash;
+
+	/**
+	 * Creates a standard kalah(6,6) board.
+	 */
+	public Board() {
+		this(DEFAULT_PITS, DEFAULT_SEEDS);
+	}
+
+	/**
+	 * Creates a kalah(pits, seeds) board with the starting number of stones in every pit.
+	 * @param pits the number of pits on each side
+	 * @param seeds stones to place in each pit
+	 */
+	public Board(int pits, int seeds) {
+		if (pits < MIN_PITS || pits > MAX_PITS) {
+			throw new IllegalArgumentException("Not a valid number of pits");
+		} else if (seeds < MIN_SEEDS || seeds > MAX_SEEDS) {
+			throw new IllegalArgumentException("Not a valid number of seeds");
+		}
+		this.pits = pits;
+		this.seeds = seeds;
+		this.cells = new int[2 * pits + 2];
+		reset();
+	}
+
+	/**
+	 * Creates a copy of another board.
+	 * @param other the board to copy
+	 */
+	public Board(Board other) {
+		this.pits = other.pits;
+		this.seeds = other.seeds;
+		this.cells = new int[other.cells.length];
+		copyFrom(other);
+	}
+
+	/**
+	 * Overwrites this board with the state of another of the same size, used to reuse boards rather than allocating.
+	 * @param other the board to copy
+	 */
+	public void copyFrom(Board other) {
+		if (other.pits != pits) {
+			throw new IllegalArgumentException("Boards are different sizes");
+		}
+		System.arraycopy(other.cells, 0, cells, 0, cells.length);
+		sideToMove = other.sideToMove;
+		hash = other.hash;
+	}
+
+	/**
+	 * Restores the board to the start of a game.
+	 */
+	public void reset() {
+		Arrays.fill(cells, seeds);
+		cells[kalahIndex(PLAYER_1)] = 0;
+		cells[kalahIndex(PLAYER_2)] = 0;
+		sideToMove = PLAYER_1;
+		hash = computeHash();
+	}
+
+	/**
+	 * Sets every cell and the side to move, used to restore a saved position.
+	 * @param stones the stones in each cell, player 1's pits and kalah then player 2's
+	 * @param side the side next to move, PLAYER_1 or PLAYER_2
+	 */
+	public void setPosition(int[] stones, int side) {
+		if (stones.length != cells.length) {
+			throw new IllegalArgumentException("Position is for a different size of board");
+		} else if (side != PLAYER_1 && side != PLAYER_2) {
+			throw new IllegalArgumentException("Not a valid side to move");
+		}
+		for (int cell = 0; cell < cells.length; cell++) {
+			if (stones[cell] < 0 || stones[cell] > 2 * pits * seeds) {
+				throw new IllegalArgumentException("Not a valid number of stones");
+			}
+		}
+		System.arraycopy(stones, 0, cells, 0, cells.length);
+		sideToMove = side;
+		hash = computeHash();
+	}
+
+	public int getPits() {
+		return pits;
+	}
+
+	public int getSeeds() {
+		return seeds;
+	}
+
+	/**
+	 * The number of pits and kalahs on the board.
+	 * @return
+	 */
+	public int getCellCount() {
+		return cells.length;
+	}
+
+	public int getSideToMove() {
+		return sideToMove;
+	}
+
+	/**
+	 * The Zobrist hash of the position, equal boards always have equal hashes.
+	 * @return
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Computes the Zobrist hash of the position from scratch.
+	 * @return
+	 */
+	long computeHash() {
+		long computed = Zobrist.PITS_KEYS[pits];
+		for (int cell = 0; cell < cells.length; cell++) {
+			computed ^= Zobrist.CELL_KEYS[(cell << Zobrist.STONE_SHIFT) + cells[cell]];
+		}
+		return sideToMove == PLAYER_2 ? computed ^ Zobrist.PLAYER_2_TO_MOVE : computed;
+	}
+
+	/**
+	 * Sets the stones in a cell, updating the hash.
+	 * @param cell the cell index
+	 * @param stones the new number of stones
+	 */
+	private void setStones(int cell, int stones) {
+		int base = cell << Zobrist.STONE_SHIFT;
+		hash ^= Zobrist.CELL_KEYS[base + cells[cell]] ^ Zobrist.CELL_KEYS[base + stones];
+		cells[cell] = stones;
+	}
+
+	private void setSideToMove(int side) {
+		if (side != sideToMove) {
+			sideToMove = side;
+			hash ^= Zobrist.PLAYER_2_TO_MOVE;
+		}
+	}
+
+	/**
+	 * Returns the cell index of a pit.
+	 * @param side PLAYER_1 or PLAYER_2
+	 * @param pitNumber the pit from 1 to the number of pits
+	 * @return
+	 */
+	public int pitIndex(int side, int pitNumber) {
+		return side * (pits + 1) + pitNumber - 1;
+	}
+
+	/**
+	 * Returns the cell index of a player's kalah.
+	 * @param side PLAYER_1 or PLAYER_2
+	 * @return
+	 */
+	public int kalahIndex(int side) {
+		return side * (pits + 1) + pits;
+	}
+
+	/**
+	 * Returns the cell index of the pit facing a pit on the other side of the board.
+	 * @param cell the cell index of a pit
+	 * @return
+	 */
+	public int oppositeIndex(int cell) {
+		return 2 * pits - cell;
+	}
+
+	public int getStones(int cell) {
+		return cells[cell];
+	}
+
+	/**
+	 * Adds stones to a cell.
+	 * @param cell the cell index
+	 * @param stones the number of stones to add
+	 */
+	public void addStones(int cell, int stones) {
+		setStones(cell, cells[cell] + stones);
+	}
+
+	/**
+	 * Returns the number of stones in the cell and empties it.
+	 * @param cell the cell index
+	 * @return
+	 */
+	public int pickupStones(int cell) {
+		int stones = cells[cell];
+		setStones(cell, 0);
+		return stones;
+	}
+
+	/**
+	 * Check if all of a player's pits are empty.
+	 * @param side PLAYER_1 or PLAYER_2
+	 * @return
+	 */
+	public boolean isSideEmpty(int side) {
+		int first = side * (pits + 1);
+		for (int cell = first; cell < first + pits; cell++) {
+			if (cells[cell] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isGameCompleted() {
+		return isSideEmpty(PLAYER_1) || isSideEmpty(PLAYER_2);
+	}
+
+	/**
+	 * Moves all of a player's pit stones into their kalah.
+	 * @param side PLAYER_1 or PLAYER_2
+	 */
+	public void movePitStonesToKalah(int side) {
+		int first = side * (pits + 1);
+		int kalah = first + pits;
+		int stones = cells[kalah];
+		for (int cell = first; cell < kalah; cell++) {
+			stones += pickupStones(cell);
+		}
+		setStones(kalah, stones);
+	}
+
+	/**
+	 * Sows the stones from a player's pit, applying the capture, extra turn and end of game rules.
+	 * @param side the player making the move
+	 * @param pitNumber the pit from 1 to the number of pits
+	 * @return the stones moved to the kalah by the capture rule, 0 if there was no capture
+	 */
+	public int sow(int side, int pitNumber) {
+		return MoveDelta.captured(make(side, pitNumber));
+	}
+
+	/**
+	 * Sows the stones from a player's pit as sow does, returning what unmake needs to take the move back.
+	 * Rules for algorithm below can be found at https://en.wikipedia.org/wiki/Kalah
+	 * @param side the player making the move
+	 * @param pitNumber the pit from 1 to the number of pits
+	 * @return the move as a MoveDelta
+	 */
+	public int make(int side, int pitNumber) {
+		int[] cells = this.cells;
+		long[] keys = Zobrist.CELL_KEYS;
+		long[] steps = Zobrist.STEP_KEYS;
+		long h = hash;
+		int origin = pitIndex(side, pitNumber);
+		int ownKalah = kalahIndex(side);
+		int opponentKalah = kalahIndex(1 - side);
+		int stones = cells[origin];
+		h ^= keys[(origin << Zobrist.STONE_SHIFT) + stones];
+		cells[origin] = 0;
+
+		// every full lap drops one stone in each cell apart from the opponent's kalah, laps are few so
+		// counting them by subtraction is cheaper than dividing by a board size unknown to the compiler
+		int lapLength = cells.length - 1;
+		int remaining = stones;
+		int laps = 0;
+		while (remaining >= lapLength) {
+			remaining -= lapLength;
+			laps++;
+		}
+		if (laps > 0) {
+			for (int cell = 0; cell < cells.length; cell++) {
+				if (cell != opponentKalah) {
+					int key = (cell << Zobrist.STONE_SHIFT) + cells[cell];
+					h ^= laps == 1 ? steps[key] : keys[key] ^ keys[key + laps];
+					cells[cell] += laps;
+				}
+			}
+		}
+
+		int last = origin;
+		for (; remaining > 0; remaining--) {
+			last = last == lapLength ? 0 : last + 1;
+			if (last == opponentKalah) {
+				last = last == lapLength ? 0 : last + 1;
+			}
+			h ^= steps[(last << Zobrist.STONE_SHIFT) + cells[last]++];
+		}
+		hash = h;
+
+		// the last stone in the player's own kalah leaves the same player to move
+		boolean extraTurn = last == ownKalah;
+		int captured = 0;
+		if (!extraTurn) {
+			if (last >= ownKalah - pits && last < ownKalah && cells[last] == 1) {
+				int opposite = oppositeIndex(last);
+				captured = 1 + cells[opposite];
+				setStones(ownKalah, cells[ownKalah] + captured);
+				setStones(last, 0);
+				setStones(opposite, 0);
+			}
+			setSideToMove(1 - side);
+		}
+
+		// once the player to move has no stones the other player keeps the stones left in their pits
+		boolean sweep = isSideEmpty(sideToMove);
+		if (sweep) {
+			int first = (1 - sideToMove) * (pits + 1);
+			if (swept == null) {
+				swept = new int[pits];
+			}
+			System.arraycopy(cells, first, swept, 0, pits);
+			movePitStonesToKalah(1 - sideToMove);
+		}
+		return MoveDelta.encode(pitNumber, stones, captured, extraTurn, sweep);
+	}
+
+	/**
+	 * Takes back the last move made on this board and not yet unmade, changing only the cells the move changed.
+	 * @param delta the move as returned by make
+	 */
+	public void unmake(int delta) {
+		int[] cells = this.cells;
+		int side = MoveDelta.isExtraTurn(delta) ? sideToMove : 1 - sideToMove;
+		if (MoveDelta.isSwept(delta)) {
+			int first = (1 - sideToMove) * (pits + 1);
+			int sweptStones = 0;
+			for (int pit = 0; pit < pits; pit++) {
+				setStones(first + pit, swept[pit]);
+				sweptStones += swept[pit];
+			}
+			setStones(first + pits, cells[first + pits] - sweptStones);
+		}
+		setSideToMove(side);
+
+		int origin = pitIndex(side, MoveDelta.pitNumber(delta));
+		int ownKalah = kalahIndex(side);
+		int opponentKalah = kalahIndex(1 - side);
+		int stones = MoveDelta.stones(delta);
+		int lapLength = cells.length - 1;
+		int remaining = stones;
+		int laps = 0;
+		while (remaining >= lapLength) {
+			remaining -= lapLength;
+			laps++;
+		}
+		// the captured pit held the last stone and the opposite pit the rest
+		int captured = MoveDelta.captured(delta);
+		if (captured > 0) {
+			int last = origin;
+			for (int step = remaining; step > 0; step--) {
+				last = last == lapLength ? 0 : last + 1;
+				if (last == opponentKalah) {
+					last = last == lapLength ? 0 : last + 1;
+				}
+			}
+			setStones(ownKalah, cells[ownKalah] - captured);
+			setStones(last, 1);
+			setStones(oppositeIndex(last), captured - 1);
+		}
+
+		long[] keys = Zobrist.CELL_KEYS;
+		long[] steps = Zobrist.STEP_KEYS;
+		long h = hash;
+		int cell = origin;
+		for (; remaining > 0; remaining--) {
+			cell = cell == lapLength ? 0 : cell + 1;
+			if (cell == opponentKalah) {
+				cell = cell == lapLength ? 0 : cell + 1;
+			}
+			h ^= steps[(cell << Zobrist.STONE_SHIFT) + --cells[cell]];
+		}
+		if (laps > 0) {
+			for (cell = 0; cell < cells.length; cell++) {
+				if (cell != opponentKalah) {
+					cells[cell] -= laps;
+					int key = (cell << Zobrist.STONE_SHIFT) + cells[cell];
+					h ^= laps == 1 ? steps[key] : keys[key] ^ keys[key + laps];
+				}
+			}
+		}
+		h ^= keys[(origin << Zobrist.STONE_SHIFT) + stones];
+		cells[origin] = stones;
+		hash = h;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(cells) + ", sideToMove=" + sideToMove;
+	}
+}
@@ -1,65 +1,189 @@
 package com.starkie.playkalah.model;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.util.StringUtils;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 /**
- * Model class to represent a game of kalah
+ * Model class to represent a game of kalah.
+ * The state of the game is held in a compact Board, the players and their pits are views over it, and each move
+ * played is logged as a MoveDelta, so moves can be taken back, played again and past positions shown by changing
+ * only the cells each move changed.
+ * A game is changed by one thread at a time.  Threads reading the game without its lock read an immutable
+ * GameSnapshot, taken by the first read after each change rather than by the change, so a move allocates nothing.
  * @author luke.starkie
  */
+@JsonPropertyOrder({"id", "player1", "player2", "computerPlayer", "gameCompleted", "nextPlayerToMove"})
 public class Game {
-	
-	private static final Logger logger = LoggerFactory.getLogger(Game.class);
-	
-	private static final int STARTING_STONE_COUNT = 6;
-	private static final int TOTAL_PITS = 6;
+
+	/**
+	 * The most moves logged, far beyond the length of a real game so a game's memory stays bounded
+	 */
+	public static final int MAX_LOGGED_MOVES = 4096;
 
 	/**
 	 * The unique identifier for the game
 	 */
 	private String id;
-	
+
+	/**
+	 * Chosen at random when the game is created and kept when it is saved and read back, telling the game from any
+	 * earlier game created with its id
+	 */
+	private final int instance;
+
 	/**
-	 * The next player to move
+	 * The stones in every pit and kalah and the side next to move
 	 */
-	private String nextPlayerNameToMove;
+	private final Board board;
 
 	/**
 	 * Player 1 of the game
 	 */
 	private Player player1;
-	
+
 	/**
 	 * Player 2 of the game
 	 */
 	private Player player2;
+
+	/**
+	 * The number of moves played in the game
+	 */
+	private int moveCount;
+
+	/**
+	 * Changes since the game was created, every move played, taken back or played again, so a version is never
+	 * repeated by a game even when its move count is.  Equal to the move count until a move is taken back.
+	 */
+	private int version;
+
+	/**
+	 * The moves played since the game was created or restored, up to MAX_LOGGED_MOVES, as MoveDeltas.  Moves taken
+	 * back stay after the current move until a different move is played, so they can be played again.
+	 */
+	private int[] moveLog = new int[16];
 	
 	/**
-	 * Create a game, the number of pits could be flexible to support any type of game kalah(x,y)
-	 * but hard coding to 6 for this sample code.  Player1 is first to move (nextPlayerToMove).
-	 * Game ID would typically be a random ID (UUID.randomUUID().toString()) but for ease in 
+	 * The move count the log starts at, 0 unless the game was restored part way through
+	 */
+	private int moveLogStart;
+
+	/**
+	 * The moves taken back that can be played again
+	 */
+	private int redoMoves;
+	
+	/**
+	 * The name of the player whose moves are made by the server, null when both players are human
+	 */
+	private String computerPlayer;
+
+	/**
+	 * Optional sink tracing each move, null when tracing is off
+	 */
+	private MoveListener moveListener;
+
+	/**
+	 * Write locked by each change, so a snapshot taken without the game's lock can tell the game changed while it was
+	 * copied.  Only the thread changing the game takes the write lock, so it is never contended.
+	 */
+	private final StampedLock changes = new StampedLock();
+
+	/**
+	 * The last snapshot taken, current while its stamp is the stamp of an optimistic read of changes
+	 */
+	private volatile GameSnapshot snapshot;
+
+	/**
+	 * Create a standard kalah(6,6) game.  Player1 is first to move (nextPlayerToMove).
+	 * Game ID would typically be a random ID (UUID.randomUUID().toString()) but for ease in
 	 * demonstration setting this to 1.
 	 * @param player1Name the name of player 1
 	 * @param player2Name the name of player 2
 	 */
 	public Game(String player1Name, String player2Name, String id) {
+		this(player1Name, player2Name, id, Board.DEFAULT_PITS, Board.DEFAULT_SEEDS);
+	}
+
+	/**
+	 * Create a game of kalah(pits, seeds).  Player1 is first to move (nextPlayerToMove).
+	 * @param player1Name the name of player 1
+	 * @param player2Name the name of player 2
+	 * @param id the game id
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit starts with
+	 */
+	public Game(String player1Name, String player2Name, String id, int pits, int seeds) {
+		this(player1Name, player2Name, id, pits, seeds, newInstance());
+	}
+
+	/**
+	 * Create a game of kalah(pits, seeds) read back from where it was saved.
+	 * @param player1Name the name of player 1
+	 * @param player2Name the name of player 2
+	 * @param id the game id
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit starts with
+	 * @param instance the instance of the game saved, see getInstance
+	 */
+	public Game(String player1Name, String player2Name, String id, int pits, int seeds, int instance) {
+		if (instance == 0) {
+			throw new IllegalArgumentException("Not a valid game instance");
+		}
 		this.id = id;
-		this.player1 = new Player(player1Name, TOTAL_PITS, STARTING_STONE_COUNT);
-		this.player2 = new Player(player2Name, TOTAL_PITS, STARTING_STONE_COUNT);
-		this.nextPlayerNameToMove = player1.getName();
+		this.instance = instance;
+		this.board = new Board(pits, seeds);
+		this.player1 = new Player(player1Name, board, Board.PLAYER_1);
+		this.player2 = new Player(player2Name, board, Board.PLAYER_2);
 	}
-	
+
 	public String getId() {
 		return id;
 	}
 
+	/**
+	 * The random number telling this game from any earlier game with its id, never 0.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getInstance() {
+		return instance;
+	}
+
+	private static int newInstance() {
+		int instance;
+		do {
+			instance = ThreadLocalRandom.current().nextInt();
+		} while (instance == 0);
+		return instance;
+	}
+
 	public boolean isGameCompleted() {
-		return player1.isPitsEmpty() || player2.isPitsEmpty();
+		return board.isGameCompleted();
 	}
-	
+
 	public String getNextPlayerToMove() {
-		return nextPlayerNameToMove;
+		return board.getSideToMove() == Board.PLAYER_1 ? player1.getName() : player2.getName();
+	}
+
+	@JsonIgnore
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * The number of changes made to the game, which tags a version of the game as its move count did before moves
+	 * could be taken back.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getVersion() {
+		return version;
 	}
 
 	public Player getPlayer1() {
@@ -69,112 +193,327 @@ public class Game {
 	public Player getPlayer2() {
 		return player2;
 	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getComputerPlayer() {
+		return computerPlayer;
+	}
+
+	/**
+	 * Sets the player whose moves are made by the server.
+	 * @param computerPlayer the name of player 1 or player 2, or null for two human players
+	 */
+	public void setComputerPlayer(String computerPlayer) {
+		if (computerPlayer != null) {
+			findPlayer(computerPlayer);
+		}
+		long stamp = changes.writeLock();
+		this.computerPlayer = computerPlayer;
+		changes.unlockWrite(stamp);
+	}
+
+	@JsonIgnore
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * The state of the game after its last change, which may be read by any thread without the game's lock.  The first
+	 * read after a change copies the game, copying again if the game changed meanwhile; reads waiting for a change
+	 * in progress yield until it is made.
+	 * @return
+	 */
+	@JsonIgnore
+	public GameSnapshot getSnapshot() {
+		while (true) {
+			long stamp = changes.tryOptimisticRead();
+			if (stamp != 0) {
+				GameSnapshot current = snapshot;
+				if (current != null && current.getStamp() == stamp) {
+					return current;
+				}
+				GameSnapshot taken = new GameSnapshot(this, moveCount, stamp);
+				if (changes.validate(stamp)) {
+					snapshot = taken;
+					return taken;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * The last snapshot taken, which may be out of date, for a new snapshot to share its parts that seldom change.
+	 * @return
+	 */
+	GameSnapshot getLastSnapshot() {
+		return snapshot;
+	}
+
+	@JsonIgnore
+	public MoveListener getMoveListener() {
+		return moveListener;
+	}
+
+	/**
+	 * Switches tracing of moves on by setting a listener, or off by setting null.
+	 * @param moveListener the listener to receive each move
+	 */
+	public void setMoveListener(MoveListener moveListener) {
+		this.moveListener = moveListener;
+	}
+
+	/**
+	 * The move count the move log starts at: 0 for a game played from the start, or the move count of the position a
+	 * game was restored to, its earlier moves being unknown.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getMoveLogStart() {
+		return moveLogStart;
+	}
+	
+	/**
+	 * The number of moves in the log, those played since getMoveLogStart up to MAX_LOGGED_MOVES.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getLoggedMoves() {
+		return Math.min(moveCount - moveLogStart, MAX_LOGGED_MOVES);
+	}
+	
+	/**
+	 * The number of moves taken back that can be played again.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getRedoMoves() {
+		return redoMoves;
+	}
 	
+	/**
+	 * The number of moves the move log holds before it grows.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getMoveLogCapacity() {
+		return moveLog.length;
+	}
+	
+	/**
+	 * Returns a pit played from the move log, the moves taken back following the moves played.
+	 * @param move the move from 0 to getLoggedMoves() + getRedoMoves() - 1
+	 * @return
+	 */
+	public int getLoggedPit(int move) {
+		if (move < 0 || move >= getLoggedMoves() + redoMoves) {
+			throw new IllegalArgumentException("Move is not in the log");
+		}
+		return MoveDelta.pitNumber(moveLog[move]);
+	}
+	
+	/**
+	 * Restores the game to a saved position reached without taking any move back, its version being its move count.
+	 * @param moveCount the number of moves played to reach the position
+	 * @param stones the stones in each cell of the board
+	 * @param side the side next to move
+	 */
+	public void restore(int moveCount, int[] stones, int side) {
+		restore(moveCount, moveCount, stones, side);
+	}
+
+	/**
+	 * Restores the game to a saved position and version, so the versions it gives out after are never ones it gave
+	 * out before it was saved.
+	 * @param moveCount the number of moves played to reach the position
+	 * @param version the game's version when saved, at least the move count
+	 * @param stones the stones in each cell of the board
+	 * @param side the side next to move
+	 */
+	public void restore(int moveCount, int version, int[] stones, int side) {
+		if (moveCount < 0) {
+			throw new IllegalArgumentException("Not a valid move count");
+		} else if (version < moveCount) {
+			throw new IllegalArgumentException("Not a valid version");
+		}
+		long stamp = changes.writeLock();
+		try {
+			board.setPosition(stones, side);
+			this.moveCount = moveCount;
+			this.version = version;
+			this.moveLogStart = moveCount;
+			this.redoMoves = 0;
+		} finally {
+			changes.unlockWrite(stamp);
+		}
+	}
+
 	/**
 	 * Find a player based on the name.
 	 * @param playerName name of the player to find
 	 * @return
 	 */
 	public Player findPlayer(String playerName) {
-		if (StringUtils.pathEquals(playerName, player1.getName())) {
+		if (player1.getName().equals(playerName)) {
 			return player1;
-		} else if (StringUtils.pathEquals(playerName, player2.getName())) {
+		} else if (player2.getName().equals(playerName)) {
 			return player2;
 		} else {
 			throw new IllegalArgumentException("Invalid player");
 		}
 	}
-	
+
+	/**
+	 * Plays a move for the player specified on the selected pit.
+	 * Rules for the algorithm are applied by Board.sow, the move allocates nothing and logs only when tracing is on.
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 */
+	public void playPit(String playerName, int pitNumber) {
+		int side = findPlayer(playerName).getSide();
+		int delta;
+		long stamp = changes.writeLock();
+		try {
+			delta = board.make(side, pitNumber);
+			// the move taken back played again keeps the moves taken back after it, any other move replaces them
+			redoMoves = redoMoves > 0 && MoveDelta.pitNumber(moveLog[moveCount - moveLogStart]) == pitNumber ? redoMoves - 1 : 0;
+			logMove(delta);
+			moveCount++;
+			version++;
+		} finally {
+			changes.unlockWrite(stamp);
+		}
+		MoveListener listener = moveListener;
+		if (listener != null) {
+			listener.moveApplied(this, side, pitNumber, MoveDelta.stones(delta), MoveDelta.captured(delta));
+		}
+	}
+
+	private void logMove(int delta) {
+		int move = moveCount - moveLogStart;
+		if (move >= MAX_LOGGED_MOVES) {
+			return;
+		} else if (move == moveLog.length) {
+			moveLog = Arrays.copyOf(moveLog, moveLog.length * 2);
+		}
+		moveLog[move] = delta;
+	}
+
 	/**
-	 * Returns the other player than the one passed in.
-	 * @param player the current player
-	 * @return the other player
+	 * Check if the last move is in the log, so it can be taken back.
+	 * @return
 	 */
-	private Player findOtherPlayer(Player player) {
-		return player == player1 ? player2 : player1;
+	public boolean canUndo() {
+		int move = moveCount - moveLogStart;
+		return move > 0 && move <= MAX_LOGGED_MOVES;
 	}
-	
+
 	/**
-	 * Check if any valid moves remain, if not ensure all stones are in the correct place.
+	 * Returns the side that was to move before the last moves were played, read from the move log without changing
+	 * the board, so the moves to take back can be decided before any is.
+	 * @param moves the number of moves back, from 1 to the moves that can be taken back
+	 * @return
 	 */
-	private void checkIfAnyValidMovesRemain() {
-		logger.info("Checking if any valid moves remain for user {}", nextPlayerNameToMove);
-		Player nextPlayerToMove = findPlayer(nextPlayerNameToMove);
-		if (nextPlayerToMove.isPitsEmpty()) {
-			findOtherPlayer(nextPlayerToMove).movePitStonesToKalah();
+	public int getSideToMoveBefore(int moves) {
+		int move = moveCount - moveLogStart;
+		if (!canUndo() || moves < 1 || moves > move) {
+			throw new IllegalArgumentException("Move is not in the log");
+		}
+		int side = board.getSideToMove();
+		for (int i = 1; i <= moves; i++) {
+			side = MoveDelta.isExtraTurn(moveLog[move - i]) ? side : 1 - side;
 		}
+		return side;
 	}
 
 	/**
-	 * Plays a move for the player specified on the selected pit.
-	 * Rules for algorithm below can be found at https://en.wikipedia.org/wiki/Kalah
-	 * @param playerName the player playing the move
-	 * @param pitNumber the pit selected to play
+	 * Takes back the last move, which may be played again by redoMove until another move is played.
 	 */
-	public void playPit(String playerName, int pitNumber) {
-		Player playerInstigatingMove = findPlayer(playerName);
-		int stonesInPlayerSelectedPit = playerInstigatingMove.pickupStonesFromPit(pitNumber);
-
-		Player playerSideInAction = playerInstigatingMove;
-		int pitToAddStoneTo = pitNumber;
-		for (int currentStone = 1; currentStone <= stonesInPlayerSelectedPit; currentStone++) {
-
-			if (pitToAddStoneTo < TOTAL_PITS) {
-				logger.info("Same side move on player side {}", playerSideInAction.getName());
-				playerSideInAction.addStoneToPit(++pitToAddStoneTo);
-				if (currentStone == stonesInPlayerSelectedPit) {
-					checkLastStoneRule(playerInstigatingMove, playerSideInAction, pitToAddStoneTo);
-				}
-			} else if (playerSideInAction == playerInstigatingMove) {
-				logger.info("End pit passed on same side as player instigating move, add to kalah");
-				playerSideInAction.addStoneToKalah();
-				playerSideInAction = findOtherPlayer(playerSideInAction);
-				
-				// just used the last stone in the kalah, check if the game is complete, return after so we leave the same player in play
-				if (currentStone == stonesInPlayerSelectedPit) {
-					checkIfAnyValidMovesRemain();
-					return;
-				}
-				pitToAddStoneTo = 0;
-			} else {
-				logger.info("End pit passed on different side as player instigating move, switching sides in play");
-				playerSideInAction = findOtherPlayer(playerSideInAction);
-				playerSideInAction.addStoneToPit(1);
-				pitToAddStoneTo = 1;
-				if (currentStone == stonesInPlayerSelectedPit) {
-					checkLastStoneRule(playerInstigatingMove, playerSideInAction, pitToAddStoneTo);
-				}
-			}
+	public void undoMove() {
+		if (!canUndo()) {
+			throw new IllegalStateException("No move to take back");
 		}
-		// flip the next player to move but finally check if any moves are available to see the game has ended
-		nextPlayerNameToMove = findOtherPlayer(playerInstigatingMove).getName();
-		checkIfAnyValidMovesRemain();
-	}
-
-	/**
-	 * Check if the last stone dropped is on the same side as the player instigating the move.
-	 * If so and the pot contains 1 stone take the stone and opposite players pits stones and place in kalah
-	 * @param playerInstigatingMove player who played the move
-	 * @param playerSideInAction the side we are move stones on currently
-	 * @param lastPitUsed the last pit used
-	 */
-	private void checkLastStoneRule(Player playerInstigatingMove, Player playerSideInAction, int lastPitUsed) {
-		logger.info("Checking for last stone rule");
-		if (playerInstigatingMove == playerSideInAction) {
-			Pit pitLastUsed = playerInstigatingMove.getPit(lastPitUsed);
-			if (pitLastUsed.getNumberOfStonesInPit() == 1) {
-				logger.info("Last stone rule in play");
-				pitLastUsed.pickupStones();
-				playerInstigatingMove.addStoneToKalah();
-				
-				int opponentStones = findOtherPlayer(playerInstigatingMove).getOppositePitStones(lastPitUsed);
-				playerInstigatingMove.addOpponentsStonesToKalah(opponentStones);
-			}
+		long stamp = changes.writeLock();
+		try {
+			moveCount--;
+			board.unmake(moveLog[moveCount - moveLogStart]);
+			redoMoves++;
+			version++;
+		} finally {
+			changes.unlockWrite(stamp);
 		}
 	}
 
+	/**
+	 * The pit redoMove plays, that of the last move taken back.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getRedoPit() {
+		if (redoMoves == 0) {
+			throw new IllegalStateException("No move to play again");
+		}
+		return MoveDelta.pitNumber(moveLog[moveCount - moveLogStart]);
+	}
+
+	/**
+	 * Plays the last move taken back again, passing it to the move listener as playPit does.
+	 */
+	public void redoMove() {
+		int pitNumber = getRedoPit();
+		int side = board.getSideToMove();
+		int delta;
+		long stamp = changes.writeLock();
+		try {
+			delta = board.make(side, pitNumber);
+			moveCount++;
+			redoMoves--;
+			version++;
+		} finally {
+			changes.unlockWrite(stamp);
+		}
+		MoveListener listener = moveListener;
+		if (listener != null) {
+			listener.moveApplied(this, side, pitNumber, MoveDelta.stones(delta), MoveDelta.captured(delta));
+		}
+	}
+
+	/**
+	 * Returns the position after a number of moves, walking the board back through the moves since or forward
+	 * through the moves taken back and then returning it, so the game is left as it was.  The caller holds the
+	 * game's lock as for a change.
+	 * @param moveNumber the number of moves played, from getMoveLogStart to getMoveCount() + getRedoMoves()
+	 * @return
+	 */
+	public GameSnapshot getPosition(int moveNumber) {
+		if (moveNumber < moveLogStart || moveNumber > moveCount + redoMoves
+				|| (moveNumber < moveCount && moveCount - moveLogStart > MAX_LOGGED_MOVES)) {
+			throw new IllegalArgumentException("Move is not in the log");
+		}
+		// readers taking a snapshot meanwhile wait for the board to be walked back
+		long stamp = changes.writeLock();
+		try {
+			for (int move = moveCount; move > moveNumber; move--) {
+				board.unmake(moveLog[move - 1 - moveLogStart]);
+			}
+			for (int move = moveCount; move < moveNumber; move++) {
+				board.make(board.getSideToMove(), MoveDelta.pitNumber(moveLog[move - moveLogStart]));
+			}
+			GameSnapshot position = new GameSnapshot(this, moveNumber, 0);
+			for (int move = moveNumber; move < moveCount; move++) {
+				board.make(board.getSideToMove(), MoveDelta.pitNumber(moveLog[move - moveLogStart]));
+			}
+			for (int move = moveNumber; move > moveCount; move--) {
+				board.unmake(moveLog[move - 1 - moveLogStart]);
+			}
+			return position;
+		} finally {
+			changes.unlockWrite(stamp);
+		}
+	}
+	
 	@Override
 	public String toString() {
-		return "[id=" + id + ", nextPlayer=" + nextPlayerNameToMove + ", player1=" + player1 + ", player2="+ player2 + "]";
+		return "[id=" + id + ", nextPlayer=" + getNextPlayerToMove() + ", player1=" + player1 + ", player2="+ player2 + "]";
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,250 @@
+package com.starkie.playkalah.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Immutable copy of the state of a Game, taken by the first read after each change so it can be read without the
+ * game's lock and never seen part way through a move.  It serializes to the same JSON as the Game.
+ * The encodings written for responses are cached with the snapshot, so repeated reads of an unchanged game encode
+ * it once; the cache is copy on write, a reader racing another may encode again but never sees a partial array.
+ * @author luke.starkie
+ */
+@JsonPropertyOrder({"id", "player1", "player2", "computerPlayer", "gameCompleted", "nextPlayerToMove"})
+public final class GameSnapshot {
+
+	/**
+	 * The encodings of a snapshot that may be cached
+	 */
+	public enum Encoding {
+		JSON, COMPACT_JSON, FRAME
+	}
+
+	private static final byte[][] NOT_ENCODED = new byte[Encoding.values().length][];
+
+	/**
+	 * The id, instance and players, shared with the snapshot before unless the computer player changed
+	 */
+	private final Names names;
+
+	private final int moveCount;
+
+	/**
+	 * The game's version, see Game.getVersion
+	 */
+	private final int version;
+
+	/**
+	 * The game's stamp when copied, see Game.getSnapshot
+	 */
+	private final long stamp;
+
+	/**
+	 * A copy of the game's board, never changed
+	 */
+	private final Board board;
+
+	/**
+	 * The cached encodings by ordinal, replaced rather than changed
+	 */
+	private volatile byte[][] encoded = NOT_ENCODED;
+
+	/**
+	 * Copies the game's board as it stands, which may be walked back to an earlier move.  A copy taken without the
+	 * game's lock may be torn by a change, the game checks its stamp before publishing it.
+	 * @param game the game to copy
+	 * @param moveCount the number of moves played to reach the board
+	 * @param stamp the game's stamp the copy is taken at, 0 for a past position
+	 */
+	GameSnapshot(Game game, int moveCount, long stamp) {
+		GameSnapshot previous = game.getLastSnapshot();
+		this.names = previous != null && previous.names.computerPlayer == game.getComputerPlayer() ? previous.names
+				: new Names(game);
+		this.moveCount = moveCount;
+		this.version = game.getVersion();
+		this.stamp = stamp;
+		this.board = new Board(game.getBoard());
+	}
+
+	public String getId() {
+		return names.id;
+	}
+
+	/**
+	 * The instance of the game copied, see Game.getInstance.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getInstance() {
+		return names.instance;
+	}
+
+	public PlayerSnapshot getPlayer1() {
+		return new PlayerSnapshot(names.player1, Board.PLAYER_1);
+	}
+
+	public PlayerSnapshot getPlayer2() {
+		return new PlayerSnapshot(names.player2, Board.PLAYER_2);
+	}
+
+	@JsonIgnore
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * The version of the game copied, see Game.getVersion.
+	 * @return
+	 */
+	@JsonIgnore
+	public int getVersion() {
+		return version;
+	}
+
+	long getStamp() {
+		return stamp;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getComputerPlayer() {
+		return names.computerPlayer;
+	}
+
+	public String getNextPlayerToMove() {
+		return board.getSideToMove() == Board.PLAYER_1 ? names.player1 : names.player2;
+	}
+
+	public boolean isGameCompleted() {
+		return board.isGameCompleted();
+	}
+
+	@JsonIgnore
+	public int getSideToMove() {
+		return board.getSideToMove();
+	}
+
+	@JsonIgnore
+	public int getPits() {
+		return board.getPits();
+	}
+
+	@JsonIgnore
+	public int getCellCount() {
+		return board.getCellCount();
+	}
+
+	/**
+	 * Returns the stones in a cell of the board, player 1's pits and kalah then player 2's.
+	 * @param cell the cell index
+	 * @return
+	 */
+	public int getStones(int cell) {
+		return board.getStones(cell);
+	}
+
+	/**
+	 * Returns the snapshot encoded, encoding it the first time it is asked for.
+	 * @param encoding the encoding to cache it as
+	 * @param encoder encodes the snapshot, the same bytes every time
+	 * @return the cached bytes, which must not be changed
+	 */
+	public byte[] getEncoded(Encoding encoding, Function<GameSnapshot, byte[]> encoder) {
+		byte[][] cache = encoded;
+		byte[] bytes = cache[encoding.ordinal()];
+		if (bytes == null) {
+			bytes = encoder.apply(this);
+			byte[][] updated = cache.clone();
+			updated[encoding.ordinal()] = bytes;
+			encoded = updated;
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "[id=" + names.id + ", moveCount=" + moveCount + ", nextPlayer=" + getNextPlayerToMove() + ", board=" + board + "]";
+	}
+
+	/**
+	 * The parts of a game that seldom change, kept apart so a snapshot taken after every move copies only the board
+	 */
+	private static final class Names {
+
+		private final String id;
+
+		private final int instance;
+
+		private final String player1;
+
+		private final String player2;
+
+		private final String computerPlayer;
+
+		Names(Game game) {
+			this.id = game.getId();
+			this.instance = game.getInstance();
+			this.player1 = game.getPlayer1().getName();
+			this.player2 = game.getPlayer2().getName();
+			this.computerPlayer = game.getComputerPlayer();
+		}
+	}
+
+	/**
+	 * A player's side of the snapshot, serialized as the game's Player is
+	 */
+	@JsonPropertyOrder({"name", "pits", "numberOfStonesInKalah"})
+	public final class PlayerSnapshot {
+
+		private final String name;
+
+		private final int side;
+
+		PlayerSnapshot(String name, int side) {
+			this.name = name;
+			this.side = side;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getNumberOfStonesInKalah() {
+			return board.getStones(board.kalahIndex(side));
+		}
+
+		public List<PitSnapshot> getPits() {
+			return new AbstractList<PitSnapshot>() {
+				@Override
+				public PitSnapshot get(int index) {
+					return new PitSnapshot(board.getStones(board.pitIndex(side, index + 1)));
+				}
+
+				@Override
+				public int size() {
+					return board.getPits();
+				}
+			};
+		}
+	}
+
+	/**
+	 * A pit of the snapshot, serialized as the game's Pit is
+	 */
+	public static final class PitSnapshot {
+
+		private final int stones;
+
+		PitSnapshot(int stones) {
+			this.stones = stones;
+		}
+
+		public int getNumberOfStonesInPit() {
+			return stones;
+		}
+	}
+}
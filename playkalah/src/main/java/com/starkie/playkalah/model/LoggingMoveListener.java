@@ -0,0 +1,20 @@
+package com.starkie.playkalah.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Move listener that logs each move of a traced game.
+ * @author luke.starkie
+ */
+public class LoggingMoveListener implements MoveListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoggingMoveListener.class);
+
+	@Override
+	public void moveApplied(Game game, int side, int pitNumber, int stonesSown, int stonesCaptured) {
+		logger.info("Game {} move {}: side {} played pit {} sowing {} stones, captured {}, next player {}, completed {}",
+				game.getId(), game.getMoveCount(), side, pitNumber, stonesSown, stonesCaptured,
+				game.getNextPlayerToMove(), game.isGameCompleted());
+	}
+}
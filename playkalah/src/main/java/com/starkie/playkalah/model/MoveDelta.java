@@ -0,0 +1,67 @@
+package com.starkie.playkalah.model;
+
+/**
+ * A move made on a Board packed into an int, everything Board.unmake needs to take it back without a copy of the
+ * board: the pit played, the stones picked up from it, the stones captured, whether the mover had another turn and
+ * whether the move ended the game, sweeping the stones left into a kalah.
+ * Bits 0-3 hold the pit, 4-11 the stones, 12-19 the capture, bit 20 the extra turn and bit 21 the sweep.
+ * @author luke.starkie
+ */
+public final class MoveDelta {
+
+	private static final int STONES_SHIFT = 4;
+
+	private static final int CAPTURED_SHIFT = 12;
+
+	private static final int EXTRA_TURN = 1 << 20;
+
+	private static final int SWEPT = 1 << 21;
+
+	private MoveDelta() {
+	}
+
+	static int encode(int pitNumber, int stones, int captured, boolean extraTurn, boolean swept) {
+		return pitNumber | stones << STONES_SHIFT | captured << CAPTURED_SHIFT | (extraTurn ? EXTRA_TURN : 0)
+				| (swept ? SWEPT : 0);
+	}
+
+	public static int pitNumber(int delta) {
+		return delta & 0xF;
+	}
+
+	/**
+	 * The stones picked up from the pit and sown.
+	 * @param delta the move
+	 * @return
+	 */
+	public static int stones(int delta) {
+		return (delta >>> STONES_SHIFT) & 0xFF;
+	}
+
+	/**
+	 * The stones moved to the mover's kalah by the capture rule, 0 if there was no capture.
+	 * @param delta the move
+	 * @return
+	 */
+	public static int captured(int delta) {
+		return (delta >>> CAPTURED_SHIFT) & 0xFF;
+	}
+
+	/**
+	 * Check if the last stone landed in the mover's kalah, leaving them to move again.
+	 * @param delta the move
+	 * @return
+	 */
+	public static boolean isExtraTurn(int delta) {
+		return (delta & EXTRA_TURN) != 0;
+	}
+
+	/**
+	 * Check if the move ended the game, the stones left in one side's pits being swept into its kalah.
+	 * @param delta the move
+	 * @return
+	 */
+	public static boolean isSwept(int delta) {
+		return (delta & SWEPT) != 0;
+	}
+}
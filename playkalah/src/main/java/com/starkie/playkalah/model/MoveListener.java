@@ -0,0 +1,19 @@
+package com.starkie.playkalah.model;
+
+/**
+ * Structured sink for move events, attached to a game to trace its moves.
+ * Events are passed as primitives so a listener that ignores them costs no allocation.
+ * @author luke.starkie
+ */
+public interface MoveListener {
+
+	/**
+	 * Called after a move has been applied to the game.
+	 * @param game the game the move was played on
+	 * @param side the side that played, Board.PLAYER_1 or Board.PLAYER_2
+	 * @param pitNumber the pit played
+	 * @param stonesSown the number of stones picked up from the pit and sown
+	 * @param stonesCaptured the stones moved to the kalah by the capture rule, 0 if there was no capture
+	 */
+	void moveApplied(Game game, int side, int pitNumber, int stonesSown, int stonesCaptured);
+}
@@ -0,0 +1,61 @@
+package com.starkie.playkalah.model;
+
+/**
+ * A move submitted as part of a batch, the game may be omitted when the batch is for a single game.
+ * @author luke.starkie
+ */
+public class MoveRequest {
+
+	/**
+	 * The id of the game to play
+	 */
+	private String game;
+
+	/**
+	 * The player playing the move
+	 */
+	private String player;
+
+	/**
+	 * The pit selected to play
+	 */
+	private int pit;
+
+	public MoveRequest() {
+	}
+
+	public MoveRequest(String game, String player, int pit) {
+		this.game = game;
+		this.player = player;
+		this.pit = pit;
+	}
+
+	public String getGame() {
+		return game;
+	}
+
+	public void setGame(String game) {
+		this.game = game;
+	}
+
+	public String getPlayer() {
+		return player;
+	}
+
+	public void setPlayer(String player) {
+		this.player = player;
+	}
+
+	public int getPit() {
+		return pit;
+	}
+
+	public void setPit(int pit) {
+		this.pit = pit;
+	}
+
+	@Override
+	public String toString() {
+		return "[game=" + game + ", player=" + player + ", pit=" + pit + "]";
+	}
+}
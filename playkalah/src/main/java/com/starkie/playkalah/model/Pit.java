@@ -3,26 +3,32 @@ package com.starkie.playkalah.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
- * Model object for a pit
+ * Model object for a pit, a view over a single cell of the game's board.
  * @author luke.starkie
  */
 public class Pit {
 
 	/**
-	 * The number of stones currently held in the pit
+	 * The board holding the stones
 	 */
-	private int numberOfStonesInPit;
+	private final Board board;
+
+	/**
+	 * The index of the pit on the board
+	 */
+	private final int cell;
 	
-	public Pit(int startingStoneCount) {
-		numberOfStonesInPit = startingStoneCount;
+	public Pit(Board board, int cell) {
+		this.board = board;
+		this.cell = cell;
 	}
 
 	public int getNumberOfStonesInPit() {
-		return numberOfStonesInPit;
+		return board.getStones(cell);
 	}
 	
 	public void addStone() {
-		numberOfStonesInPit++;
+		board.addStones(cell, 1);
 	}
 
 	/**
@@ -30,18 +36,16 @@ public class Pit {
 	 * @return
 	 */
 	public int pickupStones() {
-		int originalNumberOfStonesInPit = numberOfStonesInPit;
-		this.numberOfStonesInPit = 0;
-		return originalNumberOfStonesInPit;
+		return board.pickupStones(cell);
 	}
 
 	@Override
 	public String toString() {
-		return Integer.toString(numberOfStonesInPit);
+		return Integer.toString(getNumberOfStonesInPit());
 	}
 	
 	@JsonIgnore
 	public boolean isEmpty() {
-		return numberOfStonesInPit == 0;
+		return getNumberOfStonesInPit() == 0;
 	}
-}
\ No newline at end of file
+}
@@ -1,65 +1,82 @@
 package com.starkie.playkalah.model;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 /**
- * Model object for a player and their game state.
+ * Model object for a player and their game state, a view over the player's side of the game's board.
  * @author luke.starkie
  */
+@JsonPropertyOrder({"name", "pits", "numberOfStonesInKalah"})
 public class Player {
-	
-	private static final Logger logger = LoggerFactory.getLogger(Player.class);
 
 	/**
 	 * The name of the player
 	 */
-	private String name;
+	private final String name;
 	
 	/**
-	 * The pits the player owns.
+	 * The board holding the player's pits and kalah
 	 */
-	private List<Pit> pits;
+	private final Board board;
 	
 	/**
-	 * The number of stones in the kalah
+	 * The side of the board owned by the player, Board.PLAYER_1 or Board.PLAYER_2
 	 */
-	private int numberOfStonesInKalah = 0;
+	private final int side;
 	
 	/**
-	 * Creates a player via a name and game number of pits and starting stones
+	 * Creates a player owning a side of the board
 	 * @param name the name of the player
-	 * @param startingPits the starting number of pits
-	 * @param startingStones the starting number of stones in the pits
+	 * @param board the board of the game
+	 * @param side the side of the board owned by the player
 	 */
-	public Player(String name, int startingPits, int startingStones) {
+	public Player(String name, Board board, int side) {
 		this.name = name;
-		this.pits = new ArrayList<Pit>(startingPits);
-		for (int i = 0; i < startingPits; i++) {
-			this.pits.add(new Pit(startingStones));
-		}
+		this.board = board;
+		this.side = side;
 	}
 	
 	public String getName() {
 		return name;
 	}
 
+	@JsonIgnore
+	public int getSide() {
+		return side;
+	}
+
+	/**
+	 * The pits the player owns, created on demand as views over the board.
+	 * @return
+	 */
 	public List<Pit> getPits() {
-		return pits;
+		return new AbstractList<Pit>() {
+			@Override
+			public Pit get(int index) {
+				return getPit(index + 1);
+			}
+
+			@Override
+			public int size() {
+				return board.getPits();
+			}
+		};
 	}
 	
 	public int getNumberOfStonesInKalah() {
-		return numberOfStonesInKalah;
+		return board.getStones(board.kalahIndex(side));
 	}
 	
 	@JsonIgnore
 	public Pit getPit(int pitNumber) {
-		return pits.get(pitNumber-1);
+		if (pitNumber < 1 || pitNumber > board.getPits()) {
+			throw new IndexOutOfBoundsException("Invalid pit " + pitNumber);
+		}
+		return new Pit(board, board.pitIndex(side, pitNumber));
 	}
 	
 	/**
@@ -67,7 +84,6 @@ public class Player {
 	 * @param pitNumber pit to use
 	 */
 	public void addStoneToPit(int pitNumber) {
-		logger.info("Addng stone to pit {} for user {}", pitNumber, name);
 		getPit(pitNumber).addStone();
 	}
 	
@@ -77,26 +93,24 @@ public class Player {
 	 * @return
 	 */
 	public int pickupStonesFromPit(int pitNumber) {
-		logger.info("Picking up stones from pit {} for user {}", pitNumber, name);
 		return getPit(pitNumber).pickupStones();
 	}
 	
 	@JsonIgnore
 	public boolean isKalehEmpty() {
-		return numberOfStonesInKalah == 0;
+		return getNumberOfStonesInKalah() == 0;
 	}
 
 	/**
 	 * Add a stone to the kalah
 	 */
 	public void addStoneToKalah() {
-		logger.info("Adding stone to kalah for user {}", name);
-		this.numberOfStonesInKalah++;
+		board.addStones(board.kalahIndex(side), 1);
 	}
 
 	@Override
 	public String toString() {
-		return "[name=" + name + ", pits=" + pits + ", kalah=" + numberOfStonesInKalah + "]";
+		return "[name=" + name + ", pits=" + getPits() + ", kalah=" + getNumberOfStonesInKalah() + "]";
 	}
 
 	/**
@@ -105,44 +119,27 @@ public class Player {
 	 */
 	@JsonIgnore
 	public boolean isPitsEmpty() {
-		for (Pit pit : pits) {
-			if (!pit.isEmpty()) {
-				return false;
-			}
-		}
-		return true;
+		return board.isSideEmpty(side);
 	}
 
 	/**
 	 * Moves the all the players pit stones to the kalah
 	 */
 	public void movePitStonesToKalah() {
-		logger.info("Moving pit stones to kalah for user {}", name);
-		for (Pit pit : pits) {
-			if (!pit.isEmpty()) {
-				int stonesInPit = pit.pickupStones();
-				numberOfStonesInKalah += stonesInPit;
-			}
-		}
+		board.movePitStonesToKalah(side);
 	}
 
+	/**
+	 * Pickup the stones from this player's pit opposite the opponent's pit number.
+	 * @param pitNumber the opponent's pit number
+	 * @return
+	 */
 	@JsonIgnore
 	public int getOppositePitStones(int pitNumber) {
-		switch (pitNumber) {
-		case 1:
-			return pits.get(5).pickupStones();
-		case 2:
-			return pits.get(4).pickupStones();
-		case 3:
-			return pits.get(3).pickupStones();
-		case 4:
-			return pits.get(2).pickupStones();
-		case 5:
-			return pits.get(1).pickupStones();
-		case 6:
-			return pits.get(0).pickupStones();	
+		if (pitNumber < 1 || pitNumber > board.getPits()) {
+			throw new IllegalStateException("Invalid pit for selecting stones");
 		}
-		throw new IllegalStateException("Invalid pit for selecting stones");
+		return pickupStonesFromPit(board.getPits() + 1 - pitNumber);
 	}
 
 	/**
@@ -150,7 +147,6 @@ public class Player {
 	 * @param opponentStones opponents stones
 	 */
 	public void addOpponentsStonesToKalah(int opponentStones) {
-		logger.info("Adding {} opponent stone to kalah for user {}", opponentStones, name);
-		numberOfStonesInKalah += opponentStones;
+		board.addStones(board.kalahIndex(side), opponentStones);
 	}
-}
\ No newline at end of file
+}
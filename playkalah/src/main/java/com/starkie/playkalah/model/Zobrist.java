@@ -0,0 +1,66 @@
+package com.starkie.playkalah.model;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of boards.
+ * A board's hash is the exclusive or of a key for each cell and its stone count, a key for the side to move
+ * and a key for the number of pits, so boards of different sizes never share a hash.
+ * @author luke.starkie
+ */
+final class Zobrist {
+
+	/**
+	 * The most stones any cell can hold, every stone of the largest board
+	 */
+	static final int MAX_STONES = 2 * Board.MAX_PITS * Board.MAX_SEEDS;
+
+	/**
+	 * Each cell has 256 keys, at least one per stone count, so a key is found by shifting rather than multiplying
+	 */
+	static final int STONE_SHIFT = 8;
+
+	/**
+	 * Key for each cell and stone count at (cell << STONE_SHIFT) + stones, the key for an empty cell is 0
+	 */
+	static final long[] CELL_KEYS;
+
+	/**
+	 * CELL_KEYS[i] ^ CELL_KEYS[i + 1], the change in hash from dropping one more stone in a cell
+	 */
+	static final long[] STEP_KEYS;
+
+	/**
+	 * Key included when player 2 is to move
+	 */
+	static final long PLAYER_2_TO_MOVE;
+
+	/**
+	 * Key for each number of pits
+	 */
+	static final long[] PITS_KEYS;
+
+	static {
+		// a fixed seed keeps hashes stable between runs so they can be stored on disk
+		Random random = new Random(0x6b616c6168L);
+		int maxCells = 2 * Board.MAX_PITS + 2;
+		CELL_KEYS = new long[maxCells << STONE_SHIFT];
+		for (int cell = 0; cell < maxCells; cell++) {
+			for (int stones = 1; stones <= MAX_STONES; stones++) {
+				CELL_KEYS[(cell << STONE_SHIFT) + stones] = random.nextLong();
+			}
+		}
+		STEP_KEYS = new long[CELL_KEYS.length];
+		for (int i = 0; i < CELL_KEYS.length - 1; i++) {
+			STEP_KEYS[i] = CELL_KEYS[i] ^ CELL_KEYS[i + 1];
+		}
+		PLAYER_2_TO_MOVE = random.nextLong();
+		PITS_KEYS = new long[Board.MAX_PITS + 1];
+		for (int pits = 0; pits < PITS_KEYS.length; pits++) {
+			PITS_KEYS[pits] = random.nextLong();
+		}
+	}
+
+	private Zobrist() {
+	}
+}
@@ -0,0 +1,150 @@
+package com.starkie.playkalah.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.starkie.playkalah.ai.Analysis;
+
+/**
+ * Bounded cache of position analyses keyed by board hash and depth, so every spectator of a game and every game
+ * reaching the same position share one analysis.  The cache holds the future of each analysis from the moment it is
+ * started, a request for a position already being analysed waits on the same future rather than starting another.
+ * An analysis that fails is removed so the next request tries again.  The least recently used analyses are evicted
+ * beyond the most entries, a request waiting on an evicted analysis still gets its result.
+ * The map is only held locked to find or add an entry, never while analysing.
+ * @author luke.starkie
+ */
+public class AnalysisCache {
+
+	private final int maxEntries;
+
+	/**
+	 * The analyses in access order, guarded by this
+	 */
+	private final LinkedHashMap<Key, CompletableFuture<Analysis>> analyses;
+
+	private long hits;
+	private long misses;
+	private long coalesced;
+
+	/**
+	 * A position and the depth it is analysed to.
+	 */
+	private static final class Key {
+		final long hash;
+		final int depth;
+
+		Key(long hash, int depth) {
+			this.hash = hash;
+			this.depth = depth;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return hash == key.hash && depth == key.depth;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(hash) * 31 + depth;
+		}
+	}
+
+	/**
+	 * Creates a cache.
+	 * @param maxEntries the most analyses held, 0 to analyse every request
+	 */
+	public AnalysisCache(int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("Analysis cache size can't be negative");
+		}
+		this.maxEntries = maxEntries;
+		this.analyses = new LinkedHashMap<Key, CompletableFuture<Analysis>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<Analysis>> eldest) {
+				return size() > AnalysisCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the analysis of a position, starting it only if it is neither cached nor already being analysed.
+	 * @param hash the board hash of the position
+	 * @param depth the depth analysed to
+	 * @param analysis starts the analysis, called without the cache locked
+	 * @return completed with the analysis, or the exception it failed with
+	 */
+	public CompletableFuture<Analysis> get(long hash, int depth, Supplier<CompletableFuture<Analysis>> analysis) {
+		Key key = new Key(hash, depth);
+		CompletableFuture<Analysis> pending;
+		synchronized (this) {
+			CompletableFuture<Analysis> cached = analyses.get(key);
+			if (cached != null) {
+				hits++;
+				if (!cached.isDone()) {
+					coalesced++;
+				}
+				return cached;
+			}
+			misses++;
+			pending = new CompletableFuture<>();
+			analyses.put(key, pending);
+		}
+		CompletableFuture<Analysis> started;
+		try {
+			started = analysis.get();
+		} catch (RuntimeException e) {
+			started = new CompletableFuture<>();
+			started.completeExceptionally(e);
+		}
+		started.whenComplete((result, ex) -> {
+			if (ex != null) {
+				remove(key, pending);
+				pending.completeExceptionally(ex);
+			} else {
+				pending.complete(result);
+			}
+		});
+		return pending;
+	}
+
+	private synchronized void remove(Key key, CompletableFuture<Analysis> failed) {
+		analyses.remove(key, failed);
+	}
+
+	public synchronized int size() {
+		return analyses.size();
+	}
+
+	/**
+	 * The requests answered from the cache, including those waiting on an analysis in progress.
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * The requests that started an analysis.
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The requests that waited on an analysis another request started.
+	 * @return
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+}
@@ -0,0 +1,196 @@
+package com.starkie.playkalah.service;
+
+import java.util.Arrays;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Totals of the archived games of one size of board.  Each segment of the archive is scanned into its own totals
+ * and the totals are merged, so nothing is shared while the segments are scanned.  The games are totalled for each
+ * pit player 1 opened with, leaving out games whose first move is not known.
+ * @author luke.starkie
+ */
+public class ArchiveStats {
+
+	private final int pits;
+
+	private final int seeds;
+
+	private long games;
+
+	private long player1Wins;
+
+	private long draws;
+
+	/**
+	 * Player 1's stones less player 2's, summed over the games
+	 */
+	private long player1Margin;
+
+	private long moves;
+
+	private int minMoves = Integer.MAX_VALUE;
+
+	private int maxMoves;
+
+	/**
+	 * The games, player 1's wins and the draws for each opening pit, indexed from 0
+	 */
+	private final long[] openingGames;
+	private final long[] openingPlayer1Wins;
+	private final long[] openingDraws;
+
+	/**
+	 * Creates empty totals.
+	 * @param pits the number of pits on each side of the boards totalled
+	 * @param seeds the number of stones each pit started with
+	 */
+	public ArchiveStats(int pits, int seeds) {
+		// checks the size of board
+		new Board(pits, seeds);
+		this.pits = pits;
+		this.seeds = seeds;
+		this.openingGames = new long[pits];
+		this.openingPlayer1Wins = new long[pits];
+		this.openingDraws = new long[pits];
+	}
+
+	/**
+	 * Adds an archived game.
+	 * @param openingPit player 1's first move, 0 if not known
+	 * @param player1Stones player 1's stones at the end of the game
+	 * @param player2Stones player 2's stones at the end of the game
+	 * @param gameMoves the moves played, extra turns included
+	 */
+	public void record(int openingPit, int player1Stones, int player2Stones, int gameMoves) {
+		int player1Lead = player1Stones - player2Stones;
+		games++;
+		moves += gameMoves;
+		minMoves = Math.min(minMoves, gameMoves);
+		maxMoves = Math.max(maxMoves, gameMoves);
+		player1Margin += player1Lead;
+		if (player1Lead == 0) {
+			draws++;
+		} else if (player1Lead > 0) {
+			player1Wins++;
+		}
+		if (openingPit == 0) {
+			return;
+		}
+		int opening = openingPit - 1;
+		openingGames[opening]++;
+		if (player1Lead == 0) {
+			openingDraws[opening]++;
+		} else if (player1Lead > 0) {
+			openingPlayer1Wins[opening]++;
+		}
+	}
+
+	/**
+	 * Adds the games of other totals to these.
+	 * @param other totals of games on the same size of board
+	 */
+	public void merge(ArchiveStats other) {
+		if (other.pits != pits || other.seeds != seeds) {
+			throw new IllegalArgumentException("Totals are for different sizes of board");
+		}
+		games += other.games;
+		player1Wins += other.player1Wins;
+		draws += other.draws;
+		player1Margin += other.player1Margin;
+		moves += other.moves;
+		minMoves = Math.min(minMoves, other.minMoves);
+		maxMoves = Math.max(maxMoves, other.maxMoves);
+		for (int opening = 0; opening < pits; opening++) {
+			openingGames[opening] += other.openingGames[opening];
+			openingPlayer1Wins[opening] += other.openingPlayer1Wins[opening];
+			openingDraws[opening] += other.openingDraws[opening];
+		}
+	}
+
+	public int getPits() {
+		return pits;
+	}
+
+	public int getSeeds() {
+		return seeds;
+	}
+
+	public long getGames() {
+		return games;
+	}
+
+	public long getMoves() {
+		return moves;
+	}
+
+	public double getAverageMoves() {
+		return rate(moves, games);
+	}
+
+	public int getMinMoves() {
+		return games == 0 ? 0 : minMoves;
+	}
+
+	public int getMaxMoves() {
+		return maxMoves;
+	}
+
+	public double getPlayer1WinRate() {
+		return rate(player1Wins, games);
+	}
+
+	public double getPlayer2WinRate() {
+		return rate(games - player1Wins - draws, games);
+	}
+
+	public double getDrawRate() {
+		return rate(draws, games);
+	}
+
+	public double getPlayer1AverageMargin() {
+		return rate(player1Margin, games);
+	}
+
+	/**
+	 * The games opened with each pit, indexed from 0.
+	 * @return
+	 */
+	public long[] getOpeningGames() {
+		return openingGames.clone();
+	}
+
+	/**
+	 * The fraction of the games opened with each pit won by player 1, indexed from 0.
+	 * @return
+	 */
+	public double[] getOpeningPlayer1WinRates() {
+		double[] rates = new double[pits];
+		for (int opening = 0; opening < pits; opening++) {
+			rates[opening] = rate(openingPlayer1Wins[opening], openingGames[opening]);
+		}
+		return rates;
+	}
+
+	/**
+	 * The fraction of the games opened with each pit drawn, indexed from 0.
+	 * @return
+	 */
+	public double[] getOpeningDrawRates() {
+		double[] rates = new double[pits];
+		for (int opening = 0; opening < pits; opening++) {
+			rates[opening] = rate(openingDraws[opening], openingGames[opening]);
+		}
+		return rates;
+	}
+
+	private static double rate(long count, long total) {
+		return total == 0 ? 0 : (double) count / total;
+	}
+
+	@Override
+	public String toString() {
+		return "[kalah(" + pits + "," + seeds + "), games=" + games + ", player1Wins=" + player1Wins + ", draws=" + draws
+				+ ", moves=" + moves + ", openingGames=" + Arrays.toString(openingGames) + "]";
+	}
+}
@@ -0,0 +1,143 @@
+package com.starkie.playkalah.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import com.starkie.playkalah.model.BatchResult;
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.MoveRequest;
+
+/**
+ * Plays batches of moves for the service.  The moves of a game are validated in order against a copy of its board
+ * holding the game's lock, and applied all together or not at all.
+ * @author luke.starkie
+ */
+class BatchPlayer {
+
+	private final GameCommitter commits;
+
+	private final ComputerPlayer computer;
+
+	/**
+	 * @param commits commits the moves played
+	 * @param computer plays the computer opponent's replies
+	 */
+	BatchPlayer(GameCommitter commits, ComputerPlayer computer) {
+		this.commits = commits;
+		this.computer = computer;
+	}
+
+	/**
+	 * Plays a batch of moves in one game, reporting the first invalid move if any.
+	 * @param id the game id to play
+	 * @param moves the moves in the order to play them, the game of each move is ignored
+	 * @return
+	 */
+	BatchResult playMoves(String id, List<MoveRequest> moves) {
+		checkBatchSize(moves);
+		List<Integer> positions = new ArrayList<>(moves.size());
+		for (int i = 0; i < moves.size(); i++) {
+			positions.add(i);
+		}
+		return playBatch(id, moves, positions);
+	}
+
+	/**
+	 * Plays a batch of moves across any number of games, a failure in one game does not affect the others.
+	 * @param moves the moves in the order to play them
+	 * @return a result for each game in the order the games first appear in the batch
+	 */
+	List<BatchResult> playMoves(List<MoveRequest> moves) {
+		checkBatchSize(moves);
+		Map<String, List<Integer>> positionsByGame = new LinkedHashMap<>();
+		for (int i = 0; i < moves.size(); i++) {
+			positionsByGame.computeIfAbsent(moves.get(i).getGame(), game -> new ArrayList<>()).add(i);
+		}
+		List<BatchResult> results = new ArrayList<>(positionsByGame.size());
+		for (Map.Entry<String, List<Integer>> entry : positionsByGame.entrySet()) {
+			List<MoveRequest> gameMoves = new ArrayList<>(entry.getValue().size());
+			for (int position : entry.getValue()) {
+				gameMoves.add(moves.get(position));
+			}
+			results.add(playBatch(entry.getKey(), gameMoves, entry.getValue()));
+		}
+		return results;
+	}
+
+	private void checkBatchSize(List<MoveRequest> moves) {
+		if (moves.size() > KalahService.MAX_BATCH_MOVES) {
+			throw new IllegalArgumentException("Too many moves, a batch may have at most "
+					+ KalahService.MAX_BATCH_MOVES);
+		}
+	}
+
+	/**
+	 * Plays the moves of one game of a batch.
+	 * @param id the game id to play
+	 * @param moves the moves of the game
+	 * @param positions the position of each move in the batch, for reporting errors
+	 * @return
+	 */
+	private BatchResult playBatch(String id, List<MoveRequest> moves, List<Integer> positions) {
+		MoveMetrics moveMetrics = commits.getMoveMetrics();
+		BatchResult result = new BatchResult(id);
+		if (id == null) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.UNKNOWN_GAME);
+			result.addError(positions.get(0), "Not a valid game");
+			return result;
+		}
+		Lock lock = commits.lockFor(id);
+		Game game;
+		try {
+			game = commits.lockGame(id, lock);
+		} catch (IllegalArgumentException e) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.UNKNOWN_GAME);
+			result.addError(positions.get(0), e.getMessage());
+			return result;
+		}
+		try {
+			Board scratch = new Board(game.getBoard());
+			for (int i = 0; i < moves.size(); i++) {
+				MoveRequest move = moves.get(i);
+				try {
+					if (game.getComputerPlayer() != null && game.getComputerPlayer().equals(move.getPlayer())) {
+						moveMetrics.moveRejected(MoveMetrics.Rejection.COMPUTER_PLAYER);
+						throw new IllegalArgumentException("That player is played by the computer");
+					}
+					commits.validateMove(game, scratch, move.getPlayer(), move.getPit());
+				} catch (IllegalArgumentException | IllegalStateException e) {
+					result.addError(positions.get(i), e.getMessage());
+					result.setState(game, 0);
+					return result;
+				}
+				scratch.sow(scratch.getSideToMove(), move.getPit());
+			}
+			for (MoveRequest move : moves) {
+				commits.journalMove(game, move.getPit());
+				game.playPit(move.getPlayer(), move.getPit());
+			}
+			commits.archiveIfCompleted(game);
+			moveMetrics.movesPlayed(moves.size());
+			result.setState(game, moves.size());
+			commits.notifyUpdateListeners(game);
+		} finally {
+			lock.unlock();
+		}
+		commits.awaitJournal();
+
+		if (game.getComputerPlayer() != null) {
+			computer.playComputerMoves(game);
+			commits.acquire(lock);
+			try {
+				result.setState(game, moves.size());
+			} finally {
+				lock.unlock();
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,289 @@
+package com.starkie.playkalah.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.ai.Analysis;
+import com.starkie.playkalah.ai.EndgameDatabase;
+import com.starkie.playkalah.ai.OpeningBook;
+import com.starkie.playkalah.ai.ParallelSearch;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.Solution;
+import com.starkie.playkalah.ai.SolutionStore;
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Plays and suggests the computer's moves for the service.  A position solved by the solution store or held by the
+ * opening book is answered without searching, any other is searched on the computer executor without holding the
+ * game's lock, and the move found is only played if no other move was played meanwhile.
+ * @author luke.starkie
+ */
+class ComputerPlayer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ComputerPlayer.class);
+
+	private final GameCommitter commits;
+
+	private final ParallelSearch search;
+
+	/**
+	 * The endgame database, null if there is none
+	 */
+	private final EndgameDatabase endgameDatabase;
+
+	/**
+	 * The solution store, null if there is none
+	 */
+	private final SolutionStore solutionStore;
+
+	/**
+	 * The opening book, null if there is none
+	 */
+	private final OpeningBook openingBook;
+
+	private final AnalysisCache analysisCache;
+
+	private final ThreadPoolExecutor executor;
+
+	private final long timeBudgetMillis;
+
+	private final int maxDepth;
+
+	private final int analysisMaxDepth;
+
+	/**
+	 * @param commits commits the moves played
+	 * @param search the search of positions not known
+	 * @param endgameDatabase the endgame database, null if there is none
+	 * @param solutionStore the solution store, null if there is none
+	 * @param openingBook the opening book, null if there is none
+	 * @param analysisCache the cache of position analyses
+	 * @param threads the number of threads the computer's moves are searched on
+	 * @param queueCapacity the most searches queued for a thread
+	 * @param timeBudgetMillis the time a move is searched for
+	 * @param maxDepth the deepest a move is searched
+	 * @param analysisMaxDepth the deepest an analysis may be asked for
+	 */
+	ComputerPlayer(GameCommitter commits, ParallelSearch search, EndgameDatabase endgameDatabase,
+			SolutionStore solutionStore, OpeningBook openingBook, AnalysisCache analysisCache, int threads,
+			int queueCapacity, long timeBudgetMillis, int maxDepth, int analysisMaxDepth) {
+		this.commits = commits;
+		this.search = search;
+		this.endgameDatabase = endgameDatabase;
+		this.solutionStore = solutionStore;
+		this.openingBook = openingBook;
+		this.analysisCache = analysisCache;
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.maxDepth = maxDepth;
+		this.analysisMaxDepth = analysisMaxDepth;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "kalah-computer");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Stops the computer and search threads.
+	 */
+	void shutdown() {
+		executor.shutdown();
+		search.shutdown();
+	}
+
+	/**
+	 * Plays the move chosen by the computer for the player next to move, followed by the computer opponent's reply
+	 * if the game has one.
+	 * @param id the game id to play
+	 * @return
+	 */
+	Game playAiMove(String id) {
+		Game game = commits.requireGame(id);
+		if (!playSearchedMove(game, null)) {
+			throw new IllegalStateException("Game changed while the computer was thinking, try again");
+		}
+		playComputerMoves(game);
+		return game;
+	}
+
+	/**
+	 * Plays the move chosen by the computer as playAiMove does, searching on the computer executor.
+	 * @param id the game id to play
+	 * @return completed with the game, or the exception playAiMove would throw
+	 */
+	CompletableFuture<Game> playAiMoveAsync(String id) {
+		return supplyComputerMove(() -> playAiMove(id));
+	}
+
+	/**
+	 * Plays the computer opponent's reply to a change on the computer executor, if it is the computer's turn.
+	 * @param game the game changed
+	 * @return completed with the game after the reply
+	 */
+	CompletableFuture<Game> computerReplyAsync(Game game) {
+		if (game.getComputerPlayer() == null) {
+			return CompletableFuture.completedFuture(game);
+		}
+		return supplyComputerMove(() -> {
+			playComputerMoves(game);
+			return game;
+		});
+	}
+
+	/**
+	 * Returns the move the computer would play for the player next to move, without playing it.
+	 * @param id the game id
+	 * @return completed with the move and its score from the point of view of the player next to move
+	 */
+	CompletableFuture<SearchResult> getHintAsync(String id) {
+		Board position = commits.readGame(id, game -> new Board(game.getBoard()));
+		if (position.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		SearchResult known = precomputedMove(position);
+		if (known != null) {
+			return CompletableFuture.completedFuture(known);
+		}
+		return supplyComputerMove(() -> search.search(position, timeBudgetMillis, maxDepth));
+	}
+
+	/**
+	 * Returns the score of every move of the player next to move searched to a depth, cached by position and depth.
+	 * @param id the game id
+	 * @param depth the depth to search every move to, from 1 to kalah.analysis.max-depth
+	 * @return completed with the analysis
+	 */
+	CompletableFuture<Analysis> getAnalysisAsync(String id, int depth) {
+		if (depth < 1 || depth > analysisMaxDepth) {
+			throw new IllegalArgumentException("Analysis depth must be from 1 to " + analysisMaxDepth);
+		}
+		Board position = commits.readGame(id, game -> new Board(game.getBoard()));
+		if (position.isGameCompleted()) {
+			throw new IllegalStateException("Game has been completed, play another?");
+		}
+		return analysisCache.get(position.getHash(), depth,
+				() -> supplyComputerMove(() -> search.analyse(position, depth)));
+	}
+
+	/**
+	 * Returns the perfect play of a game's position from the solution store.
+	 * @param id the game id
+	 * @return
+	 */
+	Solution getSolution(String id) {
+		if (solutionStore == null) {
+			throw new IllegalStateException("No positions have been solved, set kalah.ai.solution-file");
+		}
+		Solution solution = commits.readGame(id, game -> solutionStore.lookup(game.getBoard(), endgameDatabase));
+		if (solution == null) {
+			throw new IllegalStateException("Position has not been solved");
+		}
+		return solution;
+	}
+
+	private <T> CompletableFuture<T> supplyComputerMove(Supplier<T> search) {
+		try {
+			return CompletableFuture.supplyAsync(search, executor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+	static boolean isComputerToMove(Game game) {
+		return !game.isGameCompleted() && game.getNextPlayerToMove().equals(game.getComputerPlayer());
+	}
+
+	/**
+	 * Plays the computer opponent's moves, including extra turns, until it is the human player's turn
+	 * or the game is completed.
+	 * @param game the game to play
+	 */
+	void playComputerMoves(Game game) {
+		String computerPlayer = game.getComputerPlayer();
+		if (computerPlayer != null) {
+			while (playSearchedMove(game, computerPlayer)) {
+				// keep going while the computer has another turn
+			}
+		}
+	}
+
+	/**
+	 * Searches a copy of the board without holding the game's lock, then plays the best move found provided no other
+	 * move was played in the meantime.
+	 * @param game the game to play
+	 * @param playerName only play if this player is next to move, null to play for whoever is next
+	 * @return true if a move was played
+	 */
+	private boolean playSearchedMove(Game game, String playerName) {
+		Lock lock = commits.lockFor(game.getId());
+		Board position;
+		int version;
+		commits.acquire(lock);
+		try {
+			if (game.isGameCompleted()) {
+				if (playerName == null) {
+					throw new IllegalStateException("Game has been completed, play another?");
+				}
+				return false;
+			} else if (playerName != null && !playerName.equals(game.getNextPlayerToMove())) {
+				return false;
+			}
+			position = new Board(game.getBoard());
+			version = game.getVersion();
+		} finally {
+			lock.unlock();
+		}
+
+		SearchResult result = precomputedMove(position);
+		if (result == null) {
+			result = search.search(position, timeBudgetMillis, maxDepth);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Computer move for game {} found {}", game.getId(), result);
+		}
+
+		commits.acquire(lock);
+		try {
+			if (game.getVersion() != version || !commits.isResident(game)) {
+				return false;
+			}
+			commits.playLocked(game, game.getNextPlayerToMove(), result.getPitNumber());
+		} finally {
+			lock.unlock();
+		}
+		commits.awaitJournal();
+		return true;
+	}
+
+	/**
+	 * Returns the best move of a position solved by the solution store or held by the opening book, without searching.
+	 * @param position the position
+	 * @return the move and its score, null if the position is in neither
+	 */
+	private SearchResult precomputedMove(Board position) {
+		if (solutionStore != null) {
+			long entry = solutionStore.probe(position.getHash());
+			if (entry != 0 && SolutionStore.isSolved(entry) && SolutionStore.pitNumber(entry) != 0) {
+				return new SearchResult(SolutionStore.pitNumber(entry), SolutionStore.lower(entry),
+						OpeningBook.SOLVED_DEPTH, 0, 0);
+			}
+		}
+		return openingBook == null ? null : openingBook.lookup(position);
+	}
+
+	int getThreads() {
+		return search.getThreads();
+	}
+}
@@ -0,0 +1,286 @@
+package com.starkie.playkalah.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Runs the commands of games on actors, each game owned by one worker thread chosen by its id.  Commands are put on
+ * the worker's lock free queue by any thread and drained by the worker in batches of up to MAX_DRAIN, so the commands
+ * of a game run one at a time in the order queued without waiting on each other, and a hot game's state stays in one
+ * core's cache.  The worker parks when its queue is empty and is unparked by the next command.
+ * After each batch the DrainListener is told of the games the batch changed, once each however many moves they had,
+ * and the batch's futures complete when the future it returns does, so the moves of a batch share one journal force
+ * and one push to subscribers.  Each worker queues at most queueCapacity commands, beyond that a command's future
+ * fails with a RejectedExecutionException.
+ * @author luke.starkie
+ */
+public class GameActors {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameActors.class);
+
+	/**
+	 * The most commands run before the batch's results are released
+	 */
+	static final int MAX_DRAIN = 256;
+
+	/**
+	 * The times an idle worker yields before parking, as waking a parked thread costs far more than a yield
+	 */
+	static final int IDLE_YIELDS = 16;
+
+	/**
+	 * Told after each batch of commands has run
+	 */
+	public interface DrainListener {
+
+		/**
+		 * Called on the worker's thread after a batch of commands, before their futures complete.
+		 * @param updated the games the batch changed, in the order first changed
+		 * @return completed when the batch's results may be released, once its moves are durable
+		 */
+		CompletableFuture<?> drained(Collection<Game> updated);
+	}
+
+	/**
+	 * A command queued for a game, with the future of its result
+	 */
+	private static final class Command<T> {
+		final Supplier<T> task;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		T result;
+		RuntimeException failure;
+
+		Command(Supplier<T> task) {
+			this.task = task;
+		}
+
+		void run() {
+			try {
+				result = task.get();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+
+		void complete() {
+			if (failure == null) {
+				future.complete(result);
+			} else {
+				future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * The thread owning a shard of the games, with the queue of their commands
+	 */
+	private final class Worker extends Thread {
+		final Queue<Command<?>> queue = new ConcurrentLinkedQueue<>();
+		final AtomicInteger queued = new AtomicInteger();
+		final Map<String, Game> updated = new LinkedHashMap<>();
+		volatile boolean parked;
+
+		Worker(String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		GameActors owner() {
+			return GameActors.this;
+		}
+
+		@Override
+		public void run() {
+			List<Command<?>> batch = new ArrayList<>(MAX_DRAIN);
+			int idle = 0;
+			while (running || !queue.isEmpty()) {
+				Command<?> command = queue.poll();
+				if (command == null && idle < IDLE_YIELDS) {
+					idle++;
+					Thread.yield();
+					continue;
+				} else if (command == null) {
+					idle = 0;
+					parked = true;
+					// a command queued after the poll sees parked set and unparks this thread
+					if (queue.isEmpty() && running) {
+						LockSupport.park(this);
+					}
+					parked = false;
+					continue;
+				}
+				idle = 0;
+				do {
+					command.run();
+					batch.add(command);
+				} while (batch.size() < MAX_DRAIN && (command = queue.poll()) != null);
+				queued.addAndGet(-batch.size());
+				drains.incrementAndGet();
+				commands.addAndGet(batch.size());
+				release(batch);
+				batch = new ArrayList<>(MAX_DRAIN);
+				updated.clear();
+			}
+		}
+
+		private void release(List<Command<?>> batch) {
+			CompletableFuture<?> released;
+			try {
+				released = listener.drained(updated.values());
+			} catch (RuntimeException e) {
+				logger.error("Failed to release a batch of game commands", e);
+				released = new CompletableFuture<>();
+				released.completeExceptionally(e);
+			}
+			released.whenComplete((ignored, failure) -> {
+				for (Command<?> command : batch) {
+					if (failure == null || command.failure != null) {
+						command.complete();
+					} else {
+						command.future.completeExceptionally(failure);
+					}
+				}
+			});
+		}
+	}
+
+	private final Worker[] workers;
+
+	private final int queueCapacity;
+
+	private final DrainListener listener;
+
+	private final AtomicLong drains = new AtomicLong();
+
+	private final AtomicLong commands = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Creates the actors and starts their threads.
+	 * @param threads the number of worker threads the games are sharded across
+	 * @param queueCapacity the most commands waiting on each worker
+	 * @param listener told after each batch
+	 */
+	public GameActors(int threads, int queueCapacity, DrainListener listener) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one game actor thread is required");
+		} else if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Game actor queues must hold at least one command");
+		}
+		this.queueCapacity = queueCapacity;
+		this.listener = listener;
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker("kalah-actor-" + i);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a command for a game, to run after the commands already queued for it.
+	 * @param id the game id
+	 * @param task the command, run on the game's worker
+	 * @return completed with the command's result or exception once its batch is released, or a
+	 *         RejectedExecutionException if the worker's queue is full
+	 */
+	public <T> CompletableFuture<T> submit(String id, Supplier<T> task) {
+		Command<T> command = new Command<>(task);
+		Worker worker = workerFor(id);
+		if (!running) {
+			command.future.completeExceptionally(new RejectedExecutionException("Game actors have been shut down"));
+		} else if (worker.queued.incrementAndGet() > queueCapacity) {
+			worker.queued.decrementAndGet();
+			command.future.completeExceptionally(new RejectedExecutionException("Game actor queue is full"));
+		} else {
+			worker.queue.offer(command);
+			if (worker.parked) {
+				LockSupport.unpark(worker);
+			}
+		}
+		return command.future;
+	}
+
+	/**
+	 * Records a game changed by the command running on this thread, the DrainListener is told once the batch has run.
+	 * @param game the game changed
+	 * @return false if this thread is not a worker, the caller then tells of the change itself
+	 */
+	public boolean deferUpdate(Game game) {
+		Thread thread = Thread.currentThread();
+		if (!(thread instanceof Worker) || ((Worker) thread).owner() != this) {
+			return false;
+		}
+		((Worker) thread).updated.put(game.getId(), game);
+		return true;
+	}
+
+	/**
+	 * Returns true if called by the worker owning the game, whose commands must then run directly rather than wait
+	 * on its own queue.
+	 * @param id the game id
+	 * @return
+	 */
+	public boolean isOwner(String id) {
+		return Thread.currentThread() == workerFor(id);
+	}
+
+	private Worker workerFor(String id) {
+		int hash = id.hashCode();
+		return workers[Math.floorMod(hash ^ (hash >>> 16), workers.length)];
+	}
+
+	/**
+	 * The commands waiting across every worker.
+	 * @return
+	 */
+	public int getQueuedCommands() {
+		int queued = 0;
+		for (Worker worker : workers) {
+			queued += worker.queued.get();
+		}
+		return queued;
+	}
+
+	/**
+	 * The batches drained since startup, with getCommands giving the mean batch size.
+	 * @return
+	 */
+	public long getDrains() {
+		return drains.get();
+	}
+
+	public long getCommands() {
+		return commands.get();
+	}
+
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Stops the workers once the commands already queued have run.
+	 */
+	public void shutdown() {
+		running = false;
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+}
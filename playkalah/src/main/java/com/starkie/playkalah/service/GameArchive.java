@@ -0,0 +1,544 @@
+package com.starkie.playkalah.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * On disk archive of completed games, kept for analysis once the games have left memory.
+ * Completed games are gathered in memory and written a segment file at a time, when a segment is full, every flush
+ * interval and on close.  A segment is columnar: a 32 byte header (the magic number, version, number of games and
+ * bytes of moves) followed by a column for each field of the games, so a scan reads only the columns it needs.  The
+ * byte columns hold the board size (pits in the high nibble, seeds in the low), player 1's opening pit or 0 if not
+ * known and each player's final stones, the int columns the moves played and the offset of each game's moves, then
+ * the moves themselves two pits to a byte.  A game restored part way through only has the moves played since, and
+ * no game more than Game.MAX_LOGGED_MOVES.
+ * Segments are written to a temporary file and renamed once forced to disk, so a segment is either complete or
+ * absent, games not yet written are lost by a crash.
+ * Scans map every segment read only and scan them in parallel, each segment totalled on its own.
+ * @author luke.starkie
+ */
+public class GameArchive {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameArchive.class);
+
+	static final String SEGMENT_PREFIX = "games-";
+
+	static final String SEGMENT_SUFFIX = ".arc";
+
+	/**
+	 * "KARC"
+	 */
+	static final int MAGIC = 0x4b415243;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 32;
+
+	/**
+	 * The bytes of each game in the fixed size columns: board, opening, two final stones, moves and move offset
+	 */
+	private static final int GAME_COLUMN_BYTES = 12;
+
+	private final Path directory;
+
+	/**
+	 * The most games written to one segment
+	 */
+	private final int segmentGames;
+
+	private final long flushIntervalMillis;
+
+	private final ForkJoinPool scanPool;
+
+	/**
+	 * The segments written, in the order their games were archived
+	 */
+	private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Games archived but not yet written, guarded by this
+	 */
+	private Columns pending = new Columns();
+
+	/**
+	 * The games of the segment being written, guarded by this and counted by scans until the segment is added
+	 */
+	private Columns writing;
+
+	/**
+	 * Held while a segment is written, so segments are written in order
+	 */
+	private final Object writeLock = new Object();
+
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+	private int nextSegmentNumber;
+
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * A segment file and the index of its first game in the archive.
+	 */
+	private static final class Segment {
+		final Path file;
+		final long firstGame;
+		final int games;
+
+		Segment(Path file, long firstGame, int games) {
+			this.file = file;
+			this.firstGame = firstGame;
+			this.games = games;
+		}
+	}
+
+	/**
+	 * The columns of the games of a segment being gathered.
+	 */
+	private static final class Columns {
+		int games;
+		byte[] boards = new byte[1024];
+		byte[] openings = new byte[1024];
+		byte[] player1Stones = new byte[1024];
+		byte[] player2Stones = new byte[1024];
+		int[] lengths = new int[1024];
+		int[] moveOffsets = new int[1025];
+		byte[] moves = new byte[16384];
+
+		void add(Game game) {
+			Board board = game.getBoard();
+			int logged = game.getLoggedMoves();
+			int offset = reserve((logged + 1) >> 1);
+			boards[games] = (byte) (board.getPits() << 4 | board.getSeeds());
+			openings[games] = (byte) (game.getMoveLogStart() == 0 && logged > 0 ? game.getLoggedPit(0) : 0);
+			player1Stones[games] = (byte) board.getStones(board.kalahIndex(Board.PLAYER_1));
+			player2Stones[games] = (byte) board.getStones(board.kalahIndex(Board.PLAYER_2));
+			lengths[games] = game.getMoveCount();
+			for (int move = 0; move < logged; move++) {
+				int pit = game.getLoggedPit(move);
+				moves[offset + (move >> 1)] |= (move & 1) == 0 ? pit << 4 : pit;
+			}
+			games++;
+		}
+
+		/**
+		 * Adds a range of the games of other columns after these.
+		 */
+		void addGames(Columns other, int from, int to) {
+			for (int game = from; game < to; game++) {
+				int movesFrom = other.moveOffsets[game];
+				int moveBytes = other.moveOffsets[game + 1] - movesFrom;
+				int offset = reserve(moveBytes);
+				boards[games] = other.boards[game];
+				openings[games] = other.openings[game];
+				player1Stones[games] = other.player1Stones[game];
+				player2Stones[games] = other.player2Stones[game];
+				lengths[games] = other.lengths[game];
+				System.arraycopy(other.moves, movesFrom, moves, offset, moveBytes);
+				games++;
+			}
+		}
+
+		/**
+		 * Makes room for another game and its moves, returning the offset of its moves.
+		 */
+		private int reserve(int moveBytes) {
+			if (games == boards.length) {
+				int capacity = games * 2;
+				boards = Arrays.copyOf(boards, capacity);
+				openings = Arrays.copyOf(openings, capacity);
+				player1Stones = Arrays.copyOf(player1Stones, capacity);
+				player2Stones = Arrays.copyOf(player2Stones, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+				moveOffsets = Arrays.copyOf(moveOffsets, capacity + 1);
+			}
+			int offset = moveOffsets[games];
+			if (offset + moveBytes > moves.length) {
+				moves = Arrays.copyOf(moves, Math.max(moves.length * 2, offset + moveBytes));
+			}
+			moveOffsets[games + 1] = offset + moveBytes;
+			return offset;
+		}
+
+		int moveBytes() {
+			return moveOffsets[games];
+		}
+	}
+
+	/**
+	 * Creates an archive in a directory, call open before archiving games.
+	 * @param directory the directory of the segment files, created if need be
+	 * @param segmentGames the most games written to one segment
+	 * @param flushIntervalMillis the longest time games wait to be written, 0 to write only full segments and on close
+	 * @param scanThreads the threads scanning segments, 0 for one per available processor
+	 */
+	public GameArchive(Path directory, int segmentGames, long flushIntervalMillis, int scanThreads) {
+		if (segmentGames < 1) {
+			throw new IllegalArgumentException("Archive segments must hold at least one game");
+		} else if (flushIntervalMillis < 0 || scanThreads < 0) {
+			throw new IllegalArgumentException("Archive flush interval and threads can't be negative");
+		}
+		this.directory = directory;
+		this.segmentGames = segmentGames;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.scanPool = new ForkJoinPool(scanThreads == 0 ? Runtime.getRuntime().availableProcessors() : scanThreads);
+	}
+
+	/**
+	 * Finds the segments already written and starts the flusher thread.
+	 * @throws IOException if the directory can't be created or holds a segment that is not valid
+	 */
+	public void open() throws IOException {
+		Files.createDirectories(directory);
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+			for (Path file : entries) {
+				if (file.toString().endsWith(SEGMENT_SUFFIX)) {
+					files.add(file);
+				} else {
+					// a segment the last run didn't finish writing
+					Files.delete(file);
+				}
+			}
+		}
+		files.sort(null);
+		long games = 0;
+		for (Path file : files) {
+			int count = readGameCount(file);
+			segments.add(new Segment(file, games, count));
+			games += count;
+			nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file) + 1);
+		}
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kalah-archive");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (flushIntervalMillis > 0) {
+			flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		logger.info("Opened game archive {} with {} games in {} segments", new Object[]{directory, games,
+				segments.size()});
+	}
+
+	/**
+	 * Archives a completed game, writing it with the next segment.  The caller holds the game's lock.
+	 * @param game the completed game
+	 */
+	public void append(Game game) {
+		if (!game.isGameCompleted()) {
+			throw new IllegalStateException("Only completed games are archived");
+		}
+		boolean full;
+		synchronized (this) {
+			pending.add(game);
+			full = pending.games >= segmentGames;
+		}
+		if (full && flushRequested.compareAndSet(false, true)) {
+			flusher.execute(() -> {
+				flushRequested.set(false);
+				try {
+					flush(true);
+				} catch (IOException e) {
+					logger.error("Failed to write the game archive, will try again", e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes the games archived so far to segments, a segment at a time.
+	 * @throws IOException if a segment can't be written, its games are kept to be written by the next flush
+	 */
+	public void flush() throws IOException {
+		flush(false);
+	}
+
+	/**
+	 * Writes the games archived so far, or only as many full segments as they fill.
+	 */
+	private void flush(boolean fullSegmentsOnly) throws IOException {
+		synchronized (writeLock) {
+			while (true) {
+				Columns batch;
+				synchronized (this) {
+					if (pending.games == 0 || (fullSegmentsOnly && pending.games < segmentGames)) {
+						return;
+					}
+					batch = pending;
+					pending = new Columns();
+					if (batch.games > segmentGames) {
+						// the games beyond a full segment wait for the next one
+						pending.addGames(batch, segmentGames, batch.games);
+						Columns full = new Columns();
+						full.addGames(batch, 0, segmentGames);
+						batch = full;
+					}
+					writing = batch;
+				}
+				Segment segment;
+				try {
+					segment = writeSegment(batch);
+				} catch (IOException | RuntimeException e) {
+					synchronized (this) {
+						batch.addGames(pending, 0, pending.games);
+						pending = batch;
+						writing = null;
+					}
+					throw e;
+				}
+				synchronized (this) {
+					segments.add(segment);
+					writing = null;
+				}
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			logger.error("Failed to write the game archive, will try again", e);
+		}
+	}
+
+	/**
+	 * Writes a segment, renaming it into place once forced to disk.
+	 */
+	private Segment writeSegment(Columns batch) throws IOException {
+		int games = batch.games;
+		long size = HEADER_BYTES + (long) GAME_COLUMN_BYTES * games + 4 + batch.moveBytes();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Archive segment would be too large, archive fewer games per segment");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(games).putInt(batch.moveBytes()).putLong(0).putLong(0);
+		buffer.put(batch.boards, 0, games);
+		buffer.put(batch.openings, 0, games);
+		buffer.put(batch.player1Stones, 0, games);
+		buffer.put(batch.player2Stones, 0, games);
+		buffer.asIntBuffer().put(batch.lengths, 0, games);
+		buffer.position(buffer.position() + 4 * games);
+		buffer.asIntBuffer().put(batch.moveOffsets, 0, games + 1);
+		buffer.position(buffer.position() + 4 * (games + 1));
+		buffer.put(batch.moves, 0, batch.moveBytes());
+		buffer.flip();
+
+		Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSegmentNumber, SEGMENT_SUFFIX));
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		nextSegmentNumber++;
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		return new Segment(file, last == null ? 0 : last.firstGame + last.games, games);
+	}
+
+	/**
+	 * Totals the archived games of a size of board, scanning the segments in parallel and the games not yet written
+	 * in memory.
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit started with
+	 * @return
+	 */
+	public ArchiveStats stats(int pits, int seeds) {
+		ArchiveStats total = new ArchiveStats(pits, seeds);
+		List<Segment> scanned;
+		synchronized (this) {
+			scanned = new ArrayList<>(segments);
+			total.merge(scan(pending, pits, seeds));
+			if (writing != null) {
+				total.merge(scan(writing, pits, seeds));
+			}
+		}
+		try {
+			List<ArchiveStats> segmentStats = scanPool.submit(() -> scanned.parallelStream()
+					.map(segment -> scan(segment, pits, seeds))
+					.collect(Collectors.toList())).get();
+			for (ArchiveStats stats : segmentStats) {
+				total.merge(stats);
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted scanning the game archive", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to scan the game archive", e.getCause());
+		}
+	}
+
+	/**
+	 * Totals the games of a size of board in a segment, reading only the columns the totals need.
+	 */
+	private static ArchiveStats scan(Segment segment, int pits, int seeds) {
+		ArchiveStats stats = new ArchiveStats(pits, seeds);
+		MappedByteBuffer columns = map(segment.file);
+		int games = segment.games;
+		byte board = (byte) (pits << 4 | seeds);
+		int openings = HEADER_BYTES + games;
+		int player1Stones = openings + games;
+		int player2Stones = player1Stones + games;
+		int lengths = player2Stones + games;
+		for (int game = 0; game < games; game++) {
+			if (columns.get(HEADER_BYTES + game) == board) {
+				stats.record(columns.get(openings + game), columns.get(player1Stones + game) & 0xFF,
+						columns.get(player2Stones + game) & 0xFF, columns.getInt(lengths + 4 * game));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Totals the games of a size of board not yet written.
+	 */
+	private static ArchiveStats scan(Columns columns, int pits, int seeds) {
+		ArchiveStats stats = new ArchiveStats(pits, seeds);
+		byte board = (byte) (pits << 4 | seeds);
+		for (int game = 0; game < columns.games; game++) {
+			if (columns.boards[game] == board) {
+				stats.record(columns.openings[game], columns.player1Stones[game] & 0xFF,
+						columns.player2Stones[game] & 0xFF, columns.lengths[game]);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns the moves of an archived game, only those played since it was restored for a game restored part way
+	 * through.
+	 * @param index the game's index in the archive, counting from the first game of the first segment
+	 * @return the pits played in order
+	 */
+	public int[] readMoves(long index) {
+		for (Segment segment : segments) {
+			if (index >= segment.firstGame && index < segment.firstGame + segment.games) {
+				int game = (int) (index - segment.firstGame);
+				MappedByteBuffer columns = map(segment.file);
+				int offsets = HEADER_BYTES + 8 * segment.games;
+				int movesStart = offsets + 4 * (segment.games + 1);
+				int from = columns.getInt(offsets + 4 * game);
+				int to = columns.getInt(offsets + 4 * (game + 1));
+				// an odd number of moves leaves the low nibble of the last byte empty, no pit is 0
+				int count = 2 * (to - from);
+				if (count > 0 && (columns.get(movesStart + to - 1) & 0xF) == 0) {
+					count--;
+				}
+				int[] moves = new int[count];
+				for (int move = 0; move < count; move++) {
+					int packed = columns.get(movesStart + from + (move >> 1));
+					moves[move] = (move & 1) == 0 ? (packed >> 4) & 0xF : packed & 0xF;
+				}
+				return moves;
+			}
+		}
+		throw new IllegalArgumentException("No archived game " + index);
+	}
+
+	private static MappedByteBuffer map(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// the mapping stays valid once the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read archive segment " + file, e);
+		}
+	}
+
+	/**
+	 * Reads the number of games of a segment, checking its header and size.
+	 */
+	private static int readGameCount(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read until the header is full or the file ends
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not an archive segment: " + file);
+			}
+			int games = header.getInt();
+			int moveBytes = header.getInt();
+			if (games < 0 || moveBytes < 0
+					|| channel.size() != HEADER_BYTES + (long) GAME_COLUMN_BYTES * games + 4 + moveBytes) {
+				throw new IOException("Archive segment is incomplete: " + file);
+			}
+			return games;
+		}
+	}
+
+	private static int segmentNumber(Path file) throws IOException {
+		String name = file.getFileName().toString();
+		try {
+			return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Not an archive segment: " + file, e);
+		}
+	}
+
+	/**
+	 * Writes the games not yet written and stops the flusher and scan threads.
+	 * @throws IOException if the last games can't be written
+	 */
+	public void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown();
+			try {
+				flusher.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		scanPool.shutdown();
+		flush();
+	}
+
+	/**
+	 * The games written to segments.
+	 * @return
+	 */
+	public long getArchivedGames() {
+		long games = 0;
+		for (Segment segment : segments) {
+			games += segment.games;
+		}
+		return games;
+	}
+
+	public synchronized int getPendingGames() {
+		return pending.games;
+	}
+
+	public int getSegments() {
+		return segments.size();
+	}
+}
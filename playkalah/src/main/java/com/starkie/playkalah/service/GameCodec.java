@@ -0,0 +1,106 @@
+package com.starkie.playkalah.service;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Binary form of a game as it stands, shared by journal snapshots, restore records and spilled games: the id and
+ * player names, the board size, the computer player's side or -1, the instance, the version, the position the move
+ * log starts at as its move count, the side to move and a byte for each cell, then the number of moves logged and
+ * taken back and a byte for each of their pits.  Reading plays the moves again from the log's start, so a game read
+ * back can still take back its moves and show its history.  A game whose log is full is written as it stands with
+ * no moves.
+ * @author luke.starkie
+ */
+final class GameCodec {
+
+	private GameCodec() {
+	}
+
+	/**
+	 * Writes a game, the caller holds the game's lock.
+	 * @param out receives the game
+	 * @param game the game to write
+	 * @throws IOException
+	 */
+	static void write(DataOutput out, Game game) throws IOException {
+		Board board = game.getBoard();
+		out.writeUTF(game.getId());
+		out.writeUTF(game.getPlayer1().getName());
+		out.writeUTF(game.getPlayer2().getName());
+		out.writeByte(board.getPits());
+		out.writeByte(board.getSeeds());
+		out.writeByte(game.getComputerPlayer() == null ? -1 : game.findPlayer(game.getComputerPlayer()).getSide());
+		out.writeInt(game.getInstance());
+		out.writeInt(game.getVersion());
+		int logged = game.getLoggedMoves();
+		boolean complete = game.getMoveLogStart() + logged == game.getMoveCount();
+		GameSnapshot start = game.getPosition(complete ? game.getMoveLogStart() : game.getMoveCount());
+		out.writeInt(start.getMoveCount());
+		out.writeByte(start.getSideToMove());
+		for (int cell = 0; cell < board.getCellCount(); cell++) {
+			out.writeByte(start.getStones(cell));
+		}
+		int moves = complete ? logged + game.getRedoMoves() : 0;
+		out.writeShort(complete ? logged : 0);
+		out.writeShort(complete ? game.getRedoMoves() : 0);
+		for (int move = 0; move < moves; move++) {
+			out.writeByte(game.getLoggedPit(move));
+		}
+	}
+
+	/**
+	 * Reads a game written by write.
+	 * @param in the game's bytes
+	 * @return
+	 * @throws IOException if the game is not valid
+	 */
+	static Game read(DataInput in) throws IOException {
+		try {
+			String id = in.readUTF();
+			String player1 = in.readUTF();
+			String player2 = in.readUTF();
+			Game game = newGame(id, player1, player2, in.readByte(), in.readByte(), in.readByte(), in.readInt());
+			int version = in.readInt();
+			int moveCount = in.readInt();
+			int side = in.readByte();
+			int[] stones = new int[game.getBoard().getCellCount()];
+			for (int cell = 0; cell < stones.length; cell++) {
+				stones[cell] = in.readUnsignedByte();
+			}
+			int logged = in.readUnsignedShort();
+			int redoMoves = in.readUnsignedShort();
+			// playing the moves and taking back the redo moves again each change the version once
+			game.restore(moveCount, version - logged - 2 * redoMoves, stones, side);
+			for (int move = 0; move < logged + redoMoves; move++) {
+				game.playPit(game.getNextPlayerToMove(), in.readUnsignedByte());
+			}
+			for (int move = 0; move < redoMoves; move++) {
+				game.undoMove();
+			}
+			return game;
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			throw new IOException("Not a valid saved game", e);
+		}
+	}
+
+	/**
+	 * Creates a new game from its saved description.
+	 * @param computerSide the computer player's side, or -1 for two human players
+	 * @param instance the game's instance, see Game.getInstance
+	 * @return
+	 */
+	static Game newGame(String id, String player1, String player2, int pits, int seeds, int computerSide,
+			int instance) {
+		Game game = new Game(player1, player2, id, pits, seeds, instance);
+		if (computerSide >= 0) {
+			game.setComputerPlayer(computerSide == Board.PLAYER_1 ? player1 : player2);
+		}
+		return game;
+	}
+}
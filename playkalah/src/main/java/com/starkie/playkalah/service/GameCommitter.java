@@ -0,0 +1,393 @@
+package com.starkie.playkalah.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Commits changes to the games of a store for the service and its collaborators.  A change is made holding the
+ * game's lock, journalled, archived once it completes the game and told to the update listeners.  Asynchronous
+ * changes are made on the caller's thread when the game's lock is free and queued on the game's executor otherwise,
+ * or are commands to the game's actor in ACTORS mode.
+ * @author luke.starkie
+ */
+class GameCommitter {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameCommitter.class);
+
+	private final GameStore games;
+
+	/**
+	 * The journal of changes, null if games are only kept in memory
+	 */
+	private final GameJournal journal;
+
+	/**
+	 * The archive of completed games, null if they are not archived
+	 */
+	private final GameArchive archive;
+
+	private final MoveMetrics moveMetrics;
+
+	private final List<GameUpdateListener> updateListeners;
+
+	private final GameExecutor gameExecutor;
+
+	/**
+	 * The actors owning the games, null unless in ACTORS mode
+	 */
+	private final GameActors actors;
+
+	/**
+	 * @param games the store of games
+	 * @param journal the journal of changes, null if games are only kept in memory
+	 * @param archive the archive of completed games, null if they are not archived
+	 * @param moveMetrics the metrics of the moves played
+	 * @param updateListeners told of every change committed
+	 * @param gameThreads the number of executors changes waiting for a game's lock are queued on
+	 * @param actorThreads the number of actors owning the games, 0 for changes to take the game's lock
+	 * @param queueCapacity the most changes queued on an executor or actor
+	 */
+	GameCommitter(GameStore games, GameJournal journal, GameArchive archive, MoveMetrics moveMetrics,
+			List<GameUpdateListener> updateListeners, int gameThreads, int actorThreads, int queueCapacity) {
+		this.games = games;
+		this.journal = journal;
+		this.archive = archive;
+		this.moveMetrics = moveMetrics;
+		this.updateListeners = updateListeners;
+		gameExecutor = new GameExecutor(gameThreads, queueCapacity);
+		actors = actorThreads > 0 ? new GameActors(actorThreads, queueCapacity, this::actorsDrained) : null;
+	}
+
+	/**
+	 * Stops the actor and executor threads.
+	 */
+	void shutdown() {
+		if (actors != null) {
+			actors.shutdown();
+		}
+		gameExecutor.shutdown();
+	}
+
+	/**
+	 * Commits a change to a game without holding the caller's thread.  A change finding its game's lock free is made
+	 * on the caller's thread, otherwise it is queued on the game's executor; in ACTORS mode it is a command to the
+	 * game's actor instead.
+	 * @param id the game id
+	 * @param change makes the change holding the game's lock, without waiting for the journal
+	 * @return completed with the game once the change is journalled
+	 */
+	CompletableFuture<Game> commitAsync(String id, Supplier<Game> change) {
+		if (actors != null) {
+			return actors.submit(id, change);
+		}
+		Supplier<CompletableFuture<Game>> durable = () -> {
+			Game game = change.get();
+			// the journal position to wait for is the committing thread's, so it is taken here
+			return journal == null ? CompletableFuture.completedFuture(game) : journal.whenDurable().thenApply(written -> game);
+		};
+		CompletableFuture<CompletableFuture<Game>> locked;
+		if (games.isLocked(id)) {
+			locked = gameExecutor.submit(id, durable);
+		} else {
+			locked = new CompletableFuture<>();
+			try {
+				locked.complete(durable.get());
+			} catch (RuntimeException e) {
+				locked.completeExceptionally(e);
+			}
+		}
+		return locked.thenCompose(Function.identity());
+	}
+
+	/**
+	 * Fails a change made against a version of a game that the game's snapshot already shows has been replaced,
+	 * without queuing it.
+	 * @param id the game id
+	 * @param expectedInstance the instance of the game the change was made against, or ANY_INSTANCE
+	 * @param expectedVersion the version the change was made against, or ANY_VERSION
+	 * @return the failed change, or null if it may go ahead
+	 */
+	CompletableFuture<Game> staleChange(String id, int expectedInstance, int expectedVersion) {
+		if (expectedInstance == KalahService.ANY_INSTANCE && expectedVersion == KalahService.ANY_VERSION) {
+			return null;
+		}
+		Game current = games.get(id);
+		if (current == null) {
+			return null;
+		}
+		GameSnapshot snapshot = current.getSnapshot();
+		if (isExpected(snapshot.getInstance(), snapshot.getVersion(), expectedInstance, expectedVersion)) {
+			return null;
+		}
+		moveMetrics.moveRejected(MoveMetrics.Rejection.STALE_MOVE_COUNT);
+		CompletableFuture<Game> stale = new CompletableFuture<>();
+		stale.completeExceptionally(new StaleMoveException(snapshot.getInstance(), snapshot.getVersion()));
+		return stale;
+	}
+
+	/**
+	 * Checks a change is made against the game's current version, the caller must hold the game's lock.
+	 * @param game the game to change
+	 * @param expectedInstance the instance of the game the change was made against, or ANY_INSTANCE
+	 * @param expectedVersion the version the change was made against, or ANY_VERSION
+	 */
+	void checkVersion(Game game, int expectedInstance, int expectedVersion) {
+		if (!isExpected(game.getInstance(), game.getVersion(), expectedInstance, expectedVersion)) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.STALE_MOVE_COUNT);
+			throw new StaleMoveException(game.getInstance(), game.getVersion());
+		}
+	}
+
+	private static boolean isExpected(int instance, int version, int expectedInstance, int expectedVersion) {
+		return (expectedInstance == KalahService.ANY_INSTANCE || instance == expectedInstance)
+				&& (expectedVersion == KalahService.ANY_VERSION || version == expectedVersion);
+	}
+
+	/**
+	 * Validates and plays the move, the caller must hold the game's lock.
+	 * @param game the game to play
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 * @return
+	 */
+	Game playLocked(Game game, String playerName, int pitNumber) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Play game move requested for game {}, player {}, pit {}, game state {}", new Object[]{game.getId(), playerName, pitNumber, game});
+		}
+
+		validateMove(game, game.getBoard(), playerName, pitNumber);
+		journalMove(game, pitNumber);
+		game.playPit(playerName, pitNumber);
+		archiveIfCompleted(game);
+		moveMetrics.movesPlayed(1);
+		committed(game);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Play game move completed with game state {}", game);
+		}
+		return game;
+	}
+
+	/**
+	 * Checks a move may be played on a board of the game, throwing an exception explaining why not if it can't.
+	 * @param game the game, giving the names of the players
+	 * @param board the game's board or a copy of it
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 */
+	void validateMove(Game game, Board board, String playerName, int pitNumber) {
+		String playerToMove = board.getSideToMove() == Board.PLAYER_1 ? game.getPlayer1().getName() : game.getPlayer2().getName();
+		if(pitNumber < 1 || pitNumber > board.getPits()) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.INVALID_PIT);
+			throw new IllegalArgumentException("Not a valid pit number");
+		} else if (board.isGameCompleted()) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.GAME_COMPLETED);
+			throw new IllegalStateException("Game has been completed, play another?");
+		} else if(!playerToMove.equals(playerName)) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.NOT_YOUR_TURN);
+			throw new IllegalArgumentException("Not your turn sorry :-)");
+		} else if(board.getStones(board.pitIndex(board.getSideToMove(), pitNumber)) == 0) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.EMPTY_PIT);
+			throw new IllegalArgumentException("Pit is empty, try another one!!");
+		}
+	}
+
+	/**
+	 * Journals a move about to be played, the caller holds the game's lock.
+	 * @param game the game played
+	 * @param pitNumber the pit played
+	 */
+	void journalMove(Game game, int pitNumber) {
+		if (journal != null) {
+			journal.appendMove(game, pitNumber);
+		}
+	}
+
+	/**
+	 * Journals moves about to be taken back, the caller holds the game's lock.
+	 * @param game the game changed
+	 * @param moves the number of moves taken back
+	 */
+	void journalUndo(Game game, int moves) {
+		if (journal != null) {
+			journal.appendUndo(game, moves);
+		}
+	}
+
+	/**
+	 * Archives a game that has just been completed, the caller holds the game's lock.
+	 * @param game the game played
+	 */
+	void archiveIfCompleted(Game game) {
+		if (archive != null && game.isGameCompleted()) {
+			archive.append(game);
+		}
+	}
+
+	/**
+	 * Tells the listeners of a commit, the caller must hold the game's lock.  In ACTORS mode a command's change is told
+	 * once the actor's batch of commands is durable instead.
+	 * @param game the game changed
+	 */
+	void committed(Game game) {
+		if (actors == null || !actors.deferUpdate(game)) {
+			notifyUpdateListeners(game);
+		}
+	}
+
+	/**
+	 * Tells the listeners of a commit, the caller must hold the game's lock.  The moves are already played so a
+	 * failing listener is logged rather than failing the request.
+	 * @param game the game changed
+	 */
+	void notifyUpdateListeners(Game game) {
+		for (GameUpdateListener listener : updateListeners) {
+			try {
+				listener.gameUpdated(game);
+			} catch (RuntimeException e) {
+				logger.warn("Game update listener failed for game " + game.getId(), e);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the moves this thread journalled to reach the disk, when the fsync policy requires it.
+	 * Called once the game's lock is released so other games' moves can share the write.
+	 */
+	void awaitJournal() {
+		if (journal != null) {
+			journal.awaitDurable();
+		}
+	}
+
+	/**
+	 * Releases a batch of actor commands once its moves are durable, having told the listeners of each game changed.
+	 * The game's lock is taken as the listeners expect, it is free unless the computer or the sweeper holds it.
+	 * @param updated the games changed by the batch
+	 * @return
+	 */
+	private CompletableFuture<?> actorsDrained(Collection<Game> updated) {
+		for (Game game : updated) {
+			Lock lock = games.lockFor(game.getId());
+			lock.lock();
+			try {
+				notifyUpdateListeners(game);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return journal == null ? CompletableFuture.completedFuture(null) : journal.whenDurable();
+	}
+
+	/**
+	 * Reads an existing game holding its lock, so the game is consistent and no move is committed meanwhile.  In ACTORS
+	 * mode the read is a command to the game's actor, so it sees the game between the commands before and after it.
+	 * @param id the game id
+	 * @param reader reads what is needed from the game, it must not keep the game
+	 * @return the result of the reader
+	 */
+	<T> T readGame(String id, Function<Game, T> reader) {
+		if (actors != null && !actors.isOwner(id)) {
+			try {
+				return actors.submit(id, () -> readGameLocked(id, reader)).join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		return readGameLocked(id, reader);
+	}
+
+	private <T> T readGameLocked(String id, Function<Game, T> reader) {
+		Lock lock = games.lockFor(id);
+		Game game = lockGame(id, lock);
+		try {
+			return reader.apply(game);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the lock that must be held while reading or changing the state of the game with the id.
+	 * @param id the game id
+	 * @return
+	 */
+	Lock lockFor(String id) {
+		return games.lockFor(id);
+	}
+
+	/**
+	 * Returns true if the game is still the one held for its id, checked holding the game's lock.
+	 * @param game the game
+	 * @return
+	 */
+	boolean isResident(Game game) {
+		return games.isResident(game);
+	}
+
+	/**
+	 * Returns the existing game with the id holding its lock, looking it up again if it was evicted while waiting
+	 * for the lock.
+	 * @param id the game id
+	 * @param lock the game's lock, held on return
+	 * @return
+	 */
+	Game lockGame(String id, Lock lock) {
+		while (true) {
+			Game game = requireGame(id);
+			acquire(lock);
+			if (games.isResident(game)) {
+				return game;
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a game's lock, timing the wait when another request holds it.
+	 * @param lock the game's lock
+	 */
+	void acquire(Lock lock) {
+		if (!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			moveMetrics.recordLockWait(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Returns the existing game with the id.
+	 * @param id the game id
+	 * @return
+	 */
+	Game requireGame(String id) {
+		Game game = games.get(id);
+		if (game == null) {
+			throw new IllegalArgumentException("Not a valid game");
+		}
+		return game;
+	}
+
+	MoveMetrics getMoveMetrics() {
+		return moveMetrics;
+	}
+
+	GameExecutor getGameExecutor() {
+		return gameExecutor;
+	}
+
+	GameActors getActors() {
+		return actors;
+	}
+}
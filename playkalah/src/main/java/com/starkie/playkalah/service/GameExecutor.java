@@ -0,0 +1,98 @@
+package com.starkie.playkalah.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tasks of games on single threaded executors, the executor chosen by the game id so the tasks of one game
+ * run one at a time in the order submitted, while games on different executors run concurrently.  Moves whose game
+ * is locked by another request are queued here, so it is an executor's thread that waits for the lock rather than a
+ * request thread.
+ * Each executor queues a bounded number of tasks, beyond that a task's future fails with a
+ * RejectedExecutionException rather than the queue growing without limit under overload.
+ * @author luke.starkie
+ */
+public class GameExecutor {
+
+	private final ThreadPoolExecutor[] executors;
+
+	/**
+	 * Creates the executors and their threads.
+	 * @param threads the number of executors, each with one thread
+	 * @param queueCapacity the most tasks waiting on each executor
+	 */
+	public GameExecutor(int threads, int queueCapacity) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one game executor thread is required");
+		} else if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Game executor queues must hold at least one task");
+		}
+		executors = new ThreadPoolExecutor[threads];
+		for (int i = 0; i < threads; i++) {
+			String name = "kalah-game-" + i;
+			executors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+						Thread thread = new Thread(runnable, name);
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+	}
+
+	/**
+	 * Runs a task after the tasks already submitted for the game.
+	 * @param id the game id
+	 * @param task the task, run on the game's executor
+	 * @return completed with the task's result or exception, or a RejectedExecutionException if the game's executor
+	 *         is full
+	 */
+	public <T> CompletableFuture<T> submit(String id, Supplier<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executorFor(id).execute(() -> {
+				try {
+					future.complete(task.get());
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private ThreadPoolExecutor executorFor(String id) {
+		int hash = id.hashCode();
+		return executors[Math.floorMod(hash ^ (hash >>> 16), executors.length)];
+	}
+
+	/**
+	 * The tasks waiting across every executor.
+	 * @return
+	 */
+	public int getQueuedTasks() {
+		int queued = 0;
+		for (ThreadPoolExecutor executor : executors) {
+			queued += executor.getQueue().size();
+		}
+		return queued;
+	}
+
+	public int getThreads() {
+		return executors.length;
+	}
+
+	/**
+	 * Stops the threads once the tasks already submitted have run.
+	 */
+	public void shutdown() {
+		for (ThreadPoolExecutor executor : executors) {
+			executor.shutdown();
+		}
+	}
+}
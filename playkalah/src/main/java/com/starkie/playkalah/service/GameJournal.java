@@ -0,0 +1,904 @@
+package com.starkie.playkalah.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Append only journal of the games created and the moves played on them, so games survive a restart.
+ * Each record is the length of its body, the body and a CRC32 of the body, so a record torn by a crash is found
+ * and dropped on recovery.  A game is given a number when created and its moves refer to it by number, with the
+ * game's version after the move and the pit in a 18 byte record.  Moves taken back are an undo record of the version
+ * after them and their count, replayed by taking the moves back, and moves played again are moves like any other.
+ * Records are appended with group commit: appenders copy their record into a shared buffer under a short lock and
+ * one writer thread swaps the buffer for an empty one, writing every record appended meanwhile with one write and,
+ * depending on the FsyncPolicy, one force to disk.
+ * Every snapshotEveryMoves moves the state of every game is written to a snapshot beside the journal, with the
+ * journal position it covers.  Recovery loads the snapshot and replays only the journal after it through a memory
+ * mapping, so recovery time depends on the moves since the last snapshot rather than the size of the journal.  The
+ * snapshot is taken without stopping play, a game may already hold moves after the position and replaying skips
+ * any record of a version the game has already reached.
+ * As the journal listens to the store, a game the store removes for good is deleted from the journal, and a game
+ * read back after being spilled is restored as it stands under a new number, its earlier records then being
+ * replaced.  The snapshot holds the games in memory, a game spilled before it is recovered from its spill file.
+ * @author luke.starkie
+ */
+public class GameJournal implements GameStoreListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameJournal.class);
+
+	/**
+	 * When moves are forced to disk
+	 */
+	public enum FsyncPolicy {
+		/**
+		 * A move is only acknowledged once forced to disk, moves arriving together share one force
+		 */
+		ALWAYS,
+		/**
+		 * The journal is forced every fsync interval, a crash may lose the moves of the last interval
+		 */
+		INTERVAL,
+		/**
+		 * The operating system decides when the journal reaches the disk
+		 */
+		NEVER
+	}
+
+	static final String JOURNAL_FILE = "journal.log";
+
+	static final String SNAPSHOT_FILE = "snapshot.bin";
+
+	/**
+	 * "KJNL"
+	 */
+	static final int JOURNAL_MAGIC = 0x4b4a4e4c;
+
+	/**
+	 * "KSNP"
+	 */
+	static final int SNAPSHOT_MAGIC = 0x4b534e50;
+
+	static final int VERSION = 3;
+
+	static final int HEADER_BYTES = 8;
+
+	private static final byte CREATE = 1;
+
+	private static final byte MOVE = 2;
+
+	private static final byte RESTORE = 3;
+
+	private static final byte DELETE = 4;
+
+	private static final byte UNDO = 5;
+
+	/**
+	 * Type, game number, version and pit
+	 */
+	private static final int MOVE_BODY_BYTES = 10;
+
+	/**
+	 * Type, game number, version and the moves taken back
+	 */
+	private static final int UNDO_BODY_BYTES = 11;
+
+	/**
+	 * The length before the body and the CRC after it
+	 */
+	private static final int RECORD_OVERHEAD = 8;
+
+	private static final int MAX_STRING_BYTES = 0xFFFF;
+
+	private static final int MAX_BODY_BYTES = 64 + 3 * (2 + MAX_STRING_BYTES);
+
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private static final int MAP_WINDOW_BYTES = 64 << 20;
+
+	private final GameStore store;
+
+	private final Path directory;
+
+	private final FsyncPolicy fsyncPolicy;
+
+	private final long fsyncIntervalNanos;
+
+	/**
+	 * Moves between snapshots, 0 for none
+	 */
+	private final long snapshotEveryMoves;
+
+	/**
+	 * The number of each game in the journal
+	 */
+	private final ConcurrentMap<String, Integer> gameNumbers = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextGameNumber = new AtomicInteger();
+
+	/**
+	 * The end of the last record each thread appended, for it to wait for
+	 */
+	private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when records are appended or the journal is closed, waited for by the writer
+	 */
+	private final Condition recordsPending = lock.newCondition();
+
+	/**
+	 * Signalled when the writer takes the pending records and when they are written or forced
+	 */
+	private final Condition recordsWritten = lock.newCondition();
+
+	private final CRC32 appendCrc = new CRC32();
+
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+
+	private ByteBuffer writing = ByteBuffer.allocate(BUFFER_BYTES);
+
+	/**
+	 * The end of the last record appended, written and forced to disk
+	 */
+	private long appendedPosition;
+	private long writtenPosition;
+	private long durablePosition;
+
+	private long movesSinceSnapshot;
+
+	private boolean snapshotRunning;
+
+	private boolean closed;
+
+	private IOException failure;
+
+	/**
+	 * Futures completed once the journal is durable up to their position, for moves answered asynchronously
+	 */
+	private final PriorityQueue<DurableWaiter> durableWaiters = new PriorityQueue<>();
+
+	private FileChannel channel;
+
+	private Thread writer;
+
+	private ExecutorService snapshotter;
+
+	private long replayedRecords;
+
+	/**
+	 * A future waiting for the journal to be durable up to a position.
+	 */
+	private static final class DurableWaiter implements Comparable<DurableWaiter> {
+		final long position;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		DurableWaiter(long position) {
+			this.position = position;
+		}
+
+		@Override
+		public int compareTo(DurableWaiter other) {
+			return Long.compare(position, other.position);
+		}
+	}
+
+	/**
+	 * Creates a journal, open it to recover the games and start appending.
+	 * @param store the store games are recovered into and snapshots taken from
+	 * @param directory the directory holding the journal and snapshot
+	 * @param fsyncPolicy when moves are forced to disk
+	 * @param fsyncIntervalMillis the time between forces for FsyncPolicy.INTERVAL
+	 * @param snapshotEveryMoves the moves between snapshots, 0 for no snapshots
+	 */
+	public GameJournal(GameStore store, Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+			long snapshotEveryMoves) {
+		if (fsyncIntervalMillis < 1) {
+			throw new IllegalArgumentException("Journal fsync interval must be at least 1ms");
+		} else if (snapshotEveryMoves < 0) {
+			throw new IllegalArgumentException("Moves between journal snapshots can't be negative");
+		}
+		this.store = store;
+		this.directory = directory;
+		this.fsyncPolicy = fsyncPolicy;
+		this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+		this.snapshotEveryMoves = snapshotEveryMoves;
+	}
+
+	/**
+	 * Recovers the games of the snapshot and journal into the store, drops any torn record at the end of the
+	 * journal and starts appending.
+	 * @throws IOException if the journal cannot be read or is corrupt
+	 */
+	public void open() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		List<Game> gamesByNumber = new ArrayList<>();
+		Path snapshot = directory.resolve(SNAPSHOT_FILE);
+		long position = Files.exists(snapshot) ? readSnapshot(snapshot, gamesByNumber) : HEADER_BYTES;
+		int snapshotGames = store.size();
+
+		channel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(JOURNAL_MAGIC).putInt(VERSION);
+				header.flip();
+				writeFully(header, 0);
+				channel.force(true);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				channel.read(header, 0);
+				if (header.position() < HEADER_BYTES || header.getInt(0) != JOURNAL_MAGIC || header.getInt(4) != VERSION) {
+					throw new IOException("Not a game journal: " + directory.resolve(JOURNAL_FILE));
+				}
+			}
+			if (channel.size() < position) {
+				throw new IOException("Game journal is shorter than its snapshot: " + directory);
+			}
+			long end = replay(position, gamesByNumber);
+			if (end < channel.size()) {
+				logger.warn("Dropping {} bytes of incomplete records from the end of the game journal", channel.size() - end);
+				channel.truncate(end);
+				channel.force(true);
+			}
+			appendedPosition = writtenPosition = durablePosition = end;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		logger.info("Recovered {} games, {} from the snapshot, replaying {} journal records in {}ms", new Object[]{
+				store.size(), snapshotGames, replayedRecords, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+
+		writer = new Thread(this::writeRecords, "kalah-journal");
+		writer.setDaemon(true);
+		writer.start();
+		snapshotter = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kalah-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Writes any records not yet written, forces them to disk and stops the writer.
+	 * @throws IOException if the last records could not be written
+	 */
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			recordsPending.signal();
+		} finally {
+			lock.unlock();
+		}
+		snapshotter.shutdown();
+		try {
+			writer.join();
+			snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Appends the creation of a game, called before the game is added to the store.
+	 * @param game the new game
+	 */
+	public void appendCreate(Game game) {
+		byte[] id = encode(game.getId());
+		byte[] player1 = encode(game.getPlayer1().getName());
+		byte[] player2 = encode(game.getPlayer2().getName());
+		int computerSide = game.getComputerPlayer() == null ? -1 : game.findPlayer(game.getComputerPlayer()).getSide();
+		int number = nextGameNumber.getAndIncrement();
+		int length = 8 + 10 + id.length + player1.length + player2.length;
+		Board board = game.getBoard();
+		lock.lock();
+		try {
+			reserve(length);
+			int start = pending.position();
+			pending.put(CREATE).putInt(number).put((byte) board.getPits()).put((byte) board.getSeeds())
+					.put((byte) computerSide).putInt(game.getInstance());
+			putString(id);
+			putString(player1);
+			putString(player2);
+			finishRecord(start);
+		} finally {
+			lock.unlock();
+		}
+		gameNumbers.put(game.getId(), number);
+	}
+
+	/**
+	 * Appends a move, called holding the game's lock before the move is played.
+	 * @param game the game
+	 * @param pitNumber the pit played by the side to move
+	 */
+	public void appendMove(Game game, int pitNumber) {
+		Integer number = gameNumbers.get(game.getId());
+		if (number == null) {
+			throw new IllegalStateException("Game " + game.getId() + " is not in the journal");
+		}
+		lock.lock();
+		try {
+			reserve(MOVE_BODY_BYTES);
+			int start = pending.position();
+			pending.put(MOVE).putInt(number).putInt(game.getVersion() + 1).put((byte) pitNumber);
+			finishRecord(start);
+			if (snapshotEveryMoves > 0 && ++movesSinceSnapshot >= snapshotEveryMoves && !snapshotRunning) {
+				snapshotRunning = true;
+				movesSinceSnapshot = 0;
+				snapshotter.execute(this::snapshotQuietly);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends moves taken back, called holding the game's lock before they are taken back.
+	 * @param game the game
+	 * @param moves the number of moves taken back
+	 */
+	public void appendUndo(Game game, int moves) {
+		Integer number = gameNumbers.get(game.getId());
+		if (number == null) {
+			throw new IllegalStateException("Game " + game.getId() + " is not in the journal");
+		}
+		lock.lock();
+		try {
+			reserve(UNDO_BODY_BYTES);
+			int start = pending.position();
+			pending.put(UNDO).putInt(number).putInt(game.getVersion() + moves).putShort((short) moves);
+			finishRecord(start);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a spilled game read back into the store as it stands, under a new number.  Called holding the game's
+	 * lock before it is added to the store.
+	 * @param game the game read back
+	 */
+	@Override
+	public void gameRestored(Game game) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			GameCodec.write(out, game);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot journal game " + game.getId(), e);
+		}
+		int number = nextGameNumber.getAndIncrement();
+		lock.lock();
+		try {
+			reserve(5 + bytes.size());
+			int start = pending.position();
+			pending.put(RESTORE).putInt(number).put(bytes.toByteArray());
+			finishRecord(start);
+		} finally {
+			lock.unlock();
+		}
+		gameNumbers.put(game.getId(), number);
+	}
+
+	/**
+	 * Appends the deletion of a game removed from the store, called holding the game's lock.
+	 * @param game the game removed
+	 */
+	@Override
+	public void gameRemoved(Game game) {
+		Integer number = gameNumbers.remove(game.getId());
+		if (number == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			reserve(5);
+			int start = pending.position();
+			pending.put(DELETE).putInt(number);
+			finishRecord(start);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for the records appended by this thread to be forced to disk, if the FsyncPolicy waits for moves.
+	 * Called once the game's lock is released, so moves on other games join the same force.
+	 */
+	public void awaitDurable() {
+		if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+			return;
+		}
+		long position = lastAppended.get()[0];
+		lock.lock();
+		try {
+			while (durablePosition < position && failure == null && !closed) {
+				recordsWritten.awaitUninterruptibly();
+			}
+			if (durablePosition < position) {
+				throw failure != null ? new UncheckedIOException("Game journal write failed", failure)
+						: new IllegalStateException("Game journal is closed");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a future completed once the records appended by this thread are forced to disk, if the FsyncPolicy
+	 * waits for moves, so a request need not hold a thread while it waits.  The future is completed by the writer
+	 * thread, dependent stages should be quick or run on their own executor.
+	 * @return
+	 */
+	public CompletableFuture<Void> whenDurable() {
+		if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+			return CompletableFuture.completedFuture(null);
+		}
+		long position = lastAppended.get()[0];
+		lock.lock();
+		try {
+			if (durablePosition >= position) {
+				return CompletableFuture.completedFuture(null);
+			}
+			DurableWaiter waiter = new DurableWaiter(position);
+			if (failure != null) {
+				waiter.future.completeExceptionally(new UncheckedIOException("Game journal write failed", failure));
+			} else if (closed) {
+				waiter.future.completeExceptionally(new IllegalStateException("Game journal is closed"));
+			} else {
+				durableWaiters.add(waiter);
+			}
+			return waiter.future;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for room in the pending buffer, the caller holds the lock.
+	 */
+	private void reserve(int bodyBytes) {
+		if (bodyBytes > MAX_BODY_BYTES) {
+			throw new IllegalArgumentException("Game is too large to journal");
+		}
+		while (pending.remaining() < RECORD_OVERHEAD + bodyBytes && failure == null && !closed) {
+			recordsPending.signal();
+			recordsWritten.awaitUninterruptibly();
+		}
+		if (failure != null) {
+			throw new UncheckedIOException("Game journal write failed", failure);
+		} else if (closed) {
+			throw new IllegalStateException("Game journal is closed");
+		}
+		pending.position(pending.position() + 4);
+	}
+
+	/**
+	 * Fills in the length and CRC of the record whose body starts at start, the caller holds the lock.
+	 */
+	private void finishRecord(int start) {
+		int length = pending.position() - start;
+		pending.putInt(start - 4, length);
+		appendCrc.reset();
+		appendCrc.update(pending.array(), start, length);
+		pending.putInt((int) appendCrc.getValue());
+		appendedPosition += RECORD_OVERHEAD + length;
+		lastAppended.get()[0] = appendedPosition;
+		recordsPending.signal();
+	}
+
+	private void putString(byte[] bytes) {
+		pending.putShort((short) bytes.length).put(bytes);
+	}
+
+	private static byte[] encode(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("Name is too long to journal");
+		}
+		return bytes;
+	}
+
+	/**
+	 * The writer thread, taking the pending records in turn and writing them together.
+	 */
+	private void writeRecords() {
+		long nextForce = System.nanoTime() + fsyncIntervalNanos;
+		boolean stopping = false;
+		while (!stopping) {
+			long end;
+			lock.lock();
+			try {
+				while (pending.position() == 0 && !closed) {
+					if (fsyncPolicy != FsyncPolicy.INTERVAL || durablePosition == writtenPosition) {
+						recordsPending.awaitUninterruptibly();
+					} else if (System.nanoTime() - nextForce < 0) {
+						awaitQuietly(nextForce - System.nanoTime());
+					} else {
+						break;
+					}
+				}
+				ByteBuffer swap = pending;
+				pending = writing;
+				writing = swap;
+				end = appendedPosition;
+				stopping = closed;
+				recordsWritten.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			boolean force = stopping || fsyncPolicy == FsyncPolicy.ALWAYS
+					|| fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - nextForce >= 0;
+			try {
+				writing.flip();
+				writeFully(writing, end - writing.remaining());
+				writing.clear();
+				if (force) {
+					channel.force(false);
+					nextForce = System.nanoTime() + fsyncIntervalNanos;
+				}
+			} catch (IOException e) {
+				logger.error("Game journal write failed, no further moves can be played", e);
+				fail(e);
+				return;
+			}
+
+			List<DurableWaiter> durable = null;
+			lock.lock();
+			try {
+				writtenPosition = end;
+				if (force) {
+					durablePosition = end;
+					while (!durableWaiters.isEmpty() && durableWaiters.peek().position <= end) {
+						if (durable == null) {
+							durable = new ArrayList<>();
+						}
+						durable.add(durableWaiters.poll());
+					}
+				}
+				recordsWritten.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			if (durable != null) {
+				for (DurableWaiter waiter : durable) {
+					waiter.future.complete(null);
+				}
+			}
+		}
+	}
+
+	private void awaitQuietly(long nanos) {
+		try {
+			recordsPending.awaitNanos(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void fail(IOException e) {
+		List<DurableWaiter> failed;
+		lock.lock();
+		try {
+			failure = e;
+			recordsWritten.signalAll();
+			failed = new ArrayList<>(durableWaiters);
+			durableWaiters.clear();
+		} finally {
+			lock.unlock();
+		}
+		for (DurableWaiter waiter : failed) {
+			waiter.future.completeExceptionally(new UncheckedIOException("Game journal write failed", e));
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private void snapshotQuietly() {
+		try {
+			writeSnapshot();
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Game snapshot failed, recovery will replay more of the journal", e);
+		} finally {
+			lock.lock();
+			try {
+				snapshotRunning = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes a snapshot of every game, replacing the last one once complete.
+	 * @throws IOException
+	 */
+	public void writeSnapshot() throws IOException {
+		long start = System.nanoTime();
+		// every game created before the position is in the store
+		long position = store.withCreationBlocked(() -> {
+			lock.lock();
+			try {
+				return appendedPosition;
+			} finally {
+				lock.unlock();
+			}
+		});
+		forceTo(position);
+
+		Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+		int games = 0;
+		try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16));
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(position);
+			for (Game game : store.games()) {
+				Integer number = gameNumbers.get(game.getId());
+				if (number != null) {
+					writeGame(out, number, game);
+					games++;
+				}
+			}
+			out.writeInt(-1);
+			out.flush();
+			file.force(true);
+		}
+		Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Wrote a snapshot of {} games at journal position {} in {}ms", new Object[]{games, position,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+	}
+
+	/**
+	 * Writes a game as it stands, holding its lock so the board and move count agree.
+	 */
+	private void writeGame(DataOutputStream out, int number, Game game) throws IOException {
+		Lock gameLock = store.lockFor(game.getId());
+		gameLock.lock();
+		try {
+			out.writeInt(number);
+			GameCodec.write(out, game);
+		} finally {
+			gameLock.unlock();
+		}
+	}
+
+	/**
+	 * Makes sure the journal is on disk up to a position, whatever the FsyncPolicy, before a snapshot covering it
+	 * replaces the last one.
+	 */
+	private void forceTo(long position) throws IOException {
+		lock.lock();
+		try {
+			while (writtenPosition < position && failure == null && !closed) {
+				recordsPending.signal();
+				recordsWritten.awaitUninterruptibly();
+			}
+			if (writtenPosition < position) {
+				throw new IOException("Game journal stopped before the snapshot position", failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Loads the games of a snapshot into the store.
+	 * @return the journal position the snapshot covers
+	 */
+	private long readSnapshot(Path snapshot, List<Game> gamesByNumber) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a game snapshot: " + snapshot);
+			}
+			long position = in.readLong();
+			for (int number = in.readInt(); number >= 0; number = in.readInt()) {
+				addGame(number, GameCodec.read(in), gamesByNumber);
+			}
+			return position;
+		} catch (IOException e) {
+			throw new IOException("Game snapshot is corrupt: " + snapshot, e);
+		}
+	}
+
+	/**
+	 * Replays the journal from a position through a memory mapping, stopping at the first torn record.
+	 * @return the end of the last complete record
+	 */
+	private long replay(long position, List<Game> gamesByNumber) throws IOException {
+		long size = channel.size();
+		CRC32 crc = new CRC32();
+		byte[] body = new byte[MAX_BODY_BYTES];
+		ByteBuffer record = ByteBuffer.wrap(body);
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		while (position + RECORD_OVERHEAD <= size) {
+			if (window == null || position + RECORD_OVERHEAD + MAX_BODY_BYTES > windowStart + window.limit()
+					&& windowStart + window.limit() < size) {
+				windowStart = position;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW_BYTES, size - windowStart));
+			}
+			int offset = (int) (position - windowStart);
+			int length = window.getInt(offset);
+			if (length < 1 || length > MAX_BODY_BYTES || position + RECORD_OVERHEAD + length > size) {
+				break;
+			}
+			window.position(offset + 4);
+			window.get(body, 0, length);
+			crc.reset();
+			crc.update(body, 0, length);
+			if (window.getInt(offset + 4 + length) != (int) crc.getValue()) {
+				break;
+			}
+			record.clear().limit(length);
+			try {
+				apply(record, gamesByNumber);
+			} catch (IOException | RuntimeException e) {
+				throw new IOException("Game journal record at " + position + " is corrupt", e);
+			}
+			replayedRecords++;
+			position += RECORD_OVERHEAD + length;
+		}
+		return position;
+	}
+
+	private void apply(ByteBuffer record, List<Game> gamesByNumber) throws IOException {
+		byte type = record.get();
+		int number = record.getInt();
+		Game game = number < gamesByNumber.size() ? gamesByNumber.get(number) : null;
+		if (type == MOVE) {
+			int version = record.getInt();
+			int pitNumber = record.get();
+			if (game == null) {
+				throw new IllegalStateException("Move for unknown game " + number);
+			} else if (version > game.getVersion()) {
+				if (version != game.getVersion() + 1) {
+					throw new IllegalStateException("Move " + version + " of game " + game.getId() + " is out of order");
+				}
+				game.playPit(game.getNextPlayerToMove(), pitNumber);
+			}
+			// otherwise the snapshot already holds the move
+		} else if (type == UNDO) {
+			int version = record.getInt();
+			int moves = record.getShort();
+			if (game == null) {
+				throw new IllegalStateException("Undo for unknown game " + number);
+			} else if (version > game.getVersion()) {
+				if (version != game.getVersion() + moves) {
+					throw new IllegalStateException("Undo " + version + " of game " + game.getId() + " is out of order");
+				}
+				for (int move = 0; move < moves; move++) {
+					game.undoMove();
+				}
+			}
+		} else if (type == CREATE) {
+			int pits = record.get();
+			int seeds = record.get();
+			int computerSide = record.get();
+			int instance = record.getInt();
+			String id = getString(record);
+			String player1 = getString(record);
+			String player2 = getString(record);
+			if (game == null) {
+				addGame(number, GameCodec.newGame(id, player1, player2, pits, seeds, computerSide, instance),
+						gamesByNumber);
+			}
+		} else if (type == RESTORE) {
+			if (game == null) {
+				Game restored = GameCodec.read(new DataInputStream(new ByteArrayInputStream(record.array(),
+						record.position(), record.remaining())));
+				removeGame(gameNumbers.get(restored.getId()), gamesByNumber);
+				addGame(number, restored, gamesByNumber);
+			}
+		} else if (type == DELETE) {
+			// a game the snapshot no longer holds has nothing to delete
+			if (game != null) {
+				removeGame(number, gamesByNumber);
+				store.remove(game.getId());
+			}
+		} else {
+			throw new IllegalStateException("Unknown record type " + type);
+		}
+	}
+
+	private static String getString(ByteBuffer record) {
+		int length = record.getShort() & 0xFFFF;
+		String text = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return text;
+	}
+
+	private void addGame(int number, Game game, List<Game> gamesByNumber) {
+		while (gamesByNumber.size() <= number) {
+			gamesByNumber.add(null);
+		}
+		gamesByNumber.set(number, game);
+		gameNumbers.put(game.getId(), number);
+		nextGameNumber.set(Math.max(nextGameNumber.get(), number + 1));
+		store.put(game);
+	}
+
+	private void removeGame(Integer number, List<Game> gamesByNumber) {
+		if (number != null && number < gamesByNumber.size()) {
+			Game game = gamesByNumber.set(number, null);
+			gameNumbers.remove(game.getId(), number);
+		}
+	}
+
+	/**
+	 * The number of journal records replayed by the last open.
+	 * @return
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords;
+	}
+
+	/**
+	 * The length of the journal appended so far.
+	 * @return
+	 */
+	public long getAppendedBytes() {
+		lock.lock();
+		try {
+			return appendedPosition;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+}
@@ -0,0 +1,792 @@
+package com.starkie.playkalah.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Thread safe store of games.
+ * Moves on a game are serialised by a lock stripe selected from the game id, so different games can be
+ * played concurrently without all contending on a single global lock.
+ * Once configured the store bounds the games held in memory: a sweeper removes games not used for the idle time to
+ * live, or the shorter finished time to live once completed, and when there are more than the most games allowed
+ * the least recently used of a sample are evicted until it is back within the limit.  Evicted games still being
+ * played are spilled to disk if there is a spill directory, and read back when next used.  Pinned games are kept
+ * whatever their time to live or the limit.  A game is only removed or spilled holding its lock, callers holding a
+ * game across a wait for its lock check it is still resident once they have the lock.
+ * @author luke.starkie
+ */
+public class GameStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(GameStore.class);
+
+	static final int DEFAULT_LOCK_STRIPES = 64;
+
+	/**
+	 * How often the sweeper looks for expired games and games over the limit
+	 */
+	static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * How often the sweeper looks through the spill directory for expired games
+	 */
+	static final long SPILL_SWEEP_INTERVAL_MILLIS = 60000;
+
+	/**
+	 * The games looked at to choose each game evicted
+	 */
+	static final int EVICTION_SAMPLE = 16;
+
+	static final String SPILL_SUFFIX = ".game";
+
+	/**
+	 * "KSPL"
+	 */
+	private static final int SPILL_MAGIC = 0x4b53504c;
+
+	/**
+	 * The games held by id
+	 */
+	private final ConcurrentMap<String, Entry> games = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The ids of the games spilled to disk, so looking up a game that does not exist does not touch the disk
+	 */
+	private final Set<String> spilledIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The ids of the games never expired or evicted
+	 */
+	private final Set<String> pinnedIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The lock stripes, the length is always a power of two
+	 */
+	private final ReentrantLock[] locks;
+
+	/**
+	 * Read locked while a game is created, write locked to wait for the creations in progress
+	 */
+	private final ReadWriteLock creationLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Milliseconds for the last access times
+	 */
+	private final LongSupplier clock;
+
+	private final AtomicLong estimatedBytes = new AtomicLong();
+	private final AtomicLong expiredGames = new AtomicLong();
+	private final AtomicLong evictedGames = new AtomicLong();
+	private final AtomicLong rehydratedGames = new AtomicLong();
+
+	private final AtomicBoolean sweepRequested = new AtomicBoolean();
+
+	/**
+	 * The most games held in memory, 0 for no limit
+	 */
+	private int maxGames;
+
+	/**
+	 * The time to live of games not used, 0 to keep them
+	 */
+	private long idleTtlMillis;
+
+	/**
+	 * The time to live of completed games not used, 0 to keep them
+	 */
+	private long finishedTtlMillis;
+
+	/**
+	 * Where evicted games still being played are written, null to drop them
+	 */
+	private Path spillDirectory;
+
+	private long lastSpillSweepMillis;
+
+	private volatile GameStoreListener listener;
+
+	private ScheduledExecutorService sweeper;
+
+	/**
+	 * A game in the store, its estimated size, 0 once removed, and when it was last used.
+	 */
+	private static final class Entry {
+		final Game game;
+		final AtomicInteger bytes;
+		volatile long lastAccessMillis;
+
+		Entry(Game game, long now) {
+			this.game = game;
+			this.bytes = new AtomicInteger(estimateBytes(game));
+			this.lastAccessMillis = now;
+		}
+	}
+
+	public GameStore() {
+		this(DEFAULT_LOCK_STRIPES);
+	}
+
+	/**
+	 * Creates a store with at least the number of lock stripes requested (rounded up to a power of two).
+	 * @param lockStripes the minimum number of lock stripes
+	 */
+	public GameStore(int lockStripes) {
+		this(lockStripes, System::currentTimeMillis);
+	}
+
+	GameStore(int lockStripes, LongSupplier clock) {
+		if (lockStripes < 1) {
+			throw new IllegalArgumentException("At least one lock stripe is required");
+		}
+		int stripes = Integer.highestOneBit(lockStripes - 1) << 1;
+		locks = new ReentrantLock[Math.max(1, stripes)];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		this.clock = clock;
+	}
+
+	/**
+	 * Sets the limits on the games held, called before the store is used.  The limits are applied by sweep, call
+	 * start to sweep in the background.
+	 * @param maxGames the most games held in memory, 0 for no limit
+	 * @param idleTtlMillis the time to live of games not used, 0 to keep them
+	 * @param finishedTtlMillis the time to live of completed games not used, 0 to keep them until idle
+	 * @param spillDirectory where evicted games still being played are written, null to drop them
+	 * @throws IOException if the spill directory cannot be created
+	 */
+	public void configure(int maxGames, long idleTtlMillis, long finishedTtlMillis, Path spillDirectory)
+			throws IOException {
+		if (maxGames < 0 || idleTtlMillis < 0 || finishedTtlMillis < 0) {
+			throw new IllegalArgumentException("Game limits can't be negative");
+		}
+		this.maxGames = maxGames;
+		this.idleTtlMillis = idleTtlMillis;
+		this.finishedTtlMillis = finishedTtlMillis;
+		this.spillDirectory = spillDirectory;
+		if (spillDirectory != null) {
+			Files.createDirectories(spillDirectory);
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_SUFFIX)) {
+				for (Path file : files) {
+					findSpilled(file);
+				}
+			}
+			lastSpillSweepMillis = clock.getAsLong();
+		}
+	}
+
+	/**
+	 * Keeps the game with the id in memory whatever its time to live or the limit, called before the game is created.
+	 * @param id the game id
+	 */
+	public void pin(String id) {
+		pinnedIds.add(id);
+	}
+
+	/**
+	 * Starts sweeping in the background
+	 */
+	public void start() {
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kalah-games-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweeper.scheduleWithFixedDelay(this::sweepQuietly, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sweeping
+	 */
+	public void shutdown() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+		}
+	}
+
+	void setListener(GameStoreListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns the game with the id, reading it back if it was spilled, or null if it does not exist.
+	 * @param id the game id
+	 * @return
+	 */
+	public Game get(String id) {
+		Entry entry = games.get(id);
+		if (entry != null) {
+			touch(entry);
+			return entry.game;
+		}
+		return spilledIds.contains(id) ? rehydrate(id) : null;
+	}
+
+	/**
+	 * Returns the game with the id, atomically creating it with the factory if it does not exist.
+	 * @param id the game id
+	 * @param factory creates the game if required
+	 * @return
+	 */
+	public Game getOrCreate(String id, Function<String, Game> factory) {
+		Game game = get(id);
+		if (game != null) {
+			return game;
+		}
+		Entry entry;
+		Lock creating = creationLock.readLock();
+		creating.lock();
+		try {
+			entry = games.computeIfAbsent(id, key -> newEntry(factory.apply(key)));
+		} finally {
+			creating.unlock();
+		}
+		touch(entry);
+		if (maxGames > 0 && games.size() > maxGames) {
+			requestSweep();
+		}
+		return entry.game;
+	}
+
+	/**
+	 * Runs an action while no game is being created, so every game whose factory has already run is in the store.
+	 * @param action the action to run
+	 * @return the result of the action
+	 */
+	public <T> T withCreationBlocked(Supplier<T> action) {
+		Lock blocking = creationLock.writeLock();
+		blocking.lock();
+		try {
+			return action.get();
+		} finally {
+			blocking.unlock();
+		}
+	}
+
+	/**
+	 * A live view of the games in memory, iteration does not block changes and may or may not see them.
+	 * @return
+	 */
+	public Collection<Game> games() {
+		return new AbstractCollection<Game>() {
+			@Override
+			public Iterator<Game> iterator() {
+				Iterator<Entry> entries = games.values().iterator();
+				return new Iterator<Game>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public Game next() {
+						return entries.next().game;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return games.size();
+			}
+		};
+	}
+
+	/**
+	 * Adds or replaces a game.
+	 * @param game the game to store
+	 */
+	public void put(Game game) {
+		Entry old = games.put(game.getId(), newEntry(game));
+		if (old != null) {
+			released(old);
+		}
+	}
+
+	/**
+	 * Returns true if the game is the one held in memory for its id, checked holding the game's lock by callers that
+	 * looked the game up before waiting for the lock.
+	 * @param game the game
+	 * @return
+	 */
+	public boolean isResident(Game game) {
+		Entry entry = games.get(game.getId());
+		return entry != null && entry.game == game;
+	}
+
+	/**
+	 * Returns the lock that must be held while reading or changing the state of the game with the id.
+	 * @param id the game id
+	 * @return
+	 */
+	public Lock lockFor(String id) {
+		int hash = id.hashCode();
+		return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+	}
+
+	/**
+	 * Returns true if the lock of the game with the id is held, at the moment of asking.
+	 * @param id the game id
+	 * @return
+	 */
+	public boolean isLocked(String id) {
+		int hash = id.hashCode();
+		return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)].isLocked();
+	}
+
+	/**
+	 * The number of games in memory.
+	 * @return
+	 */
+	public int size() {
+		return games.size();
+	}
+
+	int getLockStripes() {
+		return locks.length;
+	}
+
+	private Entry newEntry(Game game) {
+		Entry entry = new Entry(game, clock.getAsLong());
+		estimatedBytes.addAndGet(entry.bytes.get());
+		return entry;
+	}
+
+	/**
+	 * Takes a removed entry's size from the estimate, once however it was removed.
+	 */
+	private void released(Entry entry) {
+		estimatedBytes.addAndGet(-entry.bytes.getAndSet(0));
+	}
+
+	/**
+	 * Brings the size of a game in the store up to date as its move log grows and shrinks.
+	 */
+	private void resize(Entry entry) {
+		int bytes = estimateBytes(entry.game);
+		int old = entry.bytes.get();
+		if (old != 0 && old != bytes && entry.bytes.compareAndSet(old, bytes)) {
+			estimatedBytes.addAndGet(bytes - old);
+		}
+	}
+
+	private void touch(Entry entry) {
+		long now = clock.getAsLong();
+		// skip the write when unchanged, to keep the entry's cache line shared between readers
+		if (entry.lastAccessMillis != now) {
+			entry.lastAccessMillis = now;
+		}
+	}
+
+	private void requestSweep() {
+		if (sweeper != null && sweepRequested.compareAndSet(false, true)) {
+			sweeper.execute(() -> {
+				sweepRequested.set(false);
+				sweepQuietly();
+			});
+		}
+	}
+
+	private void sweepQuietly() {
+		try {
+			sweep();
+		} catch (RuntimeException e) {
+			logger.error("Game sweep failed", e);
+		}
+	}
+
+	/**
+	 * Brings the estimated sizes up to date, removes expired games and evicts the least recently used games of
+	 * samples while over the limit.
+	 */
+	void sweep() {
+		long now = clock.getAsLong();
+		boolean expiring = idleTtlMillis > 0 || finishedTtlMillis > 0;
+		for (Entry entry : games.values()) {
+			resize(entry);
+			if (expiring && isExpired(entry, now)) {
+				expire(entry, now);
+			}
+		}
+
+		int excess = maxGames > 0 ? games.size() - maxGames : 0;
+		if (excess > 0) {
+			evictSampled(excess);
+		}
+
+		if (spillDirectory != null && idleTtlMillis > 0 && now - lastSpillSweepMillis >= SPILL_SWEEP_INTERVAL_MILLIS) {
+			lastSpillSweepMillis = now;
+			sweepSpilled(now);
+		}
+	}
+
+	/**
+	 * Evicts the least recently used game of each sample of games in turn, approximating evicting the least recently
+	 * used games without ordering them all.  Gives up once a pass over the games evicts none.
+	 */
+	private void evictSampled(int excess) {
+		Iterator<Entry> entries = games.values().iterator();
+		boolean evictedInPass = false;
+		while (excess > 0) {
+			Entry oldest = null;
+			for (int sampled = 0; sampled < EVICTION_SAMPLE && entries.hasNext(); sampled++) {
+				Entry entry = entries.next();
+				if (!pinnedIds.contains(entry.game.getId())
+						&& (oldest == null || entry.lastAccessMillis < oldest.lastAccessMillis)) {
+					oldest = entry;
+				}
+			}
+			if (oldest != null && evict(oldest)) {
+				excess--;
+				evictedInPass = true;
+			}
+			if (!entries.hasNext()) {
+				if (!evictedInPass) {
+					return;
+				}
+				entries = games.values().iterator();
+				evictedInPass = false;
+			}
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		if (pinnedIds.contains(entry.game.getId())) {
+			return false;
+		}
+		long ttl = entry.game.isGameCompleted() && finishedTtlMillis > 0 ? finishedTtlMillis : idleTtlMillis;
+		return ttl > 0 && now - entry.lastAccessMillis >= ttl;
+	}
+
+	private void expire(Entry entry, long now) {
+		String id = entry.game.getId();
+		Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			if (games.get(id) == entry && isExpired(entry, now)) {
+				remove(entry);
+				notifyRemoved(entry.game);
+				expiredGames.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts a game if it is still in the store and can be spilled if it needs to be.
+	 * @return true if the game was evicted
+	 */
+	private boolean evict(Entry entry) {
+		String id = entry.game.getId();
+		Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			if (games.get(id) != entry) {
+				return false;
+			}
+			boolean spill = spillDirectory != null && !entry.game.isGameCompleted();
+			if (spill) {
+				try {
+					writeSpill(entry);
+				} catch (IOException e) {
+					logger.warn("Cannot spill game " + id + ", keeping it in memory", e);
+					return false;
+				}
+			}
+			remove(entry);
+			if (!spill) {
+				notifyRemoved(entry.game);
+			}
+			evictedGames.incrementAndGet();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a game, for recovery.
+	 * @param id the game id
+	 */
+	void remove(String id) {
+		Entry old = games.remove(id);
+		if (old != null) {
+			released(old);
+		}
+	}
+
+	private void remove(Entry entry) {
+		if (games.remove(entry.game.getId(), entry)) {
+			released(entry);
+		}
+	}
+
+	private void notifyRemoved(Game game) {
+		GameStoreListener current = listener;
+		if (current != null) {
+			current.gameRemoved(game);
+		}
+	}
+
+	/**
+	 * Writes a game to its spill file, replacing the file once complete.  The file is forced to disk as the journal
+	 * no longer holds the game once a snapshot is taken without it.
+	 */
+	private void writeSpill(Entry entry) throws IOException {
+		Path file = spillFile(entry.game.getId());
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(SPILL_MAGIC);
+			out.writeLong(entry.lastAccessMillis);
+			GameCodec.write(out, entry.game);
+			out.flush();
+			channel.force(false);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		spilledIds.add(entry.game.getId());
+	}
+
+	/**
+	 * Reads a spilled game back into memory, or returns null if the game was not spilled.
+	 */
+	private Game rehydrate(String id) {
+		Path file = spillFile(id);
+		Lock lock = lockFor(id);
+		lock.lock();
+		try {
+			Entry entry = games.get(id);
+			if (entry != null) {
+				touch(entry);
+				return entry.game;
+			}
+			if (!spilledIds.contains(id)) {
+				return null;
+			}
+			Game game = readSpill(file, id);
+			if (game == null) {
+				// the file was deleted unread by the spill sweep
+				spilledIds.remove(id);
+				return null;
+			}
+			Lock creating = creationLock.readLock();
+			creating.lock();
+			try {
+				GameStoreListener current = listener;
+				if (current != null) {
+					current.gameRestored(game);
+				}
+				games.put(id, newEntry(game));
+			} finally {
+				creating.unlock();
+			}
+			Files.deleteIfExists(file);
+			spilledIds.remove(id);
+			rehydratedGames.incrementAndGet();
+			return game;
+		} catch (IOException e) {
+			logger.warn("Cannot read spilled game " + id, e);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads a spill file, returning null if it has gone or holds another game.
+	 */
+	private Game readSpill(Path file, String id) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != SPILL_MAGIC) {
+				throw new IOException("Not a spilled game: " + file);
+			}
+			in.readLong();
+			Game game = GameCodec.read(in);
+			return id == null || id.equals(game.getId()) ? game : null;
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Adds the id of a game spilled before the store was configured, deleting the file if it cannot be read.
+	 */
+	private void findSpilled(Path file) throws IOException {
+		try {
+			Game game = readSpill(file, null);
+			if (game != null) {
+				spilledIds.add(game.getId());
+			}
+		} catch (IOException e) {
+			logger.warn("Deleting unreadable spilled game " + file, e);
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Deletes spilled games not used for the idle time to live.
+	 */
+	private void sweepSpilled(long now) {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory, "*" + SPILL_SUFFIX)) {
+			for (Path file : files) {
+				long lastAccessMillis;
+				try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+					lastAccessMillis = in.readInt() == SPILL_MAGIC ? in.readLong() : Long.MIN_VALUE / 2;
+				}
+				if (now - lastAccessMillis >= idleTtlMillis) {
+					deleteSpilled(file);
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot sweep spilled games", e);
+		}
+	}
+
+	private void deleteSpilled(Path file) throws IOException {
+		Game game;
+		try {
+			game = readSpill(file, null);
+		} catch (IOException e) {
+			// its id, if still listed, is dropped when the game is next looked up
+			logger.warn("Deleting unreadable spilled game " + file, e);
+			Files.deleteIfExists(file);
+			return;
+		}
+		if (game == null) {
+			return;
+		}
+		Lock lock = lockFor(game.getId());
+		lock.lock();
+		try {
+			if (Files.deleteIfExists(file)) {
+				spilledIds.remove(game.getId());
+				// a copy of a game recovered into memory from the journal is not the game itself
+				if (!games.containsKey(game.getId())) {
+					notifyRemoved(game);
+					expiredGames.incrementAndGet();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Path spillFile(String id) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder(digest.length * 2 + SPILL_SUFFIX.length());
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return spillDirectory.resolve(name.append(SPILL_SUFFIX).toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is always available", e);
+		}
+	}
+
+	/**
+	 * Estimates the heap used by a game in the store: the entry with its size and map node, the game with its lock
+	 * and move log, its board and cells, the snapshot with its copy of them and the names it shares, the two players
+	 * and the strings, assuming compressed pointers.  Encodings cached with the snapshot are not counted.  Read
+	 * without the game's lock, so the move log may be a move behind.
+	 */
+	static int estimateBytes(Game game) {
+		int cells = game.getBoard().getCellCount();
+		int moveLog = align(16 + 4 * game.getMoveLogCapacity());
+		return 24 + 16 + 32 + 64 + 40 + moveLog + 2 * (48 + align(16 + 4 * cells)) + 32 + 32 + 2 * 24
+				+ stringBytes(game.getId())
+				+ stringBytes(game.getPlayer1().getName()) + stringBytes(game.getPlayer2().getName());
+	}
+
+	private static int stringBytes(String text) {
+		return 24 + align(16 + 2 * text.length());
+	}
+
+	private static int align(int bytes) {
+		return (bytes + 7) & ~7;
+	}
+
+	/**
+	 * The estimated heap used by the games in memory.
+	 * @return
+	 */
+	public long getEstimatedBytes() {
+		return estimatedBytes.get();
+	}
+
+	/**
+	 * The number of games spilled to disk.
+	 * @return
+	 */
+	public int getSpilledGames() {
+		return spilledIds.size();
+	}
+
+	/**
+	 * The number of games removed for not being used within their time to live.
+	 * @return
+	 */
+	public long getExpiredGames() {
+		return expiredGames.get();
+	}
+
+	/**
+	 * The number of games evicted for being over the limit, spilled or dropped.
+	 * @return
+	 */
+	public long getEvictedGames() {
+		return evictedGames.get();
+	}
+
+	/**
+	 * The number of spilled games read back into memory.
+	 * @return
+	 */
+	public long getRehydratedGames() {
+		return rehydratedGames.get();
+	}
+
+	public int getMaxGames() {
+		return maxGames;
+	}
+}
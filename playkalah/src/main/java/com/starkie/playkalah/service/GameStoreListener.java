@@ -0,0 +1,23 @@
+package com.starkie.playkalah.service;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Told when the store removes a game for good or brings a spilled game back into memory, both called holding
+ * the game's lock.
+ * @author luke.starkie
+ */
+interface GameStoreListener {
+
+	/**
+	 * Called when a game is removed from the store and not spilled, it no longer exists.
+	 * @param game the game removed
+	 */
+	void gameRemoved(Game game);
+
+	/**
+	 * Called when a spilled game is read back, before it is added to the store.
+	 * @param game the game read back
+	 */
+	void gameRestored(Game game);
+}
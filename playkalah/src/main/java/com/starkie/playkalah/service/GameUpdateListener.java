@@ -0,0 +1,20 @@
+package com.starkie.playkalah.service;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Receives the state of a game each time moves are committed to it, registered with KalahService.
+ * The listener is called holding the game's lock, so it sees the moves of one game in the order they were played
+ * and the game cannot change while it reads it.  It must not block: copy what is needed and hand it to another
+ * thread for anything slow such as network writes.  In ACTORS mode a game's actor calls it once for all the moves a
+ * batch of commands played on the game, with the state after the last of them.
+ * @author luke.starkie
+ */
+public interface GameUpdateListener {
+
+	/**
+	 * Called after a move, or a batch of moves, has been committed to a game.
+	 * @param game the game, only to be read during the call
+	 */
+	void gameUpdated(Game game);
+}
@@ -0,0 +1,100 @@
+package com.starkie.playkalah.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Publishes the game store's and moves' metrics on the actuator metrics endpoint.  Latencies are in microseconds,
+ * the percentiles covering every move since startup, sampled from one move in eight.  The active and completed games are counted when the metrics are
+ * read, from the games in memory.
+ * @author luke.starkie
+ */
+@Component
+public class KalahMetrics implements PublicMetrics {
+
+	private final KalahService kalahService;
+
+	@Autowired
+	public KalahMetrics(KalahService kalahService) {
+		this.kalahService = kalahService;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		GameStore games = kalahService.getGameStore();
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Integer>("kalah.games.resident", games.size()));
+		metrics.add(new Metric<Integer>("kalah.games.spilled", games.getSpilledGames()));
+		metrics.add(new Metric<Long>("kalah.games.memory.bytes", games.getEstimatedBytes()));
+		metrics.add(new Metric<Long>("kalah.games.expired", games.getExpiredGames()));
+		metrics.add(new Metric<Long>("kalah.games.evicted", games.getEvictedGames()));
+		metrics.add(new Metric<Long>("kalah.games.rehydrated", games.getRehydratedGames()));
+		int completed = 0;
+		int resident = 0;
+		for (Game game : games.games()) {
+			resident++;
+			if (game.isGameCompleted()) {
+				completed++;
+			}
+		}
+		metrics.add(new Metric<Integer>("kalah.games.active", resident - completed));
+		metrics.add(new Metric<Integer>("kalah.games.completed", completed));
+
+		MoveMetrics moves = kalahService.getMoveMetrics();
+		metrics.add(new Metric<Long>("kalah.games.created", moves.getGamesCreated()));
+		metrics.add(new Metric<Long>("kalah.moves", moves.getMoves()));
+		metrics.add(new Metric<Double>("kalah.moves.per-second", moves.getMovesPerSecond()));
+		for (MoveMetrics.Rejection rejection : MoveMetrics.Rejection.values()) {
+			metrics.add(new Metric<Long>("kalah.moves.rejected." + rejection.name().toLowerCase(Locale.ROOT).replace('_', '-'),
+					moves.getRejections(rejection)));
+		}
+		addLatency(metrics, "kalah.moves.latency", moves.getMoveLatency());
+		addLatency(metrics, "kalah.moves.lock-wait", moves.getLockWait());
+		addLatency(metrics, "kalah.requests.play.latency", moves.getRequestLatency());
+		metrics.add(new Metric<Long>("kalah.requests.errors", moves.getRequestErrors()));
+		AnalysisCache analyses = kalahService.getAnalysisCache();
+		if (analyses != null) {
+			metrics.add(new Metric<Integer>("kalah.analysis.cache.size", analyses.size()));
+			metrics.add(new Metric<Long>("kalah.analysis.cache.hits", analyses.getHits()));
+			metrics.add(new Metric<Long>("kalah.analysis.cache.misses", analyses.getMisses()));
+			metrics.add(new Metric<Long>("kalah.analysis.cache.coalesced", analyses.getCoalesced()));
+		}
+		GameArchive archive = kalahService.getArchive();
+		if (archive != null) {
+			metrics.add(new Metric<Long>("kalah.archive.games", archive.getArchivedGames()));
+			metrics.add(new Metric<Integer>("kalah.archive.pending", archive.getPendingGames()));
+			metrics.add(new Metric<Integer>("kalah.archive.segments", archive.getSegments()));
+		}
+		GameExecutor executor = kalahService.getGameExecutor();
+		if (executor != null) {
+			metrics.add(new Metric<Integer>("kalah.async.queued", executor.getQueuedTasks()));
+		}
+		GameActors actors = kalahService.getActors();
+		if (actors != null) {
+			metrics.add(new Metric<Integer>("kalah.actors.queued", actors.getQueuedCommands()));
+			metrics.add(new Metric<Long>("kalah.actors.drains", actors.getDrains()));
+			metrics.add(new Metric<Long>("kalah.actors.commands", actors.getCommands()));
+		}
+		return metrics;
+	}
+
+	private static void addLatency(List<Metric<?>> metrics, String name, LatencyHistogram histogram) {
+		metrics.add(new Metric<Long>(name + ".count", histogram.getCount()));
+		metrics.add(new Metric<Double>(name + ".mean.us", histogram.getMeanNanos() / 1000));
+		metrics.add(new Metric<Double>(name + ".p50.us", histogram.getPercentile(0.5) / 1000.0));
+		metrics.add(new Metric<Double>(name + ".p90.us", histogram.getPercentile(0.9) / 1000.0));
+		metrics.add(new Metric<Double>(name + ".p99.us", histogram.getPercentile(0.99) / 1000.0));
+		metrics.add(new Metric<Double>(name + ".p999.us", histogram.getPercentile(0.999) / 1000.0));
+		metrics.add(new Metric<Double>(name + ".max.us", histogram.getMaxNanos() / 1000.0));
+		metrics.add(new Metric<Double>(name + ".total.ms", histogram.getTotalNanos() / 1000000.0));
+	}
+}
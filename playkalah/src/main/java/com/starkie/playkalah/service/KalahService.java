@@ -1,18 +1,45 @@
 package com.starkie.playkalah.service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.starkie.playkalah.ai.Analysis;
+import com.starkie.playkalah.ai.EndgameDatabase;
+import com.starkie.playkalah.ai.OpeningBook;
+import com.starkie.playkalah.ai.ParallelSearch;
+import com.starkie.playkalah.ai.SearchEngine;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.Solution;
+import com.starkie.playkalah.ai.SolutionStore;
+import com.starkie.playkalah.ai.TranspositionTable;
+import com.starkie.playkalah.model.BatchResult;
+import com.starkie.playkalah.model.Board;
 import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.GameSnapshot;
+import com.starkie.playkalah.model.LoggingMoveListener;
+import com.starkie.playkalah.model.MoveListener;
+import com.starkie.playkalah.model.MoveRequest;
 
 /**
  * Service class for the Kalah application.
+ * Games are kept by the GameStore and journalled by the GameJournal.  Changes are committed by a GameCommitter
+ * shared with the collaborators playing the computer's moves, batches of moves and moves taken back and played
+ * again.  The service is configured from the kalah properties of the Spring environment.
  * @author luke.starkie
  */
 @Service
@@ -22,59 +49,744 @@ public class KalahService {
 	
 	static final String GAME_1 = "1";
 	
+	/**
+	 * The most moves accepted in one batch, a game's lock is held while its moves are played
+	 */
+	public static final int MAX_BATCH_MOVES = 1000;
+	
+	/**
+	 * Plays a move whatever the game's version
+	 */
+	public static final int ANY_VERSION = -1;
+	
+	/**
+	 * Plays a move whatever the game's instance, see Game.getInstance
+	 */
+	public static final int ANY_INSTANCE = 0;
+	
+	private static final MoveListener TRACING_LISTENER = new LoggingMoveListener();
+	
+	/**
+	 * How asynchronous moves and reads reach a game
+	 */
+	public enum ExecutionMode {
+		/**
+		 * A move takes the game's lock on the request thread, or on the game's executor if another request holds it
+		 */
+		LOCKING,
+		/**
+		 * Every move and read of a game is a command queued to the actor owning the game, see GameActors
+		 */
+		ACTORS
+	}
+	
+	
 	/**
 	 * Hold a list of games, this would be moved to a database in a production environment.
 	 */
-	private Map<String, Game> games = new HashMap<String, Game>();
+	private final GameStore games = new GameStore();
+	
+	/**
+	 * Told of every move committed, read far more often than changed
+	 */
+	private final List<GameUpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+	
+	private final MoveMetrics moveMetrics = new MoveMetrics();
+	
+	/**
+	 * The time the computer player may spend searching for each move
+	 */
+	@Value("${kalah.ai.time-budget-ms:250}")
+	private long aiTimeBudgetMillis = 250;
+	
+	/**
+	 * The deepest search made by the computer player
+	 */
+	@Value("${kalah.ai.max-depth:" + SearchEngine.MAX_DEPTH + "}")
+	private int aiMaxDepth = SearchEngine.MAX_DEPTH;
+	
+	/**
+	 * The memory used by the transposition table shared by every computer player search
+	 */
+	@Value("${kalah.ai.tt-size-mb:16}")
+	private int transpositionTableMegabytes = 16;
+	
+	@Value("${kalah.ai.tt-replacement:DEPTH_PREFERRED}")
+	private TranspositionTable.ReplacementPolicy transpositionTablePolicy = TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED;
+	
+	/**
+	 * The number of threads searching each computer player move, 0 for one per processor
+	 */
+	@Value("${kalah.ai.threads:1}")
+	private int aiThreads = 1;
+	
+	/**
+	 * Endgame database file written by EndgameGenerator, empty to play without one
+	 */
+	@Value("${kalah.ai.endgame-file:}")
+	private String endgameFile = "";
+	
+	/**
+	 * Solution store written by GameSolver, empty to play and hint without one
+	 */
+	@Value("${kalah.ai.solution-file:}")
+	private String solutionFile = "";
+	
+	/**
+	 * Opening book file written by OpeningBookGenerator, empty to search every move
+	 */
+	@Value("${kalah.ai.opening-book-file:}")
+	private String openingBookFile = "";
+	
+	/**
+	 * The most position analyses cached, 0 to analyse every request
+	 */
+	@Value("${kalah.analysis.cache-size:10000}")
+	private int analysisCacheSize = 10000;
+	
+	/**
+	 * The deepest analysis that may be requested, as every move is searched to the depth without a time budget
+	 */
+	@Value("${kalah.analysis.max-depth:12}")
+	private int analysisMaxDepth = 12;
+	
+	private AnalysisCache analysisCache;
+	
+	/**
+	 * Directory of the journal of games and moves, empty to keep games in memory only
+	 */
+	@Value("${kalah.journal.dir:}")
+	private String journalDirectory = "";
+	
+	@Value("${kalah.journal.fsync:ALWAYS}")
+	private GameJournal.FsyncPolicy journalFsyncPolicy = GameJournal.FsyncPolicy.ALWAYS;
+	
+	@Value("${kalah.journal.fsync-interval-ms:100}")
+	private long journalFsyncIntervalMillis = 100;
+	
+	/**
+	 * The moves between snapshots of every game, bounding the journal replayed on startup
+	 */
+	@Value("${kalah.journal.snapshot-every-moves:100000}")
+	private long journalSnapshotEveryMoves = 100000;
+	
+	private GameJournal journal;
+	
+	/**
+	 * Directory of the archive completed games are written to, empty not to archive them
+	 */
+	@Value("${kalah.archive.dir:}")
+	private String archiveDirectory = "";
+	
+	/**
+	 * The most games written to each archive segment
+	 */
+	@Value("${kalah.archive.segment-games:262144}")
+	private int archiveSegmentGames = 262144;
+	
+	/**
+	 * The longest time a completed game waits to be written to the archive
+	 */
+	@Value("${kalah.archive.flush-interval-ms:60000}")
+	private long archiveFlushIntervalMillis = 60000;
+	
+	/**
+	 * The threads scanning the archive's segments, 0 for one per processor
+	 */
+	@Value("${kalah.archive.scan-threads:0}")
+	private int archiveScanThreads = 0;
+	
+	private GameArchive archive;
+	
+	/**
+	 * The single threaded executors moves are queued on by game for asynchronous requests, 0 for one per processor
+	 */
+	@Value("${kalah.async.game-threads:0}")
+	private int gameThreads = 0;
+	
+	/**
+	 * The most moves waiting on each game executor before requests are turned away
+	 */
+	@Value("${kalah.async.queue-capacity:10000}")
+	private int gameQueueCapacity = 10000;
+	
+	/**
+	 * The threads searching the computer's moves for asynchronous requests
+	 */
+	@Value("${kalah.async.computer-threads:4}")
+	private int computerThreads = 4;
+	
+	@Value("${kalah.execution:LOCKING}")
+	private ExecutionMode executionMode = ExecutionMode.LOCKING;
+	
+	/**
+	 * The actor threads games are sharded across in ACTORS mode, 0 for one per processor
+	 */
+	@Value("${kalah.actors.threads:0}")
+	private int actorThreads = 0;
+	
+	/**
+	 * The most games held in memory, the least recently used are evicted beyond it, 0 for no limit
+	 */
+	@Value("${kalah.games.max:100000}")
+	private int maxGames = 100000;
+	
+	/**
+	 * The time a game may go unused before it is removed, 0 to keep games
+	 */
+	@Value("${kalah.games.idle-ttl-ms:1800000}")
+	private long gameIdleTtlMillis = 1800000;
+	
+	/**
+	 * The time a completed game may go unused before it is removed
+	 */
+	@Value("${kalah.games.finished-ttl-ms:300000}")
+	private long gameFinishedTtlMillis = 300000;
+	
+	/**
+	 * Directory evicted games still being played are written to, empty to drop them
+	 */
+	@Value("${kalah.games.spill-dir:}")
+	private String gameSpillDirectory = "";
+	
+	private TranspositionTable transpositionTable;
+	
+	private EndgameDatabase endgameDatabase;
+	
+	private SolutionStore solutionStore;
+	
+	private OpeningBook openingBook;
 	
 	/**
-	 * Sets up a sample game
+	 * Commits the changes to games, shared with the collaborators below
+	 */
+	private GameCommitter commits;
+	
+	private ComputerPlayer computer;
+	
+	private BatchPlayer batches;
+	
+	private MoveHistory history;
+	
+	/**
+	 * Recovers the journalled games, sets up a sample game and the computer player's search
 	 */
 	@PostConstruct
 	public void setupGame1() {
-		Game game = new Game("bill", "bob", GAME_1);
-		games.put(game.getId(), game);
+		try {
+			games.configure(maxGames, gameIdleTtlMillis, gameFinishedTtlMillis,
+					gameSpillDirectory.isEmpty() ? null : Paths.get(gameSpillDirectory));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot create game spill directory " + gameSpillDirectory, e);
+		}
+		games.pin(GAME_1);
+		transpositionTable = new TranspositionTable(transpositionTableMegabytes, transpositionTablePolicy);
+		if (!endgameFile.isEmpty()) {
+			try {
+				endgameDatabase = EndgameDatabase.open(Paths.get(endgameFile));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open endgame database " + endgameFile, e);
+			}
+			logger.info("Opened endgame database {} with {} positions", endgameFile, endgameDatabase.getSize());
+		}
+		if (!solutionFile.isEmpty()) {
+			try {
+				solutionStore = SolutionStore.open(Paths.get(solutionFile));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open solution store " + solutionFile, e);
+			}
+			logger.info("Opened solution store {} of kalah({},{})", new Object[]{solutionFile, solutionStore.getPits(),
+					solutionStore.getSeeds()});
+		}
+		if (!openingBookFile.isEmpty()) {
+			try {
+				openingBook = OpeningBook.open(Paths.get(openingBookFile));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open opening book " + openingBookFile, e);
+			}
+			logger.info("Opened opening book {} with {} positions of kalah({},{})", new Object[]{openingBookFile,
+					openingBook.getSize(), openingBook.getPits(), openingBook.getSeeds()});
+		}
+		ParallelSearch search = new ParallelSearch(aiThreads, transpositionTable, endgameDatabase);
+		analysisCache = new AnalysisCache(analysisCacheSize);
+		if (!journalDirectory.isEmpty()) {
+			journal = new GameJournal(games, Paths.get(journalDirectory), journalFsyncPolicy, journalFsyncIntervalMillis,
+					journalSnapshotEveryMoves);
+			try {
+				journal.open();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open game journal " + journalDirectory, e);
+			}
+			games.setListener(journal);
+		}
+		if (!archiveDirectory.isEmpty()) {
+			archive = new GameArchive(Paths.get(archiveDirectory), archiveSegmentGames, archiveFlushIntervalMillis,
+					archiveScanThreads);
+			try {
+				archive.open();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open game archive " + archiveDirectory, e);
+			}
+		}
+		games.start();
+		int processors = Runtime.getRuntime().availableProcessors();
+		int actors = executionMode != ExecutionMode.ACTORS ? 0 : actorThreads > 0 ? actorThreads : processors;
+		commits = new GameCommitter(games, journal, archive, moveMetrics, updateListeners,
+				gameThreads > 0 ? gameThreads : processors, actors, gameQueueCapacity);
+		computer = new ComputerPlayer(commits, search, endgameDatabase, solutionStore, openingBook, analysisCache,
+				computerThreads, gameQueueCapacity, aiTimeBudgetMillis, aiMaxDepth, analysisMaxDepth);
+		batches = new BatchPlayer(commits, computer);
+		history = new MoveHistory(commits, computer);
+		findGame(GAME_1);
 	}
-
+	
 	/**
-	 * Returns the game with the specified ID or a newly created game with the ID if one does not exist.
+	 * Stops the search, actor, executor and sweeper threads and closes the journal
+	 */
+	@PreDestroy
+	public void shutdown() {
+		commits.shutdown();
+		computer.shutdown();
+		games.shutdown();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				logger.error("Failed to close the game journal", e);
+			}
+		}
+		if (archive != null) {
+			try {
+				archive.close();
+			} catch (IOException e) {
+				logger.error("Failed to write the last games to the archive", e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the game with the specified ID or a newly created kalah(6,6) game with the ID if one does not exist.
 	 * @param id the game requested
 	 * @return
 	 */
 	public Game findGame(String id) {
-		Game game = games.get(id);
-		if (game == null) {
-			game = new Game("bill", "bob", id);
-			games.put(game.getId(), game);
-		} 
-		return game;
+		return findGame(id, Board.DEFAULT_PITS, Board.DEFAULT_SEEDS);
+	}
+	
+	/**
+	 * Returns the game with the specified ID or a newly created kalah(pits, seeds) game with the ID if one does not exist.
+	 * The board size only applies when the game is created.
+	 * @param id the game requested
+	 * @param pits the number of pits on each side for a new game
+	 * @param seeds the number of stones each pit starts with for a new game
+	 * @return
+	 */
+	public Game findGame(String id, int pits, int seeds) {
+		return findGame(id, pits, seeds, false);
+	}
+	
+	/**
+	 * Returns the game with the specified ID or a newly created kalah(pits, seeds) game with the ID if one does not exist.
+	 * The board size and computer opponent only apply when the game is created.
+	 * @param id the game requested
+	 * @param pits the number of pits on each side for a new game
+	 * @param seeds the number of stones each pit starts with for a new game
+	 * @param computerOpponent true for player 2 of a new game to be played by the server
+	 * @return
+	 */
+	public Game findGame(String id, int pits, int seeds, boolean computerOpponent) {
+		return games.getOrCreate(id, newId -> {
+			Game game = new Game("bill", "bob", newId, pits, seeds);
+			if (computerOpponent) {
+				game.setComputerPlayer(game.getPlayer2().getName());
+			}
+			if (journal != null) {
+				journal.appendCreate(game);
+			}
+			moveMetrics.gameCreated();
+			return game;
+		});
 	}
 	
 	/**
 	 * Plays a move in a game of kalah.  Check for error scenarios and throw an appropriate exception.
+	 * Moves on the same game are serialised by the game's lock, moves on different games may run concurrently.
+	 * When the opponent is the computer its reply is played before returning.
 	 * @param id the game id to play
 	 * @param playerName the player playing the move
 	 * @param pit the pit selected to play
 	 * @return
 	 */
 	public Game playGame(String id, String playerName, int pitNumber) {
-		Game game = games.get(id);
-		logger.info("Play game move requested for game {}, player {}, pit {}, game state {}", new Object[]{id, playerName, pitNumber, game});
-		
-		if (game == null) {
-			throw new IllegalArgumentException("Not a valid game");
-		} else if(pitNumber < 1 || pitNumber > 6) {
-			throw new IllegalArgumentException("Not a valid pit number");
-		} else if (game.isGameCompleted()) {
-			throw new IllegalStateException("Game has been completed, play another?");
-		} else if(!game.getNextPlayerToMove().equals(playerName)) {
-			throw new IllegalArgumentException("Not your turn sorry :-)");
-		} else if(game.findPlayer(playerName).getPit(pitNumber).isEmpty()) {
-			throw new IllegalArgumentException("Pit is empty, try another one!!");
-		} else {
-			game.playPit(playerName, pitNumber);
-			logger.info("Play game move completed with game state {}", game);
-			return game;
+		boolean timed = moveMetrics.sampleMove();
+		long start = timed ? System.nanoTime() : 0;
+		Game game = commitMove(id, playerName, pitNumber, ANY_INSTANCE, ANY_VERSION);
+		commits.awaitJournal();
+		if (timed) {
+			moveMetrics.recordMove(System.nanoTime() - start);
 		}
+		computer.playComputerMoves(game);
+		return game;
+	}
+	
+	/**
+	 * Plays a move in a game of kalah without holding the caller's thread.  A move finding its game's lock free is
+	 * played on the caller's thread, as it will not wait; otherwise it is queued on the game's executor rather than
+	 * blocking on the lock.  The future completes once the move is journalled and after the computer opponent's reply,
+	 * searched on the computer executor.  In ACTORS mode the move is a command to the game's actor instead.
+	 * @param id the game id to play
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 * @return completed with the game, or the exception playGame would throw
+	 */
+	public CompletableFuture<Game> playGameAsync(String id, String playerName, int pitNumber) {
+		return playGameAsync(id, playerName, pitNumber, ANY_VERSION);
+	}
+	
+	/**
+	 * Plays a move as playGameAsync does, provided it was chosen against the game's current state.  A move made after
+	 * other moves fails with a StaleMoveException, without being queued when the game's snapshot already shows them.
+	 * @param id the game id to play
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 * @param expectedVersion the version of the game the move was chosen on, or ANY_VERSION
+	 * @return completed with the game, or the exception playGame would throw
+	 */
+	public CompletableFuture<Game> playGameAsync(String id, String playerName, int pitNumber, int expectedVersion) {
+		return playGameAsync(id, playerName, pitNumber, ANY_INSTANCE, expectedVersion);
+	}
+	
+	/**
+	 * Plays a move as playGameAsync does, provided it was chosen against the game's current state and the game has
+	 * not been replaced by another game with its id since.
+	 * @param id the game id to play
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 * @param expectedInstance the instance of the game the move was chosen on, or ANY_INSTANCE
+	 * @param expectedVersion the version of the game the move was chosen on, or ANY_VERSION
+	 * @return completed with the game, or the exception playGame would throw
+	 */
+	public CompletableFuture<Game> playGameAsync(String id, String playerName, int pitNumber, int expectedInstance,
+			int expectedVersion) {
+		CompletableFuture<Game> stale = commits.staleChange(id, expectedInstance, expectedVersion);
+		if (stale != null) {
+			return stale;
+		}
+		boolean timed = moveMetrics.sampleMove();
+		long start = timed ? System.nanoTime() : 0;
+		Supplier<Game> move = () -> commitMove(id, playerName, pitNumber, expectedInstance, expectedVersion);
+		return commits.commitAsync(id, move).thenCompose(game -> {
+			if (timed) {
+				moveMetrics.recordMove(System.nanoTime() - start);
+			}
+			return computer.computerReplyAsync(game);
+		});
+	}
+	
+	/**
+	 * Validates and plays a move holding the game's lock, without waiting for the journal.
+	 * @param id the game id to play
+	 * @param playerName the player playing the move
+	 * @param pitNumber the pit selected to play
+	 * @param expectedInstance the instance the game must be, or ANY_INSTANCE
+	 * @param expectedVersion the version the game must have, or ANY_VERSION
+	 * @return
+	 */
+	private Game commitMove(String id, String playerName, int pitNumber, int expectedInstance, int expectedVersion) {
+		Lock lock = games.lockFor(id);
+		Game game;
+		try {
+			game = commits.lockGame(id, lock);
+		} catch (IllegalArgumentException e) {
+			moveMetrics.moveRejected(MoveMetrics.Rejection.UNKNOWN_GAME);
+			throw e;
+		}
+		try {
+			if (playerName.equals(game.getComputerPlayer())) {
+				moveMetrics.moveRejected(MoveMetrics.Rejection.COMPUTER_PLAYER);
+				throw new IllegalArgumentException("That player is played by the computer");
+			}
+			commits.checkVersion(game, expectedInstance, expectedVersion);
+			commits.playLocked(game, playerName, pitNumber);
+		} finally {
+			lock.unlock();
+		}
+		return game;
+	}
+	
+	/**
+	 * Plays the move chosen by the computer as playAiMove does, searching on the computer executor.
+	 * @param id the game id to play
+	 * @return completed with the game, or the exception playAiMove would throw
+	 */
+	public CompletableFuture<Game> playAiMoveAsync(String id) {
+		return computer.playAiMoveAsync(id);
+	}
+	
+	/**
+	 * Returns the move the computer would play for the player next to move, without playing it.  A position in the
+	 * opening book or solution store is answered straight away, any other is searched on the computer executor.
+	 * @param id the game id
+	 * @return completed with the move and its score from the point of view of the player next to move
+	 */
+	public CompletableFuture<SearchResult> getHintAsync(String id) {
+		return computer.getHintAsync(id);
+	}
+	
+	/**
+	 * Returns the score of every move of the player next to move searched to a depth, from their point of view.  The
+	 * analyses are cached by position and depth, a position already analysed or being analysed for another request
+	 * or game is not searched again.
+	 * @param id the game id
+	 * @param depth the depth to search every move to, from 1 to kalah.analysis.max-depth
+	 * @return completed with the analysis
+	 */
+	public CompletableFuture<Analysis> getAnalysisAsync(String id, int depth) {
+		return computer.getAnalysisAsync(id, depth);
+	}
+	
+	/**
+	 * Plays a batch of moves in one game.  The moves are validated in order against a copy of the board and only
+	 * applied if every one of them is valid, otherwise the game is left unchanged and the first invalid move is
+	 * reported.  When the opponent is the computer its reply is played once the batch is applied.
+	 * @param id the game id to play
+	 * @param moves the moves in the order to play them, the game of each move is ignored
+	 * @return
+	 */
+	public BatchResult playMoves(String id, List<MoveRequest> moves) {
+		return batches.playMoves(id, moves);
+	}
+	
+	/**
+	 * Plays a batch of moves across any number of games.  The moves of each game are played in order and applied
+	 * all together or not at all as for a single game, a failure in one game does not affect the others.
+	 * @param moves the moves in the order to play them
+	 * @return a result for each game in the order the games first appear in the batch
+	 */
+	public List<BatchResult> playMoves(List<MoveRequest> moves) {
+		return batches.playMoves(moves);
+	}
+	
+	/**
+	 * Plays the move chosen by the computer for the player next to move, followed by the computer opponent's reply
+	 * if the game has one.
+	 * @param id the game id to play
+	 * @return
+	 */
+	public Game playAiMove(String id) {
+		return computer.playAiMove(id);
+	}
+	
+	/**
+	 * Takes back the last move of a game without holding the caller's thread, committed as playGameAsync commits a
+	 * move.  When the opponent is the computer its moves are taken back too, back to the human player's last move, so
+	 * it is the human's turn again.  A completed game has been archived so its moves can't be taken back.
+	 * @param id the game id
+	 * @param expectedVersion the version of the game the undo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be taken back
+	 */
+	public CompletableFuture<Game> undoMoveAsync(String id, int expectedVersion) {
+		return undoMoveAsync(id, ANY_INSTANCE, expectedVersion);
+	}
+	
+	/**
+	 * Takes back the last move of a game as undoMoveAsync does, provided the game has not been replaced by another
+	 * game with its id since.
+	 * @param id the game id
+	 * @param expectedInstance the instance of the game the undo was asked for on, or ANY_INSTANCE
+	 * @param expectedVersion the version of the game the undo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be taken back
+	 */
+	public CompletableFuture<Game> undoMoveAsync(String id, int expectedInstance, int expectedVersion) {
+		return history.undoMoveAsync(id, expectedInstance, expectedVersion);
+	}
+	
+	/**
+	 * Plays the moves taken back by undoMoveAsync again, as far as the human player's next turn, committed as
+	 * playGameAsync commits a move.  The computer opponent replies if its moves taken back run out on its turn.
+	 * @param id the game id
+	 * @param expectedVersion the version of the game the redo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be played again
+	 */
+	public CompletableFuture<Game> redoMoveAsync(String id, int expectedVersion) {
+		return redoMoveAsync(id, ANY_INSTANCE, expectedVersion);
+	}
+	
+	/**
+	 * Plays the moves taken back again as redoMoveAsync does, provided the game has not been replaced by another game
+	 * with its id since.
+	 * @param id the game id
+	 * @param expectedInstance the instance of the game the redo was asked for on, or ANY_INSTANCE
+	 * @param expectedVersion the version of the game the redo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be played again
+	 */
+	public CompletableFuture<Game> redoMoveAsync(String id, int expectedInstance, int expectedVersion) {
+		return history.redoMoveAsync(id, expectedInstance, expectedVersion);
+	}
+	
+	/**
+	 * Returns a game's position after a number of moves, one played earlier or taken back since.
+	 * @param id the game id
+	 * @param moveNumber the number of moves played
+	 * @return
+	 */
+	public GameSnapshot getPosition(String id, int moveNumber) {
+		return readGame(id, game -> game.getPosition(moveNumber));
+	}
+	
+	/**
+	 * Returns the perfect play of a game's position from the solution store, the exact final score with best play
+	 * by both players and the best move.
+	 * @param id the game id
+	 * @return
+	 */
+	public Solution getSolution(String id) {
+		return computer.getSolution(id);
+	}
+	
+	/**
+	 * Totals the archived games of a size of board: the win rates and average length, and the win rates by player 1's
+	 * opening pit.
+	 * @param pits the number of pits on each side
+	 * @param seeds the number of stones each pit started with
+	 * @return
+	 */
+	public ArchiveStats getArchiveStats(int pits, int seeds) {
+		if (archive == null) {
+			throw new IllegalStateException("Completed games are not archived, set kalah.archive.dir");
+		}
+		return archive.stats(pits, seeds);
+	}
+	
+	/**
+	 * Switches logging of every move of a game on or off.
+	 * @param id the game id
+	 * @param enabled true to log each move
+	 * @return
+	 */
+	public Game traceGame(String id, boolean enabled) {
+		Lock lock = games.lockFor(id);
+		Game game = commits.lockGame(id, lock);
+		try {
+			game.setMoveListener(enabled ? TRACING_LISTENER : null);
+		} finally {
+			lock.unlock();
+		}
+		return game;
+	}
+	
+	/**
+	 * Reads an existing game holding its lock, so the game is consistent and no move is committed meanwhile.  In ACTORS
+	 * mode the read is a command to the game's actor, so it sees the game between the commands before and after it.
+	 * @param id the game id
+	 * @param reader reads what is needed from the game, it must not keep the game
+	 * @return the result of the reader
+	 */
+	public <T> T readGame(String id, Function<Game, T> reader) {
+		return commits.readGame(id, reader);
+	}
+	
+	/**
+	 * Registers a listener told of every move committed to any game.
+	 * @param listener the listener to add
+	 */
+	public void addGameUpdateListener(GameUpdateListener listener) {
+		updateListeners.add(listener);
+	}
+	
+	public void removeGameUpdateListener(GameUpdateListener listener) {
+		updateListeners.remove(listener);
+	}
+	
+	/**
+	 * The table shared by the computer player searches, exposing its size and hit rate.
+	 * @return
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return transpositionTable;
+	}
+	
+	/**
+	 * The endgame database used by the computer player, null if there is none.
+	 * @return
+	 */
+	public EndgameDatabase getEndgameDatabase() {
+		return endgameDatabase;
+	}
+	
+	/**
+	 * The solution store used for hints and by the computer player, null if there is none.
+	 * @return
+	 */
+	public SolutionStore getSolutionStore() {
+		return solutionStore;
+	}
+	
+	/**
+	 * The opening book used for hints and by the computer player, null if there is none.
+	 * @return
+	 */
+	public OpeningBook getOpeningBook() {
+		return openingBook;
+	}
+	
+	/**
+	 * The cache of position analyses, exposing its size and hit rate.
+	 * @return
+	 */
+	public AnalysisCache getAnalysisCache() {
+		return analysisCache;
+	}
+	
+	/**
+	 * The archive of completed games, null if they are not archived.
+	 * @return
+	 */
+	public GameArchive getArchive() {
+		return archive;
+	}
+	
+	public int getAiThreads() {
+		return computer.getThreads();
+	}
+	
+	/**
+	 * The journal of games and moves, null if games are only kept in memory.
+	 * @return
+	 */
+	public GameJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * The metrics of the moves played.
+	 * @return
+	 */
+	public MoveMetrics getMoveMetrics() {
+		return moveMetrics;
+	}
+	
+	/**
+	 * The executors asynchronous moves are queued on, null until set up.
+	 * @return
+	 */
+	public GameExecutor getGameExecutor() {
+		return commits == null ? null : commits.getGameExecutor();
+	}
+	
+	/**
+	 * The actors owning the games, null unless in ACTORS mode.
+	 * @return
+	 */
+	public GameActors getActors() {
+		return commits == null ? null : commits.getActors();
+	}
+	
+	/**
+	 * The store of games, for its metrics.
+	 * @return
+	 */
+	GameStore getGameStore() {
+		return games;
 	}
 }
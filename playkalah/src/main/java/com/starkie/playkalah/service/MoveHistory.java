@@ -0,0 +1,106 @@
+package com.starkie.playkalah.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Takes back moves and plays them again for the service, committed as moves are.  Against the computer its moves
+ * are taken back and played again along with the human player's, so it is always the human's turn after either.
+ * @author luke.starkie
+ */
+class MoveHistory {
+
+	private final GameCommitter commits;
+
+	private final ComputerPlayer computer;
+
+	/**
+	 * @param commits commits the changes
+	 * @param computer plays the computer opponent's replies
+	 */
+	MoveHistory(GameCommitter commits, ComputerPlayer computer) {
+		this.commits = commits;
+		this.computer = computer;
+	}
+
+	/**
+	 * Takes back the last move of a game, back to the human player's last move against the computer.
+	 * @param id the game id
+	 * @param expectedInstance the instance of the game the undo was asked for on, or ANY_INSTANCE
+	 * @param expectedVersion the version of the game the undo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be taken back
+	 */
+	CompletableFuture<Game> undoMoveAsync(String id, int expectedInstance, int expectedVersion) {
+		CompletableFuture<Game> stale = commits.staleChange(id, expectedInstance, expectedVersion);
+		if (stale != null) {
+			return stale;
+		}
+		return commits.commitAsync(id, () -> commitUndo(id, expectedInstance, expectedVersion))
+				.thenCompose(computer::computerReplyAsync);
+	}
+
+	private Game commitUndo(String id, int expectedInstance, int expectedVersion) {
+		Lock lock = commits.lockFor(id);
+		Game game = commits.lockGame(id, lock);
+		try {
+			commits.checkVersion(game, expectedInstance, expectedVersion);
+			if (game.isGameCompleted()) {
+				throw new IllegalStateException("Game has been completed, play another?");
+			} else if (!game.canUndo()) {
+				throw new IllegalStateException("No move to take back");
+			}
+			String computerPlayer = game.getComputerPlayer();
+			int computerSide = computerPlayer == null ? -1 : game.findPlayer(computerPlayer).getSide();
+			int moves = 1;
+			while (moves < game.getLoggedMoves() && game.getSideToMoveBefore(moves) == computerSide) {
+				moves++;
+			}
+			commits.journalUndo(game, moves);
+			for (int move = 0; move < moves; move++) {
+				game.undoMove();
+			}
+			commits.committed(game);
+		} finally {
+			lock.unlock();
+		}
+		return game;
+	}
+
+	/**
+	 * Plays the moves taken back again, as far as the human player's next turn.
+	 * @param id the game id
+	 * @param expectedInstance the instance of the game the redo was asked for on, or ANY_INSTANCE
+	 * @param expectedVersion the version of the game the redo was asked for on, or ANY_VERSION
+	 * @return completed with the game, or the exception explaining why no move could be played again
+	 */
+	CompletableFuture<Game> redoMoveAsync(String id, int expectedInstance, int expectedVersion) {
+		CompletableFuture<Game> stale = commits.staleChange(id, expectedInstance, expectedVersion);
+		if (stale != null) {
+			return stale;
+		}
+		return commits.commitAsync(id, () -> commitRedo(id, expectedInstance, expectedVersion))
+				.thenCompose(computer::computerReplyAsync);
+	}
+
+	private Game commitRedo(String id, int expectedInstance, int expectedVersion) {
+		Lock lock = commits.lockFor(id);
+		Game game = commits.lockGame(id, lock);
+		try {
+			commits.checkVersion(game, expectedInstance, expectedVersion);
+			int moves = 0;
+			do {
+				commits.journalMove(game, game.getRedoPit());
+				game.redoMove();
+				moves++;
+			} while (ComputerPlayer.isComputerToMove(game) && game.getRedoMoves() > 0);
+			commits.archiveIfCompleted(game);
+			commits.getMoveMetrics().movesPlayed(moves);
+			commits.committed(game);
+		} finally {
+			lock.unlock();
+		}
+		return game;
+	}
+}
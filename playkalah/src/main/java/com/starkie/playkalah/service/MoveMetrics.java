@@ -0,0 +1,159 @@
+package com.starkie.playkalah.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the moves played, recorded on the move path without allocating or locking so they
+ * cost little more than the nanoTime calls timing them.  Anything derived, the rate and percentiles, is worked out
+ * when the metrics are read.
+ * @author luke.starkie
+ */
+public class MoveMetrics {
+
+	/**
+	 * Why a move was rejected
+	 */
+	public enum Rejection {
+		UNKNOWN_GAME,
+		COMPUTER_PLAYER,
+		INVALID_PIT,
+		GAME_COMPLETED,
+		NOT_YOUR_TURN,
+		EMPTY_PIT,
+		STALE_MOVE_COUNT
+	}
+
+	/**
+	 * One move in this many is timed, as the two nanoTime calls timing a move cost as much as playing it
+	 */
+	static final int MOVE_SAMPLE_RATE = 8;
+
+	/**
+	 * The shortest time the rate is averaged over
+	 */
+	static final long RATE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final LatencyHistogram moveLatency = new LatencyHistogram();
+
+	private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+
+	private final AtomicLong moves = new AtomicLong();
+
+	private final AtomicLong gamesCreated = new AtomicLong();
+
+	private final AtomicLong requestErrors = new AtomicLong();
+
+	private final AtomicLongArray rejections = new AtomicLongArray(Rejection.values().length);
+
+	/**
+	 * The moves played at a time at least RATE_NANOS ago, the rate is measured from, guarded by this
+	 */
+	private long sampleNanos = System.nanoTime();
+	private long sampleMoves;
+	private long previousSampleNanos = sampleNanos;
+	private long previousSampleMoves;
+
+	/**
+	 * Counts moves committed to a game.
+	 * @param count the number of moves
+	 */
+	public void movesPlayed(int count) {
+		moves.addAndGet(count);
+	}
+
+	/**
+	 * Returns true if this move is to be timed, choosing moves at random so the timed moves are representative.
+	 * @return
+	 */
+	public boolean sampleMove() {
+		return (ThreadLocalRandom.current().nextInt() & (MOVE_SAMPLE_RATE - 1)) == 0;
+	}
+
+	/**
+	 * Records the time to validate and commit a sampled move, from the request until it is durable.
+	 * @param nanos the duration
+	 */
+	public void recordMove(long nanos) {
+		moveLatency.record(nanos);
+	}
+
+	/**
+	 * Records the time a request waited for a game's lock held by another request.
+	 * @param nanos the duration
+	 */
+	public void recordLockWait(long nanos) {
+		lockWait.record(nanos);
+	}
+
+	/**
+	 * Records the time to handle a request to play, including any computer reply.
+	 * @param nanos the duration
+	 */
+	public void recordRequest(long nanos) {
+		requestLatency.record(nanos);
+	}
+
+	public void requestFailed() {
+		requestErrors.incrementAndGet();
+	}
+
+	public void moveRejected(Rejection rejection) {
+		rejections.incrementAndGet(rejection.ordinal());
+	}
+
+	public void gameCreated() {
+		gamesCreated.incrementAndGet();
+	}
+
+	/**
+	 * The moves per second measured by the reader rather than the moves, so playing a move only adds to a counter.
+	 * Readers sample the moves at most every 10 seconds and the rate is over the two latest samples, so read every few
+	 * seconds it covers the last 10 to 20 seconds, read less often it covers the time since the reading before last.
+	 * @return
+	 */
+	public synchronized double getMovesPerSecond() {
+		long now = System.nanoTime();
+		long played = moves.get();
+		if (now - sampleNanos >= RATE_NANOS) {
+			previousSampleNanos = sampleNanos;
+			previousSampleMoves = sampleMoves;
+			sampleNanos = now;
+			sampleMoves = played;
+		}
+		long elapsed = now - previousSampleNanos;
+		return elapsed <= 0 ? 0 : (double) (played - previousSampleMoves) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+
+	public long getMoves() {
+		return moves.get();
+	}
+
+	public long getGamesCreated() {
+		return gamesCreated.get();
+	}
+
+	public long getRequestErrors() {
+		return requestErrors.get();
+	}
+
+	public long getRejections(Rejection rejection) {
+		return rejections.get(rejection.ordinal());
+	}
+
+	public LatencyHistogram getMoveLatency() {
+		return moveLatency;
+	}
+
+	public LatencyHistogram getRequestLatency() {
+		return requestLatency;
+	}
+
+	public LatencyHistogram getLockWait() {
+		return lockWait;
+	}
+}
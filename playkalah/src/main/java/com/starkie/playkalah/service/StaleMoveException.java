@@ -0,0 +1,33 @@
+package com.starkie.playkalah.service;
+
+/**
+ * Thrown when a move was made against a version of the game, its version, that other changes have since replaced, or
+ * against an earlier game with the game's id.
+ * @author luke.starkie
+ */
+public class StaleMoveException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int instance;
+
+	private final int version;
+
+	/**
+	 * @param instance the game's instance, see Game.getInstance
+	 * @param version the game's current version
+	 */
+	public StaleMoveException(int instance, int version) {
+		super("Game has moved on since, refresh and try again");
+		this.instance = instance;
+		this.version = version;
+	}
+
+	public int getInstance() {
+		return instance;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,138 @@
+package com.starkie.playkalah.web;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.springframework.http.MediaType;
+
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Writes a GameSnapshot as lean JSON with the board as a flat array of cells, player 1's pits and kalah then player 2's:
+ * {"id":"1","moveCount":2,"nextPlayerToMove":"bill","gameCompleted":false,"player1":"bill","player2":"bob","pits":6,
+ * "board":[6,6,0,7,7,7,1,7,7,6,6,6,6,0]}, with "computerPlayer" added when there is one.
+ * The JSON is written by hand into a buffer kept by each thread, rather than by reflection over the object graph.
+ * @author luke.starkie
+ */
+public class CompactGameJsonConverter extends GameMessageConverter {
+
+	public static final String MEDIA_TYPE_VALUE = "application/vnd.kalah.compact+json";
+
+	public static final MediaType MEDIA_TYPE = new MediaType("application", "vnd.kalah.compact+json", StandardCharsets.UTF_8);
+
+	private static final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+	public CompactGameJsonConverter() {
+		super(MEDIA_TYPE, GameSnapshot.Encoding.COMPACT_JSON);
+	}
+
+	@Override
+	protected byte[] encode(GameSnapshot game) {
+		Buffer buffer = fill(game);
+		return Arrays.copyOf(buffer.bytes, buffer.length);
+	}
+
+	/**
+	 * Returns the game as compact JSON.
+	 * @param game the snapshot to write
+	 * @return
+	 */
+	public String toJson(GameSnapshot game) {
+		return new String(getEncoded(game), StandardCharsets.UTF_8);
+	}
+
+	private Buffer fill(GameSnapshot game) {
+		Buffer buffer = buffers.get();
+		buffer.length = 0;
+		buffer.ascii("{\"id\":").string(game.getId());
+		buffer.ascii(",\"moveCount\":").number(game.getMoveCount());
+		buffer.ascii(",\"nextPlayerToMove\":").string(game.getNextPlayerToMove());
+		buffer.ascii(game.isGameCompleted() ? ",\"gameCompleted\":true" : ",\"gameCompleted\":false");
+		buffer.ascii(",\"player1\":").string(game.getPlayer1().getName());
+		buffer.ascii(",\"player2\":").string(game.getPlayer2().getName());
+		if (game.getComputerPlayer() != null) {
+			buffer.ascii(",\"computerPlayer\":").string(game.getComputerPlayer());
+		}
+		buffer.ascii(",\"pits\":").number(game.getPits());
+		buffer.ascii(",\"board\":[");
+		for (int cell = 0; cell < game.getCellCount(); cell++) {
+			if (cell > 0) {
+				buffer.append(',');
+			}
+			buffer.number(game.getStones(cell));
+		}
+		return buffer.ascii("]}");
+	}
+
+	/**
+	 * Growable byte array with the few JSON writing operations needed.
+	 */
+	private static final class Buffer {
+
+		private byte[] bytes = new byte[256];
+		private int length;
+
+		Buffer append(int b) {
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			}
+			bytes[length++] = (byte) b;
+			return this;
+		}
+
+		/**
+		 * Appends text known to be ASCII and to need no escaping.
+		 */
+		Buffer ascii(String text) {
+			for (int i = 0; i < text.length(); i++) {
+				append(text.charAt(i));
+			}
+			return this;
+		}
+
+		Buffer number(int value) {
+			if (value < 0) {
+				append('-');
+				value = -value;
+			}
+			if (value >= 10) {
+				number(value / 10);
+			}
+			return append('0' + value % 10);
+		}
+
+		/**
+		 * Appends a quoted JSON string or null, escaping as required and encoding as UTF-8.
+		 */
+		Buffer string(String text) {
+			if (text == null) {
+				return ascii("null");
+			}
+			append('"');
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"' || c == '\\') {
+					append('\\').append(c);
+				} else if (c < 0x20) {
+					append('\\').append('u').append('0').append('0').append(hex(c >> 4)).append(hex(c & 0xF));
+				} else if (c < 0x80) {
+					append(c);
+				} else if (c < 0x800) {
+					append(0xC0 | c >> 6).append(0x80 | c & 0x3F);
+				} else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+						&& Character.isLowSurrogate(text.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, text.charAt(++i));
+					append(0xF0 | codePoint >> 18).append(0x80 | codePoint >> 12 & 0x3F)
+							.append(0x80 | codePoint >> 6 & 0x3F).append(0x80 | codePoint & 0x3F);
+				} else {
+					append(0xE0 | c >> 12).append(0x80 | c >> 6 & 0x3F).append(0x80 | c & 0x3F);
+				}
+			}
+			return append('"');
+		}
+
+		private static int hex(int digit) {
+			return digit < 10 ? '0' + digit : 'a' + digit - 10;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.starkie.playkalah.web;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.service.GameUpdateListener;
+import com.starkie.playkalah.service.KalahService;
+
+/**
+ * Pushes the state of a game to its subscribers as server-sent events each time a move is committed, so clients
+ * need not poll.  A subscription is an asynchronous request, holding no thread while it waits.  Each event is named
+ * "game", has the game's version as its id and the compact JSON of the game as its data, the current state being sent
+ * first.  Every event holds the whole state, so a client reconnecting after losing its connection is up to date
+ * from its first event.
+ * The JSON is the game's snapshot's, cached for GETs too, taken once per move under the game's lock and the sends are made by a single thread, keeping the
+ * events of a game in order without holding up the player's request.  A client too slow to take its events holds up
+ * the others, the timeout bounds how long a connection lives before the client reconnects.
+ * @author luke.starkie
+ */
+@Component
+public class GameEventPublisher implements GameUpdateListener {
+
+	static final String EVENT_NAME = "game";
+
+	private final KalahService kalahService;
+
+	private final CompactGameJsonConverter json = new CompactGameJsonConverter();
+
+	/**
+	 * The subscribers of each game that has any
+	 */
+	private final ConcurrentMap<String, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+	/**
+	 * How long a subscription lasts
+	 */
+	@Value("${kalah.events.timeout-ms:600000}")
+	private long timeoutMillis = 600000;
+
+	private ExecutorService sender;
+
+	@Autowired
+	public GameEventPublisher(KalahService kalahService) {
+		this.kalahService = kalahService;
+	}
+
+	/**
+	 * Starts the sending thread and listens for moves
+	 */
+	@PostConstruct
+	public void start() {
+		sender = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kalah-events");
+			thread.setDaemon(true);
+			return thread;
+		});
+		kalahService.addGameUpdateListener(this);
+	}
+
+	/**
+	 * Ends every subscription and stops the sending thread
+	 */
+	@PreDestroy
+	public void shutdown() {
+		kalahService.removeGameUpdateListener(this);
+		sender.shutdown();
+		for (Set<SseEmitter> emitters : subscribers.values()) {
+			emitters.forEach(SseEmitter::complete);
+		}
+		subscribers.clear();
+	}
+
+	/**
+	 * Subscribes to the moves of an existing game, starting with its current state.
+	 * @param id the game id
+	 * @return the emitter to return from the request
+	 */
+	public SseEmitter subscribe(String id) {
+		SseEmitter emitter = new SseEmitter(timeoutMillis);
+		Runnable unsubscribe = () -> unsubscribe(id, emitter);
+		emitter.onCompletion(unsubscribe);
+		emitter.onTimeout(unsubscribe);
+		kalahService.readGame(id, game -> {
+			subscribers.compute(id, (key, emitters) -> {
+				Set<SseEmitter> added = emitters != null ? emitters : ConcurrentHashMap.newKeySet();
+				added.add(emitter);
+				return added;
+			});
+			// queued under the lock so no later move can overtake it
+			int version = game.getVersion();
+			String state = json.toJson(game.getSnapshot());
+			sender.execute(() -> send(id, Collections.singleton(emitter), version, state));
+			return null;
+		});
+		return emitter;
+	}
+
+	private void unsubscribe(String id, SseEmitter emitter) {
+		subscribers.computeIfPresent(id, (key, emitters) -> {
+			emitters.remove(emitter);
+			return emitters.isEmpty() ? null : emitters;
+		});
+	}
+
+	@Override
+	public void gameUpdated(Game game) {
+		String id = game.getId();
+		Set<SseEmitter> emitters = subscribers.get(id);
+		if (emitters == null) {
+			return;
+		}
+		int version = game.getVersion();
+		String state = json.toJson(game.getSnapshot());
+		sender.execute(() -> send(id, emitters, version, state));
+	}
+
+	private void send(String id, Collection<SseEmitter> emitters, int version, String state) {
+		for (SseEmitter emitter : emitters) {
+			try {
+				emitter.send(SseEmitter.event().name(EVENT_NAME).id(Integer.toString(version))
+						.data(state, MediaType.APPLICATION_JSON_UTF8));
+			} catch (IOException | IllegalStateException e) {
+				// the client has gone or the subscription has ended
+				unsubscribe(id, emitter);
+			}
+		}
+	}
+
+	/**
+	 * The number of subscriptions to a game.
+	 * @param id the game id
+	 * @return
+	 */
+	public int getSubscriberCount(String id) {
+		Set<SseEmitter> emitters = subscribers.get(id);
+		return emitters == null ? 0 : emitters.size();
+	}
+}
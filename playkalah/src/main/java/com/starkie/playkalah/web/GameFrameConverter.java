@@ -0,0 +1,41 @@
+package com.starkie.playkalah.web;
+
+import org.springframework.http.MediaType;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Writes a GameSnapshot as a binary board frame: a byte holding the number of pits, a flags byte, then a byte for each
+ * cell holding its stones as an unsigned number, player 1's pits and kalah then player 2's.  The flags are
+ * FLAG_PLAYER_2_TO_MOVE and FLAG_GAME_COMPLETED.  A kalah(6,6) game is a 16 byte frame, the client knows the
+ * game id and player names from its request.
+ * @author luke.starkie
+ */
+public class GameFrameConverter extends GameMessageConverter {
+
+	public static final String MEDIA_TYPE_VALUE = "application/vnd.kalah.board";
+
+	public static final MediaType MEDIA_TYPE = MediaType.valueOf(MEDIA_TYPE_VALUE);
+
+	public static final int FLAG_PLAYER_2_TO_MOVE = 1;
+
+	public static final int FLAG_GAME_COMPLETED = 2;
+
+	public GameFrameConverter() {
+		super(MEDIA_TYPE, GameSnapshot.Encoding.FRAME);
+	}
+
+	@Override
+	protected byte[] encode(GameSnapshot game) {
+		int cellCount = game.getCellCount();
+		byte[] frame = new byte[2 + cellCount];
+		frame[0] = (byte) game.getPits();
+		frame[1] = (byte) ((game.getSideToMove() == Board.PLAYER_2 ? FLAG_PLAYER_2_TO_MOVE : 0)
+				| (game.isGameCompleted() ? FLAG_GAME_COMPLETED : 0));
+		for (int cell = 0; cell < cellCount; cell++) {
+			frame[2 + cell] = (byte) game.getStones(cell);
+		}
+		return frame;
+	}
+}
@@ -0,0 +1,35 @@
+package com.starkie.playkalah.web;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Writes a GameSnapshot as the application's Jackson JSON, ahead of Jackson's own converter so the JSON is cached
+ * with the snapshot rather than written by reflection for every response.
+ * @author luke.starkie
+ */
+public class GameJsonConverter extends GameMessageConverter {
+
+	private final ObjectMapper objectMapper;
+
+	/**
+	 * @param objectMapper the mapper Jackson's converter uses, so the JSON is the same
+	 */
+	public GameJsonConverter(ObjectMapper objectMapper) {
+		super(MediaType.APPLICATION_JSON_UTF8, GameSnapshot.Encoding.JSON);
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	protected byte[] encode(GameSnapshot snapshot) {
+		try {
+			return objectMapper.writeValueAsBytes(snapshot);
+		} catch (JsonProcessingException e) {
+			throw new HttpMessageNotWritableException("Could not write game " + snapshot.getId(), e);
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.starkie.playkalah.web;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.starkie.playkalah.model.GameSnapshot;
+
+/**
+ * Base class for the write only encodings of a GameSnapshot.  Each snapshot is encoded once, the bytes are cached
+ * with it and written again for every later response while the game is unchanged.
+ * @author luke.starkie
+ */
+public abstract class GameMessageConverter extends AbstractHttpMessageConverter<GameSnapshot> {
+
+	private final GameSnapshot.Encoding encoding;
+
+	protected GameMessageConverter(MediaType mediaType, GameSnapshot.Encoding encoding) {
+		super(mediaType);
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Encodes a snapshot not yet encoded.
+	 * @param snapshot the snapshot to encode
+	 * @return the bytes to cache and write
+	 */
+	protected abstract byte[] encode(GameSnapshot snapshot);
+
+	/**
+	 * Returns the snapshot's cached encoding, encoding it if it is the first time.
+	 * @param snapshot the snapshot to encode
+	 * @return bytes which must not be changed
+	 */
+	public byte[] getEncoded(GameSnapshot snapshot) {
+		return snapshot.getEncoded(encoding, this::encode);
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return GameSnapshot.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return false;
+	}
+
+	@Override
+	protected GameSnapshot readInternal(Class<? extends GameSnapshot> clazz, HttpInputMessage inputMessage) throws IOException {
+		throw new HttpMessageNotReadableException("A game cannot be read from " + getSupportedMediaTypes());
+	}
+
+	@Override
+	protected Long getContentLength(GameSnapshot snapshot, MediaType contentType) {
+		return (long) getEncoded(snapshot).length;
+	}
+
+	@Override
+	protected void writeInternal(GameSnapshot snapshot, HttpOutputMessage outputMessage) throws IOException {
+		outputMessage.getBody().write(getEncoded(snapshot));
+	}
+}
@@ -1,20 +1,52 @@
 package com.starkie.playkalah.web;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.starkie.playkalah.ai.Analysis;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.Solution;
 import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.GameSnapshot;
+import com.starkie.playkalah.model.MoveRequest;
+import com.starkie.playkalah.service.ArchiveStats;
 import com.starkie.playkalah.service.KalahService;
+import com.starkie.playkalah.service.StaleMoveException;
 
 /**
- * Rest controller to support operation to play the game of kalah
+ * Rest controller to support operation to play the game of kalah.
+ * A game is returned as indented JSON unless the Accept header asks for the compact JSON or binary board frame,
+ * JSON is listed first so browsers accepting anything receive it.  Games are returned as their immutable snapshots,
+ * which are consistent however the game changes while the response is written and cache their encodings.
+ * Each game response has a weak ETag naming the game's instance and version, so a game created again with its id never
+ * matches an old tag: a GET with If-None-Match naming it is answered 304 without writing the game, and a move with
+ * If-Match naming an earlier one is refused with 412.
  * @author luke.starkie
  */
 @RestController
@@ -22,41 +54,351 @@ public class KalahRestController {
 	
 	@Autowired
 	private KalahService kalahService;
+	
+	@Autowired
+	private GameEventPublisher gameEvents;
+	
+	/**
+	 * Writes batch results without the indentation used for the human readable responses
+	 */
+	private ObjectWriter compactJson;
+	
+	/**
+	 * Sets the application's mapper, which batch results are written with less its indentation.
+	 * @param objectMapper the mapper Jackson's converter uses
+	 */
+	@Autowired
+	void setObjectMapper(ObjectMapper objectMapper) {
+		compactJson = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+	}
 
 	/**
 	 * GET mapping to find a game.
 	 * For demo purposes this will create a game if one doesn't exist, typically this would not alter state.
+	 * A new game is kalah(pits, seeds), with player 2 played by the server when computer is true.
+	 * These options are ignored for an existing game.
 	 * @param id
+	 * @param pits
+	 * @param seeds
+	 * @param computer
 	 * @return
 	 */
-	@RequestMapping(path="/game/{id}", method=RequestMethod.GET)
-	@ResponseBody
-	public Game getGame(@PathVariable("id") String id) {
-		return kalahService.findGame(id);
+	@RequestMapping(path="/game/{id}", method=RequestMethod.GET,
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public ResponseEntity<GameSnapshot> getGame(@PathVariable("id") String id,
+			@RequestParam(name="pits", defaultValue="6") int pits, @RequestParam(name="seeds", defaultValue="6") int seeds,
+			@RequestParam(name="computer", defaultValue="false") boolean computer) {
+		return tagged(kalahService.findGame(id, pits, seeds, computer).getSnapshot());
 	}
 	
 	/**
 	 * GET / POST mapping to allow the game to be played by a player.
 	 * For demo purposes the GET is enabled to allow easy calling from a browser, typically this method would only support POST.
+	 * The move is queued on the game's executor and the request thread released until it is played and journalled.
+	 * With If-Match the move is only played on the version of the game it names, the ETag of an earlier response.
 	 * @param id
 	 * @param user
 	 * @param pit
+	 * @param ifMatch
 	 * @return
 	 */
-	@RequestMapping(path="/game/{id}/play/{user}/{pit}", method={RequestMethod.POST, RequestMethod.GET})
+	@RequestMapping(path="/game/{id}/play/{user}/{pit}", method={RequestMethod.POST, RequestMethod.GET},
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public CompletableFuture<ResponseEntity<GameSnapshot>> play(@PathVariable("id") String id, @PathVariable("user") String user,
+			@PathVariable("pit") int pit, @RequestHeader(name=HttpHeaders.IF_MATCH, required=false) String ifMatch) {
+		ExpectedTag expected = ExpectedTag.parse(ifMatch);
+		long start = System.nanoTime();
+		return kalahService.playGameAsync(id, user, pit, expected.instance, expected.version)
+				.thenApply(KalahRestController::tagged)
+				.whenComplete((game, ex) -> recordRequest(start));
+	}
+	
+	/**
+	 * GET mapping to subscribe to a game's moves as server-sent events, instead of polling for them.
+	 * The game's current state is sent first, then its state after each move is committed.
+	 * @param id
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/events", method=RequestMethod.GET, produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter events(@PathVariable("id") String id) {
+		return gameEvents.subscribe(id);
+	}
+	
+	/**
+	 * POST mapping to play a batch of moves in a game, a list of {"player", "pit"} objects.
+	 * The moves are applied together or not at all, the result reports the first move that could not be played.
+	 * @param id
+	 * @param moves
+	 * @return the compact BatchResult
+	 * @throws JsonProcessingException
+	 */
+	@RequestMapping(path="/game/{id}/moves", method=RequestMethod.POST, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
+	@ResponseBody
+	public String playMoves(@PathVariable("id") String id, @RequestBody List<MoveRequest> moves) throws JsonProcessingException {
+		long start = System.nanoTime();
+		try {
+			return compactJson.writeValueAsString(kalahService.playMoves(id, moves));
+		} finally {
+			recordRequest(start);
+		}
+	}
+	
+	/**
+	 * POST mapping to play a batch of moves across games, a list of {"game", "player", "pit"} objects.
+	 * The moves of each game are applied together or not at all, the result has a BatchResult for each game.
+	 * @param moves
+	 * @return the compact BatchResults
+	 * @throws JsonProcessingException
+	 */
+	@RequestMapping(path="/games/moves", method=RequestMethod.POST, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
 	@ResponseBody
-	public Game play(@PathVariable("id") String id, @PathVariable("user") String user, @PathVariable("pit") int pit) {
-		return kalahService.playGame(id, user, pit);
+	public String playMoves(@RequestBody List<MoveRequest> moves) throws JsonProcessingException {
+		long start = System.nanoTime();
+		try {
+			return compactJson.writeValueAsString(kalahService.playMoves(moves));
+		} finally {
+			recordRequest(start);
+		}
+	}
+	
+	/**
+	 * GET / POST mapping for the computer to play the move of the player next to move.
+	 * For demo purposes the GET is enabled to allow easy calling from a browser, typically this method would only support POST.
+	 * The request thread is released while the computer searches.
+	 * @param id
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/ai-move", method={RequestMethod.POST, RequestMethod.GET},
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public CompletableFuture<ResponseEntity<GameSnapshot>> aiMove(@PathVariable("id") String id) {
+		long start = System.nanoTime();
+		return kalahService.playAiMoveAsync(id).thenApply(KalahRestController::tagged)
+				.whenComplete((game, ex) -> recordRequest(start));
+	}
+	
+	/**
+	 * GET / POST mapping to take back the last move, and the computer opponent's moves before it.
+	 * For demo purposes the GET is enabled to allow easy calling from a browser, typically this method would only support POST.
+	 * The request thread is released as for a move, and with If-Match the move is only taken back on the version named.
+	 * @param id
+	 * @param ifMatch
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/undo", method={RequestMethod.POST, RequestMethod.GET},
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public CompletableFuture<ResponseEntity<GameSnapshot>> undo(@PathVariable("id") String id,
+			@RequestHeader(name=HttpHeaders.IF_MATCH, required=false) String ifMatch) {
+		long start = System.nanoTime();
+		ExpectedTag expected = ExpectedTag.parse(ifMatch);
+		return kalahService.undoMoveAsync(id, expected.instance, expected.version)
+				.thenApply(KalahRestController::tagged)
+				.whenComplete((game, ex) -> recordRequest(start));
+	}
+	
+	/**
+	 * GET / POST mapping to play the moves taken back by undo again.
+	 * For demo purposes the GET is enabled to allow easy calling from a browser, typically this method would only support POST.
+	 * The request thread is released as for a move, and with If-Match the moves are only played on the version named.
+	 * @param id
+	 * @param ifMatch
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/redo", method={RequestMethod.POST, RequestMethod.GET},
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public CompletableFuture<ResponseEntity<GameSnapshot>> redo(@PathVariable("id") String id,
+			@RequestHeader(name=HttpHeaders.IF_MATCH, required=false) String ifMatch) {
+		long start = System.nanoTime();
+		ExpectedTag expected = ExpectedTag.parse(ifMatch);
+		return kalahService.redoMoveAsync(id, expected.instance, expected.version)
+				.thenApply(KalahRestController::tagged)
+				.whenComplete((game, ex) -> recordRequest(start));
+	}
+	
+	/**
+	 * GET mapping for the game as it stood after a number of moves, any since the game was started or last restored
+	 * and any taken back.  The game itself is unchanged and the response is not tagged.
+	 * @param id
+	 * @param move
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/history/{move}", method=RequestMethod.GET,
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public GameSnapshot history(@PathVariable("id") String id, @PathVariable("move") int move) {
+		return kalahService.getPosition(id, move);
+	}
+	
+	/**
+	 * GET mapping for the move the computer would play for the player next to move, without playing it: the pit, its
+	 * score from their point of view and the depth searched.  Positions in the opening book are answered without
+	 * searching, others release the request thread while the computer searches.
+	 * @param id
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/hint", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public CompletableFuture<SearchResult> hint(@PathVariable("id") String id) {
+		return kalahService.getHintAsync(id);
+	}
+	
+	/**
+	 * GET mapping for the score of every pit of the player next to move, from their point of view, each searched to
+	 * the depth: how much a move loses against the best.  Analyses are cached by position and depth, so spectators of
+	 * a game share one search.
+	 * @param id
+	 * @param depth
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/analysis", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public CompletableFuture<Analysis> analysis(@PathVariable("id") String id,
+			@RequestParam(name="depth", defaultValue="8") int depth) {
+		return kalahService.getAnalysisAsync(id, depth);
+	}
+	
+	/**
+	 * GET mapping for the perfect play of a game's position, looked up in the positions solved ahead of time: the final
+	 * score with best play by both players, from the point of view of the player next to move, the best pit and the
+	 * score of each pit where it is known.
+	 * @param id
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/solution", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public Solution solution(@PathVariable("id") String id) {
+		return kalahService.getSolution(id);
+	}
+	
+	/**
+	 * GET mapping for the totals of the archived games of kalah(pits, seeds): how often each player wins, the average
+	 * length and player 1's win rate by opening pit.
+	 * @param pits
+	 * @param seeds
+	 * @return
+	 */
+	@RequestMapping(path="/archive/stats", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public ArchiveStats archiveStats(@RequestParam(name="pits", defaultValue="6") int pits,
+			@RequestParam(name="seeds", defaultValue="6") int seeds) {
+		return kalahService.getArchiveStats(pits, seeds);
+	}
+	
+	/**
+	 * GET / POST mapping to switch logging of each move of a game on or off.
+	 * @param id
+	 * @param enabled
+	 * @return
+	 */
+	@RequestMapping(path="/game/{id}/trace/{enabled}", method={RequestMethod.POST, RequestMethod.GET},
+			produces={MediaType.APPLICATION_JSON_UTF8_VALUE, CompactGameJsonConverter.MEDIA_TYPE_VALUE, GameFrameConverter.MEDIA_TYPE_VALUE})
+	public ResponseEntity<GameSnapshot> trace(@PathVariable("id") String id, @PathVariable("enabled") boolean enabled) {
+		return tagged(kalahService.traceGame(id, enabled));
 	}
 	
 	/**
 	 * Exception handler for exceptions that should result in a 400 error (resulting from a bad request).
+	 * The message is plain text whatever types the failed mapping produces.
 	 * @param ex
+	 * @param request
 	 * @return
 	 */
 	@ExceptionHandler({IllegalArgumentException.class,IllegalStateException.class})
 	@ResponseStatus(value = HttpStatus.BAD_REQUEST)
-	public @ResponseBody String handleError(Exception ex) {
+	public @ResponseBody String handleError(Exception ex, HttpServletRequest request) {
+		request.removeAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+		kalahService.getMoveMetrics().requestFailed();
 		return ex.getMessage();
 	}
+	
+	/**
+	 * Exception handler for the failures of asynchronous requests, which arrive wrapped by the future.  Bad requests are
+	 * handled as for synchronous requests, a full game executor is 503 as the request may be retried and a move on a
+	 * stale version of the game is 412 with the current version's ETag.
+	 * @param ex
+	 * @param request
+	 * @return
+	 * @throws Throwable the cause of any other failure
+	 */
+	@ExceptionHandler(CompletionException.class)
+	public ResponseEntity<String> handleAsyncError(CompletionException ex, HttpServletRequest request) throws Throwable {
+		Throwable cause = ex.getCause();
+		if (cause instanceof StaleMoveException) {
+			request.removeAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+			kalahService.getMoveMetrics().requestFailed();
+			StaleMoveException stale = (StaleMoveException) cause;
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+					.eTag(eTag(stale.getInstance(), stale.getVersion())).body(cause.getMessage());
+		} else if (cause instanceof IllegalArgumentException || cause instanceof IllegalStateException) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(handleError((Exception) cause, request));
+		} else if (cause instanceof RejectedExecutionException) {
+			request.removeAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+			kalahService.getMoveMetrics().requestFailed();
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Too many moves waiting, try again");
+		}
+		throw cause == null ? ex : cause;
+	}
+	
+	/**
+	 * The response for a game, tagged with its instance and version, so a game created again with its id is never
+	 * given a tag of the game before.  The tag is weak as it is the same whichever encoding is chosen.
+	 * @param game the game's snapshot
+	 * @return
+	 */
+	private static ResponseEntity<GameSnapshot> tagged(GameSnapshot game) {
+		return ResponseEntity.ok().eTag(eTag(game.getInstance(), game.getVersion())).varyBy(HttpHeaders.ACCEPT)
+				.body(game);
+	}
+	
+	private static ResponseEntity<GameSnapshot> tagged(Game game) {
+		return tagged(game.getSnapshot());
+	}
+	
+	private static String eTag(int instance, int version) {
+		return "W/\"" + Integer.toHexString(instance) + "." + version + "\"";
+	}
+	
+	/**
+	 * The game a move was made on, read from its If-Match header: one ETag of the game or *.
+	 */
+	private static final class ExpectedTag {
+		
+		private static final ExpectedTag ANY = new ExpectedTag(KalahService.ANY_INSTANCE, KalahService.ANY_VERSION);
+		
+		private final int instance;
+		
+		private final int version;
+		
+		private ExpectedTag(int instance, int version) {
+			this.instance = instance;
+			this.version = version;
+		}
+		
+		/**
+		 * @param ifMatch the header, null if there is none
+		 * @return the instance and version named, or ANY
+		 */
+		static ExpectedTag parse(String ifMatch) {
+			String tag = ifMatch == null ? "*" : ifMatch.trim();
+			if (tag.equals("*")) {
+				return ANY;
+			}
+			tag = tag.startsWith("W/") ? tag.substring(2) : tag;
+			int dot = tag.indexOf('.');
+			if (dot > 1 && tag.length() > dot + 2 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"') {
+				try {
+					int instance = Integer.parseUnsignedInt(tag.substring(1, dot), 16);
+					int version = Integer.parseInt(tag.substring(dot + 1, tag.length() - 1));
+					if (instance != KalahService.ANY_INSTANCE && version >= 0) {
+						return new ExpectedTag(instance, version);
+					}
+				} catch (NumberFormatException e) {
+					// not a tag given by this service
+				}
+			}
+			throw new IllegalArgumentException("If-Match must be one ETag of the game");
+		}
+	}
+	
+	/**
+	 * Records the time taken by a request playing moves, whether or not they were played.
+	 * @param start the nanoTime the request started
+	 */
+	private void recordRequest(long start) {
+		kalahService.getMoveMetrics().recordRequest(System.nanoTime() - start);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.starkie.playkalah.web;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Registers the encodings of a GameSnapshot, chosen by the Accept header.
+ * They go ahead of Jackson, which would otherwise write the JSON of every response by reflection and claim the
+ * compact JSON type as application/*+json.
+ * @author luke.starkie
+ */
+@Configuration
+public class WebConfig extends WebMvcConfigurerAdapter {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		converters.add(0, new GameJsonConverter(objectMapper));
+		converters.add(0, new GameFrameConverter());
+		converters.add(0, new CompactGameJsonConverter());
+	}
+}
@@ -0,0 +1,143 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Test class for the endgame database and its generator
+ * @author luke.starkie
+ */
+public class EndgameDatabaseTest {
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static Path file;
+
+	private static EndgameDatabase database;
+
+	/**
+	 * Generate a kalah(3, n) database of positions with up to 9 seeds in the pits
+	 */
+	@BeforeClass
+	public static void generate() throws IOException {
+		file = folder.newFile("kalah3.edb").toPath();
+		new EndgameGenerator(3, 9, 2).generate(file);
+		database = EndgameDatabase.open(file);
+	}
+
+	/**
+	 * Test every position of a level is ranked to a different index and unranked back to itself.
+	 */
+	@Test
+	public void testIndexRanksEveryPositionOnce() {
+		EndgameIndex index = new EndgameIndex(2, 7);
+		int[] stones = new int[4];
+		for (int seeds = 0; seeds <= 7; seeds++) {
+			assertEquals((seeds + 1) * (seeds + 2) * (seeds + 3) / 6, index.levelSize(seeds));
+			for (int a = 0; a <= seeds; a++) {
+				for (int b = 0; a + b <= seeds; b++) {
+					for (int c = 0; a + b + c <= seeds; c++) {
+						int[] position = {a, b, c, seeds - a - b - c};
+						long rank = index.rank(position);
+						assertTrue(rank >= 0 && rank < index.levelSize(seeds));
+						index.unrank(seeds, rank, stones);
+						assertArrayEquals(position, stones);
+					}
+				}
+			}
+		}
+		assertEquals(index.levelOffset(7) + index.levelSize(7), index.size());
+	}
+
+	/**
+	 * Test the database scores of positions from random kalah(3,3) games match an exhaustive search, for either player
+	 * to move and with stones already in the kalahs.
+	 */
+	@Test
+	public void testScoresMatchSearch() {
+		assertEquals(3, database.getPits());
+		assertEquals(9, database.getMaxSeeds());
+		SearchEngine engine = new SearchEngine();
+		Random random = new Random(9);
+		int checked = 0;
+		for (int game = 0; game < 200; game++) {
+			Board board = new Board(3, 3);
+			while (!board.isGameCompleted()) {
+				int side = board.getSideToMove();
+				if (pitSeeds(board) <= 9) {
+					SearchResult result = engine.search(board, 10000, SearchEngine.MAX_DEPTH);
+					assertEquals(result.getScore(), database.score(board));
+					checked++;
+				}
+				int pitNumber = 1 + random.nextInt(3);
+				while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					pitNumber = pitNumber == 3 ? 1 : pitNumber + 1;
+				}
+				board.sow(side, pitNumber);
+			}
+		}
+		assertTrue(checked > 200);
+	}
+
+	/**
+	 * Test positions with too many seeds or from another size of board are not found.
+	 */
+	@Test
+	public void testScoreOfPositionNotHeld() {
+		assertEquals(EndgameDatabase.NOT_FOUND, database.score(new Board(3, 4)));
+		assertEquals(EndgameDatabase.NOT_FOUND, database.score(new Board(4, 1)));
+		assertEquals(EndgameDatabase.NOT_FOUND, database.margin(new Board(4, 1)));
+	}
+
+	/**
+	 * Test the search reaches the same result with and without the database.
+	 */
+	@Test
+	public void testSearchWithDatabase() {
+		SearchEngine plain = new SearchEngine();
+		SearchEngine withDatabase = new SearchEngine(null, database);
+		Board board = new Board(3, 2);
+		SearchResult expected = plain.search(board, 10000, SearchEngine.MAX_DEPTH);
+		SearchResult result = withDatabase.search(board, 10000, SearchEngine.MAX_DEPTH);
+
+		assertEquals(expected.getScore(), result.getScore());
+		assertTrue(result.getNodes() < expected.getNodes());
+	}
+
+	/**
+	 * Test a database cut short by an interrupted generator is rejected.
+	 */
+	@Test(expected = IOException.class)
+	public void testOpenIncompleteDatabase() throws IOException {
+		Path truncated = folder.newFile("truncated.edb").toPath();
+		new EndgameGenerator(2, 4, 1).generate(truncated);
+		try (RandomAccessFile raf = new RandomAccessFile(truncated.toFile(), "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		EndgameDatabase.open(truncated);
+	}
+
+	private static int pitSeeds(Board board) {
+		int seeds = 0;
+		for (int side = Board.PLAYER_1; side <= Board.PLAYER_2; side++) {
+			for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+				seeds += board.getStones(board.pitIndex(side, pitNumber));
+			}
+		}
+		return seeds;
+	}
+}
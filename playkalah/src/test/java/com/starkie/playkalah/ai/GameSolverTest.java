@@ -0,0 +1,129 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Test class for the solver and its store
+ * @author luke.starkie
+ */
+public class GameSolverTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test the solved score of the opening and of every position of the book match an exhaustive search.
+	 */
+	@Test
+	public void testSolveMatchesSearch() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("kalah33.sol");
+		SolutionStore store = SolutionStore.openForWriting(file, 3, 3, 1);
+		SearchResult result = new GameSolver(store, null, 2, 3).solve(new Board(3, 3), 60000);
+
+		SearchEngine engine = new SearchEngine();
+		Board root = new Board(3, 3);
+		assertEquals(engine.search(root, 10000, SearchEngine.MAX_DEPTH).getScore(), result.getScore());
+		assertEquals(3, result.getDepth());
+		assertTrue(result.getNodes() > 0);
+		assertEquals(result.getNodes(), store.getNodes());
+		assertTrue(checkBook(SolutionStore.open(file), engine, root, 3) > 20);
+	}
+
+	/**
+	 * Test a store solved once answers a second solve without searching, and a solver stopped before it starts leaves
+	 * the store to be resumed.
+	 */
+	@Test
+	public void testResume() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("kalah42.sol");
+		GameSolver stopped = new GameSolver(SolutionStore.openForWriting(file, 4, 2, 1), null, 1, 4);
+		stopped.stop();
+		try {
+			stopped.solve(new Board(4, 2), 60000);
+			fail();
+		} catch (CancellationException e) {
+			// expected, nothing was solved
+		}
+
+		SolutionStore store = SolutionStore.openForWriting(file, 4, 2, 1);
+		SearchResult first = new GameSolver(store, null, 1, 4).solve(new Board(4, 2), 60000);
+		SearchResult second = new GameSolver(SolutionStore.openForWriting(file, 4, 2, 1), null, 1, 4)
+				.solve(new Board(4, 2), 60000);
+
+		assertEquals(first.getScore(), second.getScore());
+		assertEquals(first.getPitNumber(), second.getPitNumber());
+		assertEquals(0, second.getNodes());
+		assertEquals(first.getNodes(), SolutionStore.open(file).getNodes());
+	}
+
+	/**
+	 * Test the solution of a position gives the score of every pit, the best of them the position's score.
+	 */
+	@Test
+	public void testLookup() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("kalah32.sol");
+		new GameSolver(SolutionStore.openForWriting(file, 3, 2, 1), null, 1, 2).solve(new Board(3, 2), 60000);
+		SolutionStore store = SolutionStore.open(file);
+
+		Solution solution = store.lookup(new Board(3, 2), null);
+		assertNotNull(solution);
+		int best = Integer.MIN_VALUE;
+		for (Integer pitScore : solution.getPitScores()) {
+			best = Math.max(best, pitScore);
+		}
+		assertEquals(best, solution.getScore());
+		assertEquals(best, (int) solution.getPitScores().get(solution.getPitNumber() - 1));
+		assertNull(store.lookup(new Board(3, 3), null));
+	}
+
+	/**
+	 * Test an existing store is only resumed for the same board and size.
+	 */
+	@Test(expected = IOException.class)
+	public void testOpenStoreOfAnotherBoard() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("kalah.sol");
+		SolutionStore.openForWriting(file, 3, 3, 1);
+		SolutionStore.openForWriting(file, 4, 3, 1);
+	}
+
+	/**
+	 * Checks the score and best move of every position of the book, returning the number checked.
+	 */
+	private static int checkBook(SolutionStore store, SearchEngine engine, Board board, int depth) {
+		if (board.isGameCompleted()) {
+			return 0;
+		}
+		SearchResult expected = engine.search(board, 10000, SearchEngine.MAX_DEPTH);
+		Solution solution = store.lookup(board, null);
+		assertEquals(expected.getScore(), solution.getScore());
+		if (depth == 0) {
+			return 1;
+		}
+		// the moves inside the book are all solved
+		assertEquals(expected.getScore(), (int) solution.getPitScores().get(solution.getPitNumber() - 1));
+		int checked = 1;
+		int side = board.getSideToMove();
+		for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) != 0) {
+				Board child = new Board(board);
+				child.sow(side, pitNumber);
+				checked += checkBook(store, engine, child, depth - 1);
+			}
+		}
+		return checked;
+	}
+}
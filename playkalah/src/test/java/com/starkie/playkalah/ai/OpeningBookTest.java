@@ -0,0 +1,98 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Test class for the opening book and its generator
+ * @author luke.starkie
+ */
+public class OpeningBookTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test every position of the first plies is found, searched to the end of the game, and only those are held.
+	 */
+	@Test
+	public void testBookHoldsEveryOpeningPosition() throws IOException {
+		Path file = folder.newFile("kalah33.book").toPath();
+		new OpeningBookGenerator(3, 3, 4, SearchEngine.MAX_DEPTH, 2, null, null).generate(file);
+		OpeningBook book = OpeningBook.open(file);
+
+		assertEquals(3, book.getPits());
+		assertEquals(4, book.getPlies());
+		SearchEngine engine = new SearchEngine();
+		assertEquals(book.getSize(), check(book, engine, new Board(3, 3), 4, new HashSet<Long>()));
+		assertEquals(null, book.lookup(new Board(4, 3)));
+	}
+
+	/**
+	 * Test positions solved by the solver are taken from its store.
+	 */
+	@Test
+	public void testBookFromSolutions() throws IOException {
+		Path store = folder.getRoot().toPath().resolve("kalah42.sol");
+		SearchResult solved = new GameSolver(SolutionStore.openForWriting(store, 4, 2, 1), null, 1, 2)
+				.solve(new Board(4, 2), 60000);
+		Path file = folder.newFile("kalah42.book").toPath();
+		new OpeningBookGenerator(4, 2, 2, 1, 1, SolutionStore.open(store), null).generate(file);
+
+		SearchResult result = OpeningBook.open(file).lookup(new Board(4, 2));
+		assertEquals(solved.getPitNumber(), result.getPitNumber());
+		assertEquals(solved.getScore(), result.getScore());
+		assertEquals(OpeningBook.SOLVED_DEPTH, result.getDepth());
+	}
+
+	/**
+	 * Test a book cut short is rejected.
+	 */
+	@Test(expected = IOException.class)
+	public void testOpenIncompleteBook() throws IOException {
+		Path file = folder.newFile("truncated.book").toPath();
+		new OpeningBookGenerator(3, 2, 2, 2, 1, null, null).generate(file);
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		OpeningBook.open(file);
+	}
+
+	/**
+	 * Checks the positions from a board, returning the number of different positions held.
+	 */
+	private static int check(OpeningBook book, SearchEngine engine, Board board, int plies, Set<Long> seen) {
+		if (board.isGameCompleted()) {
+			return 0;
+		}
+		if (plies < 0) {
+			return 0;
+		}
+		SearchResult result = book.lookup(board);
+		assertNotNull(result);
+		assertEquals(engine.search(board, 10000, SearchEngine.MAX_DEPTH).getScore(), result.getScore());
+		assertEquals(OpeningBook.SOLVED_DEPTH, result.getDepth());
+		int held = seen.add(board.getHash()) ? 1 : 0;
+		int side = board.getSideToMove();
+		for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) != 0) {
+				Board child = new Board(board);
+				child.sow(side, pitNumber);
+				held += check(book, engine, child, plies - 1, seen);
+			}
+		}
+		return held;
+	}
+}
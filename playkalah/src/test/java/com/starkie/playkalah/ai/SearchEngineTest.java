@@ -0,0 +1,222 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Test class for the alpha-beta search engine
+ * @author luke.starkie
+ */
+public class SearchEngineTest {
+	
+	private SearchEngine engine;
+	
+	@Before
+	public void setup() {
+		engine = new SearchEngine();
+	}
+	
+	/**
+	 * Test a capture of the opponent's pit 6 (7 stones) is chosen over the other moves.
+	 */
+	@Test
+	public void testSearchFindsCapture() {
+		Game game = new Game("bill", "bob", "1");
+		game.getPlayer1().getPit(6).addStone();
+		game.getPlayer1().getPit(6).addStone();
+		game.getPlayer1().getPit(1).pickupStones();
+		
+		SearchResult result = engine.search(game.getBoard(), 1000, 1);
+		
+		assertEquals(6, result.getPitNumber());
+		assertEquals(1, result.getDepth());
+		assertEquals(9, result.getScore());
+	}
+	
+	/**
+	 * Test the alpha-beta scores match a plain minimax search over random positions of a kalah(4,3) game.
+	 */
+	@Test
+	public void testSearchMatchesMinimax() {
+		Random random = new Random(7);
+		for (int position = 0; position < 200; position++) {
+			Board board = randomPosition(random, 4, 3);
+			if (board.isGameCompleted()) {
+				continue;
+			}
+			int depth = 1 + random.nextInt(6);
+			SearchResult result = engine.search(board, 10000, depth);
+			assertEquals(minimax(board, result.getDepth()), result.getScore());
+		}
+	}
+	
+	/**
+	 * Test the search stops deepening once every line reaches the end of the game.
+	 * In kalah(1,1) bill's only move reaches the kalah, emptying his side so bob keeps his stone, a draw.
+	 */
+	@Test
+	public void testSearchStopsAtEndOfGame() {
+		Board board = new Board(1, 1);
+		SearchResult result = engine.search(board, 1000, SearchEngine.MAX_DEPTH);
+		
+		assertEquals(1, result.getPitNumber());
+		assertTrue(result.getDepth() < SearchEngine.MAX_DEPTH);
+		assertEquals(0, result.getScore());
+	}
+	
+	/**
+	 * Test the search returns a legal move from a complete iteration once its time budget is spent.
+	 */
+	@Test
+	public void testSearchRespectsTimeBudget() {
+		Board board = new Board();
+		long start = System.nanoTime();
+		SearchResult result = engine.search(board, 50, SearchEngine.MAX_DEPTH);
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		
+		assertTrue(result.getDepth() >= 1);
+		assertTrue(result.getPitNumber() >= 1 && result.getPitNumber() <= 6);
+		assertTrue("search took " + elapsedMillis + "ms", elapsedMillis < 1000);
+	}
+	
+	/**
+	 * Test searches sharing a transposition table solve random kalah(3,3) positions to the same score as a minimax
+	 * search to the end of the game, and find transpositions.
+	 */
+	@Test
+	public void testSearchWithTranspositionTableMatchesSolvedScore() {
+		TranspositionTable table = new TranspositionTable(1, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		SearchEngine tableEngine = new SearchEngine(table);
+		Random random = new Random(3);
+		for (int position = 0; position < 100; position++) {
+			Board board = randomPosition(random, 3, 3);
+			if (board.isGameCompleted()) {
+				continue;
+			}
+			SearchResult result = tableEngine.search(board, 10000, SearchEngine.MAX_DEPTH);
+			assertTrue(result.getDepth() < SearchEngine.MAX_DEPTH);
+			assertEquals(minimax(board, SearchEngine.MAX_DEPTH), result.getScore());
+		}
+		assertTrue(table.getHits() > 0);
+	}
+	
+	/**
+	 * Test a search on four threads solves random kalah(3,3) positions to the same score as a minimax search to the
+	 * end of the game, and counts the nodes of every thread.
+	 */
+	@Test
+	public void testParallelSearchMatchesSolvedScore() {
+		TranspositionTable table = new TranspositionTable(1, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		ParallelSearch search = new ParallelSearch(4, table);
+		try {
+			Random random = new Random(5);
+			for (int position = 0; position < 50; position++) {
+				Board board = randomPosition(random, 3, 3);
+				if (board.isGameCompleted()) {
+					continue;
+				}
+				SearchResult result = search.search(board, 10000, SearchEngine.MAX_DEPTH);
+				assertEquals(minimax(board, SearchEngine.MAX_DEPTH), result.getScore());
+			}
+		} finally {
+			search.shutdown();
+		}
+	}
+	
+	/**
+	 * Test the helper threads of a parallel search stop with the main search at the end of its time budget.
+	 */
+	@Test
+	public void testParallelSearchRespectsTimeBudget() {
+		TranspositionTable table = new TranspositionTable(1, TranspositionTable.ReplacementPolicy.DEPTH_PREFERRED);
+		ParallelSearch search = new ParallelSearch(4, table);
+		try {
+			long start = System.nanoTime();
+			SearchResult result = search.search(new Board(), 50, SearchEngine.MAX_DEPTH);
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			
+			assertTrue(result.getDepth() >= 1);
+			assertTrue(result.getPitNumber() >= 1 && result.getPitNumber() <= 6);
+			assertTrue("search took " + elapsedMillis + "ms", elapsedMillis < 1000);
+		} finally {
+			search.shutdown();
+		}
+	}
+	
+	/**
+	 * Test the analysis scores every move of random kalah(4,3) positions the same as a minimax search of the move,
+	 * leaves empty pits unscored and agrees with the search on the position's score.
+	 */
+	@Test
+	public void testAnalyseMatchesMinimax() {
+		Random random = new Random(11);
+		for (int position = 0; position < 100; position++) {
+			Board board = randomPosition(random, 4, 3);
+			if (board.isGameCompleted()) {
+				continue;
+			}
+			int depth = 1 + random.nextInt(5);
+			Analysis analysis = engine.analyse(board, depth);
+			int side = board.getSideToMove();
+			for (int pitNumber = 1; pitNumber <= 4; pitNumber++) {
+				Integer pitScore = analysis.getPitScores().get(pitNumber - 1);
+				if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					assertNull(pitScore);
+					continue;
+				}
+				Board child = new Board(board);
+				child.sow(side, pitNumber);
+				int expected = minimax(child, analysis.getDepth() - 1);
+				assertEquals(child.getSideToMove() == side ? expected : -expected, (int) pitScore);
+			}
+			assertEquals((int) analysis.getPitScores().get(analysis.getPitNumber() - 1), analysis.getScore());
+			assertEquals(engine.search(board, 10000, depth).getScore(), analysis.getScore());
+		}
+	}
+	
+	private Board randomPosition(Random random, int pits, int seeds) {
+		Board board = new Board(pits, seeds);
+		int moves = random.nextInt(12);
+		for (int i = 0; i < moves && !board.isGameCompleted(); i++) {
+			int side = board.getSideToMove();
+			int pitNumber = 1 + random.nextInt(pits);
+			while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				pitNumber = pitNumber == pits ? 1 : pitNumber + 1;
+			}
+			board.sow(side, pitNumber);
+		}
+		return board;
+	}
+	
+	/**
+	 * Reference search without pruning or move ordering.
+	 */
+	private int minimax(Board board, int depth) {
+		if (board.isGameCompleted()) {
+			return SearchEngine.finalScore(board);
+		} else if (depth == 0) {
+			return SearchEngine.evaluate(board);
+		}
+		int side = board.getSideToMove();
+		int best = -SearchEngine.INFINITY;
+		for (int pitNumber = 1; pitNumber <= board.getPits(); pitNumber++) {
+			if (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				continue;
+			}
+			Board child = new Board(board);
+			child.sow(side, pitNumber);
+			int score = child.getSideToMove() == side ? minimax(child, depth - 1) : -minimax(child, depth - 1);
+			best = Math.max(best, score);
+		}
+		return best;
+	}
+}
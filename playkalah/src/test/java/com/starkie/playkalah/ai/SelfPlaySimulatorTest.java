@@ -0,0 +1,99 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+import com.starkie.playkalah.model.Board;
+
+/**
+ * Test class for the self play simulator and its strategies
+ * @author luke.starkie
+ */
+public class SelfPlaySimulatorTest {
+
+	/**
+	 * Test every game is totalled once, each opening equally often, whatever the number of threads.
+	 */
+	@Test
+	public void testTotalsIndependentOfThreads() {
+		SimulationStats one = simulate("random", "random", 1, 5000);
+		SimulationStats four = simulate("random", "random", 4, 5000);
+
+		assertEquals(5000, one.getGames());
+		assertEquals(one.getGames(), one.getWins(0) + one.getWins(1) + one.getDraws());
+		for (int pit = 1; pit <= Board.DEFAULT_PITS; pit++) {
+			assertTrue(Math.abs(one.getOpeningGames(pit) - 5000 / 6) <= 1);
+		}
+		assertTrue(one.getMinMoves() > 0 && one.getMinMoves() <= one.getAverageMoves()
+				&& one.getAverageMoves() <= one.getMaxMoves());
+		assertEquals(one.toString(), four.toString());
+		assertEquals(one.getAverageMargin(), four.getAverageMargin(), 0);
+	}
+
+	/**
+	 * Test the stronger strategies beat the weaker ones, from either side of the board.
+	 */
+	@Test
+	public void testStrategies() {
+		SimulationStats greedy = simulate("greedy", "random", 2, 2000);
+		assertTrue(greedy.getWinRate(0) > 0.8);
+		assertTrue(greedy.getAverageMargin() > 0);
+
+		SimulationStats search = simulate("greedy", "search:3", 2, 200);
+		assertTrue(search.getWinRate(1) > search.getWinRate(0));
+		assertTrue(search.getAverageMargin() < 0);
+	}
+
+	/**
+	 * Test the totals are reported while the games are played.
+	 */
+	@Test
+	public void testProgress() {
+		SelfPlaySimulator simulator = new SelfPlaySimulator(Strategy.forName("search:2"), Strategy.forName("random"),
+				4, 3, 1, 7);
+		List<SimulationStats> reports = new ArrayList<>();
+		SimulationStats stats = simulator.run(20000, reports::add, 1);
+		simulator.shutdown();
+
+		assertEquals(20000, stats.getGames());
+		assertTrue(!reports.isEmpty());
+		for (SimulationStats report : reports) {
+			assertTrue(report.getGames() <= stats.getGames());
+		}
+	}
+
+	/**
+	 * Test the random strategy only plays pits holding stones.
+	 */
+	@Test
+	public void testRandomPit() {
+		Board board = new Board();
+		board.sow(Board.PLAYER_1, 3);
+		SplittableRandom random = new SplittableRandom(1);
+		for (int i = 0; i < 100; i++) {
+			int pitNumber = Strategy.randomPit(board, random);
+			assertTrue(board.getStones(board.pitIndex(board.getSideToMove(), pitNumber)) > 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownStrategy() {
+		Strategy.forName("minimax");
+	}
+
+	private static SimulationStats simulate(String first, String second, int threads, long games) {
+		SelfPlaySimulator simulator = new SelfPlaySimulator(Strategy.forName(first), Strategy.forName(second),
+				Board.DEFAULT_PITS, Board.DEFAULT_SEEDS, threads, 42);
+		try {
+			return simulator.run(games, null, 1000);
+		} finally {
+			simulator.shutdown();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.starkie.playkalah.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.starkie.playkalah.ai.TranspositionTable.ReplacementPolicy;
+
+/**
+ * Test class for the transposition table
+ * @author luke.starkie
+ */
+public class TranspositionTableTest {
+	
+	/**
+	 * Test an entry is unpacked as stored, including a negative score, and other keys miss.
+	 */
+	@Test
+	public void testStoreAndProbe() {
+		TranspositionTable table = new TranspositionTable(1, ReplacementPolicy.ALWAYS);
+		table.store(12345L, -17, 9, TranspositionTable.LOWER_BOUND, 6, true);
+		
+		long entry = table.probe(12345L);
+		assertEquals(-17, TranspositionTable.score(entry));
+		assertEquals(9, TranspositionTable.depth(entry));
+		assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.bound(entry));
+		assertEquals(6, TranspositionTable.pitNumber(entry));
+		assertTrue(TranspositionTable.isSolved(entry));
+		assertEquals(0, table.probe(12346L));
+		assertEquals(0, table.probe(12345L + table.getCapacity()));
+		assertEquals(65536, table.getCapacity());
+		assertEquals(1024 * 1024, table.getSizeBytes());
+	}
+	
+	/**
+	 * Test depth preferred replacement keeps a deeper entry from the same search but not from an earlier one.
+	 */
+	@Test
+	public void testDepthPreferredReplacement() {
+		TranspositionTable table = new TranspositionTable(1, ReplacementPolicy.DEPTH_PREFERRED);
+		long other = 1 + table.getCapacity();
+		table.newSearch();
+		table.store(1, 5, 8, TranspositionTable.EXACT, 1, false);
+		table.store(other, 3, 2, TranspositionTable.EXACT, 2, false);
+		assertEquals(8, TranspositionTable.depth(table.probe(1)));
+		assertEquals(0, table.probe(other));
+		
+		table.store(1, 4, 3, TranspositionTable.EXACT, 3, false);
+		assertEquals(3, TranspositionTable.depth(table.probe(1)));
+		
+		table.newSearch();
+		table.store(1, 5, 8, TranspositionTable.EXACT, 1, false);
+		table.newSearch();
+		table.store(other, 3, 2, TranspositionTable.EXACT, 2, false);
+		assertEquals(2, TranspositionTable.depth(table.probe(other)));
+		assertFalse(TranspositionTable.isSolved(table.probe(other)));
+	}
+	
+	/**
+	 * Test always replacement overwrites a deeper entry.
+	 */
+	@Test
+	public void testAlwaysReplacement() {
+		TranspositionTable table = new TranspositionTable(1, ReplacementPolicy.ALWAYS);
+		long other = 1 + table.getCapacity();
+		table.store(1, 5, 8, TranspositionTable.EXACT, 1, false);
+		table.store(other, 3, 2, TranspositionTable.EXACT, 2, false);
+		
+		assertEquals(0, table.probe(1));
+		assertEquals(3, TranspositionTable.score(table.probe(other)));
+	}
+	
+	/**
+	 * Test the statistics reported by searches give the hit rate.
+	 */
+	@Test
+	public void testHitRate() {
+		TranspositionTable table = new TranspositionTable(1, ReplacementPolicy.DEPTH_PREFERRED);
+		assertEquals(0, table.getHitRate(), 0);
+		table.recordStatistics(100, 25, 75);
+		table.recordStatistics(100, 75, 25);
+		
+		assertEquals(200, table.getProbes());
+		assertEquals(100, table.getStores());
+		assertEquals(0.5, table.getHitRate(), 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSize() {
+		new TranspositionTable(0, ReplacementPolicy.ALWAYS);
+	}
+}
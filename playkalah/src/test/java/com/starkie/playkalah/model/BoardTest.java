@@ -0,0 +1,98 @@
+package com.starkie.playkalah.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test class for the Board model class
+ * @author luke.starkie
+ */
+public class BoardTest {
+	
+	/**
+	 * Test the incrementally updated hash always matches one computed from scratch, over random games on every
+	 * board size including laps of the board, captures and the end of game sweep.
+	 */
+	@Test
+	public void testHashMatchesRecomputedHash() {
+		Random random = new Random(11);
+		for (int game = 0; game < 500; game++) {
+			Board board = new Board(1 + random.nextInt(Board.MAX_PITS), 1 + random.nextInt(Board.MAX_SEEDS));
+			assertEquals(board.computeHash(), board.getHash());
+			while (!board.isGameCompleted()) {
+				int side = board.getSideToMove();
+				int pitNumber = 1 + random.nextInt(board.getPits());
+				while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					pitNumber = pitNumber == board.getPits() ? 1 : pitNumber + 1;
+				}
+				board.sow(side, pitNumber);
+				assertEquals(board.computeHash(), board.getHash());
+			}
+		}
+	}
+	
+	/**
+	 * Test unmaking each move of random games on every board size restores the position it was made on, hash
+	 * included, back to the start, and the deltas hold the stones sown and captured.
+	 */
+	@Test
+	public void testUnmakeRestoresPosition() {
+		Random random = new Random(23);
+		int sweeps = 0;
+		for (int game = 0; game < 500; game++) {
+			Board board = new Board(1 + random.nextInt(Board.MAX_PITS), 1 + random.nextInt(Board.MAX_SEEDS));
+			List<Board> positions = new ArrayList<>();
+			List<Integer> deltas = new ArrayList<>();
+			while (!board.isGameCompleted()) {
+				int side = board.getSideToMove();
+				int pitNumber = 1 + random.nextInt(board.getPits());
+				while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+					pitNumber = pitNumber == board.getPits() ? 1 : pitNumber + 1;
+				}
+				Board before = new Board(board);
+				positions.add(before);
+				int delta = board.make(side, pitNumber);
+				deltas.add(delta);
+				assertEquals(pitNumber, MoveDelta.pitNumber(delta));
+				assertEquals(before.getStones(before.pitIndex(side, pitNumber)), MoveDelta.stones(delta));
+				assertEquals(new Board(before).sow(side, pitNumber), MoveDelta.captured(delta));
+				assertEquals(board.getSideToMove() == side, MoveDelta.isExtraTurn(delta));
+			}
+			sweeps += MoveDelta.isSwept(deltas.get(deltas.size() - 1)) ? 1 : 0;
+			for (int move = deltas.size() - 1; move >= 0; move--) {
+				board.unmake(deltas.get(move));
+				Board expected = positions.get(move);
+				assertEquals(expected.toString(), board.toString());
+				assertEquals(expected.getHash(), board.getHash());
+				assertEquals(board.computeHash(), board.getHash());
+			}
+		}
+		assertTrue(sweeps > 0);
+	}
+	
+	/**
+	 * Test positions reached through different move orders share a hash and differ from the side to move swapped.
+	 */
+	@Test
+	public void testHashOfTransposedPositions() {
+		Board first = new Board();
+		first.addStones(first.pitIndex(Board.PLAYER_1, 1), 1);
+		first.pickupStones(first.pitIndex(Board.PLAYER_2, 1));
+		Board second = new Board();
+		second.pickupStones(second.pitIndex(Board.PLAYER_2, 1));
+		second.addStones(second.pitIndex(Board.PLAYER_1, 1), 1);
+		
+		assertEquals(first.getHash(), second.getHash());
+		assertEquals(first.computeHash(), first.getHash());
+		assertEquals(first.getHash(), new Board(first).getHash());
+		assertNotEquals(new Board(4, 3).getHash(), new Board(4, 4).getHash());
+		assertNotEquals(new Board(4, 3).getHash(), new Board(5, 3).getHash());
+	}
+}
@@ -2,11 +2,22 @@ package com.starkie.playkalah.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * Test class for the Game model class
  * @author luke.starkie
@@ -176,4 +187,271 @@ public class GameTest {
 		assertEquals(0, game.getPlayer2().getPit(6).getNumberOfStonesInPit());
 		assertEquals(0, game.getPlayer2().getNumberOfStonesInKalah());
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Test a kalah(4,3) game sows around the smaller board, then landing in an empty pit 4 captures
+	 * the opposite pit, which is the opponent's pit 1.
+	 */
+	@Test
+	public void testPlayGameWithSmallerBoard() {
+		game = new Game("bill", "bob", "2", 4, 3);
+		
+		game.playPit("bill", 4);
+		assertEquals(0, game.getPlayer1().getPit(4).getNumberOfStonesInPit());
+		assertEquals(1, game.getPlayer1().getNumberOfStonesInKalah());
+		assertEquals(4, game.getPlayer2().getPit(1).getNumberOfStonesInPit());
+		assertEquals(4, game.getPlayer2().getPit(2).getNumberOfStonesInPit());
+		assertEquals(3, game.getPlayer2().getPit(3).getNumberOfStonesInPit());
+		assertEquals("bob", game.getNextPlayerToMove());
+		
+		game = new Game("bill", "bob", "2", 4, 3);
+		game.getPlayer1().getPit(4).pickupStones();
+		
+		game.playPit("bill", 1);
+		assertEquals(0, game.getPlayer1().getPit(1).getNumberOfStonesInPit());
+		assertEquals(4, game.getPlayer1().getPit(2).getNumberOfStonesInPit());
+		assertEquals(0, game.getPlayer1().getPit(4).getNumberOfStonesInPit());
+		assertEquals(0, game.getPlayer2().getPit(1).getNumberOfStonesInPit());
+		assertEquals(4, game.getPlayer1().getNumberOfStonesInKalah());
+		assertEquals(21, countStones(game.getPlayer1()) + countStones(game.getPlayer2()));
+		assertEquals("bob", game.getNextPlayerToMove());
+	}
+	
+	private int countStones(Player player) {
+		int stones = player.getNumberOfStonesInKalah();
+		for (Pit pit : player.getPits()) {
+			stones += pit.getNumberOfStonesInPit();
+		}
+		return stones;
+	}	
+	/**
+	 * Test the game serializes to the JSON of the original API, key for key and in the same order.
+	 * @throws Exception
+	 */
+	@Test
+	public void testJsonMatchesOriginalApi() throws Exception {
+		game.playPit("bill", 3);
+		
+		assertEquals("{\"id\":\"1\","
+				+ "\"player1\":{\"name\":\"bill\",\"pits\":[{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},"
+				+ "{\"numberOfStonesInPit\":0},{\"numberOfStonesInPit\":7},{\"numberOfStonesInPit\":7},"
+				+ "{\"numberOfStonesInPit\":7}],\"numberOfStonesInKalah\":1},"
+				+ "\"player2\":{\"name\":\"bob\",\"pits\":[{\"numberOfStonesInPit\":7},{\"numberOfStonesInPit\":7},"
+				+ "{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},"
+				+ "{\"numberOfStonesInPit\":6}],\"numberOfStonesInKalah\":0},"
+				+ "\"gameCompleted\":false,\"nextPlayerToMove\":\"bob\"}",
+				new ObjectMapper().writeValueAsString(game));
+	}
+	
+	/**
+	 * Test a traced game passes each move to the listener.
+	 */
+	@Test
+	public void testPlayGameWithMoveListener() {
+		final List<String> events = new ArrayList<String>();
+		game.setMoveListener((tracedGame, side, pitNumber, stonesSown, stonesCaptured) ->
+				events.add(side + ":" + pitNumber + ":" + stonesSown + ":" + stonesCaptured));
+		
+		game.playPit("bill", 1);
+		game.setMoveListener(null);
+		game.playPit("bill", 2);
+		
+		assertEquals(1, events.size());
+		assertEquals("0:1:6:0", events.get(0));
+	}
+	
+	/**
+	 * Test a move taken back and played again is passed to the listener again.
+	 */
+	@Test
+	public void testRedoMoveWithMoveListener() {
+		final List<String> events = new ArrayList<String>();
+		game.playPit("bill", 1);
+		game.undoMove();
+		game.setMoveListener((tracedGame, side, pitNumber, stonesSown, stonesCaptured) ->
+				events.add(side + ":" + pitNumber + ":" + stonesSown + ":" + stonesCaptured));
+		
+		game.redoMove();
+		
+		assertEquals(1, events.size());
+		assertEquals("0:1:6:0", events.get(0));
+	}
+	
+	/**
+	 * Test the pits played are logged in order, and a restored game logs only the moves played after the position.
+	 */
+	@Test
+	public void testMoveLog() {
+		game.playPit("bill", 1);
+		game.playPit("bill", 2);
+		game.playPit("bob", 6);
+		
+		assertEquals(0, game.getMoveLogStart());
+		assertEquals(3, game.getLoggedMoves());
+		assertEquals(1, game.getLoggedPit(0));
+		assertEquals(2, game.getLoggedPit(1));
+		assertEquals(6, game.getLoggedPit(2));
+		
+		game.restore(10, new int[]{0, 6, 6, 6, 6, 6, 2, 6, 6, 6, 6, 6, 6, 0}, Board.PLAYER_2);
+		game.playPit("bob", 4);
+		assertEquals(10, game.getMoveLogStart());
+		assertEquals(1, game.getLoggedMoves());
+		assertEquals(4, game.getLoggedPit(0));
+	}
+	
+	/**
+	 * Test moves taken back restore the position and may be played again until another move is played, while the
+	 * version keeps counting, and past positions are shown without changing the game.
+	 */
+	@Test
+	public void testUndoRedoAndPosition() {
+		game.playPit("bill", 1);
+		game.playPit("bill", 2);
+		game.playPit("bob", 6);
+		GameSnapshot third = game.getSnapshot();
+		
+		game.undoMove();
+		game.undoMove();
+		assertEquals(1, game.getMoveCount());
+		assertEquals(5, game.getVersion());
+		assertEquals(2, game.getRedoMoves());
+		assertEquals("bill", game.getNextPlayerToMove());
+		assertEquals(7, game.getPlayer1().getPit(2).getNumberOfStonesInPit());
+		
+		GameSnapshot start = game.getPosition(0);
+		assertEquals(0, start.getMoveCount());
+		assertEquals(6, start.getStones(0));
+		assertEquals(0, start.getStones(6));
+		assertEquals(third.toString(), game.getPosition(3).toString());
+		assertEquals(1, game.getSnapshot().getMoveCount());
+		assertEquals(7, game.getPlayer1().getPit(2).getNumberOfStonesInPit());
+		
+		game.redoMove();
+		game.redoMove();
+		assertEquals(third.toString(), game.getSnapshot().toString());
+		assertEquals(third.getVersion() + 4, game.getVersion());
+		
+		game.undoMove();
+		game.playPit("bob", 5);
+		assertEquals(0, game.getRedoMoves());
+		assertEquals(5, game.getLoggedPit(2));
+		try {
+			game.redoMove();
+			fail("Expected no move to play again");
+		} catch (IllegalStateException e) {
+			assertEquals("No move to play again", e.getMessage());
+		}
+		try {
+			game.getPosition(4);
+			fail("Expected the move to be out of the log");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Move is not in the log", e.getMessage());
+		}
+		
+		game.restore(10, new int[]{0, 6, 6, 6, 6, 6, 2, 6, 6, 6, 6, 6, 6, 0}, Board.PLAYER_2);
+		assertFalse(game.canUndo());
+	}
+	
+	/**
+	 * Test a snapshot keeps the state it was taken with.
+	 */
+	@Test
+	public void testSnapshot() {
+		game.setComputerPlayer("bob");
+		GameSnapshot before = game.getSnapshot();
+		game.playPit("bill", 3);
+		GameSnapshot after = game.getSnapshot();
+		
+		assertEquals(0, before.getMoveCount());
+		assertEquals(6, before.getStones(2));
+		assertEquals("bill", before.getNextPlayerToMove());
+		assertEquals(1, after.getMoveCount());
+		assertEquals(0, after.getStones(2));
+		assertEquals(1, after.getPlayer1().getNumberOfStonesInKalah());
+		assertEquals("bob", after.getNextPlayerToMove());
+		assertSame(after, game.getSnapshot());
+	}
+	
+	/**
+	 * Test a snapshot serializes to the JSON of the original API, key for key and in the same order, with the computer
+	 * player between the players and the game's state.
+	 * @throws Exception
+	 */
+	@Test
+	public void testSnapshotJsonMatchesOriginalApi() throws Exception {
+		game.setComputerPlayer("bob");
+		game.playPit("bill", 3);
+		
+		assertEquals("{\"id\":\"1\","
+				+ "\"player1\":{\"name\":\"bill\",\"pits\":[{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},"
+				+ "{\"numberOfStonesInPit\":0},{\"numberOfStonesInPit\":7},{\"numberOfStonesInPit\":7},"
+				+ "{\"numberOfStonesInPit\":7}],\"numberOfStonesInKalah\":1},"
+				+ "\"player2\":{\"name\":\"bob\",\"pits\":[{\"numberOfStonesInPit\":7},{\"numberOfStonesInPit\":7},"
+				+ "{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},{\"numberOfStonesInPit\":6},"
+				+ "{\"numberOfStonesInPit\":6}],\"numberOfStonesInKalah\":0},"
+				+ "\"computerPlayer\":\"bob\",\"gameCompleted\":false,\"nextPlayerToMove\":\"bob\"}",
+				new ObjectMapper().writeValueAsString(game.getSnapshot()));
+		assertEquals(new ObjectMapper().writeValueAsString(game), new ObjectMapper().writeValueAsString(game.getSnapshot()));
+	}
+	
+	/**
+	 * Test an encoding of a snapshot is made once and then served from its cache.
+	 */
+	@Test
+	public void testSnapshotCachesEncodings() {
+		GameSnapshot snapshot = game.getSnapshot();
+		AtomicInteger encodes = new AtomicInteger();
+		Function<GameSnapshot, byte[]> encoder = encoded -> {
+			encodes.incrementAndGet();
+			return new byte[]{(byte) encoded.getMoveCount()};
+		};
+		byte[] json = snapshot.getEncoded(GameSnapshot.Encoding.JSON, encoder);
+		byte[] frame = snapshot.getEncoded(GameSnapshot.Encoding.FRAME, encoder);
+		
+		assertSame(json, snapshot.getEncoded(GameSnapshot.Encoding.JSON, encoder));
+		assertSame(frame, snapshot.getEncoded(GameSnapshot.Encoding.FRAME, encoder));
+		assertEquals(2, encodes.get());
+		game.playPit("bill", 3);
+		assertEquals(1, game.getSnapshot().getEncoded(GameSnapshot.Encoding.JSON, encoder)[0]);
+	}
+	
+	/**
+	 * Allocation profile of the move path: once the JIT has warmed up playing a pit should allocate nothing.
+	 */
+	@Test
+	public void testPlayPitAllocatesNothingOnceWarmedUp() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+		
+		long threadId = Thread.currentThread().getId();
+		playMoves(500000);
+		int moves = 1000000;
+		long before = allocationBean.getThreadAllocatedBytes(threadId);
+		playMoves(moves);
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+		
+		assertEquals("bytes allocated per move", 0, allocated / moves);
+	}
+	
+	/**
+	 * Plays moves through complete games, restarting the game's board whenever a game ends.
+	 * @param moves the number of moves to play
+	 */
+	private void playMoves(int moves) {
+		Board board = game.getBoard();
+		int pitChoice = 0;
+		for (int move = 0; move < moves; move++) {
+			if (board.isGameCompleted()) {
+				board.reset();
+			}
+			int side = board.getSideToMove();
+			int pitNumber = 1 + (pitChoice++ % 6);
+			while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				pitNumber = pitNumber == 6 ? 1 : pitNumber + 1;
+			}
+			game.playPit(game.getNextPlayerToMove(), pitNumber);
+		}
+	}
+}
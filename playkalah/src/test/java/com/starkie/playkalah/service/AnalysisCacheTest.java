@@ -0,0 +1,92 @@
+package com.starkie.playkalah.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.starkie.playkalah.ai.Analysis;
+
+/**
+ * Test class for the cache of position analyses
+ * @author luke.starkie
+ */
+public class AnalysisCacheTest {
+
+	private final AtomicInteger started = new AtomicInteger();
+
+	/**
+	 * Test requests for a position being analysed wait on the one analysis, and later requests are answered from the
+	 * cache, while another depth of the same position is analysed separately.
+	 */
+	@Test
+	public void testConcurrentRequestsShareOneAnalysis() {
+		AnalysisCache cache = new AnalysisCache(10);
+		CompletableFuture<Analysis> analysis = new CompletableFuture<>();
+		CompletableFuture<Analysis> first = cache.get(1, 6, () -> start(analysis));
+		CompletableFuture<Analysis> second = cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		assertFalse(second.isDone());
+
+		Analysis result = new Analysis(2, 3, 6, new Integer[]{1, null, 2}, 100);
+		analysis.complete(result);
+		assertSame(result, first.join());
+		assertSame(result, second.join());
+		assertSame(result, cache.get(1, 6, () -> start(new CompletableFuture<>())).join());
+		cache.get(1, 7, () -> start(new CompletableFuture<>()));
+
+		assertEquals(2, started.get());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getCoalesced());
+	}
+
+	/**
+	 * Test a failed analysis fails every request waiting on it and is started again by the next request.
+	 */
+	@Test
+	public void testFailedAnalysisIsRetried() {
+		AnalysisCache cache = new AnalysisCache(10);
+		CompletableFuture<Analysis> failing = new CompletableFuture<>();
+		CompletableFuture<Analysis> first = cache.get(1, 6, () -> start(failing));
+		CompletableFuture<Analysis> second = cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		failing.completeExceptionally(new IllegalStateException("rejected"));
+		assertTrue(first.isCompletedExceptionally());
+		assertTrue(second.isCompletedExceptionally());
+		assertEquals(0, cache.size());
+
+		cache.get(1, 6, () -> {
+			throw new IllegalStateException("rejected");
+		});
+		cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		assertEquals(2, started.get());
+	}
+
+	/**
+	 * Test the least recently used analysis is evicted once the cache is full.
+	 */
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		AnalysisCache cache = new AnalysisCache(2);
+		cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		cache.get(2, 6, () -> start(new CompletableFuture<>()));
+		cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		cache.get(3, 6, () -> start(new CompletableFuture<>()));
+		assertEquals(3, started.get());
+		assertEquals(2, cache.size());
+
+		cache.get(1, 6, () -> start(new CompletableFuture<>()));
+		assertEquals(3, started.get());
+		cache.get(2, 6, () -> start(new CompletableFuture<>()));
+		assertEquals(4, started.get());
+	}
+
+	private CompletableFuture<Analysis> start(CompletableFuture<Analysis> analysis) {
+		started.incrementAndGet();
+		return analysis;
+	}
+}
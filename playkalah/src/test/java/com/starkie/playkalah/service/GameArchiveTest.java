@@ -0,0 +1,134 @@
+package com.starkie.playkalah.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Test class for the archive of completed games
+ * @author luke.starkie
+ */
+public class GameArchiveTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random random = new Random(17);
+
+	/**
+	 * Test the totals of a scan over several segments and a game not yet written match the games archived, leaving
+	 * out games of other boards and the opening of a game restored part way through.
+	 */
+	@Test
+	public void testStatsMatchArchivedGames() throws IOException {
+		GameArchive archive = new GameArchive(folder.getRoot().toPath(), 1000, 0, 2);
+		archive.open();
+		ArchiveStats expected = new ArchiveStats(4, 3);
+		for (int i = 0; i < 50; i++) {
+			Game game = playRandomGame(new Game("bill", "bob", "g" + i, 4, 3));
+			archive.append(game);
+			Board board = game.getBoard();
+			expected.record(game.getLoggedPit(0), board.getStones(board.kalahIndex(Board.PLAYER_1)),
+					board.getStones(board.kalahIndex(Board.PLAYER_2)), game.getMoveCount());
+			archive.append(playRandomGame(new Game("bill", "bob", "other" + i, 6, 6)));
+			if (i % 10 == 9) {
+				archive.flush();
+			}
+		}
+		Game restored = new Game("bill", "bob", "restored", 4, 3);
+		restored.restore(20, new int[]{0, 0, 0, 1, 5, 0, 0, 0, 2, 16}, Board.PLAYER_1);
+		playRandomGame(restored);
+		archive.append(restored);
+		expected.record(0, restored.getBoard().getStones(4), restored.getBoard().getStones(9), restored.getMoveCount());
+
+		ArchiveStats stats = archive.stats(4, 3);
+		assertEquals(5, archive.getSegments());
+		assertEquals(1, archive.getPendingGames());
+		assertEquals(51, stats.getGames());
+		assertEquals(expected.getMoves(), stats.getMoves());
+		assertEquals(expected.getMaxMoves(), stats.getMaxMoves());
+		assertEquals(expected.getPlayer1WinRate(), stats.getPlayer1WinRate(), 0);
+		assertEquals(expected.getDrawRate(), stats.getDrawRate(), 0);
+		assertEquals(expected.getPlayer1AverageMargin(), stats.getPlayer1AverageMargin(), 0);
+		assertArrayEquals(expected.getOpeningGames(), stats.getOpeningGames());
+		assertArrayEquals(expected.getOpeningPlayer1WinRates(), stats.getOpeningPlayer1WinRates(), 0);
+		assertEquals(50, archive.stats(6, 6).getGames());
+		archive.close();
+	}
+
+	/**
+	 * Test an archive reopened finds the segments written, drops one left unfinished and reads back each game's moves.
+	 */
+	@Test
+	public void testReopenReadsMoves() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		GameArchive archive = new GameArchive(directory, 100, 0, 1);
+		archive.open();
+		List<int[]> played = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Game game = playRandomGame(new Game("bill", "bob", "g" + i, 1 + random.nextInt(Board.MAX_PITS),
+					1 + random.nextInt(Board.MAX_SEEDS)));
+			archive.append(game);
+			int[] moves = new int[game.getLoggedMoves()];
+			for (int move = 0; move < moves.length; move++) {
+				moves[move] = game.getLoggedPit(move);
+			}
+			played.add(moves);
+			if (i % 4 == 3) {
+				archive.flush();
+			}
+		}
+		archive.close();
+		Path unfinished = directory.resolve(GameArchive.SEGMENT_PREFIX + "00000099" + GameArchive.SEGMENT_SUFFIX + ".tmp");
+		Files.write(unfinished, new byte[]{1, 2, 3});
+
+		GameArchive reopened = new GameArchive(directory, 100, 0, 1);
+		reopened.open();
+		assertFalse(Files.exists(unfinished));
+		assertEquals(3, reopened.getSegments());
+		assertEquals(10, reopened.getArchivedGames());
+		for (int i = 0; i < played.size(); i++) {
+			assertArrayEquals(played.get(i), reopened.readMoves(i));
+		}
+		reopened.append(playRandomGame(new Game("bill", "bob", "next", 4, 3)));
+		reopened.close();
+		assertEquals(4, reopened.getSegments());
+	}
+
+	/**
+	 * Test a segment that is not an archive segment stops the archive opening.
+	 */
+	@Test(expected = IOException.class)
+	public void testOpenCorruptSegment() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		Files.write(directory.resolve(GameArchive.SEGMENT_PREFIX + "00000000" + GameArchive.SEGMENT_SUFFIX), new byte[64]);
+		new GameArchive(directory, 4, 0, 1).open();
+	}
+
+	private Game playRandomGame(Game game) {
+		Board board = game.getBoard();
+		while (!game.isGameCompleted()) {
+			int side = board.getSideToMove();
+			int pitNumber = 1 + random.nextInt(board.getPits());
+			while (board.getStones(board.pitIndex(side, pitNumber)) == 0) {
+				pitNumber = pitNumber == board.getPits() ? 1 : pitNumber + 1;
+			}
+			game.playPit(game.getNextPlayerToMove(), pitNumber);
+		}
+		return game;
+	}
+}
@@ -0,0 +1,290 @@
+package com.starkie.playkalah.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Board;
+import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.MoveRequest;
+
+/**
+ * Test class for the journal of games and moves, restarting the service on the same journal.
+ * @author luke.starkie
+ */
+public class GameJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+
+	private KalahService service;
+
+	@Before
+	public void setup() throws IOException {
+		directory = folder.newFolder("journal").toPath();
+		service = start(GameJournal.FsyncPolicy.ALWAYS, 0);
+	}
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+	}
+
+	/**
+	 * Test games, their moves and computer opponents are recovered after a restart.
+	 */
+	@Test
+	public void testRecoverGames() {
+		int instance = service.playGame(KalahService.GAME_1, "bill", 3).getInstance();
+		service.findGame("small", 4, 3, true);
+		service.playGame("small", "bill", 1);
+		service.findGame("batch");
+		service.playMoves("batch", Arrays.asList(new MoveRequest(null, "bill", 1), new MoveRequest(null, "bill", 2)));
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+
+		assertSameGame(service, KalahService.GAME_1, 1, new int[]{6, 6, 0, 7, 7, 7, 1, 7, 7, 6, 6, 6, 6, 0});
+		assertEquals(instance, service.findGame(KalahService.GAME_1).getInstance());
+		Game small = service.findGame("small");
+		assertEquals(4, small.getBoard().getPits());
+		assertEquals("bob", small.getComputerPlayer());
+		assertTrue(small.getMoveCount() >= 2);
+		assertSameGame(service, "batch", 2, new int[]{0, 0, 8, 8, 8, 8, 2, 7, 7, 6, 6, 6, 6, 0});
+		// three games, each move of the small game and the other three moves
+		assertEquals(6 + small.getMoveCount(), service.getJournal().getReplayedRecords());
+	}
+
+	/**
+	 * Test recovery loads the snapshot and replays only the moves after it, including moves played while the
+	 * snapshot was written.
+	 */
+	@Test
+	public void testRecoverFromSnapshot() throws IOException {
+		int instance = service.playGame(KalahService.GAME_1, "bill", 3).getInstance();
+		service.findGame("2");
+		service.playGame("2", "bill", 1);
+		service.getJournal().writeSnapshot();
+		service.playGame(KalahService.GAME_1, "bob", 1);
+		service.findGame("3");
+
+		service = restart(GameJournal.FsyncPolicy.INTERVAL, 0);
+
+		assertEquals(2, service.getJournal().getReplayedRecords());
+		assertSameGame(service, KalahService.GAME_1, 2, new int[]{7, 6, 0, 7, 7, 7, 1, 0, 8, 7, 7, 7, 7, 1});
+		assertEquals(instance, service.findGame(KalahService.GAME_1).getInstance());
+		assertSameGame(service, "2", 1, new int[]{0, 7, 7, 7, 7, 7, 1, 6, 6, 6, 6, 6, 6, 0});
+		assertSameGame(service, "3", 0, new int[]{6, 6, 6, 6, 6, 6, 0, 6, 6, 6, 6, 6, 6, 0});
+
+		// moves after recovery carry on from the snapshot
+		service.playGame("2", "bill", 2);
+		service = restart(GameJournal.FsyncPolicy.NEVER, 0);
+		assertEquals(2, service.findGame("2").getMoveCount());
+	}
+
+	/**
+	 * Test an asynchronous move completes once journalled and is recovered.
+	 */
+	@Test
+	public void testRecoverAsyncMoves() throws Exception {
+		service.playGameAsync(KalahService.GAME_1, "bill", 3).get();
+		service.playGameAsync(KalahService.GAME_1, "bob", 1).get();
+		assertEquals(service.getJournal().getAppendedBytes(), directory.resolve(GameJournal.JOURNAL_FILE).toFile().length());
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+		assertSameGame(service, KalahService.GAME_1, 2, new int[]{7, 6, 0, 7, 7, 7, 1, 0, 8, 7, 7, 7, 7, 1});
+	}
+
+	/**
+	 * Test a record torn by a crash part way through writing is dropped and the journal carries on after the last
+	 * complete record.
+	 */
+	@Test
+	public void testRecoverTornRecord() throws IOException {
+		service.playGame(KalahService.GAME_1, "bill", 3);
+		service.playGame(KalahService.GAME_1, "bob", 1);
+		service.shutdown();
+		try (RandomAccessFile journal = new RandomAccessFile(directory.resolve(GameJournal.JOURNAL_FILE).toFile(), "rw")) {
+			journal.setLength(journal.length() - 3);
+		}
+
+		service = start(GameJournal.FsyncPolicy.ALWAYS, 0);
+		assertSameGame(service, KalahService.GAME_1, 1, new int[]{6, 6, 0, 7, 7, 7, 1, 7, 7, 6, 6, 6, 6, 0});
+		service.playGame(KalahService.GAME_1, "bob", 2);
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+		assertSameGame(service, KalahService.GAME_1, 2, new int[]{7, 7, 0, 7, 7, 7, 1, 7, 0, 7, 7, 7, 7, 1});
+	}
+
+	/**
+	 * Test moves played by many threads with automatic snapshots are all recovered.
+	 */
+	@Test
+	public void testRecoverConcurrentMovesWithSnapshots() throws Exception {
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 50);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				String id = "game" + t;
+				tasks.add(() -> {
+					Game game = service.findGame(id);
+					for (int move = 0; move < 200 && !game.isGameCompleted(); move++) {
+						int side = game.getBoard().getSideToMove();
+						int pit = 1;
+						while (game.getBoard().getStones(game.getBoard().pitIndex(side, pit)) == 0) {
+							pit++;
+						}
+						service.playGame(id, game.getNextPlayerToMove(), pit);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		List<int[]> boards = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			boards.add(cells(service.findGame("game" + t).getBoard()));
+		}
+		int moves = service.findGame("game0").getMoveCount();
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 50);
+		assertTrue(Files.exists(directory.resolve(GameJournal.SNAPSHOT_FILE)));
+		for (int t = 0; t < 8; t++) {
+			assertArrayEquals(boards.get(t), cells(service.findGame("game" + t).getBoard()));
+		}
+		assertEquals(moves, service.findGame("game0").getMoveCount());
+	}
+
+	/**
+	 * Test a spilled game read back is recovered with the moves played after it was read, and games evicted for
+	 * good stay deleted.
+	 */
+	@Test
+	public void testRecoverSpilledAndRemovedGames() throws Exception {
+		GameStore store = service.getGameStore();
+		// game 1 is always kept and counts towards the limit
+		store.configure(2, 0, 0, folder.newFolder("spill").toPath());
+		service.findGame("spilled");
+		service.playGame("spilled", "bill", 2);
+		Thread.sleep(5);
+		service.findGame("kept");
+		store.sweep();
+		assertEquals(1, store.getSpilledGames());
+
+		service.playGame("spilled", "bob", 1);
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+		assertSameGame(service, "spilled", 2, new int[]{7, 0, 7, 7, 7, 7, 1, 0, 7, 7, 7, 7, 7, 1});
+
+		store = service.getGameStore();
+		store.configure(2, 0, 0, null);
+		Thread.sleep(5);
+		service.findGame("kept");
+		store.sweep();
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+		assertNull(service.getGameStore().get("spilled"));
+		assertNotNull(service.getGameStore().get("kept"));
+	}
+
+	/**
+	 * Test a game whose moves were taken back, played again and replaced by other moves is recovered as played, with
+	 * its version and move log, so its moves can still be taken back.
+	 */
+	@Test
+	public void testRecoverUndoneMoves() {
+		service.playGame(KalahService.GAME_1, "bill", 3);
+		service.playGame(KalahService.GAME_1, "bob", 1);
+		service.undoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		service.redoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		service.undoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		service.playGame(KalahService.GAME_1, "bob", 2);
+		service.playGame(KalahService.GAME_1, "bill", 1);
+		service.undoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		int version = service.findGame(KalahService.GAME_1).getVersion();
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+
+		Game expected = new Game("bill", "bob", KalahService.GAME_1);
+		expected.playPit("bill", 3);
+		expected.playPit("bob", 2);
+		assertSameGame(service, KalahService.GAME_1, 2, cells(expected.getBoard()));
+		Game game = service.findGame(KalahService.GAME_1);
+		assertEquals(version, game.getVersion());
+		assertEquals(0, game.getMoveLogStart());
+		assertEquals(1, game.getRedoMoves());
+		assertEquals(1, game.getRedoPit());
+		service.undoMoveAsync(KalahService.GAME_1, version).join();
+		assertEquals(1, game.getMoveCount());
+	}
+
+	/**
+	 * Test a game in a snapshot keeps its version and move log, so moves taken back after the snapshot are replayed.
+	 */
+	@Test
+	public void testRecoverUndoAfterSnapshot() throws IOException {
+		service.playGame(KalahService.GAME_1, "bill", 3);
+		service.playGame(KalahService.GAME_1, "bob", 1);
+		service.undoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		service.getJournal().writeSnapshot();
+		service.undoMoveAsync(KalahService.GAME_1, KalahService.ANY_VERSION).join();
+		int version = service.findGame(KalahService.GAME_1).getVersion();
+
+		service = restart(GameJournal.FsyncPolicy.ALWAYS, 0);
+
+		assertSameGame(service, KalahService.GAME_1, 0, cells(new Board(6, 6)));
+		Game game = service.findGame(KalahService.GAME_1);
+		assertEquals(version, game.getVersion());
+		assertEquals(2, game.getRedoMoves());
+		assertEquals(1, service.getJournal().getReplayedRecords());
+	}
+
+	private KalahService restart(GameJournal.FsyncPolicy fsyncPolicy, long snapshotEveryMoves) {
+		service.shutdown();
+		return start(fsyncPolicy, snapshotEveryMoves);
+	}
+
+	private KalahService start(GameJournal.FsyncPolicy fsyncPolicy, long snapshotEveryMoves) {
+		return KalahServiceTest.startService("kalah.journal.dir=" + directory, "kalah.journal.fsync=" + fsyncPolicy,
+				"kalah.journal.snapshot-every-moves=" + snapshotEveryMoves);
+	}
+
+	private static void assertSameGame(KalahService service, String id, int moveCount, int[] cells) {
+		Game game = service.findGame(id);
+		assertNotNull(game);
+		assertEquals(moveCount, game.getMoveCount());
+		assertArrayEquals(cells, cells(game.getBoard()));
+	}
+
+	private static int[] cells(Board board) {
+		int[] cells = new int[board.getCellCount()];
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] = board.getStones(cell);
+		}
+		return cells;
+	}
+}
@@ -0,0 +1,238 @@
+package com.starkie.playkalah.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.starkie.playkalah.model.Game;
+
+/**
+ * Test class for the bounds on the games held by the store, driving the sweep with a fake clock.
+ * @author luke.starkie
+ */
+public class GameStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicLong now = new AtomicLong(1000);
+
+	private final List<String> removed = new ArrayList<>();
+
+	private final List<String> restored = new ArrayList<>();
+
+	private GameStore store;
+
+	@Before
+	public void setup() {
+		store = new GameStore(4, now::get);
+		store.setListener(new GameStoreListener() {
+			@Override
+			public void gameRemoved(Game game) {
+				removed.add(game.getId());
+			}
+
+			@Override
+			public void gameRestored(Game game) {
+				restored.add(game.getId());
+			}
+		});
+	}
+
+	/**
+	 * Test games not used for their time to live are removed, completed games sooner than games being played.
+	 */
+	@Test
+	public void testExpireIdleAndFinishedGames() throws IOException {
+		store.configure(0, 1000, 100, null);
+		Game playing = create("playing");
+		Game finished = create("finished");
+		finished.restore(10, new int[]{0, 0, 0, 0, 0, 0, 40, 0, 0, 0, 0, 0, 0, 32}, 0);
+		assertTrue(finished.isGameCompleted());
+
+		now.addAndGet(100);
+		store.sweep();
+		assertNull(store.get("finished"));
+		assertSame(playing, store.get("playing"));
+
+		now.addAndGet(999);
+		store.sweep();
+		assertSame(playing, store.get("playing"));
+		now.addAndGet(1000);
+		store.sweep();
+		assertNull(store.get("playing"));
+
+		assertEquals(2, store.getExpiredGames());
+		assertEquals(0, store.size());
+		assertEquals(0, store.getEstimatedBytes());
+		assertEquals(2, removed.size());
+	}
+
+	/**
+	 * Test the least recently used games over the limit are dropped when there is no spill directory.
+	 */
+	@Test
+	public void testEvictLeastRecentlyUsed() throws IOException {
+		store.configure(2, 0, 0, null);
+		create("a");
+		now.incrementAndGet();
+		create("b");
+		now.incrementAndGet();
+		create("c");
+		now.incrementAndGet();
+		store.get("a");
+
+		store.sweep();
+		assertEquals(2, store.size());
+		assertNotNull(store.get("a"));
+		assertNull(store.get("b"));
+		assertNotNull(store.get("c"));
+		assertEquals(1, store.getEvictedGames());
+		assertEquals("[b]", removed.toString());
+	}
+
+	/**
+	 * Test games being played are spilled when evicted and read back as they were when next used, while completed
+	 * games are dropped.
+	 */
+	@Test
+	public void testSpillAndRehydrate() throws IOException {
+		Path spill = folder.newFolder("spill").toPath();
+		store.configure(1, 0, 0, spill);
+		Game game = create("spilled");
+		game.playPit("bill", 1);
+		int[] cells = cells(game);
+		now.incrementAndGet();
+		create("kept");
+
+		store.sweep();
+		assertFalse(store.isResident(game));
+		assertEquals(1, store.getSpilledGames());
+		assertTrue(removed.isEmpty());
+
+		Game rehydrated = store.get("spilled");
+		assertNotSame(game, rehydrated);
+		assertTrue(store.isResident(rehydrated));
+		assertEquals(1, rehydrated.getMoveCount());
+		assertEquals(game.getInstance(), rehydrated.getInstance());
+		assertEquals(game.getNextPlayerToMove(), rehydrated.getNextPlayerToMove());
+		assertArrayEquals(cells, cells(rehydrated));
+		assertEquals("[spilled]", restored.toString());
+		assertEquals(0, store.getSpilledGames());
+		assertEquals(1, store.getRehydratedGames());
+	}
+
+	/**
+	 * Test spilled games not used for the idle time to live are deleted from the spill directory.
+	 */
+	@Test
+	public void testExpireSpilledGames() throws IOException {
+		Path spill = folder.newFolder("spill").toPath();
+		store.configure(1, GameStore.SPILL_SWEEP_INTERVAL_MILLIS, 0, spill);
+		create("old");
+		now.incrementAndGet();
+		create("new");
+		store.sweep();
+		assertEquals(1, store.getSpilledGames());
+
+		now.addAndGet(GameStore.SPILL_SWEEP_INTERVAL_MILLIS);
+		store.get("new");
+		store.sweep();
+		assertEquals(0, store.getSpilledGames());
+		assertEquals("[old]", removed.toString());
+		assertNull(store.get("old"));
+		assertNotNull(store.get("new"));
+	}
+
+	/**
+	 * Test a pinned game is kept however long it is not used and whatever the limit.
+	 */
+	@Test
+	public void testPinnedGameKept() throws IOException {
+		store.configure(1, 1000, 100, null);
+		store.pin("1");
+		Game pinned = create("1");
+		now.incrementAndGet();
+		create("other");
+
+		now.addAndGet(1000);
+		store.sweep();
+		assertSame(pinned, store.get("1"));
+		assertNull(store.get("other"));
+		assertEquals("[other]", removed.toString());
+	}
+
+	/**
+	 * Test the estimated heap follows a game's move log as it grows.
+	 */
+	@Test
+	public void testEstimateFollowsMoveLog() throws IOException {
+		store.configure(0, 0, 0, null);
+		Game game = store.getOrCreate("long", id -> new Game("bill", "bob", id, 12, 10));
+		long created = store.getEstimatedBytes();
+		for (int move = 0; move < 20; move++) {
+			int firstCell = game.getBoard().getSideToMove() * 13;
+			int pit = 1;
+			while (game.getBoard().getStones(firstCell + pit - 1) == 0) {
+				pit++;
+			}
+			game.playPit(game.getNextPlayerToMove(), pit);
+		}
+		assertEquals(created, store.getEstimatedBytes());
+
+		store.sweep();
+		assertEquals(GameStore.estimateBytes(game), store.getEstimatedBytes());
+		assertTrue(store.getEstimatedBytes() > created);
+		store.remove("long");
+		assertEquals(0, store.getEstimatedBytes());
+	}
+
+	/**
+	 * Test games spilled by an earlier store are found when the spill directory is configured, and read back.
+	 */
+	@Test
+	public void testFindGamesSpilledBefore() throws IOException {
+		Path spill = folder.newFolder("spill").toPath();
+		store.configure(1, 0, 0, spill);
+		Game game = create("spilled");
+		game.playPit("bill", 1);
+		now.incrementAndGet();
+		create("kept");
+		store.sweep();
+
+		GameStore restarted = new GameStore(4, now::get);
+		restarted.configure(1, 0, 0, spill);
+		assertEquals(1, restarted.getSpilledGames());
+		assertNull(restarted.get("kept"));
+		assertEquals(1, restarted.get("spilled").getMoveCount());
+		assertEquals(0, restarted.getSpilledGames());
+	}
+
+	private Game create(String id) {
+		return store.getOrCreate(id, newId -> new Game("bill", "bob", newId));
+	}
+
+	private static int[] cells(Game game) {
+		int[] cells = new int[game.getBoard().getCellCount()];
+		for (int cell = 0; cell < cells.length; cell++) {
+			cells[cell] = game.getBoard().getStones(cell);
+		}
+		return cells;
+	}
+}
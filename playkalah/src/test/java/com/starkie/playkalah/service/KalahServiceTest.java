@@ -1,13 +1,46 @@
 package com.starkie.playkalah.service;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.starkie.playkalah.ai.Analysis;
+import com.starkie.playkalah.ai.OpeningBookGenerator;
+import com.starkie.playkalah.ai.SearchResult;
 
+import com.starkie.playkalah.model.BatchResult;
+import com.starkie.playkalah.model.Board;
 import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.MoveRequest;
+import com.starkie.playkalah.model.Pit;
+import com.starkie.playkalah.model.Player;
 
 /**
  * Test class for the Kalah service.
@@ -19,15 +52,30 @@ public class KalahServiceTest {
 	
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 
 	
 	/**
-	 * Set up a new game in a consistent state
+	 * Set up a new game in a consistent state, with the computer searching briefly
 	 */
 	@Before
 	public void setup() {
-		service = new KalahService();
-		service.setupGame1();
+		service = startService("kalah.ai.time-budget-ms=20");
+	}
+	
+	/**
+	 * Starts a service configured by Spring as the application's is, with properties set over the defaults.
+	 * @param properties the properties to set, each "name=value"
+	 * @return
+	 */
+	static KalahService startService(String... properties) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(context, properties);
+		context.register(KalahService.class);
+		context.refresh();
+		return context.getBean(KalahService.class);
 	}
 	
 	/**
@@ -69,6 +117,31 @@ public class KalahServiceTest {
 		service.playGame(KalahService.GAME_1, "bill", 12);
 	}
 	
+	/**
+	 * Test a pit beyond the board of a kalah(4,3) game is rejected.
+	 */
+	@Test
+	public void testPlayGameWithInvalidPitNumberForBoardSize() {
+		service.findGame("small", 4, 3);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Not a valid pit number");
+		service.playGame("small", "bill", 5);
+	}
+	
+	/**
+	 * Test an unsupported board size is rejected without creating a game.
+	 */
+	@Test
+	public void testFindGameWithInvalidBoardSize() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Not a valid number of pits");
+		try {
+			service.findGame("huge", 20, 6);
+		} finally {
+			assertEquals(6, service.findGame("huge").getPlayer1().getPits().size());
+		}
+	}
+	
 	/**
 	 * Test empty pit selected results in the correct exception and message.
 	 */
@@ -98,4 +171,506 @@ public class KalahServiceTest {
 		thrown.expectMessage("Game has been completed, play another?");
 		service.playGame(KalahService.GAME_1, "bill", 1);
 	}	
-}
\ No newline at end of file
+	
+	/**
+	 * Test the computer opponent replies to a move, leaving the human player to move again.
+	 */
+	@Test
+	public void testPlayGameWithComputerOpponent() {
+		service.findGame("computer", 6, 6, true);
+		
+		Game game = service.playGame("computer", "bill", 3);
+		
+		assertEquals("bill", game.getNextPlayerToMove());
+		assertTrue(game.getMoveCount() >= 2);
+	}
+	
+	/**
+	 * Test taking back a move against the computer also takes back its reply, a move made on the version before is
+	 * refused although the move count is the same again, and the moves can be played again.
+	 */
+	@Test
+	public void testUndoMoveWithComputerOpponent() throws Exception {
+		service.findGame("computer", 6, 6, true);
+		Game game = service.playGame("computer", "bill", 3);
+		int moveCount = game.getMoveCount();
+		int version = game.getVersion();
+		
+		service.undoMoveAsync("computer", version).get();
+		assertEquals(0, game.getMoveCount());
+		assertEquals("bill", game.getNextPlayerToMove());
+		assertEquals(moveCount, game.getRedoMoves());
+		assertEquals(6, service.getPosition("computer", 0).getStones(2));
+		assertEquals(0, service.getPosition("computer", 1).getStones(2));
+		try {
+			service.playGameAsync("computer", "bill", 4, 0).get();
+			fail("Expected a stale move");
+		} catch (ExecutionException e) {
+			assertEquals(version + moveCount, ((StaleMoveException) e.getCause()).getVersion());
+		}
+		
+		service.redoMoveAsync("computer", KalahService.ANY_VERSION).get();
+		assertEquals(moveCount, game.getMoveCount());
+		assertEquals("bill", game.getNextPlayerToMove());
+		try {
+			service.redoMoveAsync("computer", KalahService.ANY_VERSION).get();
+			fail("Expected no move to play again");
+		} catch (ExecutionException e) {
+			assertEquals("No move to play again", e.getCause().getMessage());
+		}
+	}
+	
+	/**
+	 * Test a version given out before a restart is never given out again for another board: after moves are taken back,
+	 * the journal replayed and another move played, a move made on the version before the undo is refused.
+	 */
+	@Test
+	public void testVersionNotRepeatedAfterUndoAndRestart() throws Exception {
+		String journal = folder.newFolder("journal").toString();
+		service.shutdown();
+		service = startService("kalah.journal.dir=" + journal);
+		service.playGame(KalahService.GAME_1, "bill", 3);
+		Game game = service.playGame(KalahService.GAME_1, "bob", 1);
+		assertEquals(2, game.getVersion());
+		int staleVersion = game.getVersion();
+		service.undoMoveAsync(KalahService.GAME_1, staleVersion).get();
+
+		service.shutdown();
+		service = startService("kalah.journal.dir=" + journal);
+		game = service.findGame(KalahService.GAME_1);
+		assertEquals(staleVersion + 1, game.getVersion());
+		assertEquals(1, game.getRedoMoves());
+		service.playGame(KalahService.GAME_1, "bob", 2);
+		assertEquals(0, game.getRedoMoves());
+		assertEquals(staleVersion + 2, game.getVersion());
+
+		try {
+			service.playGameAsync(KalahService.GAME_1, "bill", 2, staleVersion).get();
+			fail("Expected a stale move");
+		} catch (ExecutionException e) {
+			assertEquals(game.getVersion(), ((StaleMoveException) e.getCause()).getVersion());
+		}
+		try {
+			service.undoMoveAsync(KalahService.GAME_1, staleVersion).get();
+			fail("Expected a stale undo");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof StaleMoveException);
+		}
+		assertEquals(2, game.getMoveCount());
+	}
+	
+	/**
+	 * Test a move or undo made on an earlier game with the id is refused even when the versions agree, with the
+	 * current game's instance and version.
+	 */
+	@Test
+	public void testChangeOnEarlierInstanceRefused() throws Exception {
+		Game game = service.findGame(KalahService.GAME_1);
+		int earlier = game.getInstance() + 1;
+		try {
+			service.playGameAsync(KalahService.GAME_1, "bill", 3, earlier, 0).get();
+			fail("Expected a stale move");
+		} catch (ExecutionException e) {
+			assertEquals(game.getInstance(), ((StaleMoveException) e.getCause()).getInstance());
+			assertEquals(0, ((StaleMoveException) e.getCause()).getVersion());
+		}
+		service.playGameAsync(KalahService.GAME_1, "bill", 3, game.getInstance(), 0).get();
+		try {
+			service.undoMoveAsync(KalahService.GAME_1, earlier, 1).get();
+			fail("Expected a stale undo");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof StaleMoveException);
+		}
+		assertEquals(1, game.getMoveCount());
+	}
+	
+	/**
+	 * Test a human cannot play the computer opponent's moves.
+	 */
+	@Test
+	public void testPlayGameForComputerOpponent() {
+		service.findGame("computer", 6, 6, true);
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("That player is played by the computer");
+		service.playGame("computer", "bob", 3);
+	}
+	
+	/**
+	 * Test the computer plays a move for the player next to move.
+	 */
+	@Test
+	public void testPlayAiMove() {
+		Game game = service.playAiMove(KalahService.GAME_1);
+		assertEquals(1, game.getMoveCount());
+	}
+	
+	/**
+	 * Test hints and the computer's moves in the opening come from the book without searching, and later positions are
+	 * searched.
+	 */
+	@Test
+	public void testHintFromOpeningBook() throws Exception {
+		Path file = folder.newFile("kalah43.book").toPath();
+		new OpeningBookGenerator(4, 3, 2, 6, 1, null, null).generate(file);
+		service.shutdown();
+		service = startService("kalah.ai.opening-book-file=" + file, "kalah.ai.time-budget-ms=20");
+		service.findGame("book", 4, 3);
+
+		SearchResult hint = service.getHintAsync("book").get();
+		assertEquals(service.getOpeningBook().lookup(new Board(4, 3)).getPitNumber(), hint.getPitNumber());
+		assertEquals(0, hint.getNodes());
+		Game game = service.playAiMove("book");
+		Board expected = new Board(4, 3);
+		expected.sow(Board.PLAYER_1, hint.getPitNumber());
+		assertEquals(expected.toString(), game.getBoard().toString());
+
+		while (game.getMoveCount() < 4) {
+			service.playAiMove("book");
+		}
+		assertTrue(service.getHintAsync("book").get().getNodes() > 0);
+	}
+	
+	/**
+	 * Test an analysis scores the player next to move's pits, a second game reaching the same position is answered
+	 * from the cache and an analysis deeper than allowed is turned away.
+	 */
+	@Test
+	public void testAnalysisCachedByPosition() throws Exception {
+		service.findGame("other");
+		Analysis analysis = service.getAnalysisAsync(KalahService.GAME_1, 4).get();
+		assertEquals(6, analysis.getPitScores().size());
+		assertEquals(4, analysis.getDepth());
+		assertEquals((int) analysis.getPitScores().get(analysis.getPitNumber() - 1), analysis.getScore());
+
+		assertSame(analysis, service.getAnalysisAsync("other", 4).get());
+		assertEquals(1, service.getAnalysisCache().getMisses());
+		assertEquals(1, service.getAnalysisCache().getHits());
+		try {
+			service.getAnalysisAsync(KalahService.GAME_1, 13);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected, deeper than kalah.analysis.max-depth
+		}
+	}
+	
+	/**
+	 * Test a game is archived when its last move is played.
+	 * In kalah(1,1) bill's only move reaches the kalah, emptying his side so the game is over.
+	 */
+	@Test
+	public void testCompletedGameArchived() throws Exception {
+		service.shutdown();
+		service = startService("kalah.archive.dir=" + folder.newFolder("archive"), "kalah.archive.segment-games=100");
+		service.findGame("short", 1, 1);
+		service.playGame("short", "bill", 1);
+		
+		ArchiveStats stats = service.getArchiveStats(1, 1);
+		assertEquals(1, stats.getGames());
+		assertEquals(1, stats.getOpeningGames()[0]);
+		assertEquals(1.0, stats.getDrawRate(), 0);
+		assertEquals(0, service.getArchiveStats(6, 6).getGames());
+	}
+	
+	/**
+	 * Test a batch of valid moves is applied in order.
+	 * bill's pit 3 ends in bob's pit 2, bob's pit 1 ends in bill's pit 1 so bill is next to move.
+	 */
+	@Test
+	public void testPlayMoves() {
+		BatchResult result = service.playMoves(KalahService.GAME_1,
+				Arrays.asList(new MoveRequest(null, "bill", 3), new MoveRequest(null, "bob", 1)));
+		
+		assertEquals(2, result.getApplied());
+		assertEquals(2, result.getMoveCount());
+		assertEquals("bill", result.getNextPlayerToMove());
+		assertTrue(result.getErrors().isEmpty());
+		assertEquals(14, result.getBoard().length);
+		assertEquals(0, result.getBoard()[2]);
+		assertEquals(0, result.getBoard()[7]);
+		assertEquals(2, service.findGame(KalahService.GAME_1).getMoveCount());
+	}
+	
+	/**
+	 * Test a batch with an invalid move reports it and leaves the game unchanged.
+	 */
+	@Test
+	public void testPlayMovesWithInvalidMove() {
+		BatchResult result = service.playMoves(KalahService.GAME_1,
+				Arrays.asList(new MoveRequest(null, "bill", 3), new MoveRequest(null, "bill", 4)));
+		
+		assertEquals(0, result.getApplied());
+		assertEquals(1, result.getErrors().size());
+		assertEquals(1, result.getErrors().get(0).getMove());
+		assertEquals("Not your turn sorry :-)", result.getErrors().get(0).getError());
+		Game game = service.findGame(KalahService.GAME_1);
+		assertEquals(0, game.getMoveCount());
+		assertEquals(6, game.getPlayer1().getPit(3).getNumberOfStonesInPit());
+	}
+	
+	/**
+	 * Test a batch across games applies each game's moves independently, reporting errors at their batch position.
+	 */
+	@Test
+	public void testPlayMovesAcrossGames() {
+		service.findGame("2");
+		List<BatchResult> results = service.playMoves(Arrays.asList(new MoveRequest("1", "bill", 3),
+				new MoveRequest("missing", "bill", 1), new MoveRequest("2", "bill", 7), new MoveRequest("1", "bob", 1)));
+		
+		assertEquals(3, results.size());
+		assertEquals("1", results.get(0).getGame());
+		assertEquals(2, results.get(0).getApplied());
+		assertEquals(1, results.get(1).getErrors().get(0).getMove());
+		assertEquals("Not a valid game", results.get(1).getErrors().get(0).getError());
+		assertEquals(2, results.get(2).getErrors().get(0).getMove());
+		assertEquals("Not a valid pit number", results.get(2).getErrors().get(0).getError());
+		assertEquals(0, service.findGame("2").getMoveCount());
+	}
+	
+	/**
+	 * Test concurrent lookups of a new game all receive the same instance.
+	 */
+	@Test
+	public void testFindGameConcurrentlyCreatesOneGame() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Game>> results = new ArrayList<Future<Game>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(() -> service.findGame("concurrent")));
+			}
+			Game expected = service.findGame("concurrent");
+			for (Future<Game> result : results) {
+				assertSame(expected, result.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Test update listeners are told of each move played, once for a batch and not for a rejected move.
+	 */
+	@Test
+	public void testGameUpdateListener() {
+		List<Integer> moveCounts = new ArrayList<>();
+		service.addGameUpdateListener(game -> moveCounts.add(game.getMoveCount()));
+		service.playGame(KalahService.GAME_1, "bill", 1);
+		service.playMoves(KalahService.GAME_1, Arrays.asList(new MoveRequest(null, "bill", 2), new MoveRequest(null, "bob", 1)));
+		try {
+			service.playGame(KalahService.GAME_1, "bob", 1);
+		} catch (IllegalArgumentException e) {
+			// not bob's turn
+		}
+		
+		assertEquals(Arrays.asList(1, 3), moveCounts);
+		assertEquals(Integer.valueOf(3), service.readGame(KalahService.GAME_1, Game::getMoveCount));
+	}
+	
+	/**
+	 * Stress test many threads racing to play moves on a small number of games.  Every accepted move must be applied
+	 * exactly once, so the move count of each game equals the accepted moves and no stones are lost or created.  A
+	 * completed game is replaced by a new one, so the threads race on games in play for the whole test.
+	 */
+	@Test
+	public void testPlayGameConcurrentlyLosesNoMoves() throws Exception {
+		final int gameCount = 4;
+		final int threadCount = 16;
+		final int attempts = 2000;
+		final AtomicIntegerArray generations = new AtomicIntegerArray(gameCount);
+		final Map<String, AtomicInteger> acceptedMoves = new ConcurrentHashMap<>();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int t = 0; t < threadCount; t++) {
+				final int offset = t;
+				tasks.add(() -> {
+					for (int attempt = 0; attempt < attempts; attempt++) {
+						int gameIndex = (attempt + offset) % gameCount;
+						int generation = generations.get(gameIndex);
+						String id = "stress" + gameIndex + "-" + generation;
+						Game game = service.findGame(id);
+						if (game.getSnapshot().isGameCompleted()) {
+							generations.compareAndSet(gameIndex, generation, generation + 1);
+							continue;
+						}
+						// racy read of the board, the service must reject any move made stale by another thread
+						String player = game.getNextPlayerToMove();
+						List<Pit> pits = game.findPlayer(player).getPits();
+						int pit = 1 + (attempt * 7 + offset) % pits.size();
+						for (int i = 0; i < pits.size() && pits.get(pit - 1).getNumberOfStonesInPit() == 0; i++) {
+							pit = pit % pits.size() + 1;
+						}
+						try {
+							service.playGame(id, player, pit);
+							acceptedMoves.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+						} catch (IllegalArgumentException | IllegalStateException e) {
+							// lost the race or an invalid move, try again
+						}
+					}
+					return null;
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(tasks)) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		int totalAccepted = 0;
+		for (int i = 0; i < gameCount; i++) {
+			assertTrue("games completed in slot " + i, generations.get(i) > 0);
+			for (int generation = 0; generation <= generations.get(i); generation++) {
+				String id = "stress" + i + "-" + generation;
+				Game game = service.findGame(id);
+				AtomicInteger accepted = acceptedMoves.get(id);
+				assertEquals(id, accepted == null ? 0 : accepted.get(), game.getMoveCount());
+				assertEquals(72, countStones(game.getPlayer1()) + countStones(game.getPlayer2()));
+				totalAccepted += game.getMoveCount();
+			}
+		}
+		assertEquals(acceptedMoves.values().stream().mapToInt(AtomicInteger::get).sum(), totalAccepted);
+		assertTrue("accepted moves " + totalAccepted, totalAccepted >= threadCount * attempts / 4);
+	}
+	
+	private int countStones(Player player) {
+		int stones = player.getNumberOfStonesInKalah();
+		for (Pit pit : player.getPits()) {
+			stones += pit.getNumberOfStonesInPit();
+		}
+		return stones;
+	}
+
+	/**
+	 * Test moves played and rejected for each reason are counted.
+	 */
+	@Test
+	public void testMoveMetrics() {
+		MoveMetrics metrics = service.getMoveMetrics();
+		service.playGame(KalahService.GAME_1, "bill", 3);
+		tryPlay(KalahService.GAME_1, "bill", 3);
+		tryPlay(KalahService.GAME_1, "bob", 7);
+		tryPlay("missing", "bill", 1);
+		service.playMoves(KalahService.GAME_1, Arrays.asList(new MoveRequest(null, "bob", 1), new MoveRequest(null, "bob", 1)));
+
+		assertEquals(1, metrics.getMoves());
+		// the second move of the batch is not bob's turn, so the batch is not applied
+		assertEquals(2, metrics.getRejections(MoveMetrics.Rejection.NOT_YOUR_TURN));
+		assertEquals(1, metrics.getRejections(MoveMetrics.Rejection.INVALID_PIT));
+		assertEquals(1, metrics.getRejections(MoveMetrics.Rejection.UNKNOWN_GAME));
+		assertEquals(1, metrics.getGamesCreated());
+	}
+
+	private void tryPlay(String id, String playerName, int pitNumber) {
+		try {
+			service.playGame(id, playerName, pitNumber);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			// counted as rejected
+		}
+	}
+
+	/**
+	 * Test asynchronous moves on a game from many threads are all played, one at a time, and failures complete the
+	 * future rather than being thrown.  A move on a locked game waits on the game's executor rather than the caller.
+	 */
+	@Test
+	public void testPlayGameAsync() throws Exception {
+		Game game = service.playGameAsync(KalahService.GAME_1, "bill", 3).get();
+		assertEquals(1, game.getMoveCount());
+		try {
+			service.playGameAsync(KalahService.GAME_1, "bill", 3).get();
+			fail("Expected the move to be rejected");
+		} catch (ExecutionException e) {
+			assertEquals("Not your turn sorry :-)", e.getCause().getMessage());
+		}
+
+		List<CompletableFuture<Game>> moves = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			service.findGame("async" + i);
+			moves.add(service.playGameAsync("async" + i, "bill", 3));
+			moves.add(service.playGameAsync("async" + i, "bob", 3));
+		}
+		CompletableFuture.allOf(moves.toArray(new CompletableFuture<?>[0])).get();
+		for (CompletableFuture<Game> move : moves) {
+			assertEquals(2, move.get().getMoveCount());
+		}
+
+		Lock lock = service.getGameStore().lockFor(KalahService.GAME_1);
+		lock.lock();
+		CompletableFuture<Game> queued;
+		try {
+			queued = service.playGameAsync(KalahService.GAME_1, "bob", 1);
+			assertFalse(queued.isDone());
+		} finally {
+			lock.unlock();
+		}
+		assertEquals(2, queued.get().getMoveCount());
+	}
+
+	/**
+	 * Test a move made on the game's current move count is played and one made on an earlier one is refused, whether
+	 * seen from the snapshot or under the lock.
+	 */
+	@Test
+	public void testPlayGameAsyncIfMatch() throws Exception {
+		assertEquals(1, service.playGameAsync(KalahService.GAME_1, "bill", 3, 0).get().getMoveCount());
+		try {
+			service.playGameAsync(KalahService.GAME_1, "bob", 1, 0).get();
+			fail("Expected a stale move");
+		} catch (ExecutionException e) {
+			assertEquals(1, ((StaleMoveException) e.getCause()).getVersion());
+		}
+		assertEquals(2, service.playGameAsync(KalahService.GAME_1, "bob", 1, 1).get().getMoveCount());
+		
+		Lock lock = service.getGameStore().lockFor(KalahService.GAME_1);
+		CompletableFuture<Game> first;
+		CompletableFuture<Game> second;
+		lock.lock();
+		try {
+			first = service.playGameAsync(KalahService.GAME_1, "bill", 1, 2);
+			second = service.playGameAsync(KalahService.GAME_1, "bill", 2, 2);
+		} finally {
+			lock.unlock();
+		}
+		assertEquals(3, first.get().getMoveCount());
+		try {
+			second.get();
+			fail("Expected a stale move");
+		} catch (ExecutionException e) {
+			assertEquals(3, ((StaleMoveException) e.getCause()).getVersion());
+		}
+		assertEquals(2, service.getMoveMetrics().getRejections(MoveMetrics.Rejection.STALE_MOVE_COUNT));
+	}
+	
+	/**
+	 * Test moves queued to the game actors are all played and journalled, reads see them, and the listeners hear of
+	 * each game once per batch rather than once per move.
+	 */
+	@Test
+	public void testPlayGameAsyncWithActors() throws Exception {
+		service = startService("kalah.execution=ACTORS");
+		AtomicInteger updates = new AtomicInteger();
+		service.addGameUpdateListener(game -> updates.incrementAndGet());
+		try {
+			service.playGameAsync(KalahService.GAME_1, "bob", 3).get();
+			fail("Expected the move to be rejected");
+		} catch (ExecutionException e) {
+			assertEquals("Not your turn sorry :-)", e.getCause().getMessage());
+		}
+
+		List<CompletableFuture<Game>> moves = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			service.findGame("actor" + i);
+			moves.add(service.playGameAsync("actor" + i, "bill", 3));
+			moves.add(service.playGameAsync("actor" + i, "bob", 3));
+		}
+		CompletableFuture.allOf(moves.toArray(new CompletableFuture<?>[0])).get();
+		for (int i = 0; i < 20; i++) {
+			assertEquals(2, (int) service.readGame("actor" + i, Game::getMoveCount));
+		}
+		assertTrue(updates.get() >= 20 && updates.get() <= 40);
+		assertEquals(41 + 20, service.getActors().getCommands());
+		assertTrue(service.getActors().getDrains() <= service.getActors().getCommands());
+		service.shutdown();
+	}
+}
@@ -0,0 +1,45 @@
+package com.starkie.playkalah.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for the latency histogram.
+ * @author luke.starkie
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Test every duration falls in a bucket starting at or below it and within an eighth of it.
+	 */
+	@Test
+	public void testBuckets() {
+		for (long value = 0; value < 1 << 20; value += 1 + value / 64) {
+			int bucket = LatencyHistogram.bucket(value);
+			assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+			assertTrue(LatencyHistogram.lowerBound(bucket + 1) > value);
+			assertTrue(value - LatencyHistogram.lowerBound(bucket) <= value / 8);
+		}
+		assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.bucket(Long.MAX_VALUE - 1));
+	}
+
+	/**
+	 * Test percentiles of a uniform spread of durations are within the histogram's accuracy.
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(0.99));
+		for (int micros = 1; micros <= 1000; micros++) {
+			histogram.record(micros * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMaxNanos());
+		assertEquals(500500.0, histogram.getMeanNanos(), 0.001);
+		assertEquals(500000, histogram.getPercentile(0.5), 500000 / 8);
+		assertEquals(990000, histogram.getPercentile(0.99), 990000 / 8);
+		assertEquals(1000000, histogram.getPercentile(1.0));
+	}
+}
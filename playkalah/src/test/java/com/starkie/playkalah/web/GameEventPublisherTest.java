@@ -0,0 +1,102 @@
+package com.starkie.playkalah.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.starkie.playkalah.service.KalahService;
+
+/**
+ * Test class for pushing game updates to subscribers, through the controller and a real service.
+ * @author luke.starkie
+ */
+public class GameEventPublisherTest {
+
+	private KalahService kalahService;
+
+	private GameEventPublisher publisher;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setup() {
+		kalahService = new KalahService();
+		kalahService.setupGame1();
+		publisher = new GameEventPublisher(kalahService);
+		publisher.start();
+		KalahRestController controller = new KalahRestController();
+		ReflectionTestUtils.setField(controller, "kalahService", kalahService);
+		ReflectionTestUtils.setField(controller, "gameEvents", publisher);
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@After
+	public void tearDown() {
+		publisher.shutdown();
+	}
+
+	/**
+	 * Test a subscriber receives the current state of the game and then the state after each move.
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubscriberReceivesMoves() throws Exception {
+		MvcResult result = mockMvc.perform(get("/game/1/events"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertEquals(1, publisher.getSubscriberCount("1"));
+
+		kalahService.playGame("1", "bill", 3);
+		MockHttpServletResponse response = result.getResponse();
+		String events = awaitContent(response, "\"board\":[6,6,0,7,7,7,1,7,7,6,6,6,6,0]}\n\n");
+
+		assertEquals("text/event-stream;charset=UTF-8", response.getContentType());
+		assertTrue(events.startsWith("event:game\nid:0\ndata:{\"id\":\"1\",\"moveCount\":0,"));
+		assertTrue(events.contains("event:game\nid:1\ndata:{\"id\":\"1\",\"moveCount\":1,\"nextPlayerToMove\":\"bob\","));
+	}
+
+	/**
+	 * Test moves on other games are not sent and subscribing to a game that does not exist is an error.
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubscribeToOtherGames() throws Exception {
+		MvcResult result = mockMvc.perform(get("/game/1/events")).andReturn();
+		kalahService.findGame("2");
+		kalahService.playGame("2", "bill", 3);
+		kalahService.playGame("1", "bill", 1);
+		String events = awaitContent(result.getResponse(), "id:1\n");
+		assertEquals(2, events.split("event:game").length - 1);
+
+		mockMvc.perform(get("/game/none/events"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Not a valid game"));
+		assertEquals(0, publisher.getSubscriberCount("none"));
+	}
+
+	/**
+	 * Waits for the events sent by the publisher's thread to include the text.
+	 */
+	private static String awaitContent(MockHttpServletResponse response, String text) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		String content = response.getContentAsString();
+		while (!content.contains(text) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			content = response.getContentAsString();
+		}
+		assertTrue("Timed out waiting for " + text + " in " + content, content.contains(text));
+		return content;
+	}
+}
@@ -1,23 +1,49 @@
 package com.starkie.playkalah.web;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.starkie.playkalah.ai.Analysis;
+import com.starkie.playkalah.ai.SearchResult;
+import com.starkie.playkalah.ai.Solution;
+import com.starkie.playkalah.model.BatchResult;
 import com.starkie.playkalah.model.Game;
+import com.starkie.playkalah.model.GameSnapshot;
+import com.starkie.playkalah.model.MoveRequest;
+import com.starkie.playkalah.service.ArchiveStats;
 import com.starkie.playkalah.service.KalahService;
+import com.starkie.playkalah.service.MoveMetrics;
+import com.starkie.playkalah.service.StaleMoveException;
 
 /**
  * Test class for the REST controller
@@ -31,12 +57,21 @@ public class KalahRestControllerTest {
 	@Mock
 	private KalahService kalahService;	
 	
+	@Mock
+	private GameEventPublisher gameEvents;
+	
 	@InjectMocks
 	private KalahRestController kalahRestController;
 
 	@Before
 	public void setup() {
-		this.mockMvc = MockMvcBuilders.standaloneSetup(kalahRestController).build();
+		when(kalahService.getMoveMetrics()).thenReturn(new MoveMetrics());
+		kalahRestController.setObjectMapper(new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT));
+		this.mockMvc = MockMvcBuilders.standaloneSetup(kalahRestController)
+				.setMessageConverters(new CompactGameJsonConverter(), new GameFrameConverter(),
+						new GameJsonConverter(new ObjectMapper()), new StringHttpMessageConverter(),
+						new MappingJackson2HttpMessageConverter())
+				.build();
 	}
 	
 	/**
@@ -45,7 +80,7 @@ public class KalahRestControllerTest {
 	 */
 	@Test
 	public void testGetGame() throws Exception {
-		when(kalahService.findGame("1"))
+		when(kalahService.findGame("1", 6, 6, false))
 			.thenReturn(new Game("bill", "bob", "1"));
 		mockMvc.perform(get("/game/1"))
 				.andExpect(status().isOk())
@@ -53,30 +88,367 @@ public class KalahRestControllerTest {
 				.andExpect(jsonPath("$.id").value("1"));
 	}
 	
+	/**
+	 * Test the findGame REST API with the compact JSON requested, names are escaped.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameCompactJson() throws Exception {
+		Game game = new Game("bill \"b\"", "b\u00f6b", "1");
+		game.playPit("bill \"b\"", 3);
+		when(kalahService.findGame("1", 6, 6, false)).thenReturn(game);
+		mockMvc.perform(get("/game/1").accept(CompactGameJsonConverter.MEDIA_TYPE))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(CompactGameJsonConverter.MEDIA_TYPE))
+				.andExpect(content().string("{\"id\":\"1\",\"moveCount\":1,\"nextPlayerToMove\":\"b\u00f6b\","
+						+ "\"gameCompleted\":false,\"player1\":\"bill \\\"b\\\"\",\"player2\":\"b\u00f6b\",\"pits\":6,"
+						+ "\"board\":[6,6,0,7,7,7,1,7,7,6,6,6,6,0]}"));
+	}
+	
+	/**
+	 * Test the findGame REST API with the binary board frame requested.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameBoardFrame() throws Exception {
+		Game game = new Game("bill", "bob", "1");
+		game.playPit("bill", 3);
+		when(kalahService.findGame("1", 6, 6, false)).thenReturn(game);
+		mockMvc.perform(get("/game/1").accept(GameFrameConverter.MEDIA_TYPE))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(GameFrameConverter.MEDIA_TYPE))
+				.andExpect(content().bytes(new byte[]{6, GameFrameConverter.FLAG_PLAYER_2_TO_MOVE,
+						6, 6, 0, 7, 7, 7, 1, 7, 7, 6, 6, 6, 6, 0}));
+	}
+	
+	/**
+	 * Test repeated reads of an unchanged game write the JSON cached with its snapshot, and a move is seen by the
+	 * next read.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameCachesJson() throws Exception {
+		Game game = new Game("bill", "bob", "1");
+		when(kalahService.findGame("1", 6, 6, false)).thenReturn(game);
+		byte[] first = mockMvc.perform(get("/game/1")).andReturn().getResponse().getContentAsByteArray();
+		GameSnapshot snapshot = game.getSnapshot();
+		byte[] cached = snapshot.getEncoded(GameSnapshot.Encoding.JSON, unused -> {
+			throw new AssertionError("Snapshot encoded twice");
+		});
+		
+		mockMvc.perform(get("/game/1"))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(first))
+				.andExpect(header().longValue("Content-Length", cached.length));
+		game.playPit("bill", 3);
+		mockMvc.perform(get("/game/1"))
+				.andExpect(jsonPath("$.moveCount").doesNotExist())
+				.andExpect(jsonPath("$.player1.pits[2].numberOfStonesInPit").value(0));
+	}
+	
+	/**
+	 * Test a game is tagged with its instance and version and a GET naming the tag is answered 304 without a body,
+	 * whichever encoding was asked for, while a game created again with the id is not.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameNotModified() throws Exception {
+		Game game = new Game("bill", "bob", "1", 6, 6, 0x5f3a9c21);
+		game.playPit("bill", 3);
+		when(kalahService.findGame("1", 6, 6, false)).thenReturn(game);
+		mockMvc.perform(get("/game/1"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.1\""))
+				.andExpect(header().string("Vary", "Accept"));
+		mockMvc.perform(get("/game/1").header("If-None-Match", "W/\"5f3a9c21.1\""))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.1\""))
+				.andExpect(content().bytes(new byte[0]));
+		mockMvc.perform(get("/game/1").header("Accept", GameFrameConverter.MEDIA_TYPE_VALUE)
+				.header("If-None-Match", "W/\"5f3a9c21.1\""))
+				.andExpect(status().isNotModified());
+		mockMvc.perform(get("/game/1").header("If-None-Match", "W/\"5f3a9c21.0\""))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.player1.pits[2].numberOfStonesInPit").value(0));
+		
+		Game recreated = new Game("bill", "bob", "1", 6, 6, 0x1234);
+		recreated.playPit("bill", 3);
+		when(kalahService.findGame("1", 6, 6, false)).thenReturn(recreated);
+		mockMvc.perform(get("/game/1").header("If-None-Match", "W/\"5f3a9c21.1\""))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"1234.1\""));
+	}
+	
+	/**
+	 * Test a browser accepting anything receives JSON.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameAcceptingAnything() throws Exception {
+		when(kalahService.findGame("1", 6, 6, false))
+			.thenReturn(new Game("bill", "bob", "1"));
+		mockMvc.perform(get("/game/1").header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/json;charset=UTF-8"))
+				.andExpect(jsonPath("$.player1.pits[0].numberOfStonesInPit").value(6));
+	}
+	
+	/**
+	 * Test the findGame REST API creating a kalah(4,3) game.
+	 * @throws Exception
+	 */
+	@Test
+	public void testGetGameWithBoardSize() throws Exception {
+		when(kalahService.findGame("2", 4, 3, false))
+			.thenReturn(new Game("bill", "bob", "2", 4, 3));
+		mockMvc.perform(get("/game/2?pits=4&seeds=3"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.player1.pits.length()").value(4))
+				.andExpect(jsonPath("$.player1.pits[0].numberOfStonesInPit").value(3));
+	}
+	
 	/**
 	 * Test the playGame REST API for a valid move.  Should return a valid 200 HTTP response and JSON body with a valid ID.
 	 * @throws Exception
 	 */
 	@Test
 	public void testPlayGame() throws Exception {
-		when(kalahService.playGame("1", "bill", 2))
-			.thenReturn(new Game("bill", "bob", "1"));
-		mockMvc.perform(post("/game/1/play/bill/2"))
+		when(kalahService.playGameAsync("1", "bill", 2, KalahService.ANY_INSTANCE, KalahService.ANY_VERSION))
+			.thenReturn(CompletableFuture.completedFuture(new Game("bill", "bob", "1")));
+		MvcResult result = mockMvc.perform(post("/game/1/play/bill/2"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
 				.andExpect(status().isOk())
 				.andExpect(content().contentType("application/json;charset=UTF-8"))
 				.andExpect(jsonPath("$.id").value("1"));
 	}
 	
+	/**
+	 * Test a move on the instance and version named by If-Match is played and one on an earlier version is 412 with the
+	 * current tag.
+	 * @throws Exception
+	 */
+	@Test
+	public void testPlayGameIfMatch() throws Exception {
+		Game game = new Game("bill", "bob", "1", 6, 6, 0x5f3a9c21);
+		game.playPit("bill", 3);
+		when(kalahService.playGameAsync("1", "bob", 2, 0x5f3a9c21, 1))
+				.thenReturn(CompletableFuture.completedFuture(game));
+		MvcResult result = mockMvc.perform(post("/game/1/play/bob/2").header("If-Match", "W/\"5f3a9c21.1\""))
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.1\""));
+		
+		when(kalahService.playGameAsync("1", "bob", 2, 0x5f3a9c21, 0))
+				.thenReturn(failed(new StaleMoveException(0x5f3a9c21, 1)));
+		result = mockMvc.perform(post("/game/1/play/bob/2").header("If-Match", "\"5f3a9c21.0\"")).andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isPreconditionFailed())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.1\""))
+				.andExpect(content().string("Game has moved on since, refresh and try again"));
+		
+		mockMvc.perform(post("/game/1/play/bob/2").header("If-Match", "\"1\""))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("If-Match must be one ETag of the game"));
+	}
+	
+	/**
+	 * Test the ai-move REST API returns the game after the computer's move.
+	 * @throws Exception
+	 */
+	@Test
+	public void testAiMove() throws Exception {
+		when(kalahService.playAiMoveAsync("1"))
+			.thenReturn(CompletableFuture.completedFuture(new Game("bill", "bob", "1")));
+		MvcResult result = mockMvc.perform(post("/game/1/ai-move"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.id").value("1"));
+	}
+	
+	/**
+	 * Test the hint REST API returns the move the computer would play.
+	 * @throws Exception
+	 */
+	@Test
+	public void testHint() throws Exception {
+		when(kalahService.getHintAsync("1"))
+			.thenReturn(CompletableFuture.completedFuture(new SearchResult(3, 2, 8, 0, 0)));
+		MvcResult result = mockMvc.perform(get("/game/1/hint"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.pitNumber").value(3))
+				.andExpect(jsonPath("$.score").value(2))
+				.andExpect(jsonPath("$.depth").value(8));
+	}
+	
+	/**
+	 * Test the analysis REST API passes the depth asked for and returns the score of each pit.
+	 * @throws Exception
+	 */
+	@Test
+	public void testAnalysis() throws Exception {
+		when(kalahService.getAnalysisAsync("1", 10))
+			.thenReturn(CompletableFuture.completedFuture(new Analysis(2, 3, 10, new Integer[]{-4, null, 2}, 1000)));
+		MvcResult result = mockMvc.perform(get("/game/1/analysis?depth=10"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.pitNumber").value(3))
+				.andExpect(jsonPath("$.depth").value(10))
+				.andExpect(jsonPath("$.pitScores[0]").value(-4))
+				.andExpect(jsonPath("$.pitScores[2]").value(2));
+	}
+	
+	/**
+	 * Test the undo REST API tags the game with its version rather than its move count and refuses an undo on an
+	 * earlier version with 412, and the history REST API returns a past position untagged.
+	 * @throws Exception
+	 */
+	@Test
+	public void testUndoAndHistory() throws Exception {
+		Game game = new Game("bill", "bob", "1", 6, 6, 0x5f3a9c21);
+		game.playPit("bill", 3);
+		GameSnapshot played = game.getSnapshot();
+		game.undoMove();
+		when(kalahService.undoMoveAsync("1", 0x5f3a9c21, 1)).thenReturn(CompletableFuture.completedFuture(game));
+		when(kalahService.getPosition("1", 1)).thenReturn(played);
+		MvcResult result = mockMvc.perform(post("/game/1/undo").header("If-Match", "W/\"5f3a9c21.1\"")).andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.2\""))
+				.andExpect(jsonPath("$.player1.pits[2].numberOfStonesInPit").value(6));
+		
+		when(kalahService.undoMoveAsync("1", 0x5f3a9c21, 0)).thenReturn(failed(new StaleMoveException(0x5f3a9c21, 2)));
+		result = mockMvc.perform(post("/game/1/undo").header("If-Match", "W/\"5f3a9c21.0\"")).andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isPreconditionFailed())
+				.andExpect(header().string("ETag", "W/\"5f3a9c21.2\""));
+		mockMvc.perform(get("/game/1/history/1"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist("ETag"))
+				.andExpect(jsonPath("$.player1.pits[2].numberOfStonesInPit").value(0));
+	}
+	
+	/**
+	 * Test the archive stats REST API totals the board size asked for.
+	 * @throws Exception
+	 */
+	@Test
+	public void testArchiveStats() throws Exception {
+		ArchiveStats stats = new ArchiveStats(4, 3);
+		stats.record(2, 14, 10, 30);
+		stats.record(0, 10, 14, 40);
+		when(kalahService.getArchiveStats(4, 3)).thenReturn(stats);
+		mockMvc.perform(get("/archive/stats?pits=4&seeds=3"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.games").value(2))
+				.andExpect(jsonPath("$.averageMoves").value(35.0))
+				.andExpect(jsonPath("$.player1WinRate").value(0.5))
+				.andExpect(jsonPath("$.openingGames[1]").value(1))
+				.andExpect(jsonPath("$.openingPlayer1WinRates[1]").value(1.0));
+	}
+	
+	/**
+	 * Test the solution REST API returns the perfect play of the game's position, and a position not solved is a
+	 * bad request.
+	 * @throws Exception
+	 */
+	@Test
+	public void testSolution() throws Exception {
+		when(kalahService.getSolution("1")).thenReturn(new Solution(4, 2, new Integer[]{1, 4, null, -2, 0, 3}));
+		when(kalahService.getSolution("2")).thenThrow(new IllegalStateException("Position has not been solved"));
+		mockMvc.perform(get("/game/1/solution"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.score").value(4))
+				.andExpect(jsonPath("$.pitNumber").value(2))
+				.andExpect(jsonPath("$.pitScores[1]").value(4))
+				.andExpect(jsonPath("$.pitScores[2]").doesNotExist());
+		mockMvc.perform(get("/game/2/solution"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Position has not been solved"));
+	}
+	
+	/**
+	 * Test the batch moves REST API returns a compact result with the move errors.
+	 * @throws Exception
+	 */
+	@Test
+	public void testPlayMoves() throws Exception {
+		BatchResult result = new BatchResult("1");
+		result.setState(new Game("bill", "bob", "1"), 0);
+		result.addError(1, "Not your turn sorry :-)");
+		when(kalahService.playMoves(eq("1"), anyListOf(MoveRequest.class))).thenReturn(result);
+		mockMvc.perform(post("/game/1/moves").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"player\":\"bill\",\"pit\":3},{\"player\":\"bill\",\"pit\":4}]"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/json;charset=UTF-8"))
+				.andExpect(content().string(not(containsString("\n"))))
+				.andExpect(jsonPath("$.applied").value(0))
+				.andExpect(jsonPath("$.board.length()").value(14))
+				.andExpect(jsonPath("$.errors[0].move").value(1))
+				.andExpect(jsonPath("$.errors[0].error").value("Not your turn sorry :-)"));
+	}
+	
+	/**
+	 * Test the batch moves across games REST API returns a result for each game.
+	 * @throws Exception
+	 */
+	@Test
+	public void testPlayMovesAcrossGames() throws Exception {
+		BatchResult result = new BatchResult("2");
+		result.setState(new Game("bill", "bob", "2"), 1);
+		when(kalahService.playMoves(anyListOf(MoveRequest.class))).thenReturn(Arrays.asList(result));
+		mockMvc.perform(post("/games/moves").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"game\":\"2\",\"player\":\"bill\",\"pit\":3}]"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].game").value("2"))
+				.andExpect(jsonPath("$[0].applied").value(1))
+				.andExpect(jsonPath("$[0].errors").doesNotExist());
+	}
+	
 	/**
 	 * Test the playGame REST API with an invalid pit.  Should receive a 400 HTTP bad request with an appropriate body message.
 	 * @throws Exception
 	 */
 	@Test
 	public void testPlayGameError() throws Exception {
-		when(kalahService.playGame("1", "bill", 12))
-			.thenThrow(new IllegalArgumentException("Not a valid pit number"));
-		mockMvc.perform(post("/game/1/play/bill/12"))
+		when(kalahService.playGameAsync("1", "bill", 12, KalahService.ANY_INSTANCE, KalahService.ANY_VERSION))
+			.thenReturn(failed(new IllegalArgumentException("Not a valid pit number")));
+		MvcResult result = mockMvc.perform(post("/game/1/play/bill/12")).andReturn();
+		mockMvc.perform(asyncDispatch(result))
 				.andExpect(status().isBadRequest())
+				.andExpect(content().contentType("text/plain;charset=ISO-8859-1"))
 				.andExpect(content().string("Not a valid pit number"));
 	}
+	
+	/**
+	 * Test a move turned away by a full game executor is a 503 the client may retry.
+	 * @throws Exception
+	 */
+	@Test
+	public void testPlayGameBusy() throws Exception {
+		when(kalahService.playGameAsync("1", "bill", 2, KalahService.ANY_INSTANCE, KalahService.ANY_VERSION))
+			.thenReturn(failed(new RejectedExecutionException()));
+		MvcResult result = mockMvc.perform(post("/game/1/play/bill/2")).andReturn();
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(content().string("Too many moves waiting, try again"));
+	}
+	
+	/**
+	 * A future failed as the service's futures fail, with the exception wrapped by a dependent stage.
+	 */
+	private static CompletableFuture<Game> failed(RuntimeException e) {
+		CompletableFuture<Game> failed = new CompletableFuture<>();
+		failed.completeExceptionally(e);
+		return failed.thenApply(game -> game);
+	}
 }
\ No newline at end of file